@@ -0,0 +1,86 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules.ModuleFormula;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules.ModuleGoci;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules.ModuleJulia;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules.ModuleMandelbrot;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules.ModuleNewtonGeneric;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules.ModuleNewtonPolynomial;
+
+/**
+ * Fractals used by the benchmarks, together with segments of the complex plane that are representative of the individual region types.
+ */
+public enum BenchmarkFractal {
+
+    //regions: {centerX, centerY, size} of interior-heavy, boundary-heavy and exterior segments
+    mandelbrot(new double[][]{{-0.2, 0, 0.2}, {-0.745, 0.11, 0.01}, {1, 1, 0.5}}),
+    /**
+     * Douady rabbit, i.e. a connected Julia set with an interior.
+     */
+    julia(new double[][]{{0, 0, 0.1}, {0.3, 0.3, 0.1}, {1, 1, 0.5}}),
+    /**
+     * z^3 - 1. Interior is the basin close to the root 1, boundary is around the origin, where the basins meet.
+     */
+    newton(new double[][]{{1, 0, 0.2}, {0, 0, 0.1}, {5, 5, 1}}),
+    /**
+     * The same z^3 - 1 as {@code newton}, but with the roots found automatically and matched by a spatial hash.
+     */
+    newtonPolynomial(new double[][]{{1, 0, 0.2}, {0, 0, 0.1}, {5, 5, 1}}),
+    /**
+     * goc always iterates to maxIterations, so the regions differ only in the values of z.
+     */
+    goc(new double[][]{{1.1, -0.2, 0.05}, {1.1, -0.2, 0.2}, {2, 2, 0.5}}),
+    /**
+     * The Julia set of {@code julia}, but computed by a formula compiled at runtime, to compare it with the hand-written code.
+     */
+    formula(new double[][]{{0, 0, 0.1}, {0.3, 0.3, 0.1}, {1, 1, 0.5}});
+
+    public enum Region {
+        interior, boundary, exterior
+    }
+
+    private final double[][] regions;
+
+    BenchmarkFractal(double[][] regions) {
+        this.regions = regions;
+    }
+
+    CpuFractalRenderingModule createModule() {
+        switch (this) {
+            case mandelbrot:
+                return new ModuleMandelbrot();
+            case julia:
+                ModuleJulia julia = new ModuleJulia();
+                julia.setFractalCustomParameters("-0.123;0.745");
+                return julia;
+            case newton:
+                ModuleNewtonGeneric newton = new ModuleNewtonGeneric();
+                newton.setFractalCustomParameters("{ \"coefficients\" : [1, 0, 0, -1], \"roots\" : [ [1,0], [-0.5,0.86602540378] , [-0.5,-0.86602540378] ] }");
+                return newton;
+            case newtonPolynomial:
+                ModuleNewtonPolynomial newtonPolynomial = new ModuleNewtonPolynomial();
+                newtonPolynomial.setFractalCustomParameters("{ \"coefficients\" : [1, 0, 0, -1] }");
+                return newtonPolynomial;
+            case goc:
+                return new ModuleGoci();
+            case formula:
+                ModuleFormula formula = new ModuleFormula();
+                formula.setFractalCustomParameters("z^2 - 0.123 + 0.745*i");
+                return formula;
+            default:
+                throw new IllegalStateException("Unknown fractal " + this);
+        }
+    }
+
+    double getCenterX(Region region) {
+        return regions[region.ordinal()][0];
+    }
+
+    double getCenterY(Region region) {
+        return regions[region.ordinal()][1];
+    }
+
+    double getSize(Region region) {
+        return regions[region.ordinal()][2];
+    }
+}
@@ -0,0 +1,42 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures {@code computeDispersion}, the decision function of the adaptive super-sampling.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class DispersionBenchmark {
+
+    @Param({"2", "5", "10"})
+    public int sampleCount;
+
+    private float[] samples;
+    private float mean;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        samples = new float[CpuKernelMain.ADAPTIVE_TRESHOLD];
+        for (int i = 0; i < samples.length; i++) {
+            samples[i] = random.nextInt(1000);
+        }
+        for (int i = 0; i < sampleCount; i++) {
+            mean += samples[i];
+        }
+        mean /= sampleCount;
+    }
+
+    @Benchmark
+    public float computeDispersion() {
+        return CpuKernelMain.computeDispersion(samples, sampleCount, mean);
+    }
+}
@@ -0,0 +1,86 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the core fractal function, {@code computeFractal}, on a grid of points,
+ * computed point by point and row by row ({@code computeFractalRow}, which Mandelbrot and Julia compute in lanes, see QuadraticMapLanes).
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class EscapeTimeBenchmark {
+
+    /**
+     * Number of points in a row and in a column of the grid.
+     */
+    static final int GRID_SIZE = 16;
+
+    @Param({"mandelbrot", "julia", "newton", "newtonPolynomial", "goc", "formula"})
+    public BenchmarkFractal fractal;
+
+    @Param({"100", "1000", "10000"})
+    public int maxIterations;
+
+    @Param({"interior", "boundary", "exterior"})
+    public BenchmarkFractal.Region region;
+
+    @Param({"float", "double"})
+    public String precision;
+
+    private CpuFractalRenderingModule module;
+    private double[] xs;
+    private double[] ys;
+    private float[] xsFloat;
+    private float[] rowValues;
+
+    @Setup
+    public void setup() {
+        module = fractal.createModule();
+        double size = fractal.getSize(region);
+        xs = new double[GRID_SIZE];
+        ys = new double[GRID_SIZE];
+        for (int i = 0; i < GRID_SIZE; i++) {
+            xs[i] = fractal.getCenterX(region) - size / 2 + size * i / GRID_SIZE;
+            ys[i] = fractal.getCenterY(region) - size / 2 + size * i / GRID_SIZE;
+        }
+        xsFloat = new float[GRID_SIZE];
+        for (int i = 0; i < GRID_SIZE; i++) {
+            xsFloat[i] = (float) xs[i];
+        }
+        rowValues = new float[GRID_SIZE];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRID_SIZE * GRID_SIZE)
+    public void computeFractal(Blackhole blackhole) {
+        boolean singlePrecision = "float".equals(precision);
+        for (double y : ys) {
+            for (double x : xs) {
+                if (singlePrecision)
+                    blackhole.consume(module.computeFractal(maxIterations, (float) x, (float) y));
+                else
+                    blackhole.consume(module.computeFractal(maxIterations, x, y));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRID_SIZE * GRID_SIZE)
+    public void computeFractalRow(Blackhole blackhole) {
+        boolean singlePrecision = "float".equals(precision);
+        for (double y : ys) {
+            if (singlePrecision)
+                module.computeFractalRow(maxIterations, xsFloat, (float) y, GRID_SIZE, rowValues);
+            else
+                module.computeFractalRow(maxIterations, xs, y, GRID_SIZE, rowValues);
+            blackhole.consume(rowValues);
+        }
+    }
+}
@@ -0,0 +1,110 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules.ModuleMandelbrot;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the interior detection of the Mandelbrot set (see MandelbrotInterior) against iterating all the interior points up to maxIterations.
+ * The time per point is proportional to the number of iterations, so the ratio of the two variants is the ratio of the iterations saved.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class MandelbrotInteriorBenchmark {
+
+    /**
+     * Number of points in a row and in a column of the grid.
+     */
+    static final int GRID_SIZE = 32;
+
+    public enum View {
+        /**
+         * The whole set, as shown after start.
+         */
+        overview(-0.5, 0, 4),
+        /**
+         * The period-3 bulb and its neighbourhood, mostly interior that is not covered by the cardioid and bulb tests.
+         */
+        bulb(-0.12, 0.8, 0.3),
+        /**
+         * Seahorse valley, mostly boundary with little interior.
+         */
+        boundary(-0.745, 0.11, 0.01);
+
+        private final double centerX;
+        private final double centerY;
+        private final double size;
+
+        View(double centerX, double centerY, double size) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.size = size;
+        }
+    }
+
+    @Param({"overview", "bulb", "boundary"})
+    public View view;
+
+    @Param({"1000", "10000"})
+    public int maxIterations;
+
+    @Param({"float", "double"})
+    public String precision;
+
+    @Param({"true", "false"})
+    public boolean interiorDetection;
+
+    private ModuleMandelbrot module;
+    private double[] xs;
+    private double[] ys;
+    private float[] xsFloat;
+    private float[] rowValues;
+
+    @Setup
+    public void setup() {
+        module = new ModuleMandelbrot();
+        module.setUseInteriorDetection(interiorDetection);
+        xs = new double[GRID_SIZE];
+        ys = new double[GRID_SIZE];
+        xsFloat = new float[GRID_SIZE];
+        for (int i = 0; i < GRID_SIZE; i++) {
+            xs[i] = view.centerX - view.size / 2 + view.size * i / GRID_SIZE;
+            ys[i] = view.centerY - view.size / 2 + view.size * i / GRID_SIZE;
+            xsFloat[i] = (float) xs[i];
+        }
+        rowValues = new float[GRID_SIZE];
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRID_SIZE * GRID_SIZE)
+    public void computeFractal(Blackhole blackhole) {
+        boolean singlePrecision = "float".equals(precision);
+        for (double y : ys) {
+            for (double x : xs) {
+                if (singlePrecision)
+                    blackhole.consume(module.computeFractal(maxIterations, (float) x, (float) y));
+                else
+                    blackhole.consume(module.computeFractal(maxIterations, x, y));
+            }
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(GRID_SIZE * GRID_SIZE)
+    public void computeFractalRow(Blackhole blackhole) {
+        boolean singlePrecision = "float".equals(precision);
+        for (double y : ys) {
+            if (singlePrecision)
+                module.computeFractalRow(maxIterations, xsFloat, (float) y, GRID_SIZE, rowValues);
+            else
+                module.computeFractalRow(maxIterations, xs, y, GRID_SIZE, rowValues);
+            blackhole.consume(rowValues);
+        }
+    }
+}
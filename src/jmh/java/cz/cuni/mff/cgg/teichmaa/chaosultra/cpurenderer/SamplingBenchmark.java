@@ -0,0 +1,65 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.FloatPrecision;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the adaptive super-sampling of {@code CpuKernelMain}, i.e. {@code sampleTheFractal} together with {@code computeDispersion}, on a single tile.
+ * See DispersionBenchmark for {@code computeDispersion} alone.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class SamplingBenchmark {
+
+    @Param({"mandelbrot", "julia"})
+    public BenchmarkFractal fractal;
+
+    @Param({"100", "1000", "10000"})
+    public int maxIterations;
+
+    @Param({"interior", "boundary", "exterior"})
+    public BenchmarkFractal.Region region;
+
+    @Param({"float", "double"})
+    public String precision;
+
+    @Param({"true", "false"})
+    public boolean adaptive;
+
+    @Param({"4", "16"})
+    public float superSampling;
+
+    private CpuKernelMain kernel;
+    private PixelInfoArray2D output;
+
+    @Setup
+    public void setup() {
+        int size = CpuKernel.TILE_SIZE;
+        kernel = new CpuKernelMain(fractal.createModule());
+        kernel.setOutputSize(size, size);
+        output = new PixelInfoArray2D(size, size);
+        kernel.setOutput(output);
+
+        double centerX = fractal.getCenterX(region);
+        double centerY = fractal.getCenterY(region);
+        double halfSize = fractal.getSize(region) / 2;
+        kernel.setPlaneSegment(centerX - halfSize, centerY - halfSize, centerX + halfSize, centerY + halfSize);
+        kernel.setMaxIterations(maxIterations);
+        kernel.setPrecision("float".equals(precision) ? FloatPrecision.singlePrecision : FloatPrecision.doublePrecision);
+        kernel.setUseAdaptiveSuperSampling(adaptive);
+        kernel.setMaxSuperSampling(superSampling);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CpuKernel.TILE_SIZE * CpuKernel.TILE_SIZE)
+    public PixelInfoArray2D sampleTile() {
+        kernel.renderTile(0, 0, CpuKernel.TILE_SIZE, CpuKernel.TILE_SIZE);
+        return output;
+    }
+}
@@ -0,0 +1,53 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the color conversions of {@code ImageHelpers} on a full HD image.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ImageHelpersBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+
+    private int[] image;
+    private int[] rgba;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(42);
+        image = new int[WIDTH * HEIGHT];
+        for (int i = 0; i < image.length; i++) {
+            image[i] = random.nextInt();
+        }
+        rgba = new int[image.length];
+    }
+
+    @Benchmark
+    public int[] fromBGRAtoRGBA() {
+        return ImageHelpers.fromBGRAtoRGBA(image);
+    }
+
+    @Benchmark
+    public int[] fromRGBtoRGBA() {
+        for (int i = 0; i < image.length; i++) {
+            int color = image[i];
+            rgba[i] = ImageHelpers.fromRGBtoRGBA(color & 0xff, (color >> 8) & 0xff, (color >> 16) & 0xff);
+        }
+        return rgba;
+    }
+
+    @Benchmark
+    public int[] createDefaultColorPalette() {
+        return ImageHelpers.createDefaultColorPalette();
+    }
+}
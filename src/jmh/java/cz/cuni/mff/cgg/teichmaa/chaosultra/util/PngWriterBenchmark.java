@@ -0,0 +1,69 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares writing a full HD image to a PNG file by ImageIO and by PngRowWriter, which compresses in parallel.
+ * <br>
+ * The image is an escape-time rendering of the Mandelbrot set colored by the default palette, so that it compresses like the saved images do.
+ * Run with {@code -jvmArgs -Djava.util.concurrent.ForkJoinPool.common.parallelism=1} to measure PngRowWriter on a single thread.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Thread)
+public class PngWriterBenchmark {
+
+    private static final int WIDTH = 1920;
+    private static final int HEIGHT = 1080;
+    private static final int MAX_ITERATIONS = 500;
+
+    private int[] image;
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        int[] palette = ImageHelpers.createDefaultColorPalette();
+        image = new int[WIDTH * HEIGHT];
+        for (int y = 0; y < HEIGHT; y++) {
+            for (int x = 0; x < WIDTH; x++) {
+                double cx = -0.745 + (x - WIDTH / 2.0) * 0.02 / HEIGHT;
+                double cy = 0.11 + (HEIGHT / 2.0 - y) * 0.02 / HEIGHT;
+                double zx = 0, zy = 0;
+                int i = 0;
+                while (i < MAX_ITERATIONS && zx * zx + zy * zy < 4) {
+                    double t = zx * zx - zy * zy + cx;
+                    zy = 2 * zx * zy + cy;
+                    zx = t;
+                    i++;
+                }
+                image[y * WIDTH + x] = i == MAX_ITERATIONS ? 0xff000000 : palette[i % palette.length];
+            }
+        }
+        file = File.createTempFile("benchmark", ".png");
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file.toPath());
+    }
+
+    @Benchmark
+    public File imageIO() throws IOException {
+        ImageHelpers.saveImageUsingImageIO(image, WIDTH, HEIGHT, file, "png");
+        return file;
+    }
+
+    @Benchmark
+    public File pngRowWriter() throws IOException {
+        PngRowWriter.write(image, WIDTH, HEIGHT, file.toPath());
+        return file;
+    }
+}
@@ -0,0 +1,254 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.PlaneSegment;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.DoubleDouble;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * Exponential map (a log-polar strip) of a fractal around a fixed center, from which the frames of a zoom to that center are resampled.
+ * <br>
+ * The fractal is sampled on a grid of rings: cell {@code [row, col]} is centered at radius {@code referenceRadius * exp(-row * step)} and angle {@code col * step},
+ * where {@code step = 2 pi / angles}, so the cells are (almost) squares whose size is proportional to their radius.
+ * A frame of pixel size {@code p} needs the rings from its corners, where a cell is about as large as a pixel, down to its center,
+ * and zooming in by a factor of {@code e} shifts the frame by {@code 1 / step} rows. Therefore, each ring is sampled only once for the whole zoom,
+ * instead of once per frame, and every frame is rendered just by resampling the strip: bilinearly where a cell is about a pixel, by averaging cells where a pixel covers more of them.
+ * <br>
+ * The rows are computed lazily, when a frame needs them, and the rows that the last frame did not need are released,
+ * so only a window of about {@code ln(1 / INNER_RADIUS) / step} rows is held in memory for a zoom in one direction.
+ * The pixels closer to the center than {@code INNER_RADIUS} times the half diagonal of the frame, where the cells are much smaller than pixels, are sampled directly.
+ * <br>
+ * Not thread-safe; the rows and pixels are computed in parallel by the common fork-join pool.
+ */
+public class CpuExponentialMap {
+
+    /**
+     * radius (relative to the half diagonal of a frame) below which the pixels are sampled directly instead of being resampled from the strip
+     */
+    private static final double INNER_RADIUS = 1 / 64.0;
+    /**
+     * maximal number of cells in a row and in a column that are averaged to a pixel
+     */
+    private static final int MAX_FILTER_SIZE = 8;
+
+    private final CpuFractalRenderingModule module;
+    private final DoubleDouble centerX;
+    private final DoubleDouble centerY;
+    private final int maxIterations;
+    private final double referenceRadius;
+    private final int angles;
+    private final double step;
+    /**
+     * number of samples in a row and in a column of a cell, or of a directly sampled pixel
+     */
+    private final int samplesPerSide;
+    private final Map<Integer, float[]> rows = new HashMap<>();
+    private long samples = 0;
+
+    /**
+     * @param referenceRadius radius of row 0, usually the half diagonal of the first frame. Only the grid depends on it, rows are computed for any radius.
+     * @param angles          number of cells in a ring. See {@code getAnglesForFrame}.
+     * @param superSampling   number of samples per cell and per directly sampled pixel, rounded to a square number
+     */
+    public CpuExponentialMap(CpuFractalRenderingModule module, DoubleDouble centerX, DoubleDouble centerY, int maxIterations, double referenceRadius, int angles, float superSampling) {
+        if (!(referenceRadius > 0) || Double.isInfinite(referenceRadius))
+            throw new IllegalArgumentException("Reference radius must be positive and finite, but is " + referenceRadius + ".");
+        if (angles < 4)
+            throw new IllegalArgumentException("There must be at least 4 angles, but there are " + angles + ".");
+        this.module = module;
+        this.centerX = centerX;
+        this.centerY = centerY;
+        this.maxIterations = maxIterations;
+        this.referenceRadius = referenceRadius;
+        this.angles = angles;
+        this.step = 2 * Math.PI / angles;
+        this.samplesPerSide = Math.max(1, (int) Math.round(Math.sqrt(superSampling)));
+    }
+
+    /**
+     * @return number of cells in a ring such that at the corners of a frame of the given size, a cell is as large as a pixel
+     */
+    public static int getAnglesForFrame(int width, int height) {
+        return (int) Math.ceil(Math.PI * Math.hypot(width, height));
+    }
+
+    /**
+     * @return number of escape-time evaluations (samples) computed so far, by rows and by directly sampled pixels
+     */
+    public long getSamples() {
+        return samples;
+    }
+
+    /**
+     * @return number of rows currently held in memory
+     */
+    public int getRowCount() {
+        return rows.size();
+    }
+
+    /**
+     * Renders a frame of the zoom by resampling the strip. The frame need not be centered at the center of the map, but then the pixels far from it are blurred,
+     * as the cells there are larger than pixels.
+     *
+     * @param segment the frame's segment of the plane, e.g. as set by {@code Model.setPlaneSegmentFromCenter}
+     * @param palette colors in RGBA (little endian, Red is the least significant)
+     * @param output  array of at least {@code width * height} to write the colors to, in RGBA, row by row
+     */
+    public void render(PlaneSegment segment, int width, int height, int[] palette, int[] output) {
+        double pixelSize = segment.getSegmentHeight() / height;
+        //offset of the frame's center from the center of the map, in the plane
+        double offsetX = segment.getCenterXDoubleDouble().subtract(centerX).doubleValue();
+        double offsetY = segment.getCenterYDoubleDouble().subtract(centerY).doubleValue();
+        double halfWidth = segment.getSegmentWidth() / 2;
+        double halfHeight = segment.getSegmentHeight() / 2;
+        double innerRadius = INNER_RADIUS * Math.hypot(halfWidth, halfHeight);
+
+        //the rows between the farthest and the nearest point of the frame
+        double maxRadius = Math.hypot(Math.abs(offsetX) + halfWidth, Math.abs(offsetY) + halfHeight);
+        double nearestX = Math.max(0, Math.abs(offsetX) - halfWidth);
+        double nearestY = Math.max(0, Math.abs(offsetY) - halfHeight);
+        double minRadius = Math.max(innerRadius, Math.hypot(nearestX, nearestY));
+        int firstRow = (int) Math.floor(getRow(maxRadius)) - MAX_FILTER_SIZE / 2 - 1;
+        int lastRow = (int) Math.ceil(getRow(minRadius)) + MAX_FILTER_SIZE;
+        prepareRows(firstRow, lastRow);
+
+        IntStream.range(0, height).parallel().forEach(y -> {
+            double dy = offsetY + (height / 2.0 - y - 0.5) * pixelSize;
+            for (int x = 0; x < width; x++) {
+                double dx = offsetX + (x + 0.5 - width / 2.0) * pixelSize;
+                double radius = Math.hypot(dx, dy);
+                float value;
+                if (radius < innerRadius) {
+                    value = samplePixel(dx, dy, pixelSize);
+                } else {
+                    double angle = Math.atan2(dy, dx);
+                    //number of cells in a pixel side
+                    double filterSize = pixelSize / (radius * step);
+                    value = readStrip(getRow(radius), angle / step, filterSize);
+                }
+                output[y * width + x] = module.colorize(palette, value);
+            }
+        });
+        samples += countDirectSamples(width, height, offsetX, offsetY, pixelSize, innerRadius);
+    }
+
+    /**
+     * @return continuous row coordinate of the radius (integers are the centers of the rows)
+     */
+    private double getRow(double radius) {
+        return Math.log(referenceRadius / radius) / step;
+    }
+
+    /**
+     * Computes the rows from {@code firstRow} to {@code lastRow} (inclusive) that are not computed yet, and releases the other rows.
+     */
+    private void prepareRows(int firstRow, int lastRow) {
+        rows.keySet().removeIf(row -> row < firstRow || row > lastRow);
+        int[] missing = IntStream.rangeClosed(firstRow, lastRow).filter(row -> !rows.containsKey(row)).toArray();
+        float[][] computed = new float[missing.length][];
+        IntStream.range(0, missing.length).parallel().forEach(i -> computed[i] = computeRow(missing[i]));
+        for (int i = 0; i < missing.length; i++) {
+            rows.put(missing[i], computed[i]);
+        }
+        samples += (long) missing.length * angles * samplesPerSide * samplesPerSide;
+    }
+
+    private float[] computeRow(int row) {
+        float[] result = new float[angles];
+        double cellSize = referenceRadius * Math.exp(-row * step) * step;
+        boolean doubleDouble = cellSize / samplesPerSide < Math.max(Math.ulp(centerX.doubleValue()), Math.ulp(centerY.doubleValue()));
+        for (int col = 0; col < angles; col++) {
+            float sum = 0;
+            for (int i = 0; i < samplesPerSide; i++) {
+                //samples are spread evenly over the cell, in the log-polar coordinates
+                double radius = referenceRadius * Math.exp(-(row + (i + 0.5) / samplesPerSide - 0.5) * step);
+                for (int j = 0; j < samplesPerSide; j++) {
+                    double angle = (col + (j + 0.5) / samplesPerSide - 0.5) * step;
+                    sum += computeFractal(radius * Math.cos(angle), radius * Math.sin(angle), doubleDouble);
+                }
+            }
+            result[col] = sum / (samplesPerSide * samplesPerSide);
+        }
+        return result;
+    }
+
+    /**
+     * @param dx offset of the point from the center of the map
+     * @param dy offset of the point from the center of the map
+     */
+    private float computeFractal(double dx, double dy, boolean doubleDouble) {
+        if (doubleDouble) {
+            DoubleDouble x = centerX.add(dx);
+            DoubleDouble y = centerY.add(dy);
+            return module.computeFractal(maxIterations, x.getHi(), x.getLo(), y.getHi(), y.getLo());
+        }
+        return module.computeFractal(maxIterations, centerX.doubleValue() + dx, centerY.doubleValue() + dy);
+    }
+
+    /**
+     * Samples a pixel of the frame directly, by {@code samplesPerSide} x {@code samplesPerSide} samples.
+     */
+    private float samplePixel(double dx, double dy, double pixelSize) {
+        boolean doubleDouble = pixelSize / samplesPerSide < Math.max(Math.ulp(centerX.doubleValue()), Math.ulp(centerY.doubleValue()));
+        float sum = 0;
+        for (int i = 0; i < samplesPerSide; i++) {
+            for (int j = 0; j < samplesPerSide; j++) {
+                double sampleX = dx + ((j + 0.5) / samplesPerSide - 0.5) * pixelSize;
+                double sampleY = dy + ((i + 0.5) / samplesPerSide - 0.5) * pixelSize;
+                sum += computeFractal(sampleX, sampleY, doubleDouble);
+            }
+        }
+        return sum / (samplesPerSide * samplesPerSide);
+    }
+
+    private long countDirectSamples(int width, int height, double offsetX, double offsetY, double pixelSize, double innerRadius) {
+        long count = 0;
+        int fromY = (int) Math.max(0, Math.floor(height / 2.0 + (offsetY - innerRadius) / pixelSize));
+        int toY = (int) Math.min(height, Math.ceil(height / 2.0 + (offsetY + innerRadius) / pixelSize) + 1);
+        for (int y = fromY; y < toY; y++) {
+            double dy = offsetY + (height / 2.0 - y - 0.5) * pixelSize;
+            for (int x = 0; x < width; x++) {
+                double dx = offsetX + (x + 0.5 - width / 2.0) * pixelSize;
+                if (Math.hypot(dx, dy) < innerRadius)
+                    count++;
+            }
+        }
+        return count * samplesPerSide * samplesPerSide;
+    }
+
+    /**
+     * @param row        continuous row coordinate
+     * @param col        continuous column coordinate, any real number (the columns wrap around)
+     * @param filterSize number of cells in a pixel side
+     */
+    private float readStrip(double row, double col, double filterSize) {
+        if (filterSize < 1.5) {
+            //bilinear interpolation
+            int row0 = (int) Math.floor(row);
+            int col0 = (int) Math.floor(col);
+            float rowWeight = (float) (row - row0);
+            float colWeight = (float) (col - col0);
+            float[] upper = rows.get(row0);
+            float[] lower = rows.get(row0 + 1);
+            int c0 = Math.floorMod(col0, angles);
+            int c1 = c0 + 1 == angles ? 0 : c0 + 1;
+            float top = upper[c0] * (1 - colWeight) + upper[c1] * colWeight;
+            float bottom = lower[c0] * (1 - colWeight) + lower[c1] * colWeight;
+            return top * (1 - rowWeight) + bottom * rowWeight;
+        }
+        //box filter: average of the n x n cells nearest to the point
+        int n = Math.min(MAX_FILTER_SIZE, (int) Math.round(filterSize));
+        int row0 = (int) Math.round(row - (n - 1) / 2.0);
+        int col0 = (int) Math.round(col - (n - 1) / 2.0);
+        float sum = 0;
+        for (int i = 0; i < n; i++) {
+            float[] cells = rows.get(row0 + i);
+            for (int j = 0; j < n; j++) {
+                sum += cells[Math.floorMod(col0 + j, angles)];
+            }
+        }
+        return sum / (n * n);
+    }
+}
@@ -0,0 +1,378 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import com.jogamp.opengl.GL2;
+import com.jogamp.opengl.GLContext;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRenderer;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRendererException;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRendererState;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FramePhaseTimes;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FrameWork;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.RenderingPhase;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.GLParams;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.GLTexture;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.RenderingModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.FloatPrecision;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.GenerationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.SimpleLogger;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.TripleBuffer;
+
+import java.nio.IntBuffer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static com.jogamp.opengl.GL.GL_RGBA;
+import static com.jogamp.opengl.GL.GL_UNSIGNED_BYTE;
+
+/**
+ * Pure Java implementation of FractalRenderer, sampling the fractal on the CPU by CpuImageRenderer.
+ * <br>
+ * The renderer is asynchronous: {@code renderFast}, {@code renderQuality} and {@code recompose} only request a frame, which is rendered on a background render thread
+ * and published to a triple buffer. {@code showFinishedFrame} uploads the newest finished frame to the output texture, so the calling (GL) thread never waits for sampling.
+ * A request that has not been started yet is replaced by a newer one, i.e. frames made obsolete by newer model changes are dropped.
+ * A frame that is being rendered is cancelled by a newer {@code renderFast} or {@code renderQuality} request (see CpuImageRenderer for what is kept of it) and is not published.
+ * The color palette is read from its texture with every request, so that changes of the palette (e.g. palette cycling) are reflected.
+ * <br>
+ * Methods that change the renderer's state (e.g. {@code initializeRendering}) wait until the frame being rendered, if any, is finished.
+ * <br>
+ * Lifecycle:  notInitialized      --- initializeRendering() --->   readyToRender
+ *             readyToRender    --- freeRenderingResources() --->   notInitialized
+ */
+public class CpuFractalRenderer implements FractalRenderer {
+
+    /**
+     * Renders the frames of all the CPU renderers, one at a time. Its thread is a daemon thread.
+     */
+    private static final ExecutorService renderExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "CPU fractal renderer");
+        thread.setDaemon(true);
+        return thread;
+    });
+    /**
+     * Guards the state shared by the render thread and the callers: the CpuImageRenderers and their modules, which are shared by renderers of the same fractal.
+     */
+    private static final Object renderLock = new Object();
+
+    private enum FrameKind {
+        fast, quality, recompose
+    }
+
+    private static class FrameRequest {
+        final FrameKind kind;
+        /**
+         * private copy of the model
+         */
+        final RenderingModel model;
+        final int[] palette;
+        /**
+         * null for requests that cannot be cancelled
+         */
+        final GenerationCounter.Token generation;
+        final long paletteReadbackNanos;
+
+        FrameRequest(FrameKind kind, RenderingModel model, int[] palette, GenerationCounter.Token generation, long paletteReadbackNanos) {
+            this.kind = kind;
+            this.model = model;
+            this.palette = palette;
+            this.generation = generation;
+            this.paletteReadbackNanos = paletteReadbackNanos;
+        }
+    }
+
+    private static class Frame {
+        final int[] image;
+        FloatPrecision precision;
+        final FramePhaseTimes phaseTimes = new FramePhaseTimes();
+        final FrameWork work = new FrameWork();
+
+        Frame(int size) {
+            image = new int[size];
+        }
+    }
+
+    private final CpuImageRenderer renderer;
+
+    private GLParams glParams;
+    private FractalRendererState state = FractalRendererState.notInitialized;
+
+    private final AtomicReference<FrameRequest> pendingRequest = new AtomicReference<>();
+    /**
+     * Issues tokens to the frames that sample the fractal; a new one cancels the frame being rendered.
+     */
+    private final GenerationCounter generations = new GenerationCounter();
+    /**
+     * Set when a request asks for sampling from scratch. Kept separately from the requests, so that it is not lost when the request is dropped.
+     */
+    private final AtomicBoolean sampleReuseCacheDirty = new AtomicBoolean(false);
+    private volatile boolean rendering = false;
+    private volatile TripleBuffer<Frame> frames = new TripleBuffer<>(() -> new Frame(0));
+    /**
+     * Render time in ms of the last finished frame that sampled the fractal, -1 if it has already been reported by {@code showFinishedFrame}.
+     */
+    private final AtomicInteger finishedRenderTime = new AtomicInteger(-1);
+    private final AtomicReference<RuntimeException> renderingError = new AtomicReference<>();
+    private volatile Runnable onFrameFinished = () -> { };
+    /**
+     * phase times of the frame shown last, accessed by the GL thread only
+     */
+    private FramePhaseTimes shownPhaseTimes = new FramePhaseTimes();
+    /**
+     * work of the frame shown last, accessed by the GL thread only
+     */
+    private FrameWork shownWork = new FrameWork();
+
+    public CpuFractalRenderer(CpuFractalRenderingModule module) {
+        renderer = new CpuImageRenderer(module);
+    }
+
+    @Override
+    public void initializeRendering(GLParams glParams) {
+        if (state == FractalRendererState.readyToRender) throw new IllegalStateException("Already initialized.");
+
+        this.glParams = glParams;
+        GLTexture outputTexture = glParams.getOutput();
+        int size = outputTexture.getWidth() * outputTexture.getHeight();
+        synchronized (renderLock) {
+            renderer.setSize(outputTexture.getWidth(), outputTexture.getHeight());
+            frames = new TripleBuffer<>(() -> new Frame(size));
+        }
+
+        state = FractalRendererState.readyToRender;
+    }
+
+    private static int[] readPalette(GL2 gl, GLParams glParams) {
+        GLTexture paletteTexture = glParams.getPalette();
+        int[] result = new int[glParams.getPaletteLength()];
+        gl.glBindTexture(paletteTexture.getTarget(), paletteTexture.getHandle().getValue());
+        {
+            //documentation: https://www.khronos.org/registry/OpenGL-Refpages/gl4/html/glGetTexImage.xhtml
+            gl.glGetTexImage(paletteTexture.getTarget(), 0, GL_RGBA, GL_UNSIGNED_BYTE, IntBuffer.wrap(result));
+        }
+        gl.glBindTexture(paletteTexture.getTarget(), 0);
+        return result;
+    }
+
+    @Override
+    public void freeRenderingResources() {
+        if (state == FractalRendererState.notInitialized) throw new IllegalStateException("Already free.");
+
+        pendingRequest.set(null);
+        generations.advance(); //do not wait for the frame being rendered
+        synchronized (renderLock) {
+            renderer.setSize(0, 0);
+            frames = new TripleBuffer<>(() -> new Frame(0));
+        }
+        glParams = null;
+        state = FractalRendererState.notInitialized;
+    }
+
+    @Override
+    public FractalRendererState getState() {
+        return state;
+    }
+
+    @Override
+    public int getWidth() {
+        return renderer.getWidth();
+    }
+
+    @Override
+    public int getHeight() {
+        return renderer.getHeight();
+    }
+
+    @Override
+    public void launchDebugKernel() {
+        generations.advance(); //do not wait for the frame being rendered
+        synchronized (renderLock) {
+            renderer.getModule().debugFractal();
+        }
+    }
+
+    @Override
+    public void renderFast(RenderingModel model) {
+        requestFrame(FrameKind.fast, model);
+    }
+
+    @Override
+    public void renderQuality(RenderingModel model) {
+        requestFrame(FrameKind.quality, model);
+    }
+
+    @Override
+    public void recompose(RenderingModel model) {
+        requestFrame(FrameKind.recompose, model);
+    }
+
+    private void requestFrame(FrameKind kind, RenderingModel model) {
+        if (state != FractalRendererState.readyToRender) throw new IllegalStateException("Renderer has to be initialized first");
+
+        if (model.isSampleReuseCacheDirty()) {
+            sampleReuseCacheDirty.set(true);
+            model.setSampleReuseCacheDirty(false); //the request takes care of it
+        }
+        //recomposing does not change the samples, so it does not make the frame being rendered obsolete
+        GenerationCounter.Token generation = kind == FrameKind.recompose ? null : generations.advance();
+        long readbackStart = System.nanoTime();
+        int[] palette = readPalette(GLContext.getCurrentGL().getGL2(), glParams);
+        FrameRequest request = new FrameRequest(kind, model.copy(), palette, generation, System.nanoTime() - readbackStart);
+        if (pendingRequest.getAndSet(request) == null) {
+            //otherwise, the replaced request has already been scheduled and its task takes the new one
+            renderExecutor.execute(this::renderPendingRequest);
+        }
+    }
+
+    /**
+     * Runs on the render thread.
+     */
+    private void renderPendingRequest() {
+        rendering = true;
+        try {
+            FrameRequest request = pendingRequest.getAndSet(null);
+            if (request == null)
+                return; //already taken by a previous task
+            synchronized (renderLock) {
+                TripleBuffer<Frame> frames = this.frames;
+                Frame frame = frames.getBack();
+                if (frame.image.length != renderer.getWidth() * renderer.getHeight() || frame.image.length == 0)
+                    return; //the resources have been freed in the meantime
+                long startTime = System.nanoTime();
+                FrameWorkEvent event = new FrameWorkEvent();
+                RenderingModel model = request.model;
+                if (sampleReuseCacheDirty.getAndSet(false))
+                    model.setSampleReuseCacheDirty(true);
+                renderer.setPalette(request.palette);
+                renderer.setGeneration(request.generation);
+                switch (request.kind) {
+                    case fast:
+                        renderer.renderFast(model);
+                        break;
+                    case quality:
+                        renderer.renderQuality(model);
+                        break;
+                    case recompose:
+                        renderer.recompose(model);
+                        break;
+                }
+                if (request.kind != FrameKind.recompose) {
+                    event.commit(request.kind.name(), renderer.isCancelled(), renderer.getWidth(), renderer.getHeight(), model.getMaxIterations(), model.getMaxSuperSampling(), renderer.getWorkCounters());
+                    SimpleLogger.get().logRenderingInfo("\t\twork: " + renderer.getWorkCounters());
+                }
+                if (request.kind != FrameKind.recompose && renderer.isCancelled())
+                    return; //the newer request is already waiting for the lock
+                System.arraycopy(renderer.getImage(), 0, frame.image, 0, frame.image.length);
+                frame.precision = model.getFloatingPointPrecision();
+                long frameNanos = System.nanoTime() - startTime;
+                frame.phaseTimes.clear();
+                frame.phaseTimes.addAll(renderer.getPhaseTimes());
+                frame.phaseTimes.add(RenderingPhase.readback, request.paletteReadbackNanos);
+                frame.phaseTimes.setFrameNanos(frameNanos);
+                if (request.kind == FrameKind.recompose)
+                    frame.work.set(0, 0, 0, model.getMaxSuperSampling());
+                else
+                    setFrameWork(frame.work, renderer.getWorkCounters(), model);
+                frames.publish();
+                if (request.kind != FrameKind.recompose) {
+                    finishedRenderTime.set((int) (frameNanos / 1_000_000));
+                }
+            }
+        } catch (RuntimeException e) {
+            renderingError.set(e);
+        } finally {
+            rendering = false;
+        }
+        onFrameFinished.run();
+    }
+
+    @Override
+    public boolean isAsynchronous() {
+        return true;
+    }
+
+    @Override
+    public int showFinishedFrame(RenderingModel model) {
+        if (state != FractalRendererState.readyToRender) throw new IllegalStateException("Renderer has to be initialized first");
+
+        RuntimeException error = renderingError.getAndSet(null);
+        if (error != null)
+            throw new FractalRendererException("Error while rendering on the CPU: " + error.getMessage(), error);
+
+        Frame frame = frames.takeNewest();
+        if (frame != null) {
+            long uploadStart = System.nanoTime();
+            uploadImage(frame.image);
+            frame.phaseTimes.add(RenderingPhase.readback, System.nanoTime() - uploadStart);
+            model.setFloatingPointPrecision(frame.precision);
+            shownPhaseTimes = frame.phaseTimes;
+            shownWork = frame.work;
+        }
+        return finishedRenderTime.getAndSet(-1);
+    }
+
+    @Override
+    public boolean isRenderingInProgress() {
+        return rendering || pendingRequest.get() != null;
+    }
+
+    @Override
+    public void setOnFrameFinished(Runnable callback) {
+        onFrameFinished = callback;
+    }
+
+    @Override
+    public FramePhaseTimes getLastFramePhaseTimes() {
+        return shownPhaseTimes;
+    }
+
+    @Override
+    public FrameWork getLastFrameWork() {
+        return shownWork;
+    }
+
+    private static void setFrameWork(FrameWork work, WorkCounters counters, RenderingModel model) {
+        work.set(counters.getSamples(), counters.getSampledPixels(), counters.getIterations(), model.getMaxSuperSampling());
+    }
+
+    private void uploadImage(int[] image) {
+        GL2 gl = GLContext.getCurrentGL().getGL2();
+        GLTexture outputTexture = glParams.getOutput();
+        gl.glBindTexture(outputTexture.getTarget(), outputTexture.getHandle().getValue());
+        {
+            //documentation: https://www.khronos.org/registry/OpenGL-Refpages/gl4/html/glTexSubImage2D.xhtml
+            gl.glTexSubImage2D(outputTexture.getTarget(), 0, 0, 0, outputTexture.getWidth(), outputTexture.getHeight(), GL_RGBA, GL_UNSIGNED_BYTE, IntBuffer.wrap(image));
+        }
+        gl.glBindTexture(outputTexture.getTarget(), 0);
+    }
+
+    @Override
+    public void close() {
+        pendingRequest.set(null);
+        generations.advance();
+        if (state == FractalRendererState.readyToRender)
+            freeRenderingResources();
+    }
+
+    @Override
+    public void setFractalCustomParams(String text) {
+        generations.advance(); //do not wait for the frame being rendered
+        synchronized (renderLock) {
+            renderer.setFractalCustomParams(text);
+        }
+    }
+
+    @Override
+    public String getFractalName() {
+        return renderer.getFractalName();
+    }
+
+    @Override
+    public void supplyDefaultValues(DefaultFractalModel model) {
+        generations.advance(); //do not wait for the frame being rendered
+        synchronized (renderLock) {
+            renderer.supplyDefaultValues(model);
+        }
+    }
+}
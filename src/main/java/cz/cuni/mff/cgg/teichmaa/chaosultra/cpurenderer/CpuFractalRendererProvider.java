@@ -0,0 +1,88 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules.*;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRenderer;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRendererProvider;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+public class CpuFractalRendererProvider implements FractalRendererProvider {
+
+    private static final HashSet<Class<? extends CpuFractalRenderingModule>> modules = new HashSet<>();
+    private final Map<String, CpuFractalRenderingModule> moduleInstances;
+
+    static {
+        //register new fractals here:
+        modules.add(ModuleJulia.class);
+        modules.add(ModuleMandelbrot.class);
+        modules.add(ModuleNewtonWired.class);
+        modules.add(ModuleNewtonGeneric.class);
+        modules.add(ModuleNewtonIterations.class);
+        modules.add(ModuleNewtonPolynomial.class);
+        modules.add(ModuleTest.class);
+        modules.add(ModuleGoci.class);
+        modules.add(ModuleFormula.class);
+        modules.add(ModuleBuddhabrot.class);
+
+        //end register section
+
+    }
+
+    public CpuFractalRendererProvider() {
+        moduleInstances = modules.stream().map(CpuFractalRendererProvider::createInstance).collect(Collectors.toMap(CpuFractalRenderingModule::getFractalName, Function.identity()));
+    }
+
+    public Set<String> getAvailableFractals() {
+        return moduleInstances.keySet();
+    }
+
+    private CpuFractalRenderer activeRenderer;
+
+    public FractalRenderer getDefaultRenderer() {
+        return getRenderer("mandelbrot", false);
+    }
+
+    public FractalRenderer getRenderer(String fractalName, boolean forceReload) {
+        if (activeRenderer != null) {
+            if (activeRenderer.getFractalName().equals(fractalName) && !forceReload)
+                return activeRenderer; //returning the current active renderer
+            else {
+                activeRenderer.close(); //closing the previous renderer
+            }
+        }
+
+        if (!moduleInstances.containsKey(fractalName)) {
+            throw new IllegalArgumentException("Unknown fractal: " + fractalName);
+        }
+
+        activeRenderer = new CpuFractalRenderer(moduleInstances.get(fractalName));
+        return activeRenderer;
+    }
+
+    /**
+     * @return module of the given name, to be used without OpenGL (e.g. by the headless renderer)
+     * @throws IllegalArgumentException when there is no such module
+     */
+    public CpuFractalRenderingModule getModule(String fractalName) {
+        if (!moduleInstances.containsKey(fractalName)) {
+            throw new IllegalArgumentException("Unknown fractal: " + fractalName);
+        }
+        return moduleInstances.get(fractalName);
+    }
+
+    private static CpuFractalRenderingModule createInstance(Class<? extends CpuFractalRenderingModule> clazz) {
+        if (Arrays.stream(clazz.getConstructors()).noneMatch(c -> c.getParameterCount() == 0)) {
+            throw new IllegalStateException(clazz + " has no parameterless constructor.");
+        }
+        try {
+            return clazz.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.stream.Collectors;
+
+/**
+ * A pure Java implementation of a fractal, used by CpuFractalRenderer class. Counterpart of the CUDA module (.cu file together with its FractalRenderingModule).
+ * <br>
+ * Implementations must be thread-safe for concurrent calls of {@code computeFractal} and {@code colorize}, as those are called from many tiles at once.
+ */
+public abstract class CpuFractalRenderingModule {
+
+    /**
+     * Colors in RGBA (little endian), i.e. when read by human: aa bb gg rr
+     */
+    protected static final int COLOR_BLACK = 0xff000000;
+    protected static final int COLOR_WHITE = 0xffffffff;
+    protected static final int COLOR_BLUE = 0xffff0000;
+    protected static final int COLOR_GREEN = 0xff00ff00;
+    protected static final int COLOR_RED = 0xff0000ff;
+
+    private final String fractalName;
+
+    /**
+     * @param fractalName name of the rendering that this module represents
+     */
+    protected CpuFractalRenderingModule(String fractalName) {
+        this.fractalName = fractalName;
+    }
+
+    public String getFractalName() {
+        return fractalName;
+    }
+
+    @Override
+    public String toString() {
+        return "CpuFractalRenderingModule " + fractalName;
+    }
+
+    /**
+     * The core fractal function. Find fractal value for given point, but use at most maxIterations of finding cycle.
+     * Computes in double floating-point precision.
+     *
+     * @param maxIterations an upper bound of the complexity of the computation, usually interpreted as maximal number of iteration of a complex map
+     * @param x             real part of the point to compute the fractal value at
+     * @param y             imaginary part of the point to compute the fractal value at
+     */
+    public abstract float computeFractal(int maxIterations, double x, double y);
+
+    /**
+     * Same as {@code computeFractal(int, double, double)}, but computes in single floating-point precision.
+     * <br>
+     * May be overridden by modules that have a dedicated single precision implementation. The default implementation computes in double precision.
+     */
+    public float computeFractal(int maxIterations, float x, float y) {
+        return computeFractal(maxIterations, (double) x, (double) y);
+    }
+
+    /**
+     * Same as {@code computeFractal(int, double, double)}, but computes in double-double precision, i.e. the point is {@code [xHi + xLo, yHi + yLo]}.
+     * <br>
+     * May be overridden by modules that have a dedicated double-double implementation. The default implementation computes in double precision.
+     */
+    public float computeFractal(int maxIterations, double xHi, double xLo, double yHi, double yLo) {
+        return computeFractal(maxIterations, xHi + xLo, yHi + yLo);
+    }
+
+    /**
+     * Computes {@code computeFractal} for the points {@code [x[k], y]} of a row, for {@code 0 <= k < length}, and stores the values to {@code result[k]}.
+     * <br>
+     * May be overridden by modules that compute several points at once faster than one by one. The default implementation calls {@code computeFractal} for each of the points.
+     */
+    public void computeFractalRow(int maxIterations, double[] x, double y, int length, float[] result) {
+        for (int k = 0; k < length; k++) {
+            result[k] = computeFractal(maxIterations, x[k], y);
+        }
+    }
+
+    /**
+     * Same as {@code computeFractalRow(int, double[], double, int, float[])}, but computes in single floating-point precision.
+     */
+    public void computeFractalRow(int maxIterations, float[] x, float y, int length, float[] result) {
+        for (int k = 0; k < length; k++) {
+            result[k] = computeFractal(maxIterations, x[k], y);
+        }
+    }
+
+    /**
+     * Find adequate color in the colorPalette and return it as int in RGBA (little endian, Red is the least significant).
+     * <br>
+     * The default implementation indexes the palette with {@code computationResult}, modulo palette length. May be overridden by descendants.
+     *
+     * @param palette           colors in RGBA
+     * @param computationResult Usually the value previously returned by computeFractal(). Note that it need NOT to be exact value from the last rendering but may be for example average of the last and previous renderings.
+     */
+    public int colorize(int[] palette, float computationResult) {
+        int paletteLength = palette.length;
+        long computationResult_i = Math.round(computationResult);
+        int paletteIdx = paletteLength - (int) Math.floorMod(computationResult_i, (long) paletteLength) - 1;
+        return palette[paletteIdx];
+    }
+
+    /**
+     * A callback from the UI containing a text string with fractal specific parameters set by the user. <br>
+     * Can be overridden by descendants if needed.
+     *
+     * @param params a text string with fractal specific parameters set by the user.
+     */
+    public void setFractalCustomParameters(String params) {
+
+    }
+
+    /**
+     * Counterpart of the {@code debugFractal} CUDA function. May be overridden by descendants.
+     */
+    public void debugFractal() {
+        System.out.println("hello from " + fractalName);
+    }
+
+    /**
+     * May be overridden by concrete modules if a specific default values are required.
+     *
+     * @param model model to set values to
+     */
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        model.setFractalCustomParams("");
+    }
+
+    /**
+     * @param params list of numbers, delimited by comma `,` or semicolon `;`.
+     * @throws NumberFormatException
+     */
+    protected double[] parseParamsAsDoubles(String params) {
+        String[] tokens = params.split("[,;]");
+        List<Double> vals = Arrays.stream(tokens).map(Double::parseDouble).collect(Collectors.toList());
+        double[] result = new double[vals.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = vals.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @param params Input format: `key=value` pairs, delimited by comma `,` or semicolon `;`.
+     *               If pair contains multiple equal signs `=`, the remaining ones are considered value. If pair does not contain any equal sign, it is silently skipped.
+     */
+    protected HashMap<String, String> parseParamsAsKeyValPairs(String params) {
+        HashMap<String, String> result = new HashMap<>();
+        String[] tokens = params.split("[,;]");
+        for (int i = 0; i < tokens.length; i++) {
+            String[] pair = tokens[i].split("=", 2);
+            if (pair.length < 2) continue;
+            result.put(pair[0].trim(), pair[1].trim());
+        }
+        return result;
+    }
+}
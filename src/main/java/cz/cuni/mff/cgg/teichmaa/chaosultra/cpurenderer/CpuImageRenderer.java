@@ -0,0 +1,402 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FramePhaseTimes;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.RenderingPhase;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.PlaneSegment;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.RenderingModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.FloatPrecision;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.GenerationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.SimpleLogger;
+
+import java.math.BigDecimal;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Renders a fractal on the CPU to an array of colors, without any dependency on OpenGL.
+ * <br>
+ * The rendering pipeline mirrors the one of CudaFractalRenderer: the fractal is sampled to a 2D array of pixel_info, which is then composed to colors.
+ * Tiles of the image are rendered on a work-stealing ForkJoinPool.
+ * <br>
+ * When double precision is not enough (FloatPrecision.doubleDoublePrecision), modules that override the double-double {@code computeFractal} are evaluated in double-double arithmetic.
+ * Beyond that (FloatPrecision.tooBig), fractals implementing QuadraticMapModule are rendered using perturbation (see PerturbationReference).
+ * <br>
+ * Samples rendered by {@code renderQuality} in single or double precision are kept in a SampleTileCache, from which {@code renderFast} reads pixels that have been rendered before.
+ * The cached samples may come from other views, i.e. be displaced by up to a pixel, so {@code renderQuality} does not read them and its image is exact.
+ * <br>
+ * When {@code renderQuality} is called again for the same view with higher maxSuperSampling (progressive rendering), the last rendering is refined by CpuKernelRefine
+ * rather than sampled from scratch, so that the progressive rendering as a whole costs about as much as its last step alone.
+ * <br>
+ * Modules implementing OrbitDensityModule (e.g. the Buddhabrot) are rendered by CpuKernelOrbitDensity instead of the sampling kernels, and composed as usual.
+ * <br>
+ * A rendering is cancelled when its generation token is superseded: the tiles that have not been started yet stop sampling and their pixels that cannot be reused are left unknown.
+ * The image of a cancelled rendering is not composed, but its samples are kept, so that the next {@code renderFast} reuses the finished tiles where they overlap the new view
+ * and samples the unknown pixels.
+ */
+public class CpuImageRenderer {
+
+    private static final String THREADS_PROPERTY_NAME = "cpuRendererThreads";
+    private static final String MARIANI_SILVER_PROPERTY_NAME = "marianiSilver";
+    private static final String DISTANCE_ESTIMATION_PROPERTY_NAME = "distanceEstimation";
+    private static final String SAMPLE_CACHE_SIZE_PROPERTY_NAME = "sampleCacheSize";
+    private static final int SAMPLE_CACHE_SIZE_DEFAULT = 256; //in MB
+
+    /**
+     * Shared by all the CPU renderers; its worker threads are daemon threads.
+     */
+    private static final ForkJoinPool pool = new ForkJoinPool(
+            Integer.getInteger(THREADS_PROPERTY_NAME, Runtime.getRuntime().availableProcessors())
+    );
+
+    private final CpuFractalRenderingModule module;
+    private final CpuKernelMain kernelMain;
+    private final CpuKernelAdvanced kernelAdvanced;
+    private final CpuKernelRefine kernelRefine;
+    private final CpuKernelCompose kernelCompose;
+    /**
+     * null if the module is not an OrbitDensityModule
+     */
+    private final CpuKernelOrbitDensity kernelOrbitDensity;
+    private final SampleTileCache sampleCache;
+    private String fractalCustomParams;
+
+    private final HostMemoryDoubleBuffer2D memory = new HostMemoryDoubleBuffer2D();
+    private int[] image = new int[0];
+    private RenderingModel lastRendering;
+    /**
+     * whether the primary buffer holds a finished {@code renderQuality}, which can be refined
+     */
+    private boolean refinable = false;
+    private final FramePhaseTimes phaseTimes = new FramePhaseTimes();
+    private final WorkCounters workCounters = new WorkCounters();
+
+    public CpuImageRenderer(CpuFractalRenderingModule module) {
+        this.module = module;
+
+        kernelMain = new CpuKernelMain(module);
+        kernelMain.setUseMarianiSilver(!Boolean.toString(false).equals(System.getProperty(MARIANI_SILVER_PROPERTY_NAME)));
+        kernelAdvanced = new CpuKernelAdvanced(module);
+        boolean useDistanceEstimation = !Boolean.toString(false).equals(System.getProperty(DISTANCE_ESTIMATION_PROPERTY_NAME));
+        kernelMain.setUseDistanceEstimation(useDistanceEstimation);
+        kernelAdvanced.setUseDistanceEstimation(useDistanceEstimation);
+        kernelRefine = new CpuKernelRefine(module);
+        kernelMain.setWorkCounters(workCounters);
+        kernelAdvanced.setWorkCounters(workCounters);
+        kernelRefine.setWorkCounters(workCounters);
+        kernelCompose = new CpuKernelCompose(module);
+        kernelOrbitDensity = module instanceof OrbitDensityModule ? new CpuKernelOrbitDensity(module) : null;
+        if (kernelOrbitDensity != null)
+            kernelOrbitDensity.setWorkCounters(workCounters);
+        sampleCache = new SampleTileCache(Math.max(0, Integer.getInteger(SAMPLE_CACHE_SIZE_PROPERTY_NAME, SAMPLE_CACHE_SIZE_DEFAULT)) * 1024L * 1024L);
+    }
+
+    /**
+     * Reallocates the buffers. Previous rendering is lost.
+     */
+    public void setSize(int width, int height) {
+        kernelMain.setOutputSize(width, height);
+        kernelAdvanced.setOutputSize(width, height);
+        kernelRefine.setOutputSize(width, height);
+        kernelCompose.setOutputSize(width, height);
+        if (kernelOrbitDensity != null)
+            kernelOrbitDensity.setOutputSize(width, height);
+
+        memory.reallocate(width, height);
+        image = new int[width * height];
+        lastRendering = null;
+        refinable = false;
+    }
+
+    /**
+     * Makes {@code renderQuality} render a horizontal strip of the model's segment, see {@code CpuRenderingKernel.setStrip}.
+     * The strips of a segment join to the same image as the one rendered at once. Previous rendering is lost.
+     *
+     * @param firstRow    row of the segment that is the first row of the image
+     * @param segmentRows number of rows of the whole segment, or 0 if the image covers the whole segment (then {@code firstRow} must be 0)
+     */
+    public void setStrip(int firstRow, int segmentRows) {
+        kernelMain.setStrip(firstRow, segmentRows);
+        kernelRefine.setStrip(firstRow, segmentRows);
+        lastRendering = null;
+        refinable = false;
+    }
+
+    public int getWidth() {
+        return kernelMain.getWidth();
+    }
+
+    public int getHeight() {
+        return kernelMain.getHeight();
+    }
+
+    /**
+     * @param palette colors in RGBA (little endian, Red is the least significant)
+     */
+    public void setPalette(int[] palette) {
+        kernelCompose.setPalette(palette);
+    }
+
+    /**
+     * @param generation token of the next renderings, or null if they cannot be cancelled
+     */
+    public void setGeneration(GenerationCounter.Token generation) {
+        kernelMain.setGeneration(generation);
+        kernelAdvanced.setGeneration(generation);
+        kernelRefine.setGeneration(generation);
+        if (kernelOrbitDensity != null)
+            kernelOrbitDensity.setGeneration(generation);
+    }
+
+    /**
+     * @return whether the last rendering has been cancelled, i.e. its image has not been composed
+     */
+    public boolean isCancelled() {
+        return kernelMain.isCancelled();
+    }
+
+    /**
+     * @return the last rendered image, in RGBA (little endian, Red is the least significant), stored row by row. The array is reused by next renderings.
+     */
+    public int[] getImage() {
+        return image;
+    }
+
+    /**
+     * @return durations of the phases of the last rendering, resp. recomposition. The object is reused by next renderings.
+     */
+    public FramePhaseTimes getPhaseTimes() {
+        return phaseTimes;
+    }
+
+    /**
+     * @return work done by the last rendering. The object is reused by next renderings.
+     */
+    public WorkCounters getWorkCounters() {
+        return workCounters;
+    }
+
+    /**
+     * @see CpuKernelAdvanced#setMinReusedWeight(float)
+     */
+    public void setMinReusedWeight(float minReusedWeight) {
+        kernelAdvanced.setMinReusedWeight(minReusedWeight);
+    }
+
+    public CpuFractalRenderingModule getModule() {
+        return module;
+    }
+
+    /**
+     * Same semantics as {@code FractalRenderer.renderFast}: reuses the last rendering, if possible.
+     */
+    public void renderFast(RenderingModel model) {
+        if (kernelOrbitDensity != null) {
+            //the density of the orbits in a pixel depends on the whole view, nothing can be reused
+            renderQuality(model);
+            return;
+        }
+        phaseTimes.clear();
+        workCounters.reset();
+        if (model.isSampleReuseCacheDirty() || memory.isPrimary2DBufferDirty() || lastRendering == null) {
+            //if there is nothing to reuse, then create it
+            renderQuality(model, true);
+            return;
+        }
+
+        updateFloatPrecision(model);
+        updateSampleCache(model, true);
+
+        kernelAdvanced.setOriginSegment(lastRendering.getPlaneSegment());
+        kernelAdvanced.setParamsFromModel(model);
+        kernelAdvanced.setInput(memory.getPrimary2DBuffer());
+        kernelAdvanced.setOutput(memory.getSecondary2DBuffer());
+        launch(kernelAdvanced, RenderingPhase.reuse);
+        memory.switch2DBuffers();
+
+        lastRendering = model.copy();
+        refinable = false;
+        if (!isCancelled())
+            compose(model);
+    }
+
+    /**
+     * Same semantics as {@code FractalRenderer.renderQuality}: renders the image from scratch, or refines the last rendering of the same view.
+     */
+    public void renderQuality(RenderingModel model) {
+        renderQuality(model, false);
+    }
+
+    /**
+     * @param readSampleCache whether to take the pixels that are in the sample cache; the image is then not exact and cannot be refined
+     */
+    private void renderQuality(RenderingModel model, boolean readSampleCache) {
+        phaseTimes.clear();
+        workCounters.reset();
+        if (kernelOrbitDensity != null) {
+            renderOrbitDensity(model);
+            return;
+        }
+        updateFloatPrecision(model);
+        SampleTileCache.Layer cacheLayer = updateSampleCache(model, readSampleCache);
+
+        boolean refine = canRefine(model);
+        CpuKernelMain kernel = refine ? kernelRefine : kernelMain;
+        if (!refine)
+            memory.resetBufferOrder();
+        kernel.setParamsFromModel(model);
+        kernel.setOutput(memory.getPrimary2DBuffer());
+        launch(kernel, RenderingPhase.sampling);
+        //a cancelled refinement leaves some pixels with fewer samples than maxSuperSampling says
+        if (cacheLayer != null && !(refine && isCancelled())) {
+            PlaneSegment segment = model.getPlaneSegment();
+            double pixelHeight = kernel.getPixelHeight();
+            sampleCache.store(cacheLayer, segment.getLeftBottom().getX() + segment.getLeftBottomLow().getX(), segment.getRightTop().getY() + segment.getRightTopLow().getY() - kernel.getFirstRow() * pixelHeight,
+                    segment.getSegmentWidth() / getWidth(), pixelHeight, memory.getPrimary2DBuffer(), model.getMaxSuperSampling());
+        }
+
+        lastRendering = model.copy();
+        refinable = !isCancelled() && !readSampleCache;
+        memory.setPrimary2DBufferDirty(false);
+        model.setSampleReuseCacheDirty(false);
+        if (!isCancelled())
+            compose(model);
+    }
+
+    /**
+     * {@code renderQuality} of an OrbitDensityModule. Progressive rendering continues the sampling of the last rendering, like the refinement by CpuKernelRefine.
+     */
+    private void renderOrbitDensity(RenderingModel model) {
+        boolean refine = canRefine(model);
+        if (!refine)
+            memory.resetBufferOrder();
+        kernelOrbitDensity.setAccumulate(refine);
+        kernelOrbitDensity.setParamsFromModel(model);
+        kernelOrbitDensity.setOutput(memory.getPrimary2DBuffer());
+        launch(kernelOrbitDensity, RenderingPhase.sampling);
+
+        lastRendering = model.copy();
+        refinable = !isCancelled();
+        memory.setPrimary2DBufferDirty(false);
+        model.setSampleReuseCacheDirty(false);
+        if (!isCancelled())
+            compose(model);
+    }
+
+    /**
+     * @return whether the model asks for more samples of the view of the last rendering, which has been rendered by a finished {@code renderQuality}
+     */
+    private boolean canRefine(RenderingModel model) {
+        if (!refinable || memory.isPrimary2DBufferDirty() || lastRendering == null || model.isSampleReuseCacheDirty())
+            return false;
+        PlaneSegment segment = model.getPlaneSegment();
+        PlaneSegment lastSegment = lastRendering.getPlaneSegment();
+        return segment.getLeftBottomX().equals(lastSegment.getLeftBottomX())
+                && segment.getLeftBottomY().equals(lastSegment.getLeftBottomY())
+                && segment.getRightTopX().equals(lastSegment.getRightTopX())
+                && segment.getRightTopY().equals(lastSegment.getRightTopY())
+                && model.getMaxIterations() == lastRendering.getMaxIterations()
+                && model.isUseAdaptiveSuperSampling() == lastRendering.isUseAdaptiveSuperSampling()
+                && model.getFloatingPointPrecision() == lastRendering.getFloatingPointPrecision()
+                && model.getMaxSuperSampling() > lastRendering.getMaxSuperSampling();
+    }
+
+    /**
+     * Same semantics as {@code FractalRenderer.recompose}: transforms the last rendering to colors again, using the current palette and {@code visualiseSampleCount}.
+     */
+    public void recompose(RenderingModel model) {
+        if (memory.isPrimary2DBufferDirty() || lastRendering == null) {
+            renderQuality(model);
+            return;
+        }
+        phaseTimes.clear();
+        compose(model);
+    }
+
+    private void compose(RenderingModel model) {
+        kernelCompose.setParamsFromModel(model);
+        kernelCompose.setInput(memory.getPrimary2DBuffer());
+        kernelCompose.setOutput(image);
+        launch(kernelCompose, RenderingPhase.compose);
+    }
+
+    private void launch(CpuKernel kernel, RenderingPhase phase) {
+        long start = System.nanoTime();
+        kernel.launch(pool);
+        phaseTimes.add(phase, System.nanoTime() - start);
+    }
+
+    private void updateFloatPrecision(RenderingModel model) {
+        kernelMain.setParamsFromModel(model);
+        FloatPrecision precision = FloatPrecision.singlePrecision;
+        if (kernelMain.isSegmentBoundsAtFloatLimit()) {
+            precision = FloatPrecision.doublePrecision;
+        }
+        if (kernelMain.isSegmentBoundsAtDoubleLimit()) {
+            precision = FloatPrecision.doubleDoublePrecision;
+        }
+        if (kernelMain.isSegmentBoundsAtDoubleDoubleLimit()) {
+            precision = FloatPrecision.tooBig;
+        }
+        model.setFloatingPointPrecision(precision);
+        updatePerturbationReference(model, precision);
+    }
+
+    /**
+     * Enables the sample cache in both rendering kernels if the segment can be cached, i.e. it is rendered in single or double precision.
+     *
+     * @param read whether the kernels may read the cache; the layer to store the samples to is returned either way
+     * @return the layer of the cache to use, or null if the cache is not used
+     */
+    private SampleTileCache.Layer updateSampleCache(RenderingModel model, boolean read) {
+        SampleTileCache.Layer layer = null;
+        FloatPrecision precision = model.getFloatingPointPrecision();
+        if (sampleCache.isEnabled() && (precision == FloatPrecision.singlePrecision || precision == FloatPrecision.doublePrecision)) {
+            PlaneSegment segment = model.getPlaneSegment();
+            double pixelWidth = segment.getSegmentWidth() / getWidth();
+            if (SampleTileCache.isCacheable(segment.getLeftBottom().getX(), segment.getLeftBottom().getY(), pixelWidth)
+                    && SampleTileCache.isCacheable(segment.getRightTop().getX(), segment.getRightTop().getY(), pixelWidth)) {
+                layer = new SampleTileCache.Layer(getFractalName(), fractalCustomParams, model.getMaxIterations(), precision, model.isUseAdaptiveSuperSampling());
+            }
+        }
+        kernelMain.setSampleCache(layer == null || !read ? null : sampleCache, layer);
+        kernelAdvanced.setSampleCache(layer == null || !read ? null : sampleCache, layer);
+        //the refinement does not read the cache, the pixels are already there
+        return layer;
+    }
+
+    /**
+     * In the tooBig precision, computes a new perturbation reference at the center of the segment, if the module supports it.
+     */
+    private void updatePerturbationReference(RenderingModel model, FloatPrecision precision) {
+        PerturbationReference reference = null;
+        if (precision == FloatPrecision.tooBig) {
+            if (module instanceof QuadraticMapModule) {
+                PlaneSegment segment = model.getPlaneSegment();
+                BigDecimal two = BigDecimal.valueOf(2);
+                BigDecimal centerX = segment.getLeftBottomX().toBigDecimal().add(segment.getRightTopX().toBigDecimal()).divide(two);
+                BigDecimal centerY = segment.getLeftBottomY().toBigDecimal().add(segment.getRightTopY().toBigDecimal()).divide(two);
+                double pixelSize = Math.min(segment.getSegmentWidth() / getWidth(), kernelMain.getPixelHeight());
+                reference = PerturbationReference.compute((QuadraticMapModule) module, centerX, centerY, model.getMaxIterations(), pixelSize);
+                SimpleLogger.get().logRenderingInfo("CpuImageRenderer: tooBig precision, rendering with perturbation");
+            } else {
+                SimpleLogger.get().logRenderingInfo("CpuImageRenderer: tooBig precision with render()");
+            }
+        }
+        kernelMain.setPerturbationReference(reference);
+        kernelAdvanced.setPerturbationReference(reference);
+        kernelRefine.setPerturbationReference(reference);
+    }
+
+    public void setFractalCustomParams(String text) {
+        module.setFractalCustomParameters(text);
+        fractalCustomParams = text;
+    }
+
+    public String getFractalName() {
+        return module.getFractalName();
+    }
+
+    public void supplyDefaultValues(DefaultFractalModel model) {
+        module.supplyDefaultValues(model);
+    }
+}
@@ -0,0 +1,125 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.RenderingModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.GenerationCounter;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * CPU counterpart of a CUDA kernel: a function applied to every pixel of a {@code width} x {@code height} grid.
+ * <br>
+ * The grid is recursively split into rectangular tiles of at most {@code TILE_SIZE} x {@code TILE_SIZE} pixels, which are processed on a work-stealing ForkJoinPool.
+ * <br>
+ * A launch may be cancelled by a generation token: once the token is superseded, the remaining tiles are processed by {@code renderTileCancelled} instead of {@code renderTile}.
+ */
+public abstract class CpuKernel {
+
+    /**
+     * Maximal width and height of a tile, in pixels. Counterpart of the CUDA block dimension.
+     */
+    public static final int TILE_SIZE = 32;
+
+    private int width;
+    private int height;
+    private GenerationCounter.Token generation;
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public void setOutputSize(int width, int height) {
+        if (width < 0 || height < 0)
+            throw new IllegalArgumentException("width and height must be non-negative: " + width + ", " + height);
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * Allows setting kernel's parameters from the model.<br>
+     * Should be overridden by descendants.
+     *
+     * @param model values to use
+     */
+    public void setParamsFromModel(RenderingModel model) {
+        /* nothing */
+    }
+
+    /**
+     * @param generation token of the work the next launches belong to, or null if they cannot be cancelled
+     */
+    public void setGeneration(GenerationCounter.Token generation) {
+        this.generation = generation;
+    }
+
+    /**
+     * @return whether the work the current launch belongs to has been superseded
+     */
+    public boolean isCancelled() {
+        return generation != null && generation.isSuperseded();
+    }
+
+    /**
+     * Runs the kernel on every pixel of the grid and waits until all tiles are done.
+     *
+     * @param pool pool to run the tiles on
+     */
+    public void launch(ForkJoinPool pool) {
+        if (width <= 0 || height <= 0) return;
+        pool.invoke(new TileTask(0, 0, width, height));
+    }
+
+    /**
+     * Process all the pixels in the given tile, i.e. pixels (x,y) with {@code fromX <= x < toX} and {@code fromY <= y < toY}.
+     * <br>
+     * Called concurrently for distinct tiles, implementations must not share mutable per-pixel state among tiles.
+     */
+    protected abstract void renderTile(int fromX, int fromY, int toX, int toY);
+
+    /**
+     * Process the pixels of a tile that has not been started before the launch was cancelled.
+     * Should leave the output in a consistent state as cheaply as possible.
+     * <br>
+     * By default, the tile is processed as usual, i.e. the kernel cannot be cancelled.
+     */
+    protected void renderTileCancelled(int fromX, int fromY, int toX, int toY) {
+        renderTile(fromX, fromY, toX, toY);
+    }
+
+    private class TileTask extends RecursiveAction {
+        private final int fromX;
+        private final int fromY;
+        private final int toX;
+        private final int toY;
+
+        TileTask(int fromX, int fromY, int toX, int toY) {
+            this.fromX = fromX;
+            this.fromY = fromY;
+            this.toX = toX;
+            this.toY = toY;
+        }
+
+        @Override
+        protected void compute() {
+            int w = toX - fromX;
+            int h = toY - fromY;
+            if (w <= TILE_SIZE && h <= TILE_SIZE) {
+                if (CpuKernel.this.isCancelled()) //not ForkJoinTask.isCancelled
+                    renderTileCancelled(fromX, fromY, toX, toY);
+                else
+                    renderTile(fromX, fromY, toX, toY);
+            } else if (w >= h) {
+                //split along x, keeping the tile borders aligned to TILE_SIZE
+                int half = fromX + (w / TILE_SIZE + 1) / 2 * TILE_SIZE;
+                invokeAll(new TileTask(fromX, fromY, half, toY), new TileTask(half, fromY, toX, toY));
+            } else {
+                int half = fromY + (h / TILE_SIZE + 1) / 2 * TILE_SIZE;
+                invokeAll(new TileTask(fromX, fromY, toX, half), new TileTask(fromX, half, toX, toY));
+            }
+        }
+    }
+}
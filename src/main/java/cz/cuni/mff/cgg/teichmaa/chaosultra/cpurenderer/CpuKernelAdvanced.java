@@ -0,0 +1,352 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.PlaneSegment;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.RenderingModel;
+
+/**
+ * Java port of {@code fractalRenderAdvanced} from fractalRendererGeneric.cu:
+ * renders the fractal using adaptive super-sampling, foveated rendering and sample reuse.
+ */
+public class CpuKernelAdvanced extends CpuKernelMain {
+
+    /**
+     * Size of a CUDA warp in pixels. Foveation results are normalised per warp, which we mimic to get the same images as the CUDA renderer.
+     */
+    private static final int WARP_SIZE_X = 8;
+    private static final int WARP_SIZE_Y = 4;
+    private static final float SCREEN_DISTANCE = 60; //in cm
+    private static final float PIXEL_REAL_WIDTH_IN_CM = 0.02652f; //see http://www.prismo.ch/comparisons/desktop.php
+    /**
+     * Number of coarser levels of the sample cache that are searched for pixels that cannot be reused from the previous frame.
+     */
+    private static final int SAMPLE_CACHE_COARSER_LEVELS = 2;
+
+    public CpuKernelAdvanced(CpuFractalRenderingModule module) {
+        super(module);
+    }
+
+    @Override
+    public void setParamsFromModel(RenderingModel model) {
+        super.setParamsFromModel(model);
+        setFocus(model.getMouseFocus().getX(), model.getMouseFocus().getY());
+        setIsZooming(model.isZooming());
+        setZoomingIn(model.isZoomingIn());
+        setUseFoveation(model.isUseFoveatedRendering());
+        setUseSampleReuse(model.isUseSampleReuse());
+    }
+
+    private PixelInfoArray2D input;
+    private double origin_left_bottom_x;
+    private double origin_left_bottom_y;
+    private double origin_right_top_x;
+    private double origin_right_top_y;
+    private double origin_left_bottom_x_lo;
+    private double origin_left_bottom_y_lo;
+    private double origin_right_top_x_lo;
+    private double origin_right_top_y_lo;
+    private int focusX;
+    private int focusY;
+    private boolean zooming;
+    private boolean zoomingIn;
+    private boolean useFoveation;
+    private boolean useSampleReuse;
+    private float minReusedWeight = 0;
+
+    public void setOriginSegment(PlaneSegment segment) {
+        setOriginSegment(
+                segment.getLeftBottom().getX(),
+                segment.getLeftBottom().getY(),
+                segment.getRightTop().getX(),
+                segment.getRightTop().getY()
+        );
+        this.origin_left_bottom_x_lo = segment.getLeftBottomLow().getX();
+        this.origin_left_bottom_y_lo = segment.getLeftBottomLow().getY();
+        this.origin_right_top_x_lo = segment.getRightTopLow().getX();
+        this.origin_right_top_y_lo = segment.getRightTopLow().getY();
+    }
+
+    public void setOriginSegment(double left_bottom_x, double left_bottom_y, double right_top_x, double right_top_y) {
+        checkArgument(left_bottom_x, "origin segment left_bottom_x");
+        checkArgument(left_bottom_y, "origin segment left_bottom_y");
+        checkArgument(right_top_x, "origin segment right_top_x");
+        checkArgument(right_top_y, "origin segment right_top_y");
+        this.origin_left_bottom_x = left_bottom_x;
+        this.origin_left_bottom_y = left_bottom_y;
+        this.origin_right_top_x = right_top_x;
+        this.origin_right_top_y = right_top_y;
+        this.origin_left_bottom_x_lo = 0;
+        this.origin_left_bottom_y_lo = 0;
+        this.origin_right_top_x_lo = 0;
+        this.origin_right_top_y_lo = 0;
+    }
+
+    public void setInput(PixelInfoArray2D input) {
+        this.input = input;
+    }
+
+    public void setFocus(int x, int y) {
+        this.focusX = x;
+        this.focusY = y;
+    }
+
+    public void setIsZooming(boolean zooming) {
+        this.zooming = zooming;
+    }
+
+    public void setZoomingIn(boolean zoomingIn) {
+        this.zoomingIn = zoomingIn;
+    }
+
+    public void setUseFoveation(boolean value) {
+        this.useFoveation = value;
+    }
+
+    public void setUseSampleReuse(boolean value) {
+        this.useSampleReuse = value;
+    }
+
+    /**
+     * @param minReusedWeight if positive, the weight of the reused samples is divided by how many times the area of a pixel has grown since the previous frame,
+     *                        i.e. it becomes the number of samples per pixel, and the pixels whose reused weight falls below minReusedWeight are sampled again.
+     *                        That way, zooming in does not blur the image more and more. If 0 (the default), the reused samples are kept as they are.
+     */
+    public void setMinReusedWeight(float minReusedWeight) {
+        this.minReusedWeight = minReusedWeight;
+    }
+
+    @Override
+    protected void renderTile(int fromX, int fromY, int toX, int toY) {
+        SamplingContext ctx = newSamplingContext();
+        FoveationResult fovResult = new FoveationResult();
+        float[] reused = new float[2];
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                renderPixel(x, y, ctx, fovResult, reused);
+            }
+        }
+        countWork(ctx);
+    }
+
+    /**
+     * Reuses what can be reused, without taking any new samples. Pixels that cannot be reused are left unknown, i.e. with zero weight,
+     * so that the next frame samples them.
+     */
+    @Override
+    protected void renderTileCancelled(int fromX, int fromY, int toX, int toY) {
+        SamplingContext ctx = new SamplingContext();
+        SampleTileCache.Reader cacheReader = newSampleCacheReader();
+        float[] reused = new float[2];
+        PixelInfoArray2D output = getOutput();
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                if (useSampleReuse && readReusedSamples(x, y, reused)) {
+                    output.set(x, y, reused[0], reused[1], true, 0);
+                    ctx.reusedPixels++;
+                } else if (cacheReader != null && readFromSampleCache(x, y, cacheReader)) {
+                    output.set(x, y, cacheReader.value, cacheReader.weight, true, 0);
+                    ctx.cachedPixels++;
+                } else {
+                    output.set(x, y, 0, 0);
+                }
+            }
+        }
+        countWork(ctx);
+    }
+
+    /**
+     * Counterpart of {@code fov_result_t}
+     */
+    private static class FoveationResult {
+        float advisedSampleCount;
+        boolean isInsideFocusArea;
+    }
+
+    private void renderPixel(int x, int y, SamplingContext ctx, FoveationResult fovResult, float[] reused) {
+        //foveation - only if zooming in:
+        fovResult.advisedSampleCount = getMaxSuperSampling();
+        fovResult.isInsideFocusArea = false;
+        if (useFoveation && zooming && zoomingIn) {
+            getFoveationAdvisedSampleCount(x, y, fovResult);
+        }
+
+        //sample reuse
+        boolean reusingSamples = useSampleReuse && readReusedSamples(x, y, reused);
+
+        ctx.sampleCount = fovResult.advisedSampleCount;
+        PixelInfoArray2D output = getOutput();
+        if (reusingSamples) {
+            ctx.reusedPixels++;
+            float reusedValue = reused[0];
+            float reusedWeight = reused[1];
+            if (zoomingIn && fovResult.isInsideFocusArea) {
+                //if around the zooming center during zooming in, the reuse data is inaccurate -- we sample some more
+                float samples = sampleTheFractal(x, y, ctx);
+                reusedWeight *= 0.75;
+                float weight = reusedWeight + ctx.sampleCount;
+                float value = (reusedValue * reusedWeight + samples * ctx.sampleCount) / weight;
+                output.set(x, y, value, weight, true, ctx.sampleCount);
+            } else if (reusedWeight < minReusedWeight) {
+                //the reused samples have been spread over too many pixels by zooming in
+                if (ctx.sampleCount < 1) {
+                    ctx.sampleCount = 1;
+                }
+                float samples = sampleTheFractal(x, y, ctx);
+                float weight = reusedWeight + ctx.sampleCount;
+                float value = (reusedValue * reusedWeight + samples * ctx.sampleCount) / weight;
+                output.set(x, y, value, weight, true, ctx.sampleCount);
+            } else {
+                output.set(x, y, reusedValue, reusedWeight, true, 0);
+            }
+        } else if (ctx.cacheReader != null && readFromSampleCache(x, y, ctx.cacheReader)) {
+            //e.g. when panning back or zooming out, the pixel may have been rendered before
+            SampleTileCache.Reader reader = ctx.cacheReader;
+            output.set(x, y, reader.value, reader.weight, true, 0);
+            ctx.cachedPixels++;
+        } else {
+            ctx.resampledPixels++;
+            if (ctx.sampleCount < 1) {
+                ctx.sampleCount = 1; //at least one sample has to be taken somewhere
+            }
+            float value = sampleTheFractal(x, y, ctx);
+            output.set(x, y, value, ctx.sampleCount); //sampleCount is an in-out parameter
+        }
+    }
+
+    /**
+     * Reads the point represented by the given pixel from the previous frame.
+     *
+     * @param reused output parameter, reused[0] is the value, reused[1] the weight
+     * @return whether there are samples to reuse
+     */
+    private boolean readReusedSamples(int x, int y, float[] reused) {
+        double originX = getWarpingOriginOfSampleReuseX(x);
+        double originY = getWarpingOriginOfSampleReuseY(y);
+        long originIntX = Math.round(originX);
+        long originIntY = Math.round(originY);
+
+        if (originIntX < 2 || originIntX >= getWidth() - 2 || originIntY < 2 || originIntY >= getHeight() - 2) {
+            //if reusing would be out of bounds (i.e. no data to reuse)
+            return false;
+        }
+        readFromArrayUsingFiltering(originX, originY, reused);
+        if (reused[1] < 0.1)
+            return false;
+        if (minReusedWeight > 0) {
+            //a pixel of the previous frame covers (1 / areaRatio) pixels now
+            double areaRatio = getSegmentWidth() * getSegmentHeight() / (getOriginSegmentWidth() * getOriginSegmentHeight());
+            reused[1] *= (float) Math.min(1, areaRatio);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the pixel from the level of the sample cache that matches the current pixel size, or from the nearest coarser level that contains it.
+     */
+    private boolean readFromSampleCache(int x, int y, SampleTileCache.Reader reader) {
+        int level = getSampleCacheLevel();
+        for (int l = level; l >= level - SAMPLE_CACHE_COARSER_LEVELS; l--) {
+            if (readFromSampleCache(x, y, l, reader))
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * For given pixel in the current image, find x coordinate of the same point (=representing the same point in the fractal's complex plane) in the image being reused
+     */
+    private double getWarpingOriginOfSampleReuseX(int x) {
+        //computed relative to the origin segment, so that the precision is not lost during deep zooms
+        double shift = (getLeft_bottom_x() - origin_left_bottom_x) + (getLeft_bottom_x_lo() - origin_left_bottom_x_lo);
+        double pixel_in_plane = x / (double) getWidth() * getSegmentWidth() + shift;
+        double relative_in_old = pixel_in_plane / getOriginSegmentWidth();
+        return relative_in_old * getWidth();
+    }
+
+    /**
+     * Same as {@code getWarpingOriginOfSampleReuseX}, for the y coordinate, which goes in the opposite direction in the image than in the plane.
+     */
+    private double getWarpingOriginOfSampleReuseY(int y) {
+        int p = getHeight() - y; //switch y coordinate direction
+        double shift = (getLeft_bottom_y() - origin_left_bottom_y) + (getLeft_bottom_y_lo() - origin_left_bottom_y_lo);
+        double pixel_in_plane = p / (double) getHeight() * getSegmentHeight() + shift;
+        double relative_in_old = pixel_in_plane / getOriginSegmentHeight();
+        return getHeight() - relative_in_old * getHeight();
+    }
+
+    private double getOriginSegmentWidth() {
+        return (origin_right_top_x - origin_left_bottom_x) + (origin_right_top_x_lo - origin_left_bottom_x_lo);
+    }
+
+    private double getOriginSegmentHeight() {
+        return (origin_right_top_y - origin_left_bottom_y) + (origin_right_top_y_lo - origin_left_bottom_y_lo);
+    }
+
+    /**
+     * Reads the input using linear filtering.
+     *
+     * @param result output parameter, result[0] is the value, result[1] the weight. The weight is 0 if any of the filtered pixels is unknown
+     *               (e.g. left by a cancelled frame), as its zero value would darken the result.
+     */
+    private void readFromArrayUsingFiltering(double xB, double yB, float[] result) {
+        int i = (int) Math.floor(xB);
+        int j = (int) Math.floor(yB);
+        double alpha = xB - i;
+        double beta = yB - j;
+
+        int i_j = input.index(i, j);
+        int ip_j = input.index(i + 1, j);
+        int i_jp = input.index(i, j + 1);
+        int ip_jp = input.index(i + 1, j + 1);
+
+        float w_i_j = input.getWeight(i_j);
+        float w_ip_j = input.getWeight(ip_j);
+        float w_i_jp = input.getWeight(i_jp);
+        float w_ip_jp = input.getWeight(ip_jp);
+        if (w_i_j <= 0 || w_ip_j <= 0 || w_i_jp <= 0 || w_ip_jp <= 0) {
+            result[0] = 0;
+            result[1] = 0;
+            return;
+        }
+        result[0] = (float) ((1 - alpha) * (1 - beta) * input.getValue(i_j) +
+                alpha * (1 - beta) * input.getValue(ip_j) +
+                (1 - alpha) * beta * input.getValue(i_jp) +
+                alpha * beta * input.getValue(ip_jp));
+        result[1] = (float) ((1 - alpha) * (1 - beta) * w_i_j +
+                alpha * (1 - beta) * w_ip_j +
+                (1 - alpha) * beta * w_i_jp +
+                alpha * beta * w_ip_jp);
+    }
+
+    /**
+     * Returns how many samples this pixel should take, based on foveation. <br>
+     * Value is between 0 and maxSuperSampling, resp 0 or 1 for maxSuperSampling < 1. <br>
+     * Value in the focus will always be maxSuperSampling for maxSuperSampling >=1. <br>
+     * Returned value is the same for all pixels within a warp.
+     *
+     * @param result output parameter
+     */
+    private void getFoveationAdvisedSampleCount(int x, int y, FoveationResult result) {
+        float maxSuperSampling = getMaxSuperSampling();
+        //per-warp normalisation, i.e. set all pixels from a warp to same value
+        int xN = x - x % WARP_SIZE_X;
+        int yN = y - y % WARP_SIZE_Y;
+
+        float fovealViewTreshold = maxSuperSampling >= 1 ? 5.5f : 5.5f * maxSuperSampling; //in degrees
+        float peripheralViewTreshold = 60;  //in degrees
+
+        float focusDistance = (float) Math.hypot(focusX - xN, focusY - yN) * PIXEL_REAL_WIDTH_IN_CM; //distance to focus, translated to cm
+        // visual angle for one eye, i.e possible values are from 0 to ~ 110
+        float visualAngle = (float) (Math.atan(focusDistance / SCREEN_DISTANCE) * 180 / Math.PI); //from https://en.wikipedia.org/wiki/Visual_angle
+
+        //used model for (visualAngle -> relativeQuality): in (0,fovealViewTreshold): a constant function that yields 1, in (fovealViewTreshold, peripheralViewTreshold): descending linear function from 1 to 0
+        float k = (0 - 1) / (peripheralViewTreshold - fovealViewTreshold);
+        float q = (peripheralViewTreshold * 1 - 0 * fovealViewTreshold) / (peripheralViewTreshold - fovealViewTreshold);
+        float relativeQuality = Math.min(1, k * visualAngle + q);
+
+        result.advisedSampleCount = Math.max(0, maxSuperSampling * relativeQuality);
+        if (visualAngle <= fovealViewTreshold) {
+            result.advisedSampleCount = Math.max(1, result.advisedSampleCount); //always return at least 1 for pixels within the foveal field of view
+            result.isInsideFocusArea = true;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.RenderingModel;
+
+/**
+ * Java port of {@code compose} from fractalRendererGeneric.cu:
+ * transforms the sampled {@code input} to the final colors and writes them to {@code output}.
+ */
+public class CpuKernelCompose extends CpuKernel {
+
+    private final CpuFractalRenderingModule module;
+
+    public CpuKernelCompose(CpuFractalRenderingModule module) {
+        this.module = module;
+    }
+
+    @Override
+    public void setParamsFromModel(RenderingModel model) {
+        super.setParamsFromModel(model);
+        setMaxSuperSampling(model.getMaxSuperSampling());
+        setVisualiseSampleCount(model.isVisualiseSampleCount());
+    }
+
+    private PixelInfoArray2D input;
+    private int[] output;
+    private int[] palette;
+    private float maxSuperSampling;
+    private boolean visualiseSampleCount;
+
+    public void setInput(PixelInfoArray2D input) {
+        this.input = input;
+    }
+
+    /**
+     * @param output array to write the colors to, in RGBA (little endian, Red is the least significant), row by row
+     */
+    public void setOutput(int[] output) {
+        this.output = output;
+    }
+
+    /**
+     * @param palette colors in RGBA (little endian, Red is the least significant)
+     */
+    public void setPalette(int[] palette) {
+        this.palette = palette;
+    }
+
+    /**
+     * is here only for the purpose of visualizing the sample count
+     */
+    public void setMaxSuperSampling(float maxSuperSampling) {
+        this.maxSuperSampling = maxSuperSampling;
+    }
+
+    public void setVisualiseSampleCount(boolean visualiseSampleCount) {
+        this.visualiseSampleCount = visualiseSampleCount;
+    }
+
+    @Override
+    protected void renderTile(int fromX, int fromY, int toX, int toY) {
+        int width = getWidth();
+        int sampleCount100Percent = (int) Math.max(1, maxSuperSampling);
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                int i = input.index(x, y);
+                int resultColor;
+                if (visualiseSampleCount) {
+                    if (input.isReused(i))
+                        resultColor = colorizeSampleCount(input.getWeightOfNewSamples(i), sampleCount100Percent);
+                    else
+                        resultColor = colorizeSampleCount(input.getWeight(i), sampleCount100Percent);
+                } else {
+                    resultColor = module.colorize(palette, input.getValue(i));
+                }
+                output[y * width + x] = resultColor;
+            }
+        }
+    }
+
+    /**
+     * Transform sampleCount to color in linear grayscale from black (0) to white (sampleCount100Percent)
+     *
+     * @param sampleCount will be trimmed to be lesser or equal to sampleCount100Percent.
+     */
+    static int colorizeSampleCount(float sampleCount, int sampleCount100Percent) {
+        int sampleCountI = Math.min((int) sampleCount, sampleCount100Percent);
+        int gray = 255 * sampleCountI / sampleCount100Percent;
+        return 0xff000000 | gray << 16 | gray << 8 | gray;
+    }
+}
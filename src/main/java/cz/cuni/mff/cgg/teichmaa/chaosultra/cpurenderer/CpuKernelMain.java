@@ -0,0 +1,512 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.RenderingModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.PointDoubleReadable;
+
+import static cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRenderer.MAX_SUPER_SAMPLING;
+
+/**
+ * Java port of {@code fractalRenderMain} from fractalRendererGeneric.cu:
+ * renders the fractal using adaptive super-sampling but no other heuristics.
+ */
+public class CpuKernelMain extends CpuRenderingKernel {
+
+    /**
+     * Number of first samples that are kept for the computation of dispersion by the adaptive super-sampling.
+     */
+    static final int ADAPTIVE_TRESHOLD = 10;
+    static final float DISPERSION_TRESHOLD = 0.01f;
+    static final float FLT_EPSILON = Math.ulp(1f);
+    /**
+     * Pixels whose distance estimate is at least this many pixel diagonals are sampled only once. The true distance is at least half of the estimate,
+     * so the boundary of the fractal does not cross such a pixel.
+     */
+    static final float DISTANCE_ESTIMATION_TRESHOLD = 2;
+    /**
+     * Rectangles with at most this many interior pixels are not subdivided further by the Mariani-Silver subdivision, but rendered pixel by pixel.
+     */
+    private static final int MARIANI_SILVER_MIN_AREA = 16;
+
+    public CpuKernelMain(CpuFractalRenderingModule module) {
+        super(module);
+        setMaxSuperSampling(1);
+        setUseAdaptiveSuperSampling(true);
+    }
+
+    @Override
+    public void setParamsFromModel(RenderingModel model) {
+        super.setParamsFromModel(model);
+        setUseAdaptiveSuperSampling(model.isUseAdaptiveSuperSampling());
+        setMaxSuperSampling(model.getMaxSuperSampling());
+    }
+
+    private float maxSuperSampling;
+    private boolean useAdaptiveSuperSampling;
+    private boolean useMarianiSilver;
+    private boolean useDistanceEstimation;
+    private PixelInfoArray2D output;
+    private SampleTileCache sampleCache;
+    private SampleTileCache.Layer sampleCacheLayer;
+    private WorkCounters workCounters;
+
+    public float getMaxSuperSampling() {
+        return maxSuperSampling;
+    }
+
+    public void setMaxSuperSampling(float maxSuperSampling) {
+        this.maxSuperSampling = maxSuperSampling;
+    }
+
+    public boolean getUseAdaptiveSuperSampling() {
+        return useAdaptiveSuperSampling;
+    }
+
+    public void setUseAdaptiveSuperSampling(boolean useAdaptiveSuperSampling) {
+        this.useAdaptiveSuperSampling = useAdaptiveSuperSampling;
+    }
+
+    PixelInfoArray2D getOutput() {
+        return output;
+    }
+
+    public void setOutput(PixelInfoArray2D output) {
+        this.output = output;
+    }
+
+    public boolean getUseMarianiSilver() {
+        return useMarianiSilver;
+    }
+
+    /**
+     * @param useMarianiSilver whether to use the Mariani-Silver subdivision for modules that allow it (see {@code isMarianiSilverApplicable})
+     */
+    public void setUseMarianiSilver(boolean useMarianiSilver) {
+        this.useMarianiSilver = useMarianiSilver;
+    }
+
+    public boolean getUseDistanceEstimation() {
+        return useDistanceEstimation;
+    }
+
+    /**
+     * @param useDistanceEstimation whether the adaptive super-sampling should take just one sample of the pixels far from the boundary of the fractal,
+     *                              for modules that estimate the distance (see {@code isDistanceEstimationApplicable})
+     */
+    public void setUseDistanceEstimation(boolean useDistanceEstimation) {
+        this.useDistanceEstimation = useDistanceEstimation;
+    }
+
+    /**
+     * @param cache cache to read the pixels from, or null not to use any. The pixels read from the cache are marked as reused.
+     * @param layer layer of the cache that matches the current fractal and its parameters
+     */
+    public void setSampleCache(SampleTileCache cache, SampleTileCache.Layer layer) {
+        this.sampleCache = cache;
+        this.sampleCacheLayer = layer;
+    }
+
+    /**
+     * @return pyramid level of the sample cache that matches the current pixel size
+     */
+    int getSampleCacheLevel() {
+        return SampleTileCache.getLevel(getSegmentWidth() / getWidth());
+    }
+
+    /**
+     * Reads the sample of the pixel's center from the given level of the sample cache.
+     *
+     * @return whether the pixel has been found; if so, the sample is available in the reader
+     */
+    boolean readFromSampleCache(int x, int y, int level, SampleTileCache.Reader reader) {
+        double pixelWidth = getSegmentWidth() / getWidth();
+        double pixelHeight = getPixelHeight();
+        double centerX = getLeft_bottom_x() + getLeft_bottom_x_lo() + (x + 0.5) * pixelWidth;
+        double centerY = getRight_top_y() + getRight_top_y_lo() - (getFirstRow() + y + 0.5) * pixelHeight;
+        return reader.read(level, centerX, centerY);
+    }
+
+    /**
+     * Copies the pixel from the sample cache to the output, if it has been rendered with at least the current maxSuperSampling.
+     */
+    private boolean renderFromSampleCache(int x, int y, SamplingContext ctx) {
+        SampleTileCache.Reader reader = ctx.cacheReader;
+        if (reader == null || !readFromSampleCache(x, y, getSampleCacheLevel(), reader) || reader.maxSuperSampling < maxSuperSampling)
+            return false;
+        output.set(x, y, reader.value, reader.weight, true, 0);
+        ctx.cachedPixels++;
+        return true;
+    }
+
+    SampleTileCache.Reader newSampleCacheReader() {
+        return sampleCache == null ? null : sampleCache.newReader(sampleCacheLayer);
+    }
+
+    /**
+     * @return context for rendering a tile
+     */
+    SamplingContext newSamplingContext() {
+        SamplingContext ctx = new SamplingContext();
+        ctx.cacheReader = newSampleCacheReader();
+        int maxIterations = getMaxIterations();
+        ctx.maxIterationsValue = module instanceof QuadraticMapModule ? ((QuadraticMapModule) module).escapeTimeToFractalValue(maxIterations, maxIterations) : maxIterations;
+        ctx.estimateDistance = useDistanceEstimation && useAdaptiveSuperSampling && Math.round(maxSuperSampling) > 1 && isDistanceEstimationApplicable();
+        IterationCounter.take(); //the iterations of the tile are counted from here on
+        return ctx;
+    }
+
+    /**
+     * @param workCounters counters to add the work done by the next launches to, or null not to count it
+     */
+    public void setWorkCounters(WorkCounters workCounters) {
+        this.workCounters = workCounters;
+    }
+
+    /**
+     * Adds the work counted in the context, together with the iterations counted by the IterationCounter since {@code newSamplingContext}, to the work counters, if any.
+     */
+    void countWork(SamplingContext ctx) {
+        ctx.iterations += IterationCounter.take();
+        if (workCounters != null)
+            workCounters.add(ctx);
+    }
+
+    @Override
+    protected void renderTile(int fromX, int fromY, int toX, int toY) {
+        SamplingContext ctx = newSamplingContext();
+        //the first samples of a row are computed at once, together with their distance estimates, the remaining ones depend on the adaptive super-sampling
+        if (canComputeRows() && maxSuperSampling >= 1) {
+            ctx.row = new RowBuffer();
+        }
+        if (useMarianiSilver && toX - fromX > 2 && toY - fromY > 2 && isMarianiSilverApplicable()) {
+            renderRow(fromX, toX, fromY, ctx);
+            renderRow(fromX, toX, toY - 1, ctx);
+            renderColumn(fromX, fromY + 1, toY - 1, ctx);
+            renderColumn(toX - 1, fromY + 1, toY - 1, ctx);
+            subdivide(fromX, fromY, toX - 1, toY - 1, ctx);
+        } else {
+            for (int y = fromY; y < toY; y++) {
+                renderRow(fromX, toX, y, ctx);
+            }
+        }
+        countWork(ctx);
+    }
+
+    /**
+     * Takes what the sample cache offers and leaves the other pixels unknown, i.e. with zero weight.
+     */
+    @Override
+    protected void renderTileCancelled(int fromX, int fromY, int toX, int toY) {
+        SamplingContext ctx = newSamplingContext();
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                if (!renderFromSampleCache(x, y, ctx))
+                    output.set(x, y, 0, 0);
+            }
+        }
+        countWork(ctx);
+    }
+
+    private void renderRow(int fromX, int toX, int y, SamplingContext ctx) {
+        boolean[] cached = ctx.cached;
+        int cachedCount = 0;
+        for (int x = fromX; x < toX; x++) {
+            cached[x - fromX] = renderFromSampleCache(x, y, ctx);
+            if (cached[x - fromX])
+                cachedCount++;
+        }
+        if (cachedCount == toX - fromX)
+            return;
+        RowBuffer row = ctx.row;
+        if (row != null) {
+            double pixelWidth = getSegmentWidth() / getWidth();
+            double pixelHeight = getPixelHeight();
+            computeFractalRowAtOffsets(fromX, toX - fromX, pixelWidth, (getFirstRow() + y) * pixelHeight, ctx.estimateDistance, row);
+        }
+        for (int x = fromX; x < toX; x++) {
+            if (cached[x - fromX])
+                continue;
+            ctx.sampleCount = maxSuperSampling;
+            ctx.hasFirstSample = row != null;
+            if (row != null) {
+                ctx.firstSample = row.values[x - fromX];
+                ctx.distance[0] = row.distances[x - fromX];
+            }
+            float result = sampleTheFractal(x, y, ctx);
+            output.set(x, y, result, ctx.sampleCount);
+            if (ctx.converged)
+                output.setConverged(x, y);
+        }
+    }
+
+    private void renderColumn(int x, int fromY, int toY, SamplingContext ctx) {
+        for (int y = fromY; y < toY; y++) {
+            if (renderFromSampleCache(x, y, ctx))
+                continue;
+            ctx.sampleCount = maxSuperSampling;
+            ctx.hasFirstSample = false;
+            float result = sampleTheFractal(x, y, ctx);
+            output.set(x, y, result, ctx.sampleCount);
+            if (ctx.converged)
+                output.setConverged(x, y);
+        }
+    }
+
+    /**
+     * The Mariani-Silver subdivision is correct for fractals whose level sets of escape time are connected and simply connected, which holds for the Mandelbrot set and connected Julia sets.
+     */
+    private boolean isMarianiSilverApplicable() {
+        return isConnectedQuadraticMap();
+    }
+
+    /**
+     * The distance estimate bounds the true distance only for connected sets (see QuadraticMapDistance), and it is computed only directly in single or double precision.
+     */
+    private boolean isDistanceEstimationApplicable() {
+        return module instanceof DistanceEstimatingModule && canComputeRows() && isConnectedQuadraticMap();
+    }
+
+    /**
+     * @return whether the fractal is the Mandelbrot set or a connected Julia set. A Julia set is connected iff the orbit of zero does not escape.
+     */
+    private boolean isConnectedQuadraticMap() {
+        if (!(module instanceof QuadraticMapModule))
+            return false;
+        PointDoubleReadable c = ((QuadraticMapModule) module).getFixedParameter();
+        return c == null || QuadraticMapLanes.escapeTime(getMaxIterations(), 0, 0, c.getX(), c.getY()) == getMaxIterations();
+    }
+
+    /**
+     * Mariani-Silver subdivision: renders the interior of the rectangle {@code [left, right] x [top, bottom]} (inclusive), whose border has already been rendered.
+     * If all the border pixels have the same value, then so do all the interior pixels, which are filled without sampling.
+     * Otherwise, the rectangle is split in two by a new row or column, and both halves are processed recursively.
+     * <br>
+     * A level set of escape time may lie completely inside a rectangle only if the rectangle contains the whole fractal, and thus the point zero.
+     * Such rectangles are never filled.
+     */
+    private void subdivide(int left, int top, int right, int bottom, SamplingContext ctx) {
+        if (right - left < 2 || bottom - top < 2)
+            return; //no interior
+        if (isBorderUniform(left, top, right, bottom) && !containsZero(left, top, right, bottom)) {
+            float value = output.getValue(left, top);
+            float weight = output.getWeight(left, top);
+            for (int y = top + 1; y < bottom; y++) {
+                for (int x = left + 1; x < right; x++) {
+                    output.set(x, y, value, weight);
+                    output.setConverged(x, y);
+                }
+            }
+        } else if ((right - left - 1) * (bottom - top - 1) <= MARIANI_SILVER_MIN_AREA) {
+            for (int y = top + 1; y < bottom; y++) {
+                renderRow(left + 1, right, y, ctx);
+            }
+        } else if (right - left >= bottom - top) {
+            int middle = (left + right) / 2;
+            renderColumn(middle, top + 1, bottom, ctx);
+            subdivide(left, top, middle, bottom, ctx);
+            subdivide(middle, top, right, bottom, ctx);
+        } else {
+            int middle = (top + bottom) / 2;
+            renderRow(left + 1, right, middle, ctx);
+            subdivide(left, top, right, middle, ctx);
+            subdivide(left, middle, right, bottom, ctx);
+        }
+    }
+
+    private boolean isBorderUniform(int left, int top, int right, int bottom) {
+        float value = output.getValue(left, top);
+        for (int x = left; x <= right; x++) {
+            if (output.getValue(x, top) != value || output.getValue(x, bottom) != value)
+                return false;
+        }
+        for (int y = top + 1; y < bottom; y++) {
+            if (output.getValue(left, y) != value || output.getValue(right, y) != value)
+                return false;
+        }
+        return true;
+    }
+
+    private boolean containsZero(int left, int top, int right, int bottom) {
+        double pixelWidth = getSegmentWidth() / getWidth();
+        double pixelHeight = getPixelHeight();
+        double leftX = getLeft_bottom_x() + getLeft_bottom_x_lo() + left * pixelWidth;
+        double rightX = getLeft_bottom_x() + getLeft_bottom_x_lo() + (right + 1) * pixelWidth;
+        double topY = getRight_top_y() + getRight_top_y_lo() - (getFirstRow() + top) * pixelHeight;
+        double bottomY = getRight_top_y() + getRight_top_y_lo() - (getFirstRow() + bottom + 1) * pixelHeight;
+        return leftX <= 0 && 0 <= rightX && bottomY <= 0 && 0 <= topY;
+    }
+
+    /**
+     * Per-tile scratch memory of {@code sampleTheFractal}.
+     */
+    static class SamplingContext {
+        final float[] samples = new float[ADAPTIVE_TRESHOLD];
+        /**
+         * In-out parameter of {@code sampleTheFractal}: maximum number of samples to take, resp. actual number of samples taken.
+         */
+        float sampleCount;
+        /**
+         * Output parameter of {@code sampleTheFractal}: whether the adaptive super-sampling has found the pixel uniform, so that it would not take more samples even with higher maxSuperSampling.
+         */
+        boolean converged;
+        /**
+         * If set, {@code sampleTheFractal} uses {@code firstSample} instead of computing its first sample, i.e. the one at the top left corner of the pixel,
+         * and the distance estimate of it in {@code distance} if it estimates the distance.
+         */
+        boolean hasFirstSample;
+        float firstSample;
+        /**
+         * whether {@code sampleTheFractal} estimates the distance by its first sample, see {@code isDistanceEstimationApplicable}
+         */
+        boolean estimateDistance;
+        /**
+         * Output parameter of {@code computeFractalAtOffset}, see DistanceEstimatingModule, resp. the distance estimate of {@code firstSample}.
+         */
+        final float[] distance = new float[1];
+        /**
+         * null if the rows cannot be computed at once
+         */
+        RowBuffer row;
+        /**
+         * null if the sample cache is not used
+         */
+        SampleTileCache.Reader cacheReader;
+        /**
+         * Scratch memory of {@code renderRow}: whether the pixel has been read from the sample cache.
+         */
+        final boolean[] cached = new boolean[TILE_SIZE];
+        /**
+         * fractal value of samples that reached maxIterations
+         */
+        float maxIterationsValue;
+
+        /*
+         * Work done in the tile, see WorkCounters.
+         */
+        long iterations;
+        long samplesTaken;
+        long sampledPixels;
+        long maxIterationSamples;
+        long adaptiveEarlyExits;
+        long maxIterationPixels;
+        long reusedPixels;
+        long resampledPixels;
+        long cachedPixels;
+        long distanceEstimatedPixels;
+
+        void resetCounters() {
+            iterations = samplesTaken = sampledPixels = maxIterationSamples = adaptiveEarlyExits = maxIterationPixels = reusedPixels = resampledPixels = cachedPixels = distanceEstimatedPixels = 0;
+        }
+    }
+
+    /**
+     * Dispersion in this context is "Index of dispersion", aka variance-to-mean ratio. See https://en.wikipedia.org/wiki/Index_of_dispersion for more details
+     */
+    static float computeDispersion(float[] data, int dataLength, float mean) {
+        int n = dataLength;
+        float variance = 0;
+        for (int i = 0; i < dataLength; i++) {
+            //using numerically stable Two-Pass algorithm, https://en.wikipedia.org/wiki/Algorithms_for_calculating_variance#Two-pass_algorithm
+            variance += (data[i] - mean) * (data[i] - mean);
+        }
+        variance /= (n - 1);
+        return variance / mean;
+    }
+
+    /**
+     * @param pixelX pixel to sample
+     * @param pixelY pixel to sample
+     * @param ctx    ctx.sampleCount is the maximum number of samples to take. Actual number of samples taken will be stored there before returning. The float value will always be round to the nearest int. If adaptiveSS==false, the value will not change (apart from rounding).
+     * @return mean fractal value of all the samples taken
+     */
+    float sampleTheFractal(int pixelX, int pixelY, SamplingContext ctx) {
+        float sampleCountF = ctx.sampleCount;
+        ctx.converged = false;
+        if (sampleCountF < 1) {
+            ctx.sampleCount = 0;
+            return 0;
+        }
+        int sampleCount = Math.min(MAX_SUPER_SAMPLING, Math.round(sampleCountF));
+        int maxSampleCount = sampleCount;
+        float[] samples = ctx.samples;
+
+        //We are in a complex plane from {@code left_bottom} to {@code right_top}, so we scale the pixels to it
+        double pixelWidth = getSegmentWidth() / getWidth();
+        double pixelHeight = getPixelHeight();
+        int row = getFirstRow() + pixelY;
+        boolean estimateDistance = ctx.estimateDistance && sampleCount > 1;
+        final int skipFirst = 2;
+        float samplesPerRowF = (float) Math.sqrt(sampleCountF - skipFirst);
+        int samplesPerRowI = Math.max(1, Math.round(samplesPerRowF));
+
+        long escapeTimeSum = 0;
+        int maxIterationSamples = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            double dx;
+            double dy;
+            // first {@code skipFirst} samples are taken differently
+            if (i <= skipFirst) {
+                dx = dy = i / (double) (skipFirst + 1);
+            } else {
+                dx = ((i - skipFirst) % samplesPerRowI) / samplesPerRowF;
+                dy = ((i - skipFirst) / samplesPerRowI) / samplesPerRowF;
+            }
+
+            // a point in the complex plane that is to be rendered
+            // c = {LT} {+,-} ((pixel+delta) * pixelSize)
+            int escapeTime;
+            if (i == 0 && ctx.hasFirstSample)
+                escapeTime = (int) ctx.firstSample;
+            else if (i == 0 && estimateDistance)
+                escapeTime = (int) computeFractalAtOffset(pixelX * pixelWidth, row * pixelHeight, ctx.distance);
+            else
+                escapeTime = (int) computeFractalAtOffset((pixelX + dx) * pixelWidth, (row + dy) * pixelHeight);
+            escapeTimeSum += escapeTime;
+            if (escapeTime == ctx.maxIterationsValue)
+                maxIterationSamples++;
+            if (i < ADAPTIVE_TRESHOLD) {
+                samples[i] = escapeTime;
+            }
+
+            //far from the boundary, the pixel is uniform up to the bands of escape time
+            if (i == 0 && estimateDistance && ctx.distance[0] >= DISTANCE_ESTIMATION_TRESHOLD * Math.hypot(pixelWidth, pixelHeight)) {
+                sampleCount = 1;
+                ctx.converged = true;
+                ctx.distanceEstimatedPixels++;
+                break;
+            }
+
+            //decide whether to continue with supersampling or not
+            if (useAdaptiveSuperSampling && ((i > 0 && i < ADAPTIVE_TRESHOLD) || (i == sampleCount / 2))) {
+                float mean = escapeTimeSum / (float) (i + 1);
+                float dispersion = computeDispersion(samples, Math.min(i + 1, ADAPTIVE_TRESHOLD), mean);
+
+                if (i == 1 && Math.abs(samples[0] - samples[1]) < FLT_EPSILON) {
+                    sampleCount = i + 1; //terminating this cycle and storing info about actual number of samples taken
+                    ctx.converged = true;
+                } else if (dispersion < DISPERSION_TRESHOLD) { // uniform distribution - not chaotic
+                    sampleCount = i + 1;
+                    ctx.converged = true;
+                } else if (dispersion <= 1 && i >= sampleCount / 2) { //not that much chaotic -- take up to half of max allowed samples
+                    sampleCount = i + 1; //not converged: with higher maxSuperSampling, more samples would be taken
+                }
+                //else: chaotic
+            }
+        }
+        ctx.sampleCount = sampleCount; //write to the input-output param
+        countPixel(sampleCount, maxSampleCount, maxIterationSamples, ctx);
+        return escapeTimeSum / (float) sampleCount;
+    }
+
+    /**
+     * Counts the work of a sampled pixel (except its iterations, which are counted by the IterationCounter).
+     */
+    static void countPixel(int sampleCount, int maxSampleCount, int maxIterationSamples, SamplingContext ctx) {
+        ctx.samplesTaken += sampleCount;
+        ctx.sampledPixels++;
+        ctx.maxIterationSamples += maxIterationSamples;
+        if (sampleCount < maxSampleCount)
+            ctx.adaptiveEarlyExits++;
+        if (maxIterationSamples == sampleCount)
+            ctx.maxIterationPixels++;
+    }
+}
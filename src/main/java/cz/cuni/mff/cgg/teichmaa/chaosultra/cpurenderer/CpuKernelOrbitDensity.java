@@ -0,0 +1,377 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.RenderingModel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+import static cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRenderer.MAX_SUPER_SAMPLING;
+
+/**
+ * Renders the density of the escaping orbits of an OrbitDensityModule (e.g. the Buddhabrot): samples points {@code c}, iterates their orbits
+ * and counts the orbit points that fall into each pixel. The samples are orbits, {@code maxSuperSampling} orbits per pixel are sampled.
+ * <br>
+ * Every worker thread runs its own chain of samples and counts to its own histogram, so the threads share no mutable state while sampling;
+ * the histograms are summed tile by tile when all the chains have finished. The value of a pixel is its density relative to the mean density of the view.
+ * <br>
+ * A view smaller than the fractal is hit by few of the uniformly sampled orbits, and a deep zoom by almost none. Therefore, with Metropolis-Hastings sampling,
+ * the chains sample {@code c} proportionally to its contribution, the number of its orbit points in the view: a chain proposes either a small mutation of its current point
+ * (a step of log-uniform length, relative to the size of the view), or a uniformly sampled point, and accepts it with probability {@code min(1, proposed / current contribution)}.
+ * An orbit is counted with weight {@code 1 / contribution}, which makes the histogram unbiased up to a constant factor, which the normalization to the mean density removes.
+ * Both the proposed and the current orbit are counted, weighted by the acceptance probability and its complement (the expected value of the step), which reduces the noise.
+ * The first point of a chain is found by uniform sampling, followed by a descent towards the view from the orbit that has come closest to it.
+ * <br>
+ * A rendering of the same view with higher maxSuperSampling may continue the chains and add to the histograms, see {@code setAccumulate}.
+ * The orbits are computed in double precision.
+ */
+public class CpuKernelOrbitDensity extends CpuRenderingKernel {
+
+    /**
+     * the points {@code c} are sampled in {@code [-SAMPLING_RADIUS, SAMPLING_RADIUS]^2}
+     */
+    private static final double SAMPLING_RADIUS = 2;
+    private static final double LARGE_MUTATION_PROBABILITY = 0.1;
+    /*
+     * bounds of the length of a small mutation, relative to the size of the view
+     */
+    private static final double MIN_MUTATION = 1e-6;
+    private static final double MAX_MUTATION = 0.1;
+    /**
+     * maximal number of uniform samples, resp. of steps of the descent, taken to find the first point of a chain whose orbit hits the view
+     */
+    private static final int SEED_ATTEMPTS = 10000;
+    private static final int CANCELLATION_CHECK_INTERVAL = 256;
+
+    private final OrbitDensityModule densityModule;
+    private float maxSuperSampling;
+    private boolean accumulate;
+    private PixelInfoArray2D output;
+    private WorkCounters workCounters;
+    private Chain[] chains = new Chain[0];
+    /**
+     * number of orbits sampled to the histograms of the chains
+     */
+    private long orbits;
+    private double meanDensity;
+
+    public CpuKernelOrbitDensity(CpuFractalRenderingModule module) {
+        super(module);
+        if (!(module instanceof OrbitDensityModule))
+            throw new IllegalArgumentException(module + " is not an OrbitDensityModule.");
+        this.densityModule = (OrbitDensityModule) module;
+        setMaxSuperSampling(1);
+    }
+
+    @Override
+    public void setParamsFromModel(RenderingModel model) {
+        super.setParamsFromModel(model);
+        setMaxSuperSampling(model.getMaxSuperSampling());
+    }
+
+    public float getMaxSuperSampling() {
+        return maxSuperSampling;
+    }
+
+    /**
+     * @param maxSuperSampling number of orbits sampled per pixel
+     */
+    public void setMaxSuperSampling(float maxSuperSampling) {
+        this.maxSuperSampling = maxSuperSampling;
+    }
+
+    /**
+     * @param accumulate whether the next launch should continue the chains of the previous one and add to its histograms, rather than start from scratch.
+     *                   Allowed only if the previous launch has not been cancelled and has had the same plane segment, size, maxIterations and module parameters.
+     *                   Only the orbits missing to {@code maxSuperSampling} orbits per pixel are sampled then.
+     */
+    public void setAccumulate(boolean accumulate) {
+        this.accumulate = accumulate;
+    }
+
+    public void setOutput(PixelInfoArray2D output) {
+        this.output = output;
+    }
+
+    /**
+     * @param workCounters counters to add the orbits sampled by the next launches (as samples) and their iterations to, or null not to count them
+     */
+    public void setWorkCounters(WorkCounters workCounters) {
+        this.workCounters = workCounters;
+    }
+
+    /**
+     * Runs the chains and then sums their histograms to the output.
+     */
+    @Override
+    public void launch(ForkJoinPool pool) {
+        int width = getWidth();
+        int height = getHeight();
+        if (width <= 0 || height <= 0) return;
+        int chainCount = pool.getParallelism();
+        int maxIterations = getMaxIterations();
+        if (!accumulate || chains.length != chainCount || chains[0].histogram.length != width * height || chains[0].orbit.length < 2 * maxIterations) {
+            chains = new Chain[chainCount];
+            for (int k = 0; k < chainCount; k++) {
+                chains[k] = new Chain(width * height, maxIterations);
+            }
+            orbits = 0;
+        }
+
+        long target = (long) width * height * Math.max(1, Math.min(MAX_SUPER_SAMPLING, Math.round(maxSuperSampling)));
+        long steps = Math.max(0, target - orbits);
+        List<ForkJoinTask<?>> tasks = new ArrayList<>(chainCount);
+        for (int k = 0; k < chainCount; k++) {
+            Chain chain = chains[k];
+            long chainSteps = steps / chainCount + (k < steps % chainCount ? 1 : 0);
+            tasks.add(ForkJoinTask.adapt(() -> runChain(chain, chainSteps)));
+        }
+        pool.invoke(ForkJoinTask.adapt(() -> ForkJoinTask.invokeAll(tasks)));
+        orbits += steps;
+
+        double weightSum = 0;
+        for (Chain chain : chains) {
+            weightSum += chain.weightSum;
+        }
+        meanDensity = weightSum / ((double) width * height);
+        super.launch(pool);
+    }
+
+    /**
+     * Sums the histograms of the chains.
+     */
+    @Override
+    protected void renderTile(int fromX, int fromY, int toX, int toY) {
+        int width = getWidth();
+        float scale = meanDensity > 0 ? (float) (1 / meanDensity) : 0;
+        float weight = orbits / ((float) width * getHeight());
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                int i = y * width + x;
+                float sum = 0;
+                for (Chain chain : chains) {
+                    sum += chain.histogram[i];
+                }
+                output.set(x, y, sum * scale, weight);
+            }
+        }
+    }
+
+    @Override
+    protected void renderTileCancelled(int fromX, int fromY, int toX, int toY) {
+        /* the image of a cancelled rendering is not composed */
+    }
+
+    /**
+     * State of a chain of samples, owned by one thread at a time.
+     */
+    private static class Chain {
+        final float[] histogram;
+        /**
+         * orbit of the current point, resp. of the proposed point
+         */
+        double[] orbit;
+        double[] proposedOrbit;
+        final SplittableRandom random = new SplittableRandom();
+        /**
+         * sum of the weights counted to the histogram
+         */
+        double weightSum;
+        /*
+         * current point of the Metropolis-Hastings chain, the length of its orbit and its contribution (0 until the chain has found the view)
+         */
+        double cx;
+        double cy;
+        int length;
+        int contribution;
+        final CpuKernelMain.SamplingContext work = new CpuKernelMain.SamplingContext();
+
+        Chain(int pixels, int maxIterations) {
+            histogram = new float[pixels];
+            orbit = new double[2 * maxIterations];
+            proposedOrbit = new double[2 * maxIterations];
+        }
+    }
+
+    private void runChain(Chain chain, long steps) {
+        IterationCounter.take(); //the iterations of the chain are counted from here on
+        if (densityModule.getUseMetropolisSampling()) {
+            if (chain.contribution == 0)
+                seed(chain);
+            runMetropolisChain(chain, steps);
+        } else {
+            runUniformChain(chain, steps);
+        }
+        chain.work.iterations += IterationCounter.take();
+        if (workCounters != null)
+            workCounters.add(chain.work);
+    }
+
+    private void runUniformChain(Chain chain, long steps) {
+        SplittableRandom random = chain.random;
+        for (long s = 0; s < steps; s++) {
+            if (s % CANCELLATION_CHECK_INTERVAL == 0 && isCancelled())
+                return;
+            int length = computeOrbit(chain, uniform(random), uniform(random), chain.orbit);
+            count(chain, chain.orbit, length, 1);
+        }
+    }
+
+    private void runMetropolisChain(Chain chain, long steps) {
+        SplittableRandom random = chain.random;
+        double viewSize = Math.max(getSegmentWidth(), getSegmentHeight());
+        for (long s = 0; s < steps; s++) {
+            if (s % CANCELLATION_CHECK_INTERVAL == 0 && isCancelled())
+                return;
+            double x;
+            double y;
+            if (chain.contribution == 0 || random.nextDouble() < LARGE_MUTATION_PROBABILITY) {
+                x = uniform(random);
+                y = uniform(random);
+            } else {
+                double step = viewSize * logUniform(random, MIN_MUTATION, MAX_MUTATION);
+                double angle = 2 * Math.PI * random.nextDouble();
+                x = chain.cx + step * Math.cos(angle);
+                y = chain.cy + step * Math.sin(angle);
+            }
+            //the target density is zero outside the sampled square
+            int length = Math.abs(x) <= SAMPLING_RADIUS && Math.abs(y) <= SAMPLING_RADIUS ? computeOrbit(chain, x, y, chain.proposedOrbit) : 0;
+            int contribution = countHits(chain.proposedOrbit, length);
+
+            //a chain that has not found the view yet moves anywhere
+            double acceptance = chain.contribution == 0 ? 1 : Math.min(1, contribution / (double) chain.contribution);
+            if (contribution > 0)
+                count(chain, chain.proposedOrbit, length, acceptance / contribution);
+            if (chain.contribution > 0 && acceptance < 1)
+                count(chain, chain.orbit, chain.length, (1 - acceptance) / chain.contribution);
+            if (acceptance == 1 || random.nextDouble() < acceptance)
+                accept(chain, x, y, length, contribution);
+        }
+    }
+
+    /**
+     * Finds the first point of the chain, whose orbit hits the view, if it finds any within {@code SEED_ATTEMPTS} uniform samples and {@code SEED_ATTEMPTS} steps of the descent.
+     * The descent mutates the point whose orbit has come closest to the view, by steps up to that distance, and moves to the mutations that come closer.
+     */
+    private void seed(Chain chain) {
+        SplittableRandom random = chain.random;
+        double viewSize = Math.max(getSegmentWidth(), getSegmentHeight());
+        double bestDistance = Double.POSITIVE_INFINITY;
+        double bestX = 0;
+        double bestY = 0;
+        for (int a = 0; a < 2 * SEED_ATTEMPTS; a++) {
+            double x;
+            double y;
+            if (a < SEED_ATTEMPTS || bestDistance == Double.POSITIVE_INFINITY) {
+                x = uniform(random);
+                y = uniform(random);
+            } else {
+                double step = viewSize * logUniform(random, MIN_MUTATION, Math.max(MAX_MUTATION, bestDistance / viewSize));
+                double angle = 2 * Math.PI * random.nextDouble();
+                x = bestX + step * Math.cos(angle);
+                y = bestY + step * Math.sin(angle);
+                if (Math.abs(x) > SAMPLING_RADIUS || Math.abs(y) > SAMPLING_RADIUS)
+                    continue;
+            }
+            int length = computeOrbit(chain, x, y, chain.proposedOrbit);
+            int contribution = countHits(chain.proposedOrbit, length);
+            if (contribution > 0) {
+                accept(chain, x, y, length, contribution);
+                return;
+            }
+            double distance = getDistanceToView(chain.proposedOrbit, length);
+            if (distance < bestDistance) {
+                bestDistance = distance;
+                bestX = x;
+                bestY = y;
+            }
+        }
+    }
+
+    private static void accept(Chain chain, double x, double y, int length, int contribution) {
+        double[] orbit = chain.orbit;
+        chain.orbit = chain.proposedOrbit;
+        chain.proposedOrbit = orbit;
+        chain.cx = x;
+        chain.cy = y;
+        chain.length = length;
+        chain.contribution = contribution;
+    }
+
+    private int computeOrbit(Chain chain, double x, double y, double[] orbit) {
+        int length = densityModule.computeOrbit(getMaxIterations(), x, y, orbit);
+        chain.work.samplesTaken++;
+        return length;
+    }
+
+    private static double uniform(SplittableRandom random) {
+        return (2 * random.nextDouble() - 1) * SAMPLING_RADIUS;
+    }
+
+    private static double logUniform(SplittableRandom random, double from, double to) {
+        return from * Math.exp(Math.log(to / from) * random.nextDouble());
+    }
+
+    /**
+     * @return number of the orbit points in the view
+     */
+    private int countHits(double[] orbit, int length) {
+        int width = getWidth();
+        int height = getHeight();
+        double left = getLeft_bottom_x();
+        double top = getRight_top_y();
+        double pixelWidth = getSegmentWidth() / width;
+        double pixelHeight = getSegmentHeight() / height;
+        int hits = 0;
+        for (int k = 0; k < length; k++) {
+            double px = (orbit[2 * k] - left) / pixelWidth;
+            double py = (top - orbit[2 * k + 1]) / pixelHeight;
+            if (px >= 0 && px < width && py >= 0 && py < height)
+                hits++;
+        }
+        return hits;
+    }
+
+    /**
+     * Adds {@code weight} to the pixel of each orbit point in the view.
+     */
+    private void count(Chain chain, double[] orbit, int length, double weight) {
+        int width = getWidth();
+        int height = getHeight();
+        double left = getLeft_bottom_x();
+        double top = getRight_top_y();
+        double pixelWidth = getSegmentWidth() / width;
+        double pixelHeight = getSegmentHeight() / height;
+        float[] histogram = chain.histogram;
+        float weightF = (float) weight;
+        int hits = 0;
+        for (int k = 0; k < length; k++) {
+            double px = (orbit[2 * k] - left) / pixelWidth;
+            double py = (top - orbit[2 * k + 1]) / pixelHeight;
+            if (px >= 0 && px < width && py >= 0 && py < height) {
+                histogram[(int) py * width + (int) px] += weightF;
+                hits++;
+            }
+        }
+        chain.weightSum += hits * weight;
+    }
+
+    /**
+     * @return distance of the orbit point closest to the view from the view, or infinity if the orbit is empty
+     */
+    private double getDistanceToView(double[] orbit, int length) {
+        double halfWidth = getSegmentWidth() / 2;
+        double halfHeight = getSegmentHeight() / 2;
+        double centerX = getLeft_bottom_x() + halfWidth;
+        double centerY = getRight_top_y() - halfHeight;
+        double result = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < length; k++) {
+            double dx = Math.max(0, Math.abs(orbit[2 * k] - centerX) - halfWidth);
+            double dy = Math.max(0, Math.abs(orbit[2 * k + 1] - centerY) - halfHeight);
+            result = Math.min(result, Math.hypot(dx, dy));
+        }
+        return result;
+    }
+}
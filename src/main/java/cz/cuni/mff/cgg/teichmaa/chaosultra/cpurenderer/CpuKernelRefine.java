@@ -0,0 +1,109 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import static cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRenderer.MAX_SUPER_SAMPLING;
+
+/**
+ * Adds samples to the pixels of the last rendering of the same view, so that progressive rendering does not sample every pixel from scratch with higher maxSuperSampling.
+ * <br>
+ * A pixel is refined only if it has not converged yet, i.e. if the adaptive super-sampling has not found it uniform and the Mariani-Silver subdivision has not filled it.
+ * The new samples continue a low-discrepancy sequence (R2), so they do not repeat the positions of the earlier ones.
+ * They are stopped by the same heuristic as in {@code sampleTheFractal}, applied to all the samples of the pixel: the pixel's current value (the mean of its samples so far)
+ * takes part in the dispersion as the first sample, and "half of max allowed samples" counts the samples taken so far.
+ * Finally, they are merged to the pixel's value and weight, and the pixel is marked as converged if the heuristic has found it uniform.
+ * <br>
+ * A cancelled refinement leaves the pixels of the unfinished tiles as they were.
+ */
+public class CpuKernelRefine extends CpuKernelMain {
+
+    /*
+     * R2 sequence: multiples of the inverses of the plastic number and of its square, modulo 1
+     */
+    private static final double R2_X = 0.7548776662466927;
+    private static final double R2_Y = 0.5698402909980532;
+
+    public CpuKernelRefine(CpuFractalRenderingModule module) {
+        super(module);
+    }
+
+    @Override
+    protected void renderTile(int fromX, int fromY, int toX, int toY) {
+        SamplingContext ctx = newSamplingContext();
+        PixelInfoArray2D output = getOutput();
+        int sampleCount = Math.min(MAX_SUPER_SAMPLING, Math.round(getMaxSuperSampling()));
+        for (int y = fromY; y < toY; y++) {
+            for (int x = fromX; x < toX; x++) {
+                int weight = Math.round(output.getWeight(x, y));
+                if (output.isConverged(x, y) || weight >= sampleCount)
+                    continue;
+                float value = output.getValue(x, y);
+                ctx.sampleCount = sampleCount - weight;
+                float mean = addSamples(x, y, weight, value, ctx);
+                int added = (int) ctx.sampleCount;
+                boolean isReused = output.isReused(x, y);
+                output.set(x, y, (value * weight + mean * added) / (weight + added), weight + added,
+                        isReused, isReused ? output.getWeightOfNewSamples(x, y) + added : 0);
+                if (ctx.converged)
+                    output.setConverged(x, y);
+            }
+        }
+        countWork(ctx);
+    }
+
+    @Override
+    protected void renderTileCancelled(int fromX, int fromY, int toX, int toY) {
+        /* the pixels keep the samples they have */
+    }
+
+    /**
+     * @param firstIndex  index of the first new sample in the pixel's sequence of samples, i.e. the number of samples taken so far
+     * @param currentMean mean of the samples taken so far
+     * @param ctx         ctx.sampleCount is the maximum number of samples to add. Actual number of samples added will be stored there before returning.
+     * @return mean fractal value of the samples added
+     */
+    private float addSamples(int pixelX, int pixelY, int firstIndex, float currentMean, SamplingContext ctx) {
+        int sampleCount = (int) ctx.sampleCount;
+        int maxSampleCount = sampleCount;
+        int half = (firstIndex + sampleCount) / 2;
+        float[] samples = ctx.samples;
+        samples[0] = currentMean;
+        ctx.converged = false;
+
+        double pixelWidth = getSegmentWidth() / getWidth();
+        double pixelHeight = getPixelHeight();
+        int row = getFirstRow() + pixelY;
+
+        long escapeTimeSum = 0;
+        int maxIterationSamples = 0;
+        for (int i = 0; i < sampleCount; i++) {
+            int index = firstIndex + i;
+            double dx = (0.5 + index * R2_X) % 1;
+            double dy = (0.5 + index * R2_Y) % 1;
+            int escapeTime = (int) computeFractalAtOffset((pixelX + dx) * pixelWidth, (row + dy) * pixelHeight);
+            escapeTimeSum += escapeTime;
+            if (escapeTime == ctx.maxIterationsValue)
+                maxIterationSamples++;
+            //samples[0] is the current mean
+            if (i + 1 < ADAPTIVE_TRESHOLD) {
+                samples[i + 1] = escapeTime;
+            }
+
+            if (getUseAdaptiveSuperSampling() && (i + 1 < ADAPTIVE_TRESHOLD || index == half)) {
+                float mean = (currentMean + escapeTimeSum) / (float) (i + 2);
+                float dispersion = computeDispersion(samples, Math.min(i + 2, ADAPTIVE_TRESHOLD), mean);
+
+                if (i == 0 && Math.abs(samples[0] - samples[1]) < FLT_EPSILON) {
+                    sampleCount = i + 1;
+                    ctx.converged = true;
+                } else if (dispersion < DISPERSION_TRESHOLD) {
+                    sampleCount = i + 1;
+                    ctx.converged = true;
+                } else if (dispersion <= 1 && index >= half) {
+                    sampleCount = i + 1;
+                }
+            }
+        }
+        ctx.sampleCount = sampleCount;
+        countPixel(sampleCount, maxSampleCount, maxIterationSamples, ctx);
+        return escapeTimeSum / (float) sampleCount;
+    }
+}
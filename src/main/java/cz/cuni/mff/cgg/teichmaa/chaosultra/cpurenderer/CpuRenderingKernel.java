@@ -0,0 +1,349 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.PlaneSegment;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.RenderingModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.DoubleDouble;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.FloatPrecision;
+
+import java.math.BigDecimal;
+
+/**
+ * CPU counterpart of RenderingKernel: a kernel that samples the fractal of {@code module} on a segment of the complex plane.
+ */
+public abstract class CpuRenderingKernel extends CpuKernel {
+
+    protected final CpuFractalRenderingModule module;
+
+    CpuRenderingKernel(CpuFractalRenderingModule module) {
+        this.module = module;
+        setMaxIterations(1);
+    }
+
+    @Override
+    public void setParamsFromModel(RenderingModel model) {
+        super.setParamsFromModel(model);
+        setMaxIterations(model.getMaxIterations());
+        setPlaneSegment(model.getPlaneSegment());
+        setPrecision(model.getFloatingPointPrecision());
+    }
+
+    private int maxIterations;
+    private FloatPrecision precision = FloatPrecision.defaultValue;
+    private double left_bottom_x;
+    private double left_bottom_y;
+    private double right_top_x;
+    private double right_top_y;
+    /**
+     * low-order parts of the segment coordinates in double-double precision
+     */
+    private double left_bottom_x_lo;
+    private double left_bottom_y_lo;
+    private double right_top_x_lo;
+    private double right_top_y_lo;
+    /**
+     * number of rows of the segment above the first row of the output, see {@code setStrip}
+     */
+    private int firstRow = 0;
+    /**
+     * number of rows of the whole segment, or 0 if the output covers the whole segment
+     */
+    private int segmentRows = 0;
+    private PerturbationReference perturbationReference;
+    /**
+     * left_bottom_x - reference x, resp. right_top_y - reference y, if perturbationReference is set
+     */
+    private double perturbation_left_x;
+    private double perturbation_top_y;
+
+    public int getMaxIterations() {
+        return maxIterations;
+    }
+
+    public void setMaxIterations(int maxIterations) {
+        if (maxIterations < 1)
+            throw new IllegalArgumentException("maxIterations must be a positive number, but is : " + maxIterations);
+        this.maxIterations = maxIterations;
+    }
+
+    public FloatPrecision getPrecision() {
+        return precision;
+    }
+
+    /**
+     * @param precision floating point precision to compute the fractal in. {@code doubleDoublePrecision} is computed in double precision by modules that do not support it, {@code tooBig} always in double precision.
+     */
+    public void setPrecision(FloatPrecision precision) {
+        this.precision = precision;
+    }
+
+    double getLeft_bottom_x() {
+        return left_bottom_x;
+    }
+
+    double getLeft_bottom_y() {
+        return left_bottom_y;
+    }
+
+    double getRight_top_x() {
+        return right_top_x;
+    }
+
+    double getRight_top_y() {
+        return right_top_y;
+    }
+
+    double getLeft_bottom_x_lo() {
+        return left_bottom_x_lo;
+    }
+
+    double getLeft_bottom_y_lo() {
+        return left_bottom_y_lo;
+    }
+
+    double getRight_top_y_lo() {
+        return right_top_y_lo;
+    }
+
+    /**
+     * @return width of the segment, computed from the double-double coordinates
+     */
+    double getSegmentWidth() {
+        return (right_top_x - left_bottom_x) + (right_top_x_lo - left_bottom_x_lo);
+    }
+
+    /**
+     * @return height of the segment, computed from the double-double coordinates
+     */
+    double getSegmentHeight() {
+        return (right_top_y - left_bottom_y) + (right_top_y_lo - left_bottom_y_lo);
+    }
+
+    /**
+     * Makes the kernel render a horizontal strip of the segment: the rows of the output are the rows {@code firstRow} to {@code firstRow + getHeight() - 1}
+     * of the segment divided into {@code segmentRows} rows.
+     * <br>
+     * The points are computed from the top of the whole segment, so the strips of a segment join to the same image as the one rendered at once.
+     *
+     * @param segmentRows number of rows of the whole segment, or 0 if the output covers the whole segment (then {@code firstRow} must be 0)
+     */
+    public void setStrip(int firstRow, int segmentRows) {
+        if (firstRow < 0 || segmentRows < 0 || (segmentRows == 0 && firstRow != 0))
+            throw new IllegalArgumentException("Invalid strip: firstRow " + firstRow + ", segmentRows " + segmentRows);
+        this.firstRow = firstRow;
+        this.segmentRows = segmentRows;
+    }
+
+    /**
+     * @return number of rows of the segment above the first row of the output
+     */
+    int getFirstRow() {
+        return firstRow;
+    }
+
+    /**
+     * @return height of a pixel in the complex plane, which is the same in all strips of the segment
+     */
+    double getPixelHeight() {
+        return getSegmentHeight() / (segmentRows == 0 ? getHeight() : segmentRows);
+    }
+
+    public void setPlaneSegment(double left_bottom_x, double left_bottom_y, double right_top_x, double right_top_y) {
+        setPlaneSegment(left_bottom_x, left_bottom_y, right_top_x, right_top_y, 0, 0, 0, 0);
+    }
+
+    /**
+     * Sets the segment including the low-order parts of its double-double coordinates.
+     */
+    public void setPlaneSegment(PlaneSegment segment) {
+        setPlaneSegment(
+                segment.getLeftBottom().getX(),
+                segment.getLeftBottom().getY(),
+                segment.getRightTop().getX(),
+                segment.getRightTop().getY(),
+                segment.getLeftBottomLow().getX(),
+                segment.getLeftBottomLow().getY(),
+                segment.getRightTopLow().getX(),
+                segment.getRightTopLow().getY()
+        );
+    }
+
+    private void setPlaneSegment(double left_bottom_x, double left_bottom_y, double right_top_x, double right_top_y,
+                                 double left_bottom_x_lo, double left_bottom_y_lo, double right_top_x_lo, double right_top_y_lo) {
+        checkArgument(left_bottom_x, "segment left_bottom_x");
+        checkArgument(left_bottom_y, "segment left_bottom_y");
+        checkArgument(right_top_x, "segment right_top_x");
+        checkArgument(right_top_y, "segment right_top_y");
+        checkArgument(left_bottom_x_lo, "segment left_bottom_x_lo");
+        checkArgument(left_bottom_y_lo, "segment left_bottom_y_lo");
+        checkArgument(right_top_x_lo, "segment right_top_x_lo");
+        checkArgument(right_top_y_lo, "segment right_top_y_lo");
+        this.left_bottom_x = left_bottom_x;
+        this.left_bottom_y = left_bottom_y;
+        this.right_top_x = right_top_x;
+        this.right_top_y = right_top_y;
+        this.left_bottom_x_lo = left_bottom_x_lo;
+        this.left_bottom_y_lo = left_bottom_y_lo;
+        this.right_top_x_lo = right_top_x_lo;
+        this.right_top_y_lo = right_top_y_lo;
+        updatePerturbationOffsets();
+    }
+
+    public PerturbationReference getPerturbationReference() {
+        return perturbationReference;
+    }
+
+    /**
+     * @param perturbationReference reference orbit to render the fractal relative to, or null to render without perturbation
+     */
+    public void setPerturbationReference(PerturbationReference perturbationReference) {
+        this.perturbationReference = perturbationReference;
+        updatePerturbationOffsets();
+    }
+
+    private void updatePerturbationOffsets() {
+        if (perturbationReference == null)
+            return;
+        perturbation_left_x = new BigDecimal(left_bottom_x).add(new BigDecimal(left_bottom_x_lo)).subtract(perturbationReference.getReferenceX()).doubleValue();
+        perturbation_top_y = new BigDecimal(right_top_y).add(new BigDecimal(right_top_y_lo)).subtract(perturbationReference.getReferenceY()).doubleValue();
+    }
+
+    boolean isSegmentBoundsAtFloatLimit() {
+        double maxAllowedDxError = Math.ulp((float) left_bottom_x);
+        double maxAllowedDyError = Math.ulp((float) left_bottom_y);
+        return isPixelSmallerThan(maxAllowedDxError, maxAllowedDyError);
+    }
+
+    boolean isSegmentBoundsAtDoubleLimit() {
+        double maxAllowedDxError = Math.ulp(left_bottom_x);
+        double maxAllowedDyError = Math.ulp(left_bottom_y);
+        return isPixelSmallerThan(maxAllowedDxError, maxAllowedDyError);
+    }
+
+    /**
+     * Fraction of the double ulp of the segment corner below which a pixel is too small for the double-double modules.
+     * <br>
+     * The low-order part has 53 more bits of mantissa, but the rounding errors of the double-double arithmetic grow along long orbits:
+     * at the seahorse valley with 30000 iterations, the double-double modules get more pixels wrong than perturbation
+     * once the pixel is narrower than about 2^35 double-double ulps (measured against a 70-digit reference), i.e. the last 18 bits are lost.
+     */
+    private static final double DOUBLE_DOUBLE_PIXEL_LIMIT = 0x1p-18;
+
+    boolean isSegmentBoundsAtDoubleDoubleLimit() {
+        double maxAllowedDxError = Math.ulp(left_bottom_x) * DOUBLE_DOUBLE_PIXEL_LIMIT;
+        double maxAllowedDyError = Math.ulp(left_bottom_y) * DOUBLE_DOUBLE_PIXEL_LIMIT;
+        return isPixelSmallerThan(maxAllowedDxError, maxAllowedDyError);
+    }
+
+    private boolean isPixelSmallerThan(double maxAllowedDxError, double maxAllowedDyError) {
+        double pixelWidth = Math.abs(getSegmentWidth()) / (double) getWidth();
+        double pixelHeight = Math.abs(getPixelHeight());
+        return (pixelWidth < maxAllowedDxError) || (pixelHeight < maxAllowedDyError);
+    }
+
+    /**
+     * Computes the fractal value at the point {@code [left_bottom_x + offsetX, right_top_y - offsetY]}, i.e. relative to the left top corner of the segment.
+     * <br>
+     * Uses the perturbation reference, if set, resp. double-double arithmetic in the doubleDoublePrecision,
+     * so that the offsets keep their precision even if they are much smaller than the segment coordinates.
+     */
+    protected float computeFractalAtOffset(double offsetX, double offsetY) {
+        if (perturbationReference != null)
+            return perturbationReference.computeFractal(maxIterations, perturbation_left_x + offsetX, perturbation_top_y - offsetY);
+        if (precision == FloatPrecision.doubleDoublePrecision) {
+            double x = left_bottom_x + offsetX;
+            double xLo = DoubleDouble.twoSumError(left_bottom_x, offsetX, x) + left_bottom_x_lo;
+            double y = right_top_y - offsetY;
+            double yLo = DoubleDouble.twoSumError(right_top_y, -offsetY, y) + right_top_y_lo;
+            return module.computeFractal(maxIterations, x, xLo, y, yLo);
+        }
+        return computeFractal(left_bottom_x + offsetX, right_top_y - offsetY);
+    }
+
+    /**
+     * Same as {@code computeFractalAtOffset(double, double)}, and estimates the distance of the point from the boundary of the fractal.
+     * <br>
+     * May be called only if the module is a DistanceEstimatingModule and {@code canComputeRows()}.
+     *
+     * @param distance output parameter, see {@code DistanceEstimatingModule.computeFractalWithDistance}
+     */
+    protected float computeFractalAtOffset(double offsetX, double offsetY, float[] distance) {
+        DistanceEstimatingModule module = (DistanceEstimatingModule) this.module;
+        double x = left_bottom_x + offsetX;
+        double y = right_top_y - offsetY;
+        if (precision == FloatPrecision.singlePrecision)
+            return module.computeFractalWithDistance(maxIterations, (float) x, (float) y, distance);
+        else
+            return module.computeFractalWithDistance(maxIterations, x, y, distance);
+    }
+
+    /**
+     * @return whether {@code computeFractalRowAtOffsets} can be used, i.e. the points are computed directly in single or double precision
+     */
+    protected boolean canComputeRows() {
+        return perturbationReference == null && (precision == FloatPrecision.singlePrecision || precision == FloatPrecision.doublePrecision);
+    }
+
+    /**
+     * Per-tile scratch memory of {@code computeFractalRowAtOffsets}.
+     */
+    static class RowBuffer {
+        final double[] x = new double[TILE_SIZE];
+        final float[] xFloat = new float[TILE_SIZE];
+        /**
+         * output of {@code computeFractalRowAtOffsets}
+         */
+        final float[] values = new float[TILE_SIZE];
+        /**
+         * output of {@code computeFractalRowAtOffsets} if it estimates the distance
+         */
+        final float[] distances = new float[TILE_SIZE];
+    }
+
+    /**
+     * Same as {@code computeFractalAtOffset(pixelX * pixelWidth, offsetY)} for {@code fromX <= pixelX < fromX + length}, with the results stored to {@code buffer.values[pixelX - fromX]}.
+     * The whole row is passed to the module at once, which may compute several points at a time (see QuadraticMapLanes).
+     * <br>
+     * May be called only if {@code canComputeRows()}, and with {@code estimateDistance} only if the module is a DistanceEstimatingModule.
+     *
+     * @param length           at most {@code TILE_SIZE}
+     * @param estimateDistance whether to also store the distance estimates to {@code buffer.distances}, as {@code computeFractalAtOffset(double, double, float[])}
+     */
+    protected void computeFractalRowAtOffsets(int fromX, int length, double pixelWidth, double offsetY, boolean estimateDistance, RowBuffer buffer) {
+        double y = right_top_y - offsetY;
+        if (precision == FloatPrecision.singlePrecision) {
+            for (int k = 0; k < length; k++) {
+                buffer.xFloat[k] = (float) (left_bottom_x + (fromX + k) * pixelWidth);
+            }
+            if (estimateDistance)
+                ((DistanceEstimatingModule) module).computeFractalRowWithDistance(maxIterations, buffer.xFloat, (float) y, length, buffer.values, buffer.distances);
+            else
+                module.computeFractalRow(maxIterations, buffer.xFloat, (float) y, length, buffer.values);
+        } else {
+            for (int k = 0; k < length; k++) {
+                buffer.x[k] = left_bottom_x + (fromX + k) * pixelWidth;
+            }
+            if (estimateDistance)
+                ((DistanceEstimatingModule) module).computeFractalRowWithDistance(maxIterations, buffer.x, y, length, buffer.values, buffer.distances);
+            else
+                module.computeFractalRow(maxIterations, buffer.x, y, length, buffer.values);
+        }
+    }
+
+    /**
+     * Computes the fractal value at the given point, using the floating point precision of this kernel.
+     */
+    protected float computeFractal(double x, double y) {
+        if (precision == FloatPrecision.singlePrecision)
+            return module.computeFractal(maxIterations, (float) x, (float) y);
+        else
+            return module.computeFractal(maxIterations, x, y);
+    }
+
+    /**
+     * @throws IllegalArgumentException if value is NaN or +- infinity
+     */
+    protected void checkArgument(double value, String parameterName) {
+        if (!Double.isFinite(value))
+            throw new IllegalArgumentException("Argument " + parameterName + " must be a finite float but is " + value + ".");
+    }
+}
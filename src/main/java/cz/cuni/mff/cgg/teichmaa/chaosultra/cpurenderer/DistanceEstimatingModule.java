@@ -0,0 +1,46 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+/**
+ * Implemented by modules that can estimate the distance of a point from the boundary of their fractal, e.g. from the derivative of the orbit (see QuadraticMapDistance).
+ * The adaptive super-sampling of CpuKernelMain takes just one sample of the pixels that are far from the boundary according to the estimate.
+ * <br>
+ * The estimate must not exceed twice the true distance.
+ */
+public interface DistanceEstimatingModule {
+
+    /**
+     * Same as {@code computeFractal(int, double, double)}, and estimates the distance of the point from the boundary of the fractal.
+     *
+     * @param distance output parameter: {@code distance[0]} is set to the estimate, or to 0 if it is unknown, e.g. inside the fractal
+     */
+    float computeFractalWithDistance(int maxIterations, double x, double y, float[] distance);
+
+    /**
+     * Same as {@code computeFractalWithDistance(int, double, double, float[])}, but computes in single floating-point precision.
+     */
+    float computeFractalWithDistance(int maxIterations, float x, float y, float[] distance);
+
+    /**
+     * Same as {@code CpuFractalRenderingModule.computeFractalRow(int, double[], double, int, float[])}, and stores the distance estimates of the points to {@code distances[k]}.
+     * <br>
+     * May be overridden by modules that compute several points at once faster than one by one. The default implementation calls {@code computeFractalWithDistance} for each of the points.
+     */
+    default void computeFractalRowWithDistance(int maxIterations, double[] x, double y, int length, float[] result, float[] distances) {
+        float[] distance = new float[1];
+        for (int k = 0; k < length; k++) {
+            result[k] = computeFractalWithDistance(maxIterations, x[k], y, distance);
+            distances[k] = distance[0];
+        }
+    }
+
+    /**
+     * Same as {@code computeFractalRowWithDistance(int, double[], double, int, float[], float[])}, but computes in single floating-point precision.
+     */
+    default void computeFractalRowWithDistance(int maxIterations, float[] x, float y, int length, float[] result, float[] distances) {
+        float[] distance = new float[1];
+        for (int k = 0; k < length; k++) {
+            result[k] = computeFractalWithDistance(maxIterations, x[k], y, distance);
+            distances[k] = distance[0];
+        }
+    }
+}
@@ -0,0 +1,67 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import static cz.cuni.mff.cgg.teichmaa.chaosultra.util.DoubleDouble.twoProdError;
+import static cz.cuni.mff.cgg.teichmaa.chaosultra.util.DoubleDouble.twoSumError;
+
+/**
+ * Escape time of the quadratic map {@code z -> z^2 + c} in double-double precision, used by modules in the doubleDoublePrecision.
+ * <br>
+ * The arithmetic is inlined on primitive doubles (rather than using DoubleDouble instances) to avoid allocations in the inner loop.
+ */
+public final class DoubleDoubleQuadraticMap {
+
+    private DoubleDoubleQuadraticMap() {
+    }
+
+    /**
+     * All the arguments are double-double numbers, given as pairs of the high and the low part.
+     *
+     * @return number of iterations before the orbit of {@code z} left the circle of radius 2, or maxIterations if it did not. They are added to the IterationCounter.
+     */
+    public static int escapeTime(int maxIterations,
+                                 double zxHi, double zxLo, double zyHi, double zyLo,
+                                 double cxHi, double cxLo, double cyHi, double cyLo) {
+        int i = 0;
+        while (i < maxIterations) {
+            //zx^2
+            double p = zxHi * zxHi;
+            double e = twoProdError(zxHi, zxHi, p) + 2 * zxHi * zxLo;
+            double x2Hi = p + e;
+            double x2Lo = e - (x2Hi - p);
+            //zy^2
+            p = zyHi * zyHi;
+            e = twoProdError(zyHi, zyHi, p) + 2 * zyHi * zyLo;
+            double y2Hi = p + e;
+            double y2Lo = e - (y2Hi - p);
+
+            if (x2Hi + y2Hi >= 4)
+                break;
+
+            //zx * zy
+            p = zxHi * zyHi;
+            e = twoProdError(zxHi, zyHi, p) + (zxHi * zyLo + zxLo * zyHi);
+            double xyHi = p + e;
+            double xyLo = e - (xyHi - p);
+
+            //zx = zx^2 - zy^2 + cx
+            double s = x2Hi - y2Hi;
+            e = twoSumError(x2Hi, -y2Hi, s) + (x2Lo - y2Lo);
+            double tHi = s + e;
+            double tLo = e - (tHi - s);
+            s = tHi + cxHi;
+            e = twoSumError(tHi, cxHi, s) + (tLo + cxLo);
+            zxHi = s + e;
+            zxLo = e - (zxHi - s);
+
+            //zy = 2 * zx * zy + cy
+            s = 2 * xyHi + cyHi;
+            e = twoSumError(2 * xyHi, cyHi, s) + (2 * xyLo + cyLo);
+            zyHi = s + e;
+            zyLo = e - (zyHi - s);
+
+            i++;
+        }
+        IterationCounter.add(i);
+        return i;
+    }
+}
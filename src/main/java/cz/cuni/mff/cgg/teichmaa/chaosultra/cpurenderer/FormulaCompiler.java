@@ -0,0 +1,798 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.DoubleBinaryOperator;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * Compiles a formula of a complex map, e.g. {@code z^3 + c*sin(z)}, to the bytecode of a class that iterates it, at runtime.
+ * <br>
+ * The whole escape-time loop is generated as one method, in which the complex numbers are pairs of double local variables,
+ * so there are no objects, calls (except {@code java.lang.Math} intrinsics) or interpretation per iteration, and the JIT compiles the loop as if it was written by hand.
+ * Constant subexpressions are folded, and operations with components known to be zero are left out, e.g. multiplying by a real number takes two multiplications.
+ * <br>
+ * Grammar: {@code + - * / ^}, unary minus, parentheses, real numbers, the imaginary unit {@code i}, the variables {@code z} (the iterated value) and {@code c} (the point of the plane),
+ * and the functions {@code sin cos sinh cosh exp log sqrt conj re im abs}. A power with an integer constant exponent is computed by multiplications, other powers by {@code exp(w log z)}.
+ * <br>
+ * Each compiled class is defined by its own class loader, so that it is unloaded as soon as the formula is replaced (the Java 8 counterpart of a hidden class).
+ */
+public class FormulaCompiler {
+
+    /**
+     * Implemented by the compiled formulas.
+     */
+    public interface CompiledFormula {
+        /**
+         * Iterates {@code z = formula(z, c)} from {@code z = initialValue(c)} while {@code |z|^2 < bailoutSquared}, at most maxIterations times.
+         *
+         * @return number of iterations performed
+         */
+        float escapeTime(int maxIterations, double cRe, double cIm, double bailoutSquared);
+    }
+
+    private static final String INTERFACE_NAME = CompiledFormula.class.getName().replace('.', '/');
+    private static final String CLASS_NAME_PREFIX = FormulaCompiler.class.getName().replace('.', '/') + "$Generated";
+    private static final AtomicInteger classCounter = new AtomicInteger();
+
+    /**
+     * @param formula      the map iterated, of {@code z} and {@code c}
+     * @param initialValue the initial value of {@code z}, of {@code c}
+     * @throws IllegalArgumentException if a formula cannot be parsed or is too large
+     */
+    public static CompiledFormula compile(String formula, String initialValue) {
+        Node iterated = new Parser(formula, true).parse();
+        Node initial = new Parser(initialValue, false).parse();
+        String className = CLASS_NAME_PREFIX + classCounter.incrementAndGet();
+        byte[] classFile = new ClassFileBuilder(className).build(initial, iterated);
+        Class<?> clazz = new FormulaClassLoader(CompiledFormula.class.getClassLoader()).define(className.replace('/', '.'), classFile);
+        try {
+            return (CompiledFormula) clazz.newInstance();
+        } catch (InstantiationException | IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static class FormulaClassLoader extends ClassLoader {
+        FormulaClassLoader(ClassLoader parent) {
+            super(parent);
+        }
+
+        Class<?> define(String name, byte[] classFile) {
+            return defineClass(name, classFile, 0, classFile.length);
+        }
+    }
+
+    //parsing
+
+    private static abstract class Node {
+    }
+
+    private static class NumberNode extends Node {
+        final double re, im;
+
+        NumberNode(double re, double im) {
+            this.re = re;
+            this.im = im;
+        }
+    }
+
+    private static class VariableNode extends Node {
+        final char name;
+
+        VariableNode(char name) {
+            this.name = name;
+        }
+    }
+
+    private static class OperatorNode extends Node {
+        final char operator;
+        final Node left, right;
+
+        OperatorNode(char operator, Node left, Node right) {
+            this.operator = operator;
+            this.left = left;
+            this.right = right;
+        }
+    }
+
+    private static class FunctionNode extends Node {
+        final String function;
+        final Node argument;
+
+        FunctionNode(String function, Node argument) {
+            this.function = function;
+            this.argument = argument;
+        }
+    }
+
+    private static final String[] FUNCTIONS = {"sin", "cos", "sinh", "cosh", "exp", "log", "sqrt", "conj", "re", "im", "abs"};
+
+    /**
+     * Recursive descent parser. The power is right associative and binds tighter than the unary minus, i.e. {@code -z^2} is {@code -(z^2)}.
+     */
+    private static class Parser {
+        private final String text;
+        private final boolean allowZ;
+        private int position = 0;
+
+        Parser(String text, boolean allowZ) {
+            this.text = text;
+            this.allowZ = allowZ;
+        }
+
+        Node parse() {
+            Node result = expression();
+            skipSpaces();
+            if (position < text.length())
+                throw error("Unexpected '" + text.charAt(position) + "'");
+            return result;
+        }
+
+        private IllegalArgumentException error(String message) {
+            return new IllegalArgumentException(message + " at position " + position + " of formula " + text);
+        }
+
+        private void skipSpaces() {
+            while (position < text.length() && Character.isWhitespace(text.charAt(position)))
+                position++;
+        }
+
+        private boolean accept(char c) {
+            skipSpaces();
+            if (position < text.length() && text.charAt(position) == c) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private Node expression() {
+            Node result = term();
+            while (true) {
+                if (accept('+')) result = new OperatorNode('+', result, term());
+                else if (accept('-')) result = new OperatorNode('-', result, term());
+                else return result;
+            }
+        }
+
+        private Node term() {
+            Node result = unary();
+            while (true) {
+                if (accept('*')) result = new OperatorNode('*', result, unary());
+                else if (accept('/')) result = new OperatorNode('/', result, unary());
+                else return result;
+            }
+        }
+
+        private Node unary() {
+            if (accept('-'))
+                return new OperatorNode('-', new NumberNode(0, 0), unary());
+            if (accept('+'))
+                return unary();
+            return power();
+        }
+
+        private Node power() {
+            Node base = primary();
+            if (accept('^'))
+                return new OperatorNode('^', base, unary());
+            return base;
+        }
+
+        private Node primary() {
+            skipSpaces();
+            if (position >= text.length())
+                throw error("Unexpected end");
+            char first = text.charAt(position);
+            if (accept('(')) {
+                Node result = expression();
+                if (!accept(')'))
+                    throw error("Missing ')'");
+                return result;
+            }
+            if (Character.isDigit(first) || first == '.') {
+                int start = position;
+                while (position < text.length() && (Character.isDigit(text.charAt(position)) || text.charAt(position) == '.'))
+                    position++;
+                //exponent, e.g. 1e-3
+                if (position < text.length() && (text.charAt(position) == 'e' || text.charAt(position) == 'E')) {
+                    int mantissaEnd = position;
+                    position++;
+                    if (position < text.length() && (text.charAt(position) == '+' || text.charAt(position) == '-'))
+                        position++;
+                    if (position < text.length() && Character.isDigit(text.charAt(position))) {
+                        while (position < text.length() && Character.isDigit(text.charAt(position)))
+                            position++;
+                    } else {
+                        position = mantissaEnd;
+                    }
+                }
+                try {
+                    return new NumberNode(Double.parseDouble(text.substring(start, position)), 0);
+                } catch (NumberFormatException e) {
+                    throw error("Invalid number " + text.substring(start, position));
+                }
+            }
+            if (Character.isLetter(first)) {
+                int start = position;
+                while (position < text.length() && Character.isLetter(text.charAt(position)))
+                    position++;
+                String name = text.substring(start, position);
+                switch (name) {
+                    case "z":
+                        if (!allowZ)
+                            throw error("z cannot be used in the initial value");
+                        return new VariableNode('z');
+                    case "c":
+                        return new VariableNode('c');
+                    case "i":
+                        return new NumberNode(0, 1);
+                    case "pi":
+                        return new NumberNode(Math.PI, 0);
+                }
+                for (String function : FUNCTIONS) {
+                    if (function.equals(name)) {
+                        if (!accept('('))
+                            throw error("Missing '(' after " + name);
+                        Node argument = expression();
+                        if (!accept(')'))
+                            throw error("Missing ')'");
+                        return new FunctionNode(name, argument);
+                    }
+                }
+                position = start;
+                throw error("Unknown name " + name);
+            }
+            throw error("Unexpected '" + first + "'");
+        }
+    }
+
+    //code generation
+
+    /**
+     * A real number: either a constant, folded at compile time, or a double local variable.
+     */
+    private static class Real {
+        final boolean isConstant;
+        final double value;
+        final int local;
+
+        private Real(boolean isConstant, double value, int local) {
+            this.isConstant = isConstant;
+            this.value = value;
+            this.local = local;
+        }
+
+        static Real constant(double value) {
+            return new Real(true, value, -1);
+        }
+
+        static Real local(int index) {
+            return new Real(false, 0, index);
+        }
+
+        boolean is(double constant) {
+            return isConstant && Double.compare(value, constant) == 0;
+        }
+
+        boolean isZero() {
+            return isConstant && value == 0;
+        }
+    }
+
+    private static class Complex {
+        final Real re, im;
+
+        Complex(Real re, Real im) {
+            this.re = re;
+            this.im = im;
+        }
+    }
+
+    private static final Map<String, DoubleUnaryOperator> MATH_FUNCTIONS = new HashMap<>();
+    private static final Map<String, DoubleBinaryOperator> MATH_BINARY_FUNCTIONS = new HashMap<>();
+
+    static {
+        MATH_FUNCTIONS.put("sin", Math::sin);
+        MATH_FUNCTIONS.put("cos", Math::cos);
+        MATH_FUNCTIONS.put("sinh", Math::sinh);
+        MATH_FUNCTIONS.put("cosh", Math::cosh);
+        MATH_FUNCTIONS.put("exp", Math::exp);
+        MATH_FUNCTIONS.put("log", Math::log);
+        MATH_FUNCTIONS.put("sqrt", Math::sqrt);
+        MATH_BINARY_FUNCTIONS.put("atan2", Math::atan2);
+        MATH_BINARY_FUNCTIONS.put("hypot", Math::hypot);
+        MATH_BINARY_FUNCTIONS.put("copySign", Math::copySign);
+    }
+
+    private static final int MAX_INTEGER_EXPONENT = 64;
+    private static final int MAX_CODE_LENGTH = 65535;
+
+    private static final int DCONST_0 = 0x0e, DCONST_1 = 0x0f, LDC2_W = 0x14, ILOAD = 0x15, DLOAD = 0x18, ISTORE = 0x36, DSTORE = 0x39;
+    private static final int DUP2 = 0x5c, DADD = 0x63, DSUB = 0x67, DMUL = 0x6b, DDIV = 0x6f, DNEG = 0x77, IINC = 0x84, I2F = 0x86;
+    private static final int DCMPG = 0x98, IFGE = 0x9c, IF_ICMPGE = 0xa2, GOTO = 0xa7, FRETURN = 0xae, RETURN = 0xb1;
+    private static final int INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8, WIDE = 0xc4, ICONST_0 = 0x03, ALOAD_0 = 0x2a;
+
+    /**
+     * Writes a class file of version 49 (Java 5), which needs no stack map frames, implementing CompiledFormula.
+     */
+    private static class ClassFileBuilder {
+        private final String className;
+        private final ByteArrayOutputStream constantPoolBytes = new ByteArrayOutputStream();
+        private final DataOutputStream constantPool = new DataOutputStream(constantPoolBytes);
+        private final Map<String, Integer> constants = new HashMap<>();
+        private int constantCount = 1;
+        private final ByteArrayOutputStream code = new ByteArrayOutputStream();
+        private int nextLocal;
+
+        //locals of escapeTime
+        private static final int MAX_ITERATIONS = 1, C_RE = 2, C_IM = 4, BAILOUT_SQUARED = 6, Z_RE = 8, Z_IM = 10, ITERATION = 12, FIRST_TEMPORARY = 13;
+
+        ClassFileBuilder(String className) {
+            this.className = className;
+        }
+
+        byte[] build(Node initial, Node iterated) {
+            try {
+                return buildClassFile(initial, iterated);
+            } catch (IOException e) {
+                throw new IllegalStateException(e); //cannot happen, writes to memory only
+            }
+        }
+
+        private byte[] buildClassFile(Node initial, Node iterated) throws IOException {
+            int thisClass = classConstant(className);
+            int superClass = classConstant("java/lang/Object");
+            int interfaceClass = classConstant(INTERFACE_NAME);
+            int objectInit = methodConstant("java/lang/Object", "<init>", "()V");
+            int initName = utf8("<init>");
+            int initDescriptor = utf8("()V");
+            int escapeTimeName = utf8("escapeTime");
+            int escapeTimeDescriptor = utf8("(IDDD)F");
+            int codeName = utf8("Code");
+
+            byte[] escapeTimeCode = generateEscapeTime(initial, iterated);
+            int maxLocals = nextLocal;
+
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0); //minor version
+            out.writeShort(49); //major version
+            out.writeShort(constantCount);
+            constantPoolBytes.writeTo(out);
+            out.writeShort(0x0001 | 0x0010 | 0x0020); //public final super
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(1);
+            out.writeShort(interfaceClass);
+            out.writeShort(0); //fields
+            out.writeShort(2); //methods
+
+            byte[] initCode = {(byte) ALOAD_0, (byte) INVOKESPECIAL, (byte) (objectInit >> 8), (byte) objectInit, (byte) RETURN};
+            writeMethod(out, 0x0001, initName, initDescriptor, codeName, initCode, 1, 1);
+            writeMethod(out, 0x0001, escapeTimeName, escapeTimeDescriptor, codeName, escapeTimeCode, 16, maxLocals);
+
+            out.writeShort(0); //attributes
+            return bytes.toByteArray();
+        }
+
+        private static void writeMethod(DataOutputStream out, int access, int name, int descriptor, int codeName, byte[] code, int maxStack, int maxLocals) throws IOException {
+            out.writeShort(access);
+            out.writeShort(name);
+            out.writeShort(descriptor);
+            out.writeShort(1); //attributes
+            out.writeShort(codeName);
+            out.writeInt(12 + code.length);
+            out.writeShort(maxStack);
+            out.writeShort(maxLocals);
+            out.writeInt(code.length);
+            out.write(code);
+            out.writeShort(0); //exception table
+            out.writeShort(0); //attributes
+        }
+
+        private int utf8(String value) throws IOException {
+            Integer index = constants.get("U" + value);
+            if (index != null)
+                return index;
+            constantPool.writeByte(1);
+            constantPool.writeUTF(value);
+            constants.put("U" + value, constantCount);
+            return constantCount++;
+        }
+
+        private int classConstant(String name) throws IOException {
+            int nameIndex = utf8(name);
+            Integer index = constants.get("C" + name);
+            if (index != null)
+                return index;
+            constantPool.writeByte(7);
+            constantPool.writeShort(nameIndex);
+            constants.put("C" + name, constantCount);
+            return constantCount++;
+        }
+
+        private int methodConstant(String owner, String name, String descriptor) throws IOException {
+            String key = "M" + owner + "." + name + descriptor;
+            Integer index = constants.get(key);
+            if (index != null)
+                return index;
+            int ownerIndex = classConstant(owner);
+            int nameIndex = utf8(name);
+            int descriptorIndex = utf8(descriptor);
+            constantPool.writeByte(12); //NameAndType
+            constantPool.writeShort(nameIndex);
+            constantPool.writeShort(descriptorIndex);
+            int nameAndType = constantCount++;
+            constantPool.writeByte(10); //Methodref
+            constantPool.writeShort(ownerIndex);
+            constantPool.writeShort(nameAndType);
+            constants.put(key, constantCount);
+            return constantCount++;
+        }
+
+        private int doubleConstant(double value) {
+            String key = "D" + Double.doubleToRawLongBits(value);
+            Integer index = constants.get(key);
+            if (index != null)
+                return index;
+            try {
+                constantPool.writeByte(6);
+                constantPool.writeDouble(value);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            constants.put(key, constantCount);
+            int result = constantCount;
+            constantCount += 2; //a double takes two entries
+            return result;
+        }
+
+        /**
+         * <pre>
+         * z = initial(c)
+         * i = 0
+         * loop: if (i >= maxIterations) goto end
+         *       if (zRe * zRe + zIm * zIm >= bailoutSquared) goto end   (also if NaN)
+         *       z = iterated(z, c)
+         *       i++
+         *       goto loop
+         * end:  return (float) i
+         * </pre>
+         */
+        private byte[] generateEscapeTime(Node initial, Node iterated) throws IOException {
+            nextLocal = FIRST_TEMPORARY;
+            Complex c = new Complex(Real.local(C_RE), Real.local(C_IM));
+            Complex z = new Complex(Real.local(Z_RE), Real.local(Z_IM));
+
+            storeComplex(compile(initial, z, c), Z_RE, Z_IM);
+            emit(ICONST_0);
+            emitLocal(ISTORE, ITERATION);
+
+            int loop = code.size();
+            emitLocal(ILOAD, ITERATION);
+            emitLocal(ILOAD, MAX_ITERATIONS);
+            int exitOnIterations = emitJump(IF_ICMPGE);
+            emitLocal(DLOAD, Z_RE);
+            emit(DUP2);
+            emit(DMUL);
+            emitLocal(DLOAD, Z_IM);
+            emit(DUP2);
+            emit(DMUL);
+            emit(DADD);
+            emitLocal(DLOAD, BAILOUT_SQUARED);
+            emit(DCMPG);
+            int exitOnBailout = emitJump(IFGE);
+            storeComplex(compile(iterated, z, c), Z_RE, Z_IM);
+            emitIinc(ITERATION);
+            int back = emitJump(GOTO);
+            patchJump(back, loop);
+
+            int end = code.size();
+            patchJump(exitOnIterations, end);
+            patchJump(exitOnBailout, end);
+            emitLocal(ILOAD, ITERATION);
+            emit(I2F);
+            emit(FRETURN);
+            if (code.size() > MAX_CODE_LENGTH)
+                throw new IllegalArgumentException("The formula is too large.");
+            return patchJumps(code.toByteArray());
+        }
+
+        private void storeComplex(Complex value, int reLocal, int imLocal) {
+            //both components are loaded before storing, as they may depend on the locals stored to
+            load(value.re);
+            load(value.im);
+            emitLocal(DSTORE, imLocal);
+            emitLocal(DSTORE, reLocal);
+        }
+
+        private Complex compile(Node node, Complex z, Complex c) throws IOException {
+            if (node instanceof NumberNode) {
+                NumberNode number = (NumberNode) node;
+                return new Complex(Real.constant(number.re), Real.constant(number.im));
+            }
+            if (node instanceof VariableNode) {
+                return ((VariableNode) node).name == 'z' ? z : c;
+            }
+            if (node instanceof FunctionNode) {
+                FunctionNode function = (FunctionNode) node;
+                return function(function.function, compile(function.argument, z, c));
+            }
+            OperatorNode operator = (OperatorNode) node;
+            Complex left = compile(operator.left, z, c);
+            Complex right = compile(operator.right, z, c);
+            switch (operator.operator) {
+                case '+':
+                    return new Complex(add(left.re, right.re), add(left.im, right.im));
+                case '-':
+                    return new Complex(subtract(left.re, right.re), subtract(left.im, right.im));
+                case '*':
+                    return multiply(left, right);
+                case '/':
+                    return divide(left, right);
+                case '^':
+                    return power(left, right);
+                default:
+                    throw new IllegalStateException("Unknown operator " + operator.operator);
+            }
+        }
+
+        private Complex multiply(Complex a, Complex b) throws IOException {
+            if (b.im.isZero())
+                return new Complex(multiply(a.re, b.re), multiply(a.im, b.re));
+            if (a.im.isZero())
+                return new Complex(multiply(a.re, b.re), multiply(a.re, b.im));
+            return new Complex(
+                    subtract(multiply(a.re, b.re), multiply(a.im, b.im)),
+                    add(multiply(a.re, b.im), multiply(a.im, b.re))
+            );
+        }
+
+        private Complex divide(Complex a, Complex b) throws IOException {
+            if (b.im.isZero())
+                return new Complex(divide(a.re, b.re), divide(a.im, b.re));
+            Real denominator = add(multiply(b.re, b.re), multiply(b.im, b.im));
+            return new Complex(
+                    divide(add(multiply(a.re, b.re), multiply(a.im, b.im)), denominator),
+                    divide(subtract(multiply(a.im, b.re), multiply(a.re, b.im)), denominator)
+            );
+        }
+
+        private Complex power(Complex base, Complex exponent) throws IOException {
+            if (exponent.im.isZero() && exponent.re.isConstant) {
+                double n = exponent.re.value;
+                if (n == Math.rint(n) && Math.abs(n) <= MAX_INTEGER_EXPONENT) {
+                    Complex result = integerPower(base, (int) Math.abs(n));
+                    if (n < 0)
+                        result = divide(new Complex(Real.constant(1), Real.constant(0)), result);
+                    return result;
+                }
+            }
+            return function("exp", multiply(exponent, function("log", base)));
+        }
+
+        /**
+         * Exponentiation by squaring.
+         */
+        private Complex integerPower(Complex base, int n) throws IOException {
+            Complex result = null;
+            Complex square = base;
+            while (n > 0) {
+                if ((n & 1) != 0)
+                    result = result == null ? square : multiply(result, square);
+                n >>= 1;
+                if (n > 0)
+                    square = multiply(square, square);
+            }
+            return result == null ? new Complex(Real.constant(1), Real.constant(0)) : result;
+        }
+
+        private Complex function(String name, Complex x) throws IOException {
+            Real zero = Real.constant(0);
+            switch (name) {
+                case "sin":
+                    if (x.im.isZero())
+                        return new Complex(call("sin", x.re), zero);
+                    return new Complex(multiply(call("sin", x.re), call("cosh", x.im)), multiply(call("cos", x.re), call("sinh", x.im)));
+                case "cos":
+                    if (x.im.isZero())
+                        return new Complex(call("cos", x.re), zero);
+                    return new Complex(multiply(call("cos", x.re), call("cosh", x.im)), negate(multiply(call("sin", x.re), call("sinh", x.im))));
+                case "sinh":
+                    if (x.im.isZero())
+                        return new Complex(call("sinh", x.re), zero);
+                    return new Complex(multiply(call("sinh", x.re), call("cos", x.im)), multiply(call("cosh", x.re), call("sin", x.im)));
+                case "cosh":
+                    if (x.im.isZero())
+                        return new Complex(call("cosh", x.re), zero);
+                    return new Complex(multiply(call("cosh", x.re), call("cos", x.im)), multiply(call("sinh", x.re), call("sin", x.im)));
+                case "exp": {
+                    Real modulus = call("exp", x.re);
+                    if (x.im.isZero())
+                        return new Complex(modulus, zero);
+                    return new Complex(multiply(modulus, call("cos", x.im)), multiply(modulus, call("sin", x.im)));
+                }
+                case "log":
+                    return new Complex(call("log", call("hypot", x.re, x.im)), call("atan2", x.im, x.re));
+                case "sqrt": {
+                    //principal square root, computed without cancellation of the larger component
+                    Real modulus = call("hypot", x.re, x.im);
+                    Real half = Real.constant(0.5);
+                    Real re = call("sqrt", multiply(add(modulus, x.re), half));
+                    Real im = call("copySign", call("sqrt", multiply(subtract(modulus, x.re), half)), x.im);
+                    return new Complex(re, im);
+                }
+                case "conj":
+                    return new Complex(x.re, negate(x.im));
+                case "re":
+                    return new Complex(x.re, zero);
+                case "im":
+                    return new Complex(x.im, zero);
+                case "abs":
+                    return new Complex(call("hypot", x.re, x.im), zero);
+                default:
+                    throw new IllegalStateException("Unknown function " + name);
+            }
+        }
+
+        private Real add(Real a, Real b) {
+            if (a.isZero()) return b;
+            if (b.isZero()) return a;
+            if (a.isConstant && b.isConstant) return Real.constant(a.value + b.value);
+            return binary(DADD, a, b);
+        }
+
+        private Real subtract(Real a, Real b) {
+            if (b.isZero()) return a;
+            if (a.isZero()) return negate(b);
+            if (a.isConstant && b.isConstant) return Real.constant(a.value - b.value);
+            return binary(DSUB, a, b);
+        }
+
+        private Real multiply(Real a, Real b) {
+            //x * 0 is not 0 for infinite and NaN x, but those have escaped anyway
+            if (a.isZero() || b.isZero()) return Real.constant(0);
+            if (a.is(1)) return b;
+            if (b.is(1)) return a;
+            if (a.is(-1)) return negate(b);
+            if (b.is(-1)) return negate(a);
+            if (a.isConstant && b.isConstant) return Real.constant(a.value * b.value);
+            return binary(DMUL, a, b);
+        }
+
+        private Real divide(Real a, Real b) {
+            if (b.is(1)) return a;
+            if (a.isConstant && b.isConstant) return Real.constant(a.value / b.value);
+            return binary(DDIV, a, b);
+        }
+
+        private Real negate(Real a) {
+            if (a.isConstant) return Real.constant(-a.value);
+            load(a);
+            emit(DNEG);
+            return store();
+        }
+
+        private Real binary(int opcode, Real a, Real b) {
+            load(a);
+            load(b);
+            emit(opcode);
+            return store();
+        }
+
+        /**
+         * Calls a function of {@code java.lang.Math}, or evaluates it now, if the argument is constant.
+         */
+        private Real call(String name, Real x) throws IOException {
+            if (x.isConstant)
+                return Real.constant(MATH_FUNCTIONS.get(name).applyAsDouble(x.value));
+            load(x);
+            emitInvokeStatic(methodConstant("java/lang/Math", name, "(D)D"));
+            return store();
+        }
+
+        private Real call(String name, Real x, Real y) throws IOException {
+            if (x.isConstant && y.isConstant)
+                return Real.constant(MATH_BINARY_FUNCTIONS.get(name).applyAsDouble(x.value, y.value));
+            load(x);
+            load(y);
+            emitInvokeStatic(methodConstant("java/lang/Math", name, "(DD)D"));
+            return store();
+        }
+
+        private void load(Real value) {
+            if (!value.isConstant) {
+                emitLocal(DLOAD, value.local);
+            } else if (value.is(0)) {
+                emit(DCONST_0);
+            } else if (value.is(1)) {
+                emit(DCONST_1);
+            } else {
+                int index = doubleConstant(value.value);
+                emit(LDC2_W);
+                emit(index >> 8);
+                emit(index);
+            }
+        }
+
+        /**
+         * Stores the double on the top of the stack to a new local.
+         */
+        private Real store() {
+            int local = nextLocal;
+            nextLocal += 2;
+            if (nextLocal > 0xffff)
+                throw new IllegalArgumentException("The formula is too large.");
+            emitLocal(DSTORE, local);
+            return Real.local(local);
+        }
+
+        private void emit(int b) {
+            code.write(b);
+        }
+
+        private void emitLocal(int opcode, int local) {
+            if (local > 0xff) {
+                emit(WIDE);
+                emit(opcode);
+                emit(local >> 8);
+                emit(local);
+            } else {
+                emit(opcode);
+                emit(local);
+            }
+        }
+
+        private void emitIinc(int local) {
+            emit(IINC);
+            emit(local);
+            emit(1);
+        }
+
+        private void emitInvokeStatic(int methodIndex) {
+            emit(INVOKESTATIC);
+            emit(methodIndex >> 8);
+            emit(methodIndex);
+        }
+
+        /**
+         * @return position of the jump instruction, to be patched
+         */
+        private int emitJump(int opcode) {
+            int position = code.size();
+            emit(opcode);
+            emit(0);
+            emit(0);
+            return position;
+        }
+
+        /**
+         * pairs [position of the jump instruction, position of its target]
+         */
+        private final List<int[]> jumps = new ArrayList<>();
+
+        private void patchJump(int jump, int target) {
+            jumps.add(new int[]{jump, target});
+        }
+
+        private byte[] patchJumps(byte[] bytes) {
+            for (int[] jump : jumps) {
+                int offset = jump[1] - jump[0];
+                if (offset != (short) offset)
+                    throw new IllegalArgumentException("The formula is too large.");
+                bytes[jump[0] + 1] = (byte) (offset >> 8);
+                bytes[jump[0] + 2] = (byte) offset;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,135 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Java Flight Recorder event {@code NAME}, carrying the WorkCounters of one frame of the CPU renderer.
+ * <br>
+ * The project is compiled for Java 8, which has no JFR API, so the event type is created at runtime by {@code jdk.jfr.EventFactory} through reflection.
+ * On runtimes without it (Java 8 before 8u262), events are silently not recorded.
+ */
+final class FrameWorkEvent {
+
+    static final String NAME = "cz.cuni.mff.cgg.teichmaa.chaosultra.FrameWork";
+
+    /**
+     * name, type and label of the event's fields, in the order of {@code commit}'s arguments
+     */
+    private static final Object[][] FIELDS = {
+            {"kind", String.class, "Frame Kind"},
+            {"cancelled", boolean.class, "Cancelled"},
+            {"width", int.class, "Width"},
+            {"height", int.class, "Height"},
+            {"maxIterations", int.class, "Max Iterations"},
+            {"maxSuperSampling", float.class, "Max Super Sampling"},
+            {"iterations", long.class, "Iterations"},
+            {"samples", long.class, "Samples"},
+            {"sampledPixels", long.class, "Sampled Pixels"},
+            {"adaptiveEarlyExits", long.class, "Adaptive Early Exits"},
+            {"maxIterationPixels", long.class, "Max Iteration Pixels"},
+            {"reusedPixels", long.class, "Reused Pixels"},
+            {"resampledPixels", long.class, "Resampled Pixels"},
+            {"cachedPixels", long.class, "Cached Pixels"},
+            {"distanceEstimatedPixels", long.class, "Distance Estimated Pixels"},
+    };
+
+    /**
+     * jdk.jfr.EventFactory of the event type, null if JFR is not available
+     */
+    private static final Object factory;
+    private static final Method newEvent;
+    private static final Method begin;
+    private static final Method end;
+    private static final Method shouldCommit;
+    private static final Method set;
+    private static final Method commit;
+
+    static {
+        Object f = null;
+        Method ne = null, b = null, en = null, sc = null, s = null, c = null;
+        try {
+            Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+            Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+            Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+            Class<?> event = Class.forName("jdk.jfr.Event");
+            Class<?> label = Class.forName("jdk.jfr.Label");
+            Constructor<?> newAnnotation = annotationElement.getConstructor(Class.class, Object.class);
+            Constructor<?> newField = valueDescriptor.getConstructor(Class.class, String.class, List.class);
+
+            List<Object> annotations = Arrays.asList(
+                    newAnnotation.newInstance(Class.forName("jdk.jfr.Name"), NAME),
+                    newAnnotation.newInstance(label, "Fractal Frame Work"),
+                    newAnnotation.newInstance(Class.forName("jdk.jfr.Category"), new String[]{"Chaos Ultra"}),
+                    newAnnotation.newInstance(Class.forName("jdk.jfr.Description"), "Work done by the CPU renderer to render one frame")
+            );
+            List<Object> fields = new ArrayList<>();
+            for (Object[] field : FIELDS) {
+                fields.add(newField.newInstance(field[1], field[0], Collections.singletonList(newAnnotation.newInstance(label, field[2]))));
+            }
+            f = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+            ne = eventFactory.getMethod("newEvent");
+            b = event.getMethod("begin");
+            en = event.getMethod("end");
+            sc = event.getMethod("shouldCommit");
+            s = event.getMethod("set", int.class, Object.class);
+            c = event.getMethod("commit");
+        } catch (ReflectiveOperationException | LinkageError | RuntimeException e) {
+            f = null; //JFR not available
+        }
+        factory = f;
+        newEvent = ne;
+        begin = b;
+        end = en;
+        shouldCommit = sc;
+        set = s;
+        commit = c;
+    }
+
+    /**
+     * null if JFR is not available
+     */
+    private final Object event;
+
+    /**
+     * Creates the event and starts its timing.
+     */
+    FrameWorkEvent() {
+        Object e = null;
+        if (factory != null) {
+            try {
+                e = newEvent.invoke(factory);
+                begin.invoke(e);
+            } catch (ReflectiveOperationException ex) {
+                e = null;
+            }
+        }
+        event = e;
+    }
+
+    /**
+     * Ends the timing and commits the event, if JFR records it.
+     */
+    void commit(String kind, boolean cancelled, int width, int height, int maxIterations, float maxSuperSampling, WorkCounters work) {
+        if (event == null)
+            return;
+        try {
+            end.invoke(event);
+            if (!(Boolean) shouldCommit.invoke(event))
+                return;
+            Object[] values = {kind, cancelled, width, height, maxIterations, maxSuperSampling,
+                    work.getIterations(), work.getSamples(), work.getSampledPixels(), work.getAdaptiveEarlyExits(), work.getMaxIterationPixels(),
+                    work.getReusedPixels(), work.getResampledPixels(), work.getCachedPixels(), work.getDistanceEstimatedPixels()};
+            for (int i = 0; i < values.length; i++) {
+                set.invoke(event, i, values[i]);
+            }
+            commit.invoke(event);
+        } catch (ReflectiveOperationException e) {
+            /* the event is lost, which does not affect the rendering */
+        }
+    }
+}
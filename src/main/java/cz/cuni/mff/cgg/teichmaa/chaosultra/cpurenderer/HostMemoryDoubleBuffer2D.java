@@ -0,0 +1,89 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import java.io.Closeable;
+
+/**
+ * Represents two distinct 2D arrays of {@code pixel_info_t} in host memory, whose order may be switched. Host counterpart of {@code DeviceMemoryDoubleBuffer2D}.
+ * <br>
+ * The arrays are allocated only by {@code reallocate}, so rendering and switching them does not allocate anything.
+ */
+class HostMemoryDoubleBuffer2D implements Closeable {
+
+    private static final PixelInfoArray2D EMPTY = new PixelInfoArray2D(0, 0);
+
+    private PixelInfoArray2D array1 = EMPTY;
+    private PixelInfoArray2D array2 = EMPTY;
+
+    /**
+     * Allocates two new 2D buffers in host memory, unless they already have the requested size. Also frees old memory, if needed.
+     * Either way, the primary buffer becomes dirty.
+     * @param w new width
+     * @param h new height
+     */
+    void reallocate(int w, int h) {
+        resetBufferOrder();
+        setPrimary2DBufferDirty(true);
+        if (array1.getWidth() == w && array1.getHeight() == h)
+            return;
+        //free the old buffers before allocating the new ones
+        memoryFree();
+        array1 = new PixelInfoArray2D(w, h);
+        array2 = new PixelInfoArray2D(w, h);
+    }
+
+    /**
+     * Releases the buffers; their memory is freed as soon as the garbage collector finds them unreachable.
+     */
+    void memoryFree() {
+        array1 = EMPTY;
+        array2 = EMPTY;
+        setPrimary2DBufferDirty(true);
+    }
+
+    PixelInfoArray2D getPrimary2DBuffer() {
+        return array1;
+    }
+
+    PixelInfoArray2D getSecondary2DBuffer() {
+        return array2;
+    }
+
+    private boolean buffersSwitched = false;
+
+    /**
+     * Make the primary buffer a secondary one and vice versa
+     */
+    void switch2DBuffers() {
+        buffersSwitched = !buffersSwitched;
+        PixelInfoArray2D switchArray = array1;
+        array1 = array2;
+        array2 = switchArray;
+    }
+
+    boolean isBuffersSwitched() {
+        return buffersSwitched;
+    }
+
+    /***
+     * makes buffers order the initial one (whether the buffers have been previously switched or not)
+     */
+    void resetBufferOrder() {
+        if (isBuffersSwitched())
+            switch2DBuffers();
+    }
+
+    private boolean primary2DBufferDirty = true;
+
+    public boolean isPrimary2DBufferDirty() {
+        return primary2DBufferDirty;
+    }
+
+    public void setPrimary2DBufferDirty(boolean primary2DBufferDirty) {
+        this.primary2DBufferDirty = primary2DBufferDirty;
+    }
+
+    @Override
+    public void close() {
+        memoryFree();
+    }
+}
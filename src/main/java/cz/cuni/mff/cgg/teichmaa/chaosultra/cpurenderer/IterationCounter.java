@@ -0,0 +1,35 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+/**
+ * Per-thread count of the iterations that the modules have actually run, read by the kernels to count their work (see WorkCounters).
+ * <br>
+ * The fractal value of a point does not tell how many iterations it has cost: the interior detection of MandelbrotInterior stops long before maxIterations,
+ * and the values of e.g. the Newton fractals are not escape times at all. Therefore, the modules (resp. the helpers with the iteration loops, e.g. QuadraticMapLanes)
+ * add the iterations of every computed point here, and a kernel takes the count of its thread at the start and at the end of each tile.
+ * <br>
+ * The count is per thread, so the modules stay thread-safe and the threads share no mutable state while sampling.
+ */
+public final class IterationCounter {
+
+    private static final ThreadLocal<long[]> ITERATIONS = ThreadLocal.withInitial(() -> new long[1]);
+
+    private IterationCounter() {
+    }
+
+    /**
+     * Adds iterations run by the current thread.
+     */
+    public static void add(long iterations) {
+        ITERATIONS.get()[0] += iterations;
+    }
+
+    /**
+     * @return number of iterations the current thread has run since the last call, which resets the count
+     */
+    public static long take() {
+        long[] iterations = ITERATIONS.get();
+        long result = iterations[0];
+        iterations[0] = 0;
+        return result;
+    }
+}
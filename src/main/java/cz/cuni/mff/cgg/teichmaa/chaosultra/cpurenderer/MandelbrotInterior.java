@@ -0,0 +1,110 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+/**
+ * Detection of points inside the Mandelbrot set without iterating their orbits up to maxIterations:
+ * <ul>
+ * <li>closed-form tests of the main cardioid and the period-2 bulb, which cover most of the interior area,</li>
+ * <li>periodicity detection (Brent's algorithm): the orbit is compared to a point saved at iterations {@code 2^k};
+ * if it returns to the saved point, it is periodic and thus never escapes.</li>
+ * </ul>
+ * The orbit points are compared exactly: an orbit that repeats in floating point arithmetic never escapes in it either,
+ * so the result is the same as if all maxIterations were iterated. Orbits attracted to a cycle get exactly periodic after a while due to rounding.
+ * <br>
+ * Used by the CPU renderer only; the CUDA module mandelbrot.cu iterates every orbit up to maxIterations.
+ */
+public final class MandelbrotInterior {
+
+    /**
+     * Iteration at which the first orbit point is saved for the periodicity detection. The saving interval is doubled after each save.
+     */
+    public static final int PERIODICITY_CHECK_START = 8;
+
+    private MandelbrotInterior() {
+    }
+
+    /**
+     * @return true if {@code c = [x, y]} lies inside the main cardioid or inside the period-2 bulb (the disc of radius 1/4 around -1)
+     */
+    public static boolean isInMainCardioidOrPeriod2Bulb(double x, double y) {
+        double y2 = y * y;
+        double xq = x - 0.25;
+        double q = xq * xq + y2;
+        if (q * (q + xq) <= 0.25 * y2)
+            return true;
+        double x1 = x + 1;
+        return x1 * x1 + y2 <= 0.0625;
+    }
+
+    public static boolean isInMainCardioidOrPeriod2Bulb(float x, float y) {
+        float y2 = y * y;
+        float xq = x - 0.25f;
+        float q = xq * xq + y2;
+        if (q * (q + xq) <= 0.25f * y2)
+            return true;
+        float x1 = x + 1;
+        return x1 * x1 + y2 <= 0.0625f;
+    }
+
+    /**
+     * Escape time of the Mandelbrot set with the interior detection. The iterations actually run are added to the IterationCounter.
+     *
+     * @return number of iterations before the orbit of zero left the circle of radius 2, or maxIterations if it did not or if {@code c} was detected to be inside the set
+     */
+    public static int escapeTime(int maxIterations, double cx, double cy) {
+        if (isInMainCardioidOrPeriod2Bulb(cx, cy))
+            return maxIterations;
+        double zx = 0;
+        double zy = 0;
+        double zx_new;
+        double savedX = 0;
+        double savedY = 0;
+        int savedAt = PERIODICITY_CHECK_START;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+            if (zx == savedX && zy == savedY) {
+                IterationCounter.add(i);
+                return maxIterations; //periodic orbit
+            }
+            if (i == savedAt) {
+                savedX = zx;
+                savedY = zy;
+                savedAt *= 2;
+            }
+        }
+        IterationCounter.add(i);
+        return i;
+    }
+
+    public static int escapeTime(int maxIterations, float cx, float cy) {
+        if (isInMainCardioidOrPeriod2Bulb(cx, cy))
+            return maxIterations;
+        float zx = 0;
+        float zy = 0;
+        float zx_new;
+        float savedX = 0;
+        float savedY = 0;
+        int savedAt = PERIODICITY_CHECK_START;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+            if (zx == savedX && zy == savedY) {
+                IterationCounter.add(i);
+                return maxIterations; //periodic orbit
+            }
+            if (i == savedAt) {
+                savedX = zx;
+                savedY = zy;
+                savedAt *= 2;
+            }
+        }
+        IterationCounter.add(i);
+        return i;
+    }
+}
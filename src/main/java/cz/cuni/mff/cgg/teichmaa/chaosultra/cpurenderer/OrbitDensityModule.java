@@ -0,0 +1,23 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+/**
+ * Implemented by modules whose image is the density of the escaping orbits of the points {@code c} (e.g. the Buddhabrot), rather than a function of each point.
+ * Such modules are rendered by CpuKernelOrbitDensity, which samples {@code c} in {@code [-2, 2] x [-2, 2]} and accumulates the points of the orbits that fall into the view.
+ * The value passed to {@code colorize} is the density relative to the mean density of the view.
+ */
+public interface OrbitDensityModule {
+
+    /**
+     * Iterates the orbit of {@code c = [cx, cy]} and stores its points {@code z_1, z_2, ...} to {@code orbit}, as pairs {@code x, y}.
+     * The iterations actually run are added to the IterationCounter, also for the orbits that are not accumulated.
+     *
+     * @param orbit array of at least {@code 2 * maxIterations}
+     * @return number of points stored, or 0 if the orbit is not to be accumulated, e.g. because it has not escaped within maxIterations
+     */
+    int computeOrbit(int maxIterations, double cx, double cy, double[] orbit);
+
+    /**
+     * @return whether the points {@code c} are sampled by Metropolis-Hastings, which prefers the orbits that hit the view, rather than uniformly
+     */
+    boolean getUseMetropolisSampling();
+}
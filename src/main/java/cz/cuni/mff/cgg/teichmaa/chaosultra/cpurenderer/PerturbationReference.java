@@ -0,0 +1,170 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.PointDoubleReadable;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * High-precision reference orbit of a quadratic map, used to render deep zooms beyond double precision.
+ * <br>
+ * Only the reference orbit {@code Z_n} is computed in arbitrary precision. Every pixel then iterates just its difference {@code d_n} from the reference,
+ * {@code d_(n+1) = 2 Z_n d_n + d_n^2 + dc}, which is small enough to be represented in double precision.
+ * <br>
+ * Glitches (i.e. loss of precision when the pixel's orbit gets close to zero, resp. reference orbit escaping before the pixel does) are resolved by rebasing:
+ * whenever {@code |Z_n + d_n| < |d_n|}, the pixel continues with {@code d = Z_n + d_n}, relative to the orbit of zero (as proposed by Zhuoran on fractalforums.org).
+ * <br>
+ * Instances are immutable and thus can be shared by all the rendering threads.
+ */
+public class PerturbationReference {
+
+    private static final int ESCAPE_RADIUS_SQUARED = 4;
+    /**
+     * Number of decimal digits used for the reference orbit on top of those needed to distinguish individual pixels.
+     */
+    private static final int GUARD_DIGITS = 10;
+
+    private final QuadraticMapModule module;
+    private final BigDecimal referenceX;
+    private final BigDecimal referenceY;
+    private final boolean pixelIsParameter;
+
+    /**
+     * reference orbit, from Z_0 up to and including the first escaped point
+     */
+    private final double[] orbitRe;
+    private final double[] orbitIm;
+    /**
+     * orbit of zero, used after rebasing; same as {@code orbit} for the Mandelbrot set
+     */
+    private final double[] zeroOrbitRe;
+    private final double[] zeroOrbitIm;
+
+    private PerturbationReference(QuadraticMapModule module, BigDecimal referenceX, BigDecimal referenceY, double[][] orbit, double[][] zeroOrbit) {
+        this.module = module;
+        this.referenceX = referenceX;
+        this.referenceY = referenceY;
+        this.pixelIsParameter = module.getFixedParameter() == null;
+        this.orbitRe = orbit[0];
+        this.orbitIm = orbit[1];
+        this.zeroOrbitRe = zeroOrbit[0];
+        this.zeroOrbitIm = zeroOrbit[1];
+    }
+
+    /**
+     * Computes the reference orbit of the given point.
+     *
+     * @param pixelSize size of the smallest detail that is to be distinguished, determines the precision of the computation
+     */
+    public static PerturbationReference compute(QuadraticMapModule module, BigDecimal referenceX, BigDecimal referenceY, int maxIterations, double pixelSize) {
+        int digits = Math.max(MathContext.DECIMAL64.getPrecision(), (int) Math.ceil(-Math.log10(pixelSize)) + GUARD_DIGITS);
+        MathContext mc = new MathContext(digits);
+
+        PointDoubleReadable fixedParameter = module.getFixedParameter();
+        double[][] orbit;
+        double[][] zeroOrbit;
+        if (fixedParameter == null) {
+            //Mandelbrot: z_0 = 0, c = reference
+            orbit = computeOrbit(BigDecimal.ZERO, BigDecimal.ZERO, referenceX, referenceY, maxIterations, mc);
+            zeroOrbit = orbit;
+        } else {
+            //Julia: z_0 = reference, c = fixed
+            BigDecimal cx = new BigDecimal(fixedParameter.getX());
+            BigDecimal cy = new BigDecimal(fixedParameter.getY());
+            orbit = computeOrbit(referenceX, referenceY, cx, cy, maxIterations, mc);
+            zeroOrbit = computeOrbit(BigDecimal.ZERO, BigDecimal.ZERO, cx, cy, maxIterations, mc);
+        }
+        return new PerturbationReference(module, referenceX, referenceY, orbit, zeroOrbit);
+    }
+
+    /**
+     * @return {re, im} of the orbit, from z_0 up to and including the first point outside the escape radius (resp. z_maxIterations)
+     */
+    private static double[][] computeOrbit(BigDecimal zx, BigDecimal zy, BigDecimal cx, BigDecimal cy, int maxIterations, MathContext mc) {
+        double[] re = new double[maxIterations + 1];
+        double[] im = new double[maxIterations + 1];
+        int length = 0;
+        while (true) {
+            double x = zx.doubleValue();
+            double y = zy.doubleValue();
+            re[length] = x;
+            im[length] = y;
+            length++;
+            if (length > maxIterations || x * x + y * y >= ESCAPE_RADIUS_SQUARED)
+                break;
+            BigDecimal zx_new = zx.multiply(zx, mc).subtract(zy.multiply(zy, mc), mc).add(cx, mc);
+            zy = zx.multiply(zy, mc).multiply(BigDecimal.valueOf(2), mc).add(cy, mc);
+            zx = zx_new;
+        }
+        double[] trimmedRe = new double[length];
+        double[] trimmedIm = new double[length];
+        System.arraycopy(re, 0, trimmedRe, 0, length);
+        System.arraycopy(im, 0, trimmedIm, 0, length);
+        return new double[][]{trimmedRe, trimmedIm};
+    }
+
+    public BigDecimal getReferenceX() {
+        return referenceX;
+    }
+
+    public BigDecimal getReferenceY() {
+        return referenceY;
+    }
+
+    /**
+     * @return number of points of the reference orbit, i.e. the escape time of the reference + 1
+     */
+    public int getOrbitLength() {
+        return orbitRe.length;
+    }
+
+    /**
+     * Same as {@code computeFractal} of the module, for the point {@code reference + [dx, dy]}.
+     *
+     * @param dx difference of the point from the reference, real part
+     * @param dy difference of the point from the reference, imaginary part
+     */
+    public float computeFractal(int maxIterations, double dx, double dy) {
+        double[] re = orbitRe;
+        double[] im = orbitIm;
+        double dRe, dIm, dcRe, dcIm;
+        if (pixelIsParameter) {
+            dRe = 0;
+            dIm = 0;
+            dcRe = dx;
+            dcIm = dy;
+        } else {
+            dRe = dx;
+            dIm = dy;
+            dcRe = 0;
+            dcIm = 0;
+        }
+
+        int n = 0; //index to the current reference orbit
+        int i = 0;
+        while (i < maxIterations) {
+            double zRe = re[n] + dRe;
+            double zIm = im[n] + dIm;
+            double zAbs2 = zRe * zRe + zIm * zIm;
+            if (zAbs2 >= ESCAPE_RADIUS_SQUARED)
+                break;
+            if (zAbs2 < dRe * dRe + dIm * dIm || n == re.length - 1) {
+                //rebase: continue relative to the orbit of zero
+                dRe = zRe;
+                dIm = zIm;
+                re = zeroOrbitRe;
+                im = zeroOrbitIm;
+                n = 0;
+            }
+            double Zre = re[n];
+            double Zim = im[n];
+            double dRe_new = 2 * (Zre * dRe - Zim * dIm) + dRe * dRe - dIm * dIm + dcRe;
+            dIm = 2 * (Zre * dIm + Zim * dRe) + 2 * dRe * dIm + dcIm;
+            dRe = dRe_new;
+            n++;
+            i++;
+        }
+        IterationCounter.add(i);
+        return module.escapeTimeToFractalValue(i, maxIterations);
+    }
+}
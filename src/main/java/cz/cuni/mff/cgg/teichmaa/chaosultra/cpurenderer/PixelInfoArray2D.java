@@ -0,0 +1,176 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import java.lang.reflect.Method;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+/**
+ * Host-memory 2D array of {@code pixel_info_t}, the per-pixel result of fractal sampling, as defined in {@code helpers.cuh}.
+ * <br>
+ * The fields are stored as a structure of arrays, each of them row by row, in direct (off-heap) buffers in the native byte order.
+ * Like the pitched arrays in device memory, the rows may be longer than width: every row is {@code pitch} elements long, where pitch is a multiple of {@code PITCH_ALIGNMENT},
+ * so that the rows of all the fields start on a cache line. The index of pixel (x,y) is {@code y * pitch + x}.
+ * <br>
+ * The buffers are not moved nor scanned by the garbage collector, which matters for frames of 8K and more, where one array takes hundreds of MB.
+ * Their memory is freed when the array becomes unreachable.
+ */
+public class PixelInfoArray2D {
+
+    /**
+     * alignment of the rows, in elements. That is one cache line (64 bytes) of the byte fields and four of the float fields.
+     */
+    static final int PITCH_ALIGNMENT = 64;
+    private static final int CACHE_LINE = 64;
+    /**
+     * {@code ByteBuffer.alignedSlice}, available since Java 9. Null before; the buffers are aligned only as malloc aligns them then.
+     */
+    private static final Method ALIGNED_SLICE = findAlignedSlice();
+
+    private final int width;
+    private final int height;
+    private final int pitch;
+
+    /**
+     * The value of the fractal
+     */
+    private final FloatBuffer value;
+    /**
+     * How important the value is. Initially, it equals the number of samples takes, but may decrease over time
+     */
+    private final FloatBuffer weight;
+    /**
+     * Whether the value has been determined (at least partially) by sample reuse, as 0 or 1. This is for visualizing sample count only.
+     */
+    private final ByteBuffer isReused;
+    /**
+     * If isReused, the absolute value of weight of the samples that have not been reused but have been computed. This is for visualizing sample count only.
+     */
+    private final FloatBuffer weightOfNewSamples;
+    /**
+     * Whether the adaptive super-sampling has found the pixel uniform, as 0 or 1, i.e. it would not take more samples even with higher maxSuperSampling.
+     * This is not part of {@code pixel_info_t}; it is used by CpuKernelRefine.
+     */
+    private final ByteBuffer isConverged;
+
+    /**
+     * @throws IllegalArgumentException if a field would not fit into one buffer, i.e. if it would have more than Integer.MAX_VALUE bytes
+     */
+    public PixelInfoArray2D(int width, int height) {
+        if (width < 0 || height < 0)
+            throw new IllegalArgumentException("width and height must be non-negative: " + width + ", " + height);
+        this.width = width;
+        this.height = height;
+        this.pitch = (width + PITCH_ALIGNMENT - 1) / PITCH_ALIGNMENT * PITCH_ALIGNMENT;
+        long size = (long) pitch * height;
+        if (size * Float.BYTES > Integer.MAX_VALUE - CACHE_LINE)
+            throw new IllegalArgumentException("Too large for direct buffers: " + width + " x " + height);
+        value = allocate((int) size * Float.BYTES).asFloatBuffer();
+        weight = allocate((int) size * Float.BYTES).asFloatBuffer();
+        isReused = allocate((int) size);
+        weightOfNewSamples = allocate((int) size * Float.BYTES).asFloatBuffer();
+        isConverged = allocate((int) size);
+    }
+
+    /**
+     * @return zeroed direct buffer of the given capacity, in the native byte order, starting on a cache line if possible
+     */
+    private static ByteBuffer allocate(int bytes) {
+        ByteBuffer buffer = ByteBuffer.allocateDirect(bytes + CACHE_LINE);
+        if (ALIGNED_SLICE != null) {
+            try {
+                buffer = (ByteBuffer) ALIGNED_SLICE.invoke(buffer, CACHE_LINE);
+            } catch (ReflectiveOperationException e) {
+                //keep the unaligned buffer
+            }
+        }
+        buffer.limit(bytes);
+        return buffer.slice().order(ByteOrder.nativeOrder());
+    }
+
+    private static Method findAlignedSlice() {
+        try {
+            return ByteBuffer.class.getMethod("alignedSlice", int.class);
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    /**
+     * @return actual row length, in elements. {@code pitch >= width}.
+     */
+    public int getPitch() {
+        return pitch;
+    }
+
+    int index(int x, int y) {
+        return y * pitch + x;
+    }
+
+    public float getValue(int x, int y) {
+        return value.get(index(x, y));
+    }
+
+    public float getWeight(int x, int y) {
+        return weight.get(index(x, y));
+    }
+
+    public boolean isReused(int x, int y) {
+        return isReused.get(index(x, y)) != 0;
+    }
+
+    public float getWeightOfNewSamples(int x, int y) {
+        return weightOfNewSamples.get(index(x, y));
+    }
+
+    public boolean isConverged(int x, int y) {
+        return isConverged.get(index(x, y)) != 0;
+    }
+
+    float getValue(int index) {
+        return value.get(index);
+    }
+
+    float getWeight(int index) {
+        return weight.get(index);
+    }
+
+    boolean isReused(int index) {
+        return isReused.get(index) != 0;
+    }
+
+    float getWeightOfNewSamples(int index) {
+        return weightOfNewSamples.get(index);
+    }
+
+    /**
+     * Writes a freshly sampled pixel, i.e. a pixel that is not reused.
+     */
+    void set(int x, int y, float value, float weight) {
+        set(x, y, value, weight, false, 0);
+    }
+
+    void set(int x, int y, float value, float weight, boolean isReused, float weightOfNewSamples) {
+        int i = index(x, y);
+        this.value.put(i, value);
+        this.weight.put(i, weight);
+        this.isReused.put(i, (byte) (isReused ? 1 : 0));
+        this.weightOfNewSamples.put(i, weightOfNewSamples);
+        this.isConverged.put(i, (byte) 0);
+    }
+
+    /**
+     * Marks the pixel as converged, until it is written again.
+     */
+    void setConverged(int x, int y) {
+        isConverged.put(index(x, y), (byte) 1);
+    }
+}
@@ -0,0 +1,368 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+/**
+ * Escape time of the quadratic map {@code z -> z^2 + c} together with the exterior distance estimate, which is computed from the derivative of the orbit
+ * ({@code dz -> 2 z dz + 1}, {@code dz_0 = 0} for the Mandelbrot set, {@code dz -> 2 z dz}, {@code dz_0 = 1} for a Julia set):
+ * <br>
+ * {@code distance = |z| ln|z| / |dz|}
+ * <br>
+ * By the Koebe 1/4 theorem, the true distance of an escaping point from a connected Mandelbrot or Julia set is between a half and twice the estimate (for large {@code |z|}).
+ * The escape time is counted with the escape radius 2, as by the other implementations, but the orbit is then iterated a few more times, up to {@code DISTANCE_BAILOUT},
+ * where the estimate is accurate.
+ * <br>
+ * The points of a row can be computed in lanes: the escape times are computed by QuadraticMapLanes, and only the escaped points are then iterated again
+ * together with the derivative, also in lanes, each of which keeps its orbit at the escape. The points inside the fractal, which take most of the iterations,
+ * have no estimate, so they need not pay for the derivative. The results are exactly the same as of the computation point by point.
+ */
+public final class QuadraticMapDistance {
+
+    private static final double DISTANCE_BAILOUT_SQUARED = 1e10;
+    /**
+     * at most this many iterations are added after the escape; from the escape radius 2, {@code DISTANCE_BAILOUT} is reached after at most 5 of them
+     */
+    private static final int DISTANCE_ITERATIONS = 8;
+
+    private QuadraticMapDistance() {
+    }
+
+    /**
+     * @param mandelbrot        whether the derivative is with respect to {@code c} (the Mandelbrot set, then {@code z} should be 0), or to {@code z} (a Julia set)
+     * @param detectPeriodicity whether to stop periodic orbits early, as MandelbrotInterior does
+     * @param distance          output parameter: {@code distance[0]} is set to the distance estimate, or to 0 if the orbit did not escape or the estimate is not finite
+     * @return number of iterations before the orbit of {@code z} left the circle of radius 2, or maxIterations if it did not.
+     * The iterations actually run, including those after the escape, are added to the IterationCounter.
+     */
+    public static int escapeTime(int maxIterations, double zx, double zy, double cx, double cy, boolean mandelbrot, boolean detectPeriodicity, float[] distance) {
+        double dzx = mandelbrot ? 0 : 1;
+        double dzy = 0;
+        double dcx = mandelbrot ? 1 : 0;
+        double zx_new;
+        double dzx_new;
+        double savedX = zx;
+        double savedY = zy;
+        int savedAt = MandelbrotInterior.PERIODICITY_CHECK_START;
+        distance[0] = 0;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            dzx_new = 2 * (zx * dzx - zy * dzy) + dcx;
+            dzy = 2 * (zx * dzy + zy * dzx);
+            dzx = dzx_new;
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+            if (detectPeriodicity) {
+                if (zx == savedX && zy == savedY) {
+                    IterationCounter.add(i);
+                    return maxIterations; //periodic orbit
+                }
+                if (i == savedAt) {
+                    savedX = zx;
+                    savedY = zy;
+                    savedAt *= 2;
+                }
+            }
+        }
+        IterationCounter.add(i);
+        if (i < maxIterations)
+            distance[0] = distanceAfterEscape(zx, zy, dzx, dzy, cx, cy, dcx);
+        return i;
+    }
+
+    /**
+     * Same as {@code escapeTime(int, double, double, double, double, boolean, boolean, float[])} without the periodicity detection, for the points of a row.
+     * The escaped points are iterated twice, first by QuadraticMapLanes and then with the derivative, which both are added to the IterationCounter.
+     *
+     * @param pixelIsParameter if true, the point is the parameter {@code c} and the orbit starts at 0 (the Mandelbrot set), otherwise the point is {@code z_0} and {@code c = [cx, cy]} (a Julia set)
+     * @param result           the escape times of the points {@code [x[k], y]} for {@code 0 <= k < length}
+     * @param distances        the distance estimates of the points
+     */
+    public static void escapeTimes(int maxIterations, double[] x, double y, int length, boolean pixelIsParameter, double cx, double cy, float[] result, float[] distances) {
+        QuadraticMapLanes.escapeTimes(maxIterations, x, y, length, pixelIsParameter, cx, cy, result);
+        double[] escaped = new double[length];
+        int escapedCount = 0;
+        for (int k = 0; k < length; k++) {
+            if (result[k] < maxIterations)
+                escaped[escapedCount++] = x[k];
+        }
+        double zy = pixelIsParameter ? 0 : y;
+        if (pixelIsParameter)
+            cy = y;
+        //the distances of the escaped points are stored to the beginning of {@code distances} and then moved to their points
+        float[] escapedTimes = new float[escapedCount];
+        int k = 0;
+        for (; k + QuadraticMapLanes.LANES <= escapedCount; k += QuadraticMapLanes.LANES) {
+            if (pixelIsParameter)
+                escapeTimes(maxIterations, 0, 0, 0, 0, zy, escaped[k], escaped[k + 1], escaped[k + 2], escaped[k + 3], cy, true, escapedTimes, distances, k);
+            else
+                escapeTimes(maxIterations, escaped[k], escaped[k + 1], escaped[k + 2], escaped[k + 3], zy, cx, cx, cx, cx, cy, false, escapedTimes, distances, k);
+        }
+        float[] distance = new float[1];
+        for (; k < escapedCount; k++) {
+            if (pixelIsParameter)
+                escapeTime(maxIterations, 0, zy, escaped[k], cy, true, false, distance);
+            else
+                escapeTime(maxIterations, escaped[k], zy, cx, cy, false, false, distance);
+            distances[k] = distance[0];
+        }
+        scatterDistances(maxIterations, length, escapedCount, result, distances);
+    }
+
+    /**
+     * Moves the distances of the escaped points from the beginning of {@code distances} to their points, and sets the distances of the other points to 0.
+     */
+    private static void scatterDistances(int maxIterations, int length, int escapedCount, float[] result, float[] distances) {
+        //backwards, as the escaped point {@code j} belongs to a point {@code k >= j}
+        int j = escapedCount;
+        for (int k = length - 1; k >= 0; k--) {
+            distances[k] = result[k] < maxIterations ? distances[--j] : 0;
+        }
+    }
+
+    /**
+     * One lane group; all the lanes share the imaginary parts of {@code z_0} and {@code c}, as they lie on the same row.
+     */
+    private static void escapeTimes(int maxIterations,
+                                    double zx0, double zx1, double zx2, double zx3, double zy,
+                                    double cx0, double cx1, double cx2, double cx3, double cy, boolean mandelbrot,
+                                    float[] result, float[] distances, int offset) {
+        double dcx = mandelbrot ? 1 : 0;
+        double zy0 = zy, zy1 = zy, zy2 = zy, zy3 = zy;
+        double dzx0 = 1 - dcx, dzx1 = 1 - dcx, dzx2 = 1 - dcx, dzx3 = 1 - dcx;
+        double dzy0 = 0, dzy1 = 0, dzy2 = 0, dzy3 = 0;
+        boolean active0 = true, active1 = true, active2 = true, active3 = true;
+        int i0 = 0, i1 = 0, i2 = 0, i3 = 0;
+        for (int i = 0; i < maxIterations; i++) {
+            active0 &= zx0 * zx0 + zy0 * zy0 < 4;
+            active1 &= zx1 * zx1 + zy1 * zy1 < 4;
+            active2 &= zx2 * zx2 + zy2 * zy2 < 4;
+            active3 &= zx3 * zx3 + zy3 * zy3 < 4;
+            if (!(active0 | active1 | active2 | active3))
+                break;
+            //the escaped lanes keep their orbit at the escape, which the distance estimate continues from
+            if (active0) {
+                double dzx = 2 * (zx0 * dzx0 - zy0 * dzy0) + dcx;
+                dzy0 = 2 * (zx0 * dzy0 + zy0 * dzx0);
+                dzx0 = dzx;
+                double zx = zx0 * zx0 - zy0 * zy0 + cx0;
+                zy0 = 2 * zx0 * zy0 + cy;
+                zx0 = zx;
+                i0++;
+            }
+            if (active1) {
+                double dzx = 2 * (zx1 * dzx1 - zy1 * dzy1) + dcx;
+                dzy1 = 2 * (zx1 * dzy1 + zy1 * dzx1);
+                dzx1 = dzx;
+                double zx = zx1 * zx1 - zy1 * zy1 + cx1;
+                zy1 = 2 * zx1 * zy1 + cy;
+                zx1 = zx;
+                i1++;
+            }
+            if (active2) {
+                double dzx = 2 * (zx2 * dzx2 - zy2 * dzy2) + dcx;
+                dzy2 = 2 * (zx2 * dzy2 + zy2 * dzx2);
+                dzx2 = dzx;
+                double zx = zx2 * zx2 - zy2 * zy2 + cx2;
+                zy2 = 2 * zx2 * zy2 + cy;
+                zx2 = zx;
+                i2++;
+            }
+            if (active3) {
+                double dzx = 2 * (zx3 * dzx3 - zy3 * dzy3) + dcx;
+                dzy3 = 2 * (zx3 * dzy3 + zy3 * dzx3);
+                dzx3 = dzx;
+                double zx = zx3 * zx3 - zy3 * zy3 + cx3;
+                zy3 = 2 * zx3 * zy3 + cy;
+                zx3 = zx;
+                i3++;
+            }
+        }
+        IterationCounter.add((long) i0 + i1 + i2 + i3);
+        result[offset] = i0;
+        result[offset + 1] = i1;
+        result[offset + 2] = i2;
+        result[offset + 3] = i3;
+        distances[offset] = i0 < maxIterations ? distanceAfterEscape(zx0, zy0, dzx0, dzy0, cx0, cy, dcx) : 0;
+        distances[offset + 1] = i1 < maxIterations ? distanceAfterEscape(zx1, zy1, dzx1, dzy1, cx1, cy, dcx) : 0;
+        distances[offset + 2] = i2 < maxIterations ? distanceAfterEscape(zx2, zy2, dzx2, dzy2, cx2, cy, dcx) : 0;
+        distances[offset + 3] = i3 < maxIterations ? distanceAfterEscape(zx3, zy3, dzx3, dzy3, cx3, cy, dcx) : 0;
+    }
+
+    /**
+     * Continues an escaped orbit up to {@code DISTANCE_BAILOUT} and adds the iterations to the IterationCounter.
+     *
+     * @param dcx the derivative of {@code c} by the point, i.e. 1 for the Mandelbrot set, 0 for a Julia set
+     * @return the distance estimate, or 0 if it is not finite
+     */
+    private static float distanceAfterEscape(double zx, double zy, double dzx, double dzy, double cx, double cy, double dcx) {
+        double zx_new;
+        double dzx_new;
+        int k = 0;
+        for (; k < DISTANCE_ITERATIONS && zx * zx + zy * zy < DISTANCE_BAILOUT_SQUARED; k++) {
+            dzx_new = 2 * (zx * dzx - zy * dzy) + dcx;
+            dzy = 2 * (zx * dzy + zy * dzx);
+            dzx = dzx_new;
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+        }
+        IterationCounter.add(k);
+        double zSquared = zx * zx + zy * zy;
+        double estimate = Math.sqrt(zSquared) * 0.5 * Math.log(zSquared) / Math.sqrt(dzx * dzx + dzy * dzy);
+        return Double.isFinite(estimate) ? (float) estimate : 0;
+    }
+
+    public static int escapeTime(int maxIterations, float zx, float zy, float cx, float cy, boolean mandelbrot, boolean detectPeriodicity, float[] distance) {
+        float dzx = mandelbrot ? 0 : 1;
+        float dzy = 0;
+        float dcx = mandelbrot ? 1 : 0;
+        float zx_new;
+        float dzx_new;
+        float savedX = zx;
+        float savedY = zy;
+        int savedAt = MandelbrotInterior.PERIODICITY_CHECK_START;
+        distance[0] = 0;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            dzx_new = 2 * (zx * dzx - zy * dzy) + dcx;
+            dzy = 2 * (zx * dzy + zy * dzx);
+            dzx = dzx_new;
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+            if (detectPeriodicity) {
+                if (zx == savedX && zy == savedY) {
+                    IterationCounter.add(i);
+                    return maxIterations; //periodic orbit
+                }
+                if (i == savedAt) {
+                    savedX = zx;
+                    savedY = zy;
+                    savedAt *= 2;
+                }
+            }
+        }
+        IterationCounter.add(i);
+        if (i < maxIterations)
+            distance[0] = distanceAfterEscape(zx, zy, dzx, dzy, cx, cy, dcx);
+        return i;
+    }
+
+    /**
+     * Same as {@code escapeTimes(int, double[], double, ...)}, but computes in single floating-point precision.
+     */
+    public static void escapeTimes(int maxIterations, float[] x, float y, int length, boolean pixelIsParameter, float cx, float cy, float[] result, float[] distances) {
+        QuadraticMapLanes.escapeTimes(maxIterations, x, y, length, pixelIsParameter, cx, cy, result);
+        float[] escaped = new float[length];
+        int escapedCount = 0;
+        for (int k = 0; k < length; k++) {
+            if (result[k] < maxIterations)
+                escaped[escapedCount++] = x[k];
+        }
+        float zy = pixelIsParameter ? 0 : y;
+        if (pixelIsParameter)
+            cy = y;
+        float[] escapedTimes = new float[escapedCount];
+        int k = 0;
+        for (; k + QuadraticMapLanes.LANES <= escapedCount; k += QuadraticMapLanes.LANES) {
+            if (pixelIsParameter)
+                escapeTimes(maxIterations, 0, 0, 0, 0, zy, escaped[k], escaped[k + 1], escaped[k + 2], escaped[k + 3], cy, true, escapedTimes, distances, k);
+            else
+                escapeTimes(maxIterations, escaped[k], escaped[k + 1], escaped[k + 2], escaped[k + 3], zy, cx, cx, cx, cx, cy, false, escapedTimes, distances, k);
+        }
+        float[] distance = new float[1];
+        for (; k < escapedCount; k++) {
+            if (pixelIsParameter)
+                escapeTime(maxIterations, 0, zy, escaped[k], cy, true, false, distance);
+            else
+                escapeTime(maxIterations, escaped[k], zy, cx, cy, false, false, distance);
+            distances[k] = distance[0];
+        }
+        scatterDistances(maxIterations, length, escapedCount, result, distances);
+    }
+
+    private static void escapeTimes(int maxIterations,
+                                    float zx0, float zx1, float zx2, float zx3, float zy,
+                                    float cx0, float cx1, float cx2, float cx3, float cy, boolean mandelbrot,
+                                    float[] result, float[] distances, int offset) {
+        float dcx = mandelbrot ? 1 : 0;
+        float zy0 = zy, zy1 = zy, zy2 = zy, zy3 = zy;
+        float dzx0 = 1 - dcx, dzx1 = 1 - dcx, dzx2 = 1 - dcx, dzx3 = 1 - dcx;
+        float dzy0 = 0, dzy1 = 0, dzy2 = 0, dzy3 = 0;
+        boolean active0 = true, active1 = true, active2 = true, active3 = true;
+        int i0 = 0, i1 = 0, i2 = 0, i3 = 0;
+        for (int i = 0; i < maxIterations; i++) {
+            active0 &= zx0 * zx0 + zy0 * zy0 < 4;
+            active1 &= zx1 * zx1 + zy1 * zy1 < 4;
+            active2 &= zx2 * zx2 + zy2 * zy2 < 4;
+            active3 &= zx3 * zx3 + zy3 * zy3 < 4;
+            if (!(active0 | active1 | active2 | active3))
+                break;
+            if (active0) {
+                float dzx = 2 * (zx0 * dzx0 - zy0 * dzy0) + dcx;
+                dzy0 = 2 * (zx0 * dzy0 + zy0 * dzx0);
+                dzx0 = dzx;
+                float zx = zx0 * zx0 - zy0 * zy0 + cx0;
+                zy0 = 2 * zx0 * zy0 + cy;
+                zx0 = zx;
+                i0++;
+            }
+            if (active1) {
+                float dzx = 2 * (zx1 * dzx1 - zy1 * dzy1) + dcx;
+                dzy1 = 2 * (zx1 * dzy1 + zy1 * dzx1);
+                dzx1 = dzx;
+                float zx = zx1 * zx1 - zy1 * zy1 + cx1;
+                zy1 = 2 * zx1 * zy1 + cy;
+                zx1 = zx;
+                i1++;
+            }
+            if (active2) {
+                float dzx = 2 * (zx2 * dzx2 - zy2 * dzy2) + dcx;
+                dzy2 = 2 * (zx2 * dzy2 + zy2 * dzx2);
+                dzx2 = dzx;
+                float zx = zx2 * zx2 - zy2 * zy2 + cx2;
+                zy2 = 2 * zx2 * zy2 + cy;
+                zx2 = zx;
+                i2++;
+            }
+            if (active3) {
+                float dzx = 2 * (zx3 * dzx3 - zy3 * dzy3) + dcx;
+                dzy3 = 2 * (zx3 * dzy3 + zy3 * dzx3);
+                dzx3 = dzx;
+                float zx = zx3 * zx3 - zy3 * zy3 + cx3;
+                zy3 = 2 * zx3 * zy3 + cy;
+                zx3 = zx;
+                i3++;
+            }
+        }
+        IterationCounter.add((long) i0 + i1 + i2 + i3);
+        result[offset] = i0;
+        result[offset + 1] = i1;
+        result[offset + 2] = i2;
+        result[offset + 3] = i3;
+        distances[offset] = i0 < maxIterations ? distanceAfterEscape(zx0, zy0, dzx0, dzy0, cx0, cy, dcx) : 0;
+        distances[offset + 1] = i1 < maxIterations ? distanceAfterEscape(zx1, zy1, dzx1, dzy1, cx1, cy, dcx) : 0;
+        distances[offset + 2] = i2 < maxIterations ? distanceAfterEscape(zx2, zy2, dzx2, dzy2, cx2, cy, dcx) : 0;
+        distances[offset + 3] = i3 < maxIterations ? distanceAfterEscape(zx3, zy3, dzx3, dzy3, cx3, cy, dcx) : 0;
+    }
+
+    private static float distanceAfterEscape(float zx, float zy, float dzx, float dzy, float cx, float cy, float dcx) {
+        float zx_new;
+        float dzx_new;
+        int k = 0;
+        for (; k < DISTANCE_ITERATIONS && zx * zx + zy * zy < DISTANCE_BAILOUT_SQUARED; k++) {
+            dzx_new = 2 * (zx * dzx - zy * dzy) + dcx;
+            dzy = 2 * (zx * dzy + zy * dzx);
+            dzx = dzx_new;
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+        }
+        IterationCounter.add(k);
+        //the derivative may overflow in single precision, the estimate is then not finite
+        double zSquared = zx * zx + zy * zy;
+        double estimate = Math.sqrt(zSquared) * 0.5 * Math.log(zSquared) / Math.sqrt((double) dzx * dzx + (double) dzy * dzy);
+        return Double.isFinite(estimate) ? (float) estimate : 0;
+    }
+}
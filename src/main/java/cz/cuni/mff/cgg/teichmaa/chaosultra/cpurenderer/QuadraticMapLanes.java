@@ -0,0 +1,181 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+/**
+ * Escape time of the quadratic map {@code z -> z^2 + c} for a row of points, computed in lanes of {@code LANES} points at once.
+ * <br>
+ * The lanes are iterated in lockstep, each with its own escape mask, until all of them escape or maxIterations is reached
+ * (which is how a SIMD implementation would work). The orbits of the lanes are independent, so the CPU can overlap their floating point latencies,
+ * which a single orbit, where every iteration depends on the previous one, does not allow.
+ * Points that do not fill a whole lane group are computed one by one.
+ * <br>
+ * The results are exactly the same as of the scalar loop in ModuleMandelbrot resp. ModuleJulia, as the same operations are performed in the same order.
+ */
+public final class QuadraticMapLanes {
+
+    /**
+     * Number of points iterated at once.
+     */
+    public static final int LANES = 4;
+
+    private QuadraticMapLanes() {
+    }
+
+    /**
+     * Computes the escape times of the points {@code [x[k], y]} for {@code 0 <= k < length}.
+     *
+     * @param pixelIsParameter if true, the point is the parameter {@code c} and the orbit starts at 0 (the Mandelbrot set), otherwise the point is {@code z_0} and {@code c = [cx, cy]} (a Julia set)
+     * @param result           the number of iterations before the orbit left the circle of radius 2, or maxIterations if it did not
+     */
+    public static void escapeTimes(int maxIterations, double[] x, double y, int length, boolean pixelIsParameter, double cx, double cy, float[] result) {
+        double zy = pixelIsParameter ? 0 : y;
+        if (pixelIsParameter)
+            cy = y;
+        int k = 0;
+        for (; k + LANES <= length; k += LANES) {
+            if (pixelIsParameter)
+                escapeTimes(maxIterations, 0, 0, 0, 0, zy, x[k], x[k + 1], x[k + 2], x[k + 3], cy, result, k);
+            else
+                escapeTimes(maxIterations, x[k], x[k + 1], x[k + 2], x[k + 3], zy, cx, cx, cx, cx, cy, result, k);
+        }
+        for (; k < length; k++) {
+            result[k] = pixelIsParameter ? escapeTime(maxIterations, 0, zy, x[k], cy) : escapeTime(maxIterations, x[k], zy, cx, cy);
+        }
+        countIterations(result, length);
+    }
+
+    /**
+     * Same as {@code escapeTimes(int, double[], double, ...)}, but computes in single floating-point precision.
+     */
+    public static void escapeTimes(int maxIterations, float[] x, float y, int length, boolean pixelIsParameter, float cx, float cy, float[] result) {
+        float zy = pixelIsParameter ? 0 : y;
+        if (pixelIsParameter)
+            cy = y;
+        int k = 0;
+        for (; k + LANES <= length; k += LANES) {
+            if (pixelIsParameter)
+                escapeTimes(maxIterations, 0, 0, 0, 0, zy, x[k], x[k + 1], x[k + 2], x[k + 3], cy, result, k);
+            else
+                escapeTimes(maxIterations, x[k], x[k + 1], x[k + 2], x[k + 3], zy, cx, cx, cx, cx, cy, result, k);
+        }
+        for (; k < length; k++) {
+            result[k] = pixelIsParameter ? escapeTime(maxIterations, 0, zy, x[k], cy) : escapeTime(maxIterations, x[k], zy, cx, cy);
+        }
+        countIterations(result, length);
+    }
+
+    /**
+     * One lane group; all the lanes share the imaginary parts of {@code z_0} and {@code c}, as they lie on the same row.
+     */
+    private static void escapeTimes(int maxIterations,
+                                    double zx0, double zx1, double zx2, double zx3, double zy,
+                                    double cx0, double cx1, double cx2, double cx3, double cy,
+                                    float[] result, int offset) {
+        double zy0 = zy, zy1 = zy, zy2 = zy, zy3 = zy;
+        boolean active0 = true, active1 = true, active2 = true, active3 = true;
+        int i0 = 0, i1 = 0, i2 = 0, i3 = 0;
+        for (int i = 0; i < maxIterations; i++) {
+            double x0 = zx0 * zx0, y0 = zy0 * zy0;
+            double x1 = zx1 * zx1, y1 = zy1 * zy1;
+            double x2 = zx2 * zx2, y2 = zy2 * zy2;
+            double x3 = zx3 * zx3, y3 = zy3 * zy3;
+            active0 &= x0 + y0 < 4;
+            active1 &= x1 + y1 < 4;
+            active2 &= x2 + y2 < 4;
+            active3 &= x3 + y3 < 4;
+            if (!(active0 | active1 | active2 | active3))
+                break;
+            i0 += active0 ? 1 : 0;
+            i1 += active1 ? 1 : 0;
+            i2 += active2 ? 1 : 0;
+            i3 += active3 ? 1 : 0;
+            //escaped lanes keep iterating (possibly to infinity or NaN), their masks stay false
+            zy0 = 2 * zx0 * zy0 + cy;
+            zy1 = 2 * zx1 * zy1 + cy;
+            zy2 = 2 * zx2 * zy2 + cy;
+            zy3 = 2 * zx3 * zy3 + cy;
+            zx0 = x0 - y0 + cx0;
+            zx1 = x1 - y1 + cx1;
+            zx2 = x2 - y2 + cx2;
+            zx3 = x3 - y3 + cx3;
+        }
+        result[offset] = i0;
+        result[offset + 1] = i1;
+        result[offset + 2] = i2;
+        result[offset + 3] = i3;
+    }
+
+    private static void escapeTimes(int maxIterations,
+                                    float zx0, float zx1, float zx2, float zx3, float zy,
+                                    float cx0, float cx1, float cx2, float cx3, float cy,
+                                    float[] result, int offset) {
+        float zy0 = zy, zy1 = zy, zy2 = zy, zy3 = zy;
+        boolean active0 = true, active1 = true, active2 = true, active3 = true;
+        int i0 = 0, i1 = 0, i2 = 0, i3 = 0;
+        for (int i = 0; i < maxIterations; i++) {
+            float x0 = zx0 * zx0, y0 = zy0 * zy0;
+            float x1 = zx1 * zx1, y1 = zy1 * zy1;
+            float x2 = zx2 * zx2, y2 = zy2 * zy2;
+            float x3 = zx3 * zx3, y3 = zy3 * zy3;
+            active0 &= x0 + y0 < 4;
+            active1 &= x1 + y1 < 4;
+            active2 &= x2 + y2 < 4;
+            active3 &= x3 + y3 < 4;
+            if (!(active0 | active1 | active2 | active3))
+                break;
+            i0 += active0 ? 1 : 0;
+            i1 += active1 ? 1 : 0;
+            i2 += active2 ? 1 : 0;
+            i3 += active3 ? 1 : 0;
+            zy0 = 2 * zx0 * zy0 + cy;
+            zy1 = 2 * zx1 * zy1 + cy;
+            zy2 = 2 * zx2 * zy2 + cy;
+            zy3 = 2 * zx3 * zy3 + cy;
+            zx0 = x0 - y0 + cx0;
+            zx1 = x1 - y1 + cx1;
+            zx2 = x2 - y2 + cx2;
+            zx3 = x3 - y3 + cx3;
+        }
+        result[offset] = i0;
+        result[offset + 1] = i1;
+        result[offset + 2] = i2;
+        result[offset + 3] = i3;
+    }
+
+    /**
+     * Adds the escape times of a row to the IterationCounter, i.e. the iterations of each of the points (the lanes that have escaped run idle).
+     */
+    private static void countIterations(float[] result, int length) {
+        long iterations = 0;
+        for (int k = 0; k < length; k++) {
+            iterations += (long) result[k];
+        }
+        IterationCounter.add(iterations);
+    }
+
+    /**
+     * Not counted by the IterationCounter, as it is used also outside the sampling (e.g. to tell whether a Julia set is connected).
+     */
+    static int escapeTime(int maxIterations, double zx, double zy, double cx, double cy) {
+        double zx_new;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+        }
+        return i;
+    }
+
+    private static int escapeTime(int maxIterations, float zx, float zy, float cx, float cy) {
+        float zx_new;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,22 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.PointDoubleReadable;
+
+/**
+ * Implemented by modules whose fractal is the escape time of the quadratic map {@code z -> z^2 + c} with escape radius 2.
+ * Such fractals can be rendered using perturbation (see PerturbationReference) when double precision is not enough.
+ */
+public interface QuadraticMapModule {
+
+    /**
+     * @return null if the rendered point is the parameter {@code c} and the orbit starts at {@code z_0 = 0} (the Mandelbrot set),
+     * resp. the fixed parameter {@code c}, if the rendered point is {@code z_0} (a Julia set).
+     */
+    PointDoubleReadable getFixedParameter();
+
+    /**
+     * @param iterations number of iterations before the orbit escaped, or maxIterations if it did not escape
+     * @return the value that {@code computeFractal} returns for such an orbit
+     */
+    float escapeTimeToFractalValue(int iterations, int maxIterations);
+}
@@ -0,0 +1,289 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.FloatPrecision;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+/**
+ * Host-memory cache of rendered samples (the value and weight of {@code pixel_info_t}), organised as a tile pyramid (a quadtree) over the complex plane.
+ * <br>
+ * The pixels of pyramid level {@code L} are squares of size {@code 2^-L} aligned to the multiples of their size, grouped to tiles of {@code TILE_SIZE} x {@code TILE_SIZE} pixels.
+ * A rendering with pixel width {@code w} is stored to the level whose pixel size {@code p} satisfies {@code p <= w < 2p}, and to the next coarser level:
+ * every pyramid pixel takes the value of the rendered pixel that contains its center.
+ * A pixel is read from the pyramid pixel that contains its center, so re-rendering the same view reads exactly the stored values,
+ * while other views of similar pixel size read values displaced by less than a pixel.
+ * <br>
+ * Tiles are keyed by Layer (the fractal, its parameters and the way it has been sampled), level and tile coordinates, and evicted in the least recently used order when the byte budget is exceeded.
+ * Only segments whose coordinates are representable in double precision are cached.
+ * <br>
+ * The tile map is thread-safe. The samples themselves are written by {@code store} only, which must not run concurrently with a kernel that reads the cache.
+ */
+public class SampleTileCache {
+
+    /**
+     * Number of pixels in a row and in a column of a tile.
+     */
+    static final int TILE_SIZE = 64;
+    private static final long TILE_BYTES = 3L * Float.BYTES * TILE_SIZE * TILE_SIZE;
+    /**
+     * Coordinates of pyramid pixels must fit to long without loss of precision of the double arithmetic.
+     */
+    private static final double MAX_PIXEL_COORDINATE = 0x1p52;
+
+    /**
+     * Identifies renderings whose samples are interchangeable: the same fractal, with the same parameters and maximum of iterations,
+     * sampled in the same precision and with the same kind of super sampling.
+     */
+    public static final class Layer {
+        private final String fractalName;
+        private final String fractalCustomParams;
+        private final int maxIterations;
+        private final FloatPrecision precision;
+        private final boolean adaptiveSuperSampling;
+
+        public Layer(String fractalName, String fractalCustomParams, int maxIterations, FloatPrecision precision, boolean adaptiveSuperSampling) {
+            this.fractalName = fractalName;
+            this.fractalCustomParams = fractalCustomParams;
+            this.maxIterations = maxIterations;
+            this.precision = precision;
+            this.adaptiveSuperSampling = adaptiveSuperSampling;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Layer)) return false;
+            Layer that = (Layer) o;
+            return maxIterations == that.maxIterations && precision == that.precision && adaptiveSuperSampling == that.adaptiveSuperSampling
+                    && fractalName.equals(that.fractalName) && Objects.equals(fractalCustomParams, that.fractalCustomParams);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fractalName, fractalCustomParams, maxIterations, precision, adaptiveSuperSampling);
+        }
+    }
+
+    private static final class Key {
+        private final Layer layer;
+        private final int level;
+        private final long tileX;
+        private final long tileY;
+
+        private Key(Layer layer, int level, long tileX, long tileY) {
+            this.layer = layer;
+            this.level = level;
+            this.tileX = tileX;
+            this.tileY = tileY;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+            Key that = (Key) o;
+            return level == that.level && tileX == that.tileX && tileY == that.tileY && layer.equals(that.layer);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * (31 * (31 * layer.hashCode() + level) + Long.hashCode(tileX)) + Long.hashCode(tileY);
+        }
+    }
+
+    /**
+     * Samples of one tile, stored row by row, with y increasing upwards (as in the complex plane).
+     */
+    private static final class Tile {
+        final float[] value = new float[TILE_SIZE * TILE_SIZE];
+        /**
+         * 0 for pixels that have not been stored yet
+         */
+        final float[] weight = new float[TILE_SIZE * TILE_SIZE];
+        /**
+         * maxSuperSampling of the rendering that the sample comes from
+         */
+        final float[] maxSuperSampling = new float[TILE_SIZE * TILE_SIZE];
+    }
+
+    private final long byteBudget;
+    private final LinkedHashMap<Key, Tile> tiles = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * @param byteBudget maximal size of the cached samples in bytes; 0 disables the cache
+     */
+    public SampleTileCache(long byteBudget) {
+        if (byteBudget < 0)
+            throw new IllegalArgumentException("byteBudget must be non-negative: " + byteBudget);
+        this.byteBudget = byteBudget;
+    }
+
+    public boolean isEnabled() {
+        return byteBudget >= TILE_BYTES;
+    }
+
+    public synchronized long getSizeInBytes() {
+        return tiles.size() * TILE_BYTES;
+    }
+
+    public synchronized void clear() {
+        tiles.clear();
+    }
+
+    /**
+     * @return level of the pyramid whose pixel size {@code p} satisfies {@code p <= pixelSize < 2p}
+     */
+    static int getLevel(double pixelSize) {
+        return -Math.getExponent(pixelSize);
+    }
+
+    /**
+     * @return whether pixels of the given size around the given point can be cached, i.e. their pyramid coordinates are representable
+     */
+    static boolean isCacheable(double x, double y, double pixelSize) {
+        double p = Math.scalb(1.0, -getLevel(pixelSize) + 1); //the coarser of the two levels a rendering is stored to
+        return pixelSize > Double.MIN_NORMAL && Math.abs(x) / p < MAX_PIXEL_COORDINATE && Math.abs(y) / p < MAX_PIXEL_COORDINATE
+                && Math.abs(x) / pixelSize < MAX_PIXEL_COORDINATE && Math.abs(y) / pixelSize < MAX_PIXEL_COORDINATE;
+    }
+
+    private synchronized Tile get(Key key) {
+        return tiles.get(key);
+    }
+
+    private synchronized Tile getOrCreate(Key key) {
+        Tile tile = tiles.get(key);
+        if (tile == null) {
+            tile = new Tile();
+            tiles.put(key, tile);
+            evict();
+        }
+        return tile;
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Key, Tile>> it = tiles.entrySet().iterator();
+        while (tiles.size() * TILE_BYTES > byteBudget && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+
+    /**
+     * Stores the freshly sampled pixels of a rendering, i.e. pixels that are not reused. A stored sample replaces an older one unless the older one has been rendered with higher maxSuperSampling.
+     *
+     * @param left        real part of the left edge of the rendered segment
+     * @param top         imaginary part of the top edge of the rendered segment
+     * @param pixelWidth  width of a pixel in the complex plane
+     * @param pixelHeight height of a pixel in the complex plane
+     */
+    public void store(Layer layer, double left, double top, double pixelWidth, double pixelHeight, PixelInfoArray2D buffer, float maxSuperSampling) {
+        if (!isEnabled())
+            return;
+        int level = getLevel(pixelWidth);
+        storeLevel(layer, level, left, top, pixelWidth, pixelHeight, buffer, maxSuperSampling);
+        storeLevel(layer, level - 1, left, top, pixelWidth, pixelHeight, buffer, maxSuperSampling);
+    }
+
+    private void storeLevel(Layer layer, int level, double left, double top, double pixelWidth, double pixelHeight, PixelInfoArray2D buffer, float maxSuperSampling) {
+        double p = Math.scalb(1.0, -level);
+        double right = left + buffer.getWidth() * pixelWidth;
+        double bottom = top - buffer.getHeight() * pixelHeight;
+        //pyramid pixels whose centers (i + 0.5) * p lie in the segment
+        long fromI = (long) Math.ceil(left / p - 0.5);
+        long toI = (long) Math.ceil(right / p - 0.5);
+        long fromJ = (long) Math.ceil(bottom / p - 0.5);
+        long toJ = (long) Math.ceil(top / p - 0.5);
+        for (long tileY = Math.floorDiv(fromJ, TILE_SIZE); tileY <= Math.floorDiv(toJ - 1, TILE_SIZE); tileY++) {
+            for (long tileX = Math.floorDiv(fromI, TILE_SIZE); tileX <= Math.floorDiv(toI - 1, TILE_SIZE); tileX++) {
+                Tile tile = getOrCreate(new Key(layer, level, tileX, tileY));
+                long tileI = tileX * TILE_SIZE;
+                long tileJ = tileY * TILE_SIZE;
+                for (long j = Math.max(fromJ, tileJ); j < Math.min(toJ, tileJ + TILE_SIZE); j++) {
+                    int y = (int) Math.floor((top - (j + 0.5) * p) / pixelHeight);
+                    if (y < 0 || y >= buffer.getHeight())
+                        continue;
+                    for (long i = Math.max(fromI, tileI); i < Math.min(toI, tileI + TILE_SIZE); i++) {
+                        int x = (int) Math.floor(((i + 0.5) * p - left) / pixelWidth);
+                        if (x < 0 || x >= buffer.getWidth())
+                            continue;
+                        int source = buffer.index(x, y);
+                        if (buffer.isReused(source) || buffer.getWeight(source) <= 0)
+                            continue;
+                        int target = (int) (j - tileJ) * TILE_SIZE + (int) (i - tileI);
+                        if (tile.maxSuperSampling[target] > maxSuperSampling)
+                            continue;
+                        tile.value[target] = buffer.getValue(source);
+                        tile.weight[target] = buffer.getWeight(source);
+                        tile.maxSuperSampling[target] = maxSuperSampling;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads samples from the cache. Remembers the last tile read from each of the last few levels, as neighbouring pixels usually lie in the same tile.
+     * <br>
+     * Not thread-safe: each thread must use its own reader.
+     */
+    final class Reader {
+        private static final int REMEMBERED_LEVELS = 4;
+
+        private final Layer layer;
+        private final int[] lastLevel = new int[REMEMBERED_LEVELS];
+        private final long[] lastTileX = new long[REMEMBERED_LEVELS];
+        private final long[] lastTileY = new long[REMEMBERED_LEVELS];
+        private final Tile[] lastTile = new Tile[REMEMBERED_LEVELS];
+        private final boolean[] hasLast = new boolean[REMEMBERED_LEVELS];
+
+        /**
+         * the sample read by the last successful {@code read}
+         */
+        float value;
+        float weight;
+        float maxSuperSampling;
+
+        private Reader(Layer layer) {
+            this.layer = layer;
+        }
+
+        /**
+         * @param x real part of the center of the pixel to read
+         * @param y imaginary part of the center of the pixel to read
+         * @return whether the pixel has been found in the cache; if so, the sample is stored to {@code value}, {@code weight} and {@code maxSuperSampling}
+         */
+        boolean read(int level, double x, double y) {
+            double p = Math.scalb(1.0, -level);
+            long i = (long) Math.floor(x / p);
+            long j = (long) Math.floor(y / p);
+            long tileX = Math.floorDiv(i, TILE_SIZE);
+            long tileY = Math.floorDiv(j, TILE_SIZE);
+            int slot = Math.floorMod(level, REMEMBERED_LEVELS);
+            if (!hasLast[slot] || level != lastLevel[slot] || tileX != lastTileX[slot] || tileY != lastTileY[slot]) {
+                //misses are remembered too, so that uncached areas cost one lookup per tile
+                lastTile[slot] = get(new Key(layer, level, tileX, tileY));
+                lastLevel[slot] = level;
+                lastTileX[slot] = tileX;
+                lastTileY[slot] = tileY;
+                hasLast[slot] = true;
+            }
+            Tile tile = lastTile[slot];
+            if (tile == null)
+                return false;
+            int index = (int) (j - tileY * TILE_SIZE) * TILE_SIZE + (int) (i - tileX * TILE_SIZE);
+            if (tile.weight[index] <= 0)
+                return false;
+            value = tile.value[index];
+            weight = tile.weight[index];
+            maxSuperSampling = tile.maxSuperSampling[index];
+            return true;
+        }
+    }
+
+    Reader newReader(Layer layer) {
+        return new Reader(layer);
+    }
+}
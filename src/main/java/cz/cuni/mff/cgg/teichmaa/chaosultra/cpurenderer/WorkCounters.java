@@ -0,0 +1,133 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the work done by the kernels of one rendering, so that it can be told whether a slowdown comes from deeper views, reuse misses or the sampling heuristic.
+ * <br>
+ * The counters are striped (LongAdder), as all the tiles add to them. Kernels count into their SamplingContext and add it here once per tile.
+ */
+public class WorkCounters {
+
+    private final LongAdder iterations = new LongAdder();
+    private final LongAdder samples = new LongAdder();
+    private final LongAdder sampledPixels = new LongAdder();
+    private final LongAdder maxIterationSamples = new LongAdder();
+    private final LongAdder adaptiveEarlyExits = new LongAdder();
+    private final LongAdder maxIterationPixels = new LongAdder();
+    private final LongAdder reusedPixels = new LongAdder();
+    private final LongAdder resampledPixels = new LongAdder();
+    private final LongAdder cachedPixels = new LongAdder();
+    private final LongAdder distanceEstimatedPixels = new LongAdder();
+
+    void add(CpuKernelMain.SamplingContext ctx) {
+        iterations.add(ctx.iterations);
+        samples.add(ctx.samplesTaken);
+        sampledPixels.add(ctx.sampledPixels);
+        maxIterationSamples.add(ctx.maxIterationSamples);
+        adaptiveEarlyExits.add(ctx.adaptiveEarlyExits);
+        maxIterationPixels.add(ctx.maxIterationPixels);
+        reusedPixels.add(ctx.reusedPixels);
+        resampledPixels.add(ctx.resampledPixels);
+        cachedPixels.add(ctx.cachedPixels);
+        distanceEstimatedPixels.add(ctx.distanceEstimatedPixels);
+        ctx.resetCounters();
+    }
+
+    /**
+     * Must not be called while a kernel is running.
+     */
+    public void reset() {
+        iterations.reset();
+        samples.reset();
+        sampledPixels.reset();
+        maxIterationSamples.reset();
+        adaptiveEarlyExits.reset();
+        maxIterationPixels.reset();
+        reusedPixels.reset();
+        resampledPixels.reset();
+        cachedPixels.reset();
+        distanceEstimatedPixels.reset();
+    }
+
+    /**
+     * @return number of iterations actually run by the module to compute the samples, as counted by the IterationCounter.
+     * Points detected inside the set early (see MandelbrotInterior) count only the iterations run before the detection.
+     */
+    public long getIterations() {
+        return iterations.sum();
+    }
+
+    /**
+     * @return number of samples taken
+     */
+    public long getSamples() {
+        return samples.sum();
+    }
+
+    /**
+     * @return number of pixels that have been sampled, i.e. that have taken at least one sample
+     */
+    public long getSampledPixels() {
+        return sampledPixels.sum();
+    }
+
+    /**
+     * @return number of samples that reached maxIterations
+     */
+    public long getMaxIterationSamples() {
+        return maxIterationSamples.sum();
+    }
+
+    /**
+     * @return number of pixels where the adaptive super-sampling took fewer samples than allowed
+     */
+    public long getAdaptiveEarlyExits() {
+        return adaptiveEarlyExits.sum();
+    }
+
+    /**
+     * @return number of sampled pixels whose all samples reached maxIterations
+     */
+    public long getMaxIterationPixels() {
+        return maxIterationPixels.sum();
+    }
+
+    /**
+     * @return number of pixels of the reuse path (renderFast) whose samples have been reused from the previous frame
+     */
+    public long getReusedPixels() {
+        return reusedPixels.sum();
+    }
+
+    /**
+     * @return number of pixels of the reuse path (renderFast) that could not be reused and have been sampled
+     */
+    public long getResampledPixels() {
+        return resampledPixels.sum();
+    }
+
+    /**
+     * @return number of pixels read from the sample cache
+     */
+    public long getCachedPixels() {
+        return cachedPixels.sum();
+    }
+
+    /**
+     * @return number of pixels sampled only once, because they are far from the boundary of the fractal according to the distance estimate (counted also as adaptive early exits)
+     */
+    public long getDistanceEstimatedPixels() {
+        return distanceEstimatedPixels.sum();
+    }
+
+    @Override
+    public String toString() {
+        long reused = getReusedPixels();
+        long resampled = getResampledPixels();
+        String hitRate = reused + resampled == 0 ? "-" : String.format("%.1f %%", 100.0 * reused / (reused + resampled));
+        return "iterations " + getIterations() + ", samples " + getSamples() + " in " + getSampledPixels() + " pixels, adaptive early exits " + getAdaptiveEarlyExits()
+                + ", maxIterations pixels " + getMaxIterationPixels() + ", reused " + reused + ", resampled " + resampled + " (hit rate " + hitRate + ")"
+                + ", cached " + getCachedPixels() + ", distance estimated " + getDistanceEstimatedPixels();
+    }
+}
@@ -0,0 +1,131 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import com.google.gson.JsonObject;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRenderingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.IterationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.MandelbrotInterior;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.OrbitDensityModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.JsonHelpers;
+
+/**
+ * Buddhabrot: the density of the escaping orbits of the Mandelbrot set, rendered by CpuKernelOrbitDensity. Has no CUDA counterpart.
+ * <br>
+ * Parameters are a JSON object {@code { "minIterations" : 0, "metropolis" : true }}, where the orbits that escape in fewer than {@code minIterations} iterations are not accumulated,
+ * and {@code metropolis} sets the Metropolis-Hastings sampling (see OrbitDensityModule). Both are optional.
+ * <br>
+ * The density is not a function of the point, so {@code computeFractal} returns 0: renderers that sample the points one by one (e.g. CpuExponentialMap) render a black image.
+ */
+public class ModuleBuddhabrot extends CpuFractalRenderingModule implements OrbitDensityModule {
+
+    /**
+     * density (relative to the mean density) that gets the last color of the palette; the densities are mapped to the palette logarithmically
+     */
+    private static final double MAX_DENSITY = 16;
+
+    /**
+     * parameters, replaced together
+     */
+    private static class Parameters {
+        final int minIterations;
+        final boolean useMetropolisSampling;
+
+        Parameters(int minIterations, boolean useMetropolisSampling) {
+            this.minIterations = minIterations;
+            this.useMetropolisSampling = useMetropolisSampling;
+        }
+    }
+
+    private volatile Parameters parameters = new Parameters(0, true);
+
+    public ModuleBuddhabrot() {
+        super("buddhabrot");
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double x, double y) {
+        return 0;
+    }
+
+    /**
+     * The orbits inside the main cardioid and the period-2 bulb and the periodic orbits are detected early, as by MandelbrotInterior.
+     */
+    @Override
+    public int computeOrbit(int maxIterations, double cx, double cy, double[] orbit) {
+        if (MandelbrotInterior.isInMainCardioidOrPeriod2Bulb(cx, cy))
+            return 0;
+        double zx = 0;
+        double zy = 0;
+        double zx_new;
+        double savedX = 0;
+        double savedY = 0;
+        int savedAt = MandelbrotInterior.PERIODICITY_CHECK_START;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            orbit[2 * i] = zx;
+            orbit[2 * i + 1] = zy;
+            ++i;
+            if (zx == savedX && zy == savedY) {
+                IterationCounter.add(i);
+                return 0; //periodic orbit
+            }
+            if (i == savedAt) {
+                savedX = zx;
+                savedY = zy;
+                savedAt *= 2;
+            }
+        }
+        IterationCounter.add(i);
+        if (zx * zx + zy * zy < 4 || i < parameters.minIterations)
+            return 0;
+        return i;
+    }
+
+    @Override
+    public boolean getUseMetropolisSampling() {
+        return parameters.useMetropolisSampling;
+    }
+
+    /**
+     * The densities are mapped to the palette logarithmically, and the color is darkened by the same factor, so that zero density is black.
+     */
+    @Override
+    public int colorize(int[] palette, float density) {
+        if (!(density > 0))
+            return COLOR_BLACK;
+        double position = Math.min(1, Math.log1p(density) / Math.log1p(MAX_DENSITY));
+        int color = palette[(int) (position * (palette.length - 1))];
+        int red = (int) ((color & 0xff) * position);
+        int green = (int) ((color >> 8 & 0xff) * position);
+        int blue = (int) ((color >> 16 & 0xff) * position);
+        return COLOR_BLACK | blue << 16 | green << 8 | red;
+    }
+
+    @Override
+    public void setFractalCustomParameters(String params) {
+        int minIterations = 0;
+        boolean useMetropolisSampling = true;
+        if (!params.trim().isEmpty()) {
+            JsonObject jsonObject = JsonHelpers.parse(params);
+            if (jsonObject.has("minIterations"))
+                minIterations = jsonObject.get("minIterations").getAsInt();
+            if (jsonObject.has("metropolis"))
+                useMetropolisSampling = jsonObject.get("metropolis").getAsBoolean();
+        }
+        if (minIterations < 0)
+            throw new IllegalArgumentException("minIterations must not be negative, but is " + minIterations + ".");
+        parameters = new Parameters(minIterations, useMetropolisSampling);
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        super.supplyDefaultValues(model);
+        model.setMaxIterations(1000);
+        model.setMaxSuperSampling(4);
+        model.setFractalCustomParams("{ \"minIterations\" : 0, \"metropolis\" : true }");
+        model.setPlaneSegmentFromCenter(-0.5, 0, 2.6);
+    }
+}
@@ -0,0 +1,76 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import com.google.gson.JsonObject;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRenderingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.FormulaCompiler;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.IterationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.JsonHelpers;
+
+/**
+ * Escape-time fractal of a user-defined complex map, compiled to bytecode at runtime by FormulaCompiler. Has no CUDA counterpart.
+ * <br>
+ * Parameters are either just the formula, e.g. {@code z^3 + c*sin(z)}, or a JSON object
+ * {@code { "formula" : "z^3 + c*sin(z)", "z0" : "c", "bailout" : 2 }}, where {@code z0} is the initial value of {@code z} (default {@code c})
+ * and {@code bailout} the radius, outside which the points escape (default 2). {@code c} is the point of the plane.
+ */
+public class ModuleFormula extends CpuFractalRenderingModule {
+
+    private static final String DEFAULT_INITIAL_VALUE = "c";
+    private static final double DEFAULT_BAILOUT = 2;
+
+    /**
+     * compiled formula and the square of the bailout radius, replaced together
+     */
+    private static class Compiled {
+        final FormulaCompiler.CompiledFormula formula;
+        final double bailoutSquared;
+
+        Compiled(FormulaCompiler.CompiledFormula formula, double bailoutSquared) {
+            this.formula = formula;
+            this.bailoutSquared = bailoutSquared;
+        }
+    }
+
+    private volatile Compiled compiled = new Compiled(FormulaCompiler.compile("z^2 + c", DEFAULT_INITIAL_VALUE), DEFAULT_BAILOUT * DEFAULT_BAILOUT);
+
+    public ModuleFormula() {
+        super("formula");
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double x, double y) {
+        Compiled compiled = this.compiled;
+        float escapeTime = compiled.formula.escapeTime(maxIterations, x, y, compiled.bailoutSquared);
+        IterationCounter.add((long) escapeTime);
+        return escapeTime;
+    }
+
+    @Override
+    public void setFractalCustomParameters(String params) {
+        String formula = params.trim();
+        String initialValue = DEFAULT_INITIAL_VALUE;
+        double bailout = DEFAULT_BAILOUT;
+        if (formula.startsWith("{")) {
+            JsonObject jsonObject = JsonHelpers.parse(formula);
+            if (!jsonObject.has("formula"))
+                throw new IllegalArgumentException("Missing \"formula\".");
+            formula = jsonObject.get("formula").getAsString();
+            if (jsonObject.has("z0"))
+                initialValue = jsonObject.get("z0").getAsString();
+            if (jsonObject.has("bailout"))
+                bailout = jsonObject.get("bailout").getAsDouble();
+        }
+        if (!(bailout > 0))
+            throw new IllegalArgumentException("Bailout must be positive, but is " + bailout + ".");
+        compiled = new Compiled(FormulaCompiler.compile(formula, initialValue), bailout * bailout);
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        super.supplyDefaultValues(model);
+        model.setMaxIterations(200);
+        model.setFractalCustomParams("z^2 + c");
+        model.setPlaneSegmentFromCenter(-0.5, 0, 2.5);
+    }
+}
@@ -0,0 +1,61 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRenderingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.IterationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+
+/**
+ * Java port of goc.cu
+ */
+public class ModuleGoci extends CpuFractalRenderingModule {
+
+    public ModuleGoci() {
+        super("goc");
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double x, double y) {
+        if (x == 0 || y == 0)
+            return 0;
+        double cRe = x;
+        double cIm = y;
+        //c^7:
+        double c7Re = cRe;
+        double c7Im = cIm;
+        for (int k = 1; k < 7; k++) {
+            double re = c7Re * cRe - c7Im * cIm;
+            c7Im = c7Re * cIm + c7Im * cRe;
+            c7Re = re;
+        }
+
+        double zRe = x;
+        double zIm = y;
+        int i = 0;
+        while (i < maxIterations) {
+            //42*Z^(-2)+C^7
+            double z2Re = zRe * zRe - zIm * zIm;
+            double z2Im = 2 * zRe * zIm;
+            double denominator = z2Re * z2Re + z2Im * z2Im;
+            zRe = 42 * z2Re / denominator + c7Re;
+            zIm = -42 * z2Im / denominator + c7Im;
+            i++;
+        }
+        IterationCounter.add(i);
+        return (float) Math.sqrt(zRe * zRe + zIm * zIm);
+    }
+
+    @Override
+    public int colorize(int[] palette, float computationResult) {
+        int resultColor = super.colorize(palette, computationResult);
+        if (computationResult < 35)
+            resultColor &= 0xff00ffff;
+        return resultColor;
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        super.supplyDefaultValues(model);
+        model.setMaxIterations(900);
+        model.setPlaneSegmentFromCenter(1.1, -0.2, 0.20000000000000004);
+    }
+}
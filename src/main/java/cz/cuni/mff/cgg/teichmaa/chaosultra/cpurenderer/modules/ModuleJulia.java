@@ -0,0 +1,131 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRenderingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.DistanceEstimatingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.DoubleDoubleQuadraticMap;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.IterationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.QuadraticMapDistance;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.QuadraticMapLanes;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.QuadraticMapModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.PointDoubleImmutable;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.PointDoubleReadable;
+
+/**
+ * Java port of julia.cu
+ */
+public class ModuleJulia extends CpuFractalRenderingModule implements QuadraticMapModule, DistanceEstimatingModule {
+
+    public ModuleJulia() {
+        super("julia");
+    }
+
+    private volatile PointDoubleImmutable c = PointDoubleImmutable.of(0, 0);
+
+    public PointDoubleImmutable getC() {
+        return c;
+    }
+
+    public void setC(PointDoubleImmutable c) {
+        this.c = c;
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double zx, double zy) {
+        PointDoubleImmutable c = this.c;
+        double cx = c.getX();
+        double cy = c.getY();
+        double zx_new;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+        }
+        IterationCounter.add(i);
+        return i;
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, float zx, float zy) {
+        PointDoubleImmutable c = this.c;
+        float cx = (float) c.getX();
+        float cy = (float) c.getY();
+        float zx_new;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+        }
+        IterationCounter.add(i);
+        return i;
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double zxHi, double zxLo, double zyHi, double zyLo) {
+        PointDoubleImmutable c = this.c;
+        return DoubleDoubleQuadraticMap.escapeTime(maxIterations, zxHi, zxLo, zyHi, zyLo, c.getX(), 0, c.getY(), 0);
+    }
+
+    @Override
+    public void computeFractalRow(int maxIterations, double[] x, double y, int length, float[] result) {
+        PointDoubleImmutable c = this.c;
+        QuadraticMapLanes.escapeTimes(maxIterations, x, y, length, false, c.getX(), c.getY(), result);
+    }
+
+    @Override
+    public void computeFractalRow(int maxIterations, float[] x, float y, int length, float[] result) {
+        PointDoubleImmutable c = this.c;
+        QuadraticMapLanes.escapeTimes(maxIterations, x, y, length, false, (float) c.getX(), (float) c.getY(), result);
+    }
+
+    @Override
+    public float computeFractalWithDistance(int maxIterations, double zx, double zy, float[] distance) {
+        PointDoubleImmutable c = this.c;
+        return QuadraticMapDistance.escapeTime(maxIterations, zx, zy, c.getX(), c.getY(), false, false, distance);
+    }
+
+    @Override
+    public float computeFractalWithDistance(int maxIterations, float zx, float zy, float[] distance) {
+        PointDoubleImmutable c = this.c;
+        return QuadraticMapDistance.escapeTime(maxIterations, zx, zy, (float) c.getX(), (float) c.getY(), false, false, distance);
+    }
+
+    @Override
+    public void computeFractalRowWithDistance(int maxIterations, double[] x, double y, int length, float[] result, float[] distances) {
+        PointDoubleImmutable c = this.c;
+        QuadraticMapDistance.escapeTimes(maxIterations, x, y, length, false, c.getX(), c.getY(), result, distances);
+    }
+
+    @Override
+    public void computeFractalRowWithDistance(int maxIterations, float[] x, float y, int length, float[] result, float[] distances) {
+        PointDoubleImmutable c = this.c;
+        QuadraticMapDistance.escapeTimes(maxIterations, x, y, length, false, (float) c.getX(), (float) c.getY(), result, distances);
+    }
+
+    @Override
+    public PointDoubleReadable getFixedParameter() {
+        return c;
+    }
+
+    @Override
+    public float escapeTimeToFractalValue(int iterations, int maxIterations) {
+        return iterations;
+    }
+
+    @Override
+    public void setFractalCustomParameters(String params) {
+        double[] vals = parseParamsAsDoubles(params);
+        setC(PointDoubleImmutable.of(vals[0], vals[1]));
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        super.supplyDefaultValues(model);
+        model.setMaxIterations(900);
+        model.setFractalCustomParams("-0.4;0.6");
+    }
+}
@@ -0,0 +1,175 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRenderingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.DistanceEstimatingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.DoubleDoubleQuadraticMap;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.IterationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.MandelbrotInterior;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.QuadraticMapDistance;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.QuadraticMapLanes;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.QuadraticMapModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.PointDoubleReadable;
+
+/**
+ * Java port of mandelbrot.cu
+ */
+public class ModuleMandelbrot extends CpuFractalRenderingModule implements QuadraticMapModule, DistanceEstimatingModule {
+
+    public ModuleMandelbrot() {
+        super("mandelbrot");
+    }
+
+    private volatile boolean useInteriorDetection = true;
+
+    public boolean getUseInteriorDetection() {
+        return useInteriorDetection;
+    }
+
+    /**
+     * @param useInteriorDetection whether to detect points inside the set early, see MandelbrotInterior
+     */
+    public void setUseInteriorDetection(boolean useInteriorDetection) {
+        this.useInteriorDetection = useInteriorDetection;
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double cx, double cy) {
+        if (useInteriorDetection)
+            return escapeTimeToFractalValue(MandelbrotInterior.escapeTime(maxIterations, cx, cy), maxIterations);
+        double zx = 0;
+        double zy = 0;
+        double zx_new;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+        }
+        IterationCounter.add(i);
+        if (i == maxIterations)
+            return 0;
+        return i;
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, float cx, float cy) {
+        if (useInteriorDetection)
+            return escapeTimeToFractalValue(MandelbrotInterior.escapeTime(maxIterations, cx, cy), maxIterations);
+        float zx = 0;
+        float zy = 0;
+        float zx_new;
+        int i = 0;
+        while (i < maxIterations && zx * zx + zy * zy < 4) {
+            zx_new = zx * zx - zy * zy + cx;
+            zy = 2 * zx * zy + cy;
+            zx = zx_new;
+            ++i;
+        }
+        IterationCounter.add(i);
+        if (i == maxIterations)
+            return 0;
+        return i;
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double cxHi, double cxLo, double cyHi, double cyLo) {
+        int i = DoubleDoubleQuadraticMap.escapeTime(maxIterations, 0, 0, 0, 0, cxHi, cxLo, cyHi, cyLo);
+        return escapeTimeToFractalValue(i, maxIterations);
+    }
+
+    /**
+     * With the interior detection, the points are computed one by one: the orbits of the lanes of QuadraticMapLanes would end at different iterations,
+     * and the lanes would wait for the longest of them, which outweighs the gain of computing them at once.
+     */
+    @Override
+    public void computeFractalRow(int maxIterations, double[] x, double y, int length, float[] result) {
+        if (useInteriorDetection) {
+            super.computeFractalRow(maxIterations, x, y, length, result);
+            return;
+        }
+        QuadraticMapLanes.escapeTimes(maxIterations, x, y, length, true, 0, 0, result);
+        for (int k = 0; k < length; k++) {
+            result[k] = escapeTimeToFractalValue((int) result[k], maxIterations);
+        }
+    }
+
+    @Override
+    public void computeFractalRow(int maxIterations, float[] x, float y, int length, float[] result) {
+        if (useInteriorDetection) {
+            super.computeFractalRow(maxIterations, x, y, length, result);
+            return;
+        }
+        QuadraticMapLanes.escapeTimes(maxIterations, x, y, length, true, 0, 0, result);
+        for (int k = 0; k < length; k++) {
+            result[k] = escapeTimeToFractalValue((int) result[k], maxIterations);
+        }
+    }
+
+    @Override
+    public float computeFractalWithDistance(int maxIterations, double cx, double cy, float[] distance) {
+        boolean useInteriorDetection = this.useInteriorDetection;
+        if (useInteriorDetection && MandelbrotInterior.isInMainCardioidOrPeriod2Bulb(cx, cy)) {
+            distance[0] = 0;
+            return escapeTimeToFractalValue(maxIterations, maxIterations);
+        }
+        int i = QuadraticMapDistance.escapeTime(maxIterations, 0, 0, cx, cy, true, useInteriorDetection, distance);
+        return escapeTimeToFractalValue(i, maxIterations);
+    }
+
+    @Override
+    public float computeFractalWithDistance(int maxIterations, float cx, float cy, float[] distance) {
+        boolean useInteriorDetection = this.useInteriorDetection;
+        if (useInteriorDetection && MandelbrotInterior.isInMainCardioidOrPeriod2Bulb(cx, cy)) {
+            distance[0] = 0;
+            return escapeTimeToFractalValue(maxIterations, maxIterations);
+        }
+        int i = QuadraticMapDistance.escapeTime(maxIterations, 0, 0, cx, cy, true, useInteriorDetection, distance);
+        return escapeTimeToFractalValue(i, maxIterations);
+    }
+
+    @Override
+    public void computeFractalRowWithDistance(int maxIterations, double[] x, double y, int length, float[] result, float[] distances) {
+        if (useInteriorDetection) {
+            DistanceEstimatingModule.super.computeFractalRowWithDistance(maxIterations, x, y, length, result, distances);
+            return;
+        }
+        QuadraticMapDistance.escapeTimes(maxIterations, x, y, length, true, 0, 0, result, distances);
+        for (int k = 0; k < length; k++) {
+            result[k] = escapeTimeToFractalValue((int) result[k], maxIterations);
+        }
+    }
+
+    @Override
+    public void computeFractalRowWithDistance(int maxIterations, float[] x, float y, int length, float[] result, float[] distances) {
+        if (useInteriorDetection) {
+            DistanceEstimatingModule.super.computeFractalRowWithDistance(maxIterations, x, y, length, result, distances);
+            return;
+        }
+        QuadraticMapDistance.escapeTimes(maxIterations, x, y, length, true, 0, 0, result, distances);
+        for (int k = 0; k < length; k++) {
+            result[k] = escapeTimeToFractalValue((int) result[k], maxIterations);
+        }
+    }
+
+    @Override
+    public PointDoubleReadable getFixedParameter() {
+        return null;
+    }
+
+    @Override
+    public float escapeTimeToFractalValue(int iterations, int maxIterations) {
+        if (iterations == maxIterations)
+            return 0;
+        return iterations;
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        super.supplyDefaultValues(model);
+        model.setPlaneSegmentFromCenter(-0.5, 0, 2);
+        model.setMaxIterations(1600);
+        model.setMaxSuperSampling(5);
+    }
+}
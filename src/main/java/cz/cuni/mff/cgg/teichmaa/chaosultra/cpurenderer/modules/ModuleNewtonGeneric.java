@@ -0,0 +1,157 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRenderingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.IterationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.JsonHelpers;
+
+import java.util.List;
+
+/**
+ * Java port of newton_generic.cu
+ */
+public class ModuleNewtonGeneric extends CpuFractalRenderingModule {
+
+    private static final double CONVERGENCE_TOLERANCE = 0.0001;
+
+    public ModuleNewtonGeneric() {
+        super("newton generic");
+    }
+
+    protected ModuleNewtonGeneric(String fractalName) {
+        super(fractalName);
+    }
+
+    /**
+     * coefficients of the polynomial, {@code coefficients[i]} belonging to {@code x^i}
+     */
+    private volatile double[] coefficients = {-1, 0, 0, 1};
+    /**
+     * roots of the polynomial, as pairs [real, imag]
+     */
+    private volatile double[] roots = {1, 0, -0.5, 0.86602540378, -0.5, -0.86602540378};
+
+    @Override
+    public void setFractalCustomParameters(String params) {
+        JsonObject jsonObject = JsonHelpers.parse(params);
+
+        List<Double> coeffs = JsonHelpers.jsonArrayToList(jsonObject.get("coefficients").getAsJsonArray(), JsonElement::getAsDouble);
+        List<List<Double>> roots = JsonHelpers.jsonArrayToList(jsonObject.get("roots").getAsJsonArray(), a -> JsonHelpers.jsonArrayToList(a.getAsJsonArray(), JsonElement::getAsDouble));
+
+        if (roots.stream().map(List::size).anyMatch(size -> size != 2)) {
+            throw new IllegalArgumentException("Found a root that is not represented as [real, imag].");
+        }
+        if (coeffs.size() != 4)
+            throw new IllegalArgumentException("expecting 4 coefficients");
+        if (roots.size() != 3)
+            throw new IllegalArgumentException("expecting 3 roots");
+
+        double[] rootsArr = new double[2 * 3];
+        for (int i = 0; i < roots.size(); i++) {
+            rootsArr[2 * i] = roots.get(i).get(0);
+            rootsArr[2 * i + 1] = roots.get(i).get(1);
+        }
+        double[] coefsArr = new double[4];
+        for (int i = 0; i < coeffs.size(); i++) {
+            coefsArr[coefsArr.length - i - 1] = coeffs.get(i); //the coefficient order is switched for the user and for the programmer
+        }
+        setPolynomial(coefsArr, rootsArr);
+    }
+
+    protected void setPolynomial(double[] coefficients, double[] roots) {
+        this.coefficients = coefficients;
+        this.roots = roots;
+    }
+
+    protected double[] getCoefficients() {
+        return coefficients;
+    }
+
+    protected double[] getRoots() {
+        return roots;
+    }
+
+    /**
+     * Performs one step of the Newton method, writing the result back to {@code x}.
+     *
+     * @param x in-out parameter, complex number as [real, imag]
+     */
+    protected void newtonMethod(double[] x, double[] coefficients) {
+        double re = x[0];
+        double im = x[1];
+        double re2 = re * re - im * im;
+        double im2 = 2 * re * im;
+        double re3 = re2 * re - im2 * im;
+        double im3 = re2 * im + im2 * re;
+
+        double fRe = coefficients[0] + coefficients[1] * re + coefficients[2] * re2 + coefficients[3] * re3;
+        double fIm = coefficients[1] * im + coefficients[2] * im2 + coefficients[3] * im3;
+        double dRe = coefficients[1] + coefficients[2] * 2 * re + coefficients[3] * 3 * re2;
+        double dIm = coefficients[2] * 2 * im + coefficients[3] * 3 * im2;
+
+        double denominator = dRe * dRe + dIm * dIm;
+        x[0] = re - (fRe * dRe + fIm * dIm) / denominator;
+        x[1] = im - (fIm * dRe - fRe * dIm) / denominator;
+    }
+
+    /**
+     * @return 1-based index of the root that {@code x} has converged to, or 0 if none
+     */
+    protected int convergenceRoot(double[] x, double[] roots) {
+        for (int r = 0; r < roots.length / 2; r++) {
+            if (Math.abs(x[0] - roots[2 * r]) < CONVERGENCE_TOLERANCE && Math.abs(x[1] - roots[2 * r + 1]) < CONVERGENCE_TOLERANCE) {
+                return r + 1;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double zx, double zy) {
+        double[] coefficients = this.coefficients;
+        double[] roots = this.roots;
+        double[] x = {zx, zy};
+
+        int i = 0;
+        int convergenceCheckTreshold = 10; //most of the plane segments generally converges after 10 iterations
+        while (i < maxIterations) {
+            newtonMethod(x, coefficients);
+            ++i;
+
+            if (i == convergenceCheckTreshold) {
+                int root = convergenceRoot(x, roots);
+                if (root != 0) {   //if already converged
+                    IterationCounter.add(i);
+                    return root;
+                }
+                //else
+                convergenceCheckTreshold += Math.max(1, maxIterations / 10); //go up by 10 percent
+            }
+        }
+        IterationCounter.add(i);
+        return convergenceRoot(x, roots);
+    }
+
+    @Override
+    public int colorize(int[] palette, float computationResult) {
+        switch (Math.round(computationResult)) {
+            case 1:
+                return COLOR_RED;
+            case 2:
+                return COLOR_GREEN;
+            case 3:
+                return COLOR_BLUE;
+            default:
+                return COLOR_BLACK;
+        }
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        super.supplyDefaultValues(model);
+        model.setMaxIterations(200);
+        model.setFractalCustomParams("{ \"coefficients\" : [1, 0, 0, -1], \"roots\" : [ [1,0], [-0.5,0.86602540378] , [-0.5,-0.86602540378] ] }");
+    }
+}
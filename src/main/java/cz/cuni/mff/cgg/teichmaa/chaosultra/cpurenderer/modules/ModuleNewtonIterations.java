@@ -0,0 +1,65 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import com.google.gson.JsonObject;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.IterationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.JsonHelpers;
+
+/**
+ * Java port of newton_iterations.cu
+ */
+public class ModuleNewtonIterations extends ModuleNewtonGeneric {
+
+    public static final String COLOR_MAGNIFIER_PARAM_NAME = "colorMagnifier";
+
+    public ModuleNewtonIterations() {
+        super("newton colored by iterations");
+    }
+
+    private volatile int colorMagnifier = 1;
+
+    @Override
+    public void setFractalCustomParameters(String params) {
+        super.setFractalCustomParameters(params);
+
+        JsonObject json = JsonHelpers.parse(params);
+        if (json.has(COLOR_MAGNIFIER_PARAM_NAME)) {
+            colorMagnifier = json.get(COLOR_MAGNIFIER_PARAM_NAME).getAsInt();
+        }
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double zx, double zy) {
+        double[] coefficients = getCoefficients();
+        double[] roots = getRoots();
+        double[] x = {zx, zy};
+
+        int i = 0;
+        while (i < maxIterations) {
+            newtonMethod(x, coefficients);
+            ++i;
+            int root = convergenceRoot(x, roots);
+            if (root != 0)
+                break;
+        }
+        IterationCounter.add(i);
+        return i;
+    }
+
+    @Override
+    public int colorize(int[] palette, float computationResult) {
+        int paletteLength = palette.length;
+        long computationResult_i = Math.round(computationResult);
+        int paletteIdx = paletteLength - (int) Math.floorMod(computationResult_i * colorMagnifier, (long) paletteLength) - 1;
+        return palette[paletteIdx];
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        super.supplyDefaultValues(model);
+        String params = "{\"" + COLOR_MAGNIFIER_PARAM_NAME + "\": 11,"
+                + model.getFractalCustomParams().substring(1);
+
+        model.setFractalCustomParams(params);
+    }
+}
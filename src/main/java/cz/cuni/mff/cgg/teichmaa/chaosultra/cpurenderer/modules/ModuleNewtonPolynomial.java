@@ -0,0 +1,493 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRenderingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.IterationCounter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.JsonHelpers;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.IntStream;
+
+/**
+ * Newton fractal of a polynomial of any degree. Has no CUDA counterpart.
+ * <br>
+ * Unlike ModuleNewtonGeneric, the user gives only the real coefficients, from the highest degree, e.g. {@code { "coefficients" : [1, 0, 0, 0, 0, -1] }} for {@code x^5 - 1},
+ * and the roots are found by the Aberth method whenever the parameters change.
+ * The polynomial and its derivative are evaluated by Horner's scheme.
+ * A point is iterated until the Newton step gets shorter than the tolerance, and then it is matched to the root it has converged to by a spatial hash of the roots,
+ * i.e. in constant time regardless of the degree. The value of a point is the 1-based index of its root (0 if none), and the roots are colored by evenly spaced colors of the palette.
+ * <br>
+ * The Aberth method finds an m-fold root only to about {@code eps^(1/m)}, as a cluster of m approximations, which are merged to one root (see {@code mergeMultipleRoots}).
+ * The Newton iteration, which stalls in the rounding noise around a multiple root, is allowed a correspondingly longer last step there.
+ */
+public class ModuleNewtonPolynomial extends CpuFractalRenderingModule {
+
+    /**
+     * maximal length of the last Newton step of a converged point, relative to the magnitude of the roots
+     */
+    private static final double STEP_TOLERANCE = 1e-6;
+    /**
+     * a cluster of m approximations is an m-fold root if they lie within this multiple of the radius to which rounding errors displace an m-fold root
+     */
+    private static final double MULTIPLE_ROOT_TOLERANCE = 2;
+    private static final int MULTIPLE_ROOT_POLISH_STEPS = 3;
+    private static final int MAX_ABERTH_ITERATIONS = 1000;
+    /**
+     * the Aberth method stops when no approximation moves by more than this, relative to its magnitude (at least 1)
+     */
+    private static final double ABERTH_TOLERANCE = 1e-15;
+
+    /**
+     * The polynomial with its roots, replaced together when the parameters change.
+     */
+    private static class Polynomial {
+        /**
+         * coefficients of the polynomial, {@code coefficients[i]} belonging to {@code x^i}
+         */
+        final double[] coefficients;
+        final RootLookup roots;
+        /**
+         * the longest of the step tolerances of the roots
+         */
+        final double stepToleranceSquared;
+
+        Polynomial(double[] coefficients) {
+            this.coefficients = coefficients;
+            double[] roots = findRoots(coefficients);
+            double scale = 1;
+            for (int r = 0; r < roots.length / 2; r++) {
+                scale = Math.max(scale, Math.hypot(roots[2 * r], roots[2 * r + 1]));
+            }
+            this.roots = new RootLookup(mergeMultipleRoots(coefficients, roots), STEP_TOLERANCE * scale, scale);
+            this.stepToleranceSquared = this.roots.getMaxStepToleranceSquared();
+        }
+    }
+
+    private volatile Polynomial polynomial = new Polynomial(new double[]{-1, 0, 0, 1});
+
+    public ModuleNewtonPolynomial() {
+        super("newton polynomial");
+    }
+
+    @Override
+    public void setFractalCustomParameters(String params) {
+        JsonObject jsonObject = JsonHelpers.parse(params);
+        if (!jsonObject.has("coefficients"))
+            throw new IllegalArgumentException("Missing \"coefficients\".");
+        List<Double> coeffs = JsonHelpers.jsonArrayToList(jsonObject.get("coefficients").getAsJsonArray(), JsonElement::getAsDouble);
+        //leading zeros do not change the polynomial
+        int first = 0;
+        while (first < coeffs.size() && coeffs.get(first) == 0)
+            first++;
+        if (coeffs.size() - first < 2)
+            throw new IllegalArgumentException("The polynomial must be of degree at least 1.");
+        double[] coefsArr = new double[coeffs.size() - first];
+        for (int i = 0; i < coefsArr.length; i++) {
+            coefsArr[coefsArr.length - i - 1] = coeffs.get(first + i); //the coefficient order is switched for the user and for the programmer
+        }
+        polynomial = new Polynomial(coefsArr);
+    }
+
+    @Override
+    public float computeFractal(int maxIterations, double zx, double zy) {
+        Polynomial polynomial = this.polynomial;
+        double[] coefficients = polynomial.coefficients;
+        int degree = coefficients.length - 1;
+        double re = zx;
+        double im = zy;
+        for (int i = 0; i < maxIterations; i++) {
+            //Horner's scheme for the polynomial (f) and its derivative (d) at once
+            double fRe = coefficients[degree], fIm = 0;
+            double dRe = 0, dIm = 0;
+            for (int k = degree - 1; k >= 0; k--) {
+                double newDRe = dRe * re - dIm * im + fRe;
+                dIm = dRe * im + dIm * re + fIm;
+                dRe = newDRe;
+                double newFRe = fRe * re - fIm * im + coefficients[k];
+                fIm = fRe * im + fIm * re;
+                fRe = newFRe;
+            }
+            double denominator = dRe * dRe + dIm * dIm;
+            double stepRe = (fRe * dRe + fIm * dIm) / denominator;
+            double stepIm = (fIm * dRe - fRe * dIm) / denominator;
+            re -= stepRe;
+            im -= stepIm;
+            double stepSquared = stepRe * stepRe + stepIm * stepIm;
+            if (stepSquared < polynomial.stepToleranceSquared) {
+                int root = polynomial.roots.find(re, im, stepSquared);
+                if (root != 0) {
+                    IterationCounter.add(i + 1);
+                    return root;
+                }
+            }
+        }
+        IterationCounter.add(maxIterations);
+        return 0;
+    }
+
+    @Override
+    public int colorize(int[] palette, float computationResult) {
+        int root = Math.round(computationResult);
+        int rootCount = polynomial.roots.getRootCount();
+        if (root < 1 || root > rootCount)
+            return COLOR_BLACK;
+        return palette[(root - 1) * palette.length / rootCount];
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        super.supplyDefaultValues(model);
+        model.setMaxIterations(200);
+        model.setFractalCustomParams("{ \"coefficients\" : [1, 0, 0, 0, 0, -1] }");
+    }
+
+    /**
+     * Finds all the complex roots of a polynomial by the Aberth (Aberth-Ehrlich) method, which improves all of them simultaneously,
+     * each by a Newton step corrected by the repulsion of the other approximations.
+     *
+     * @param coefficients {@code coefficients[i]} belongs to {@code x^i}, the last one must be nonzero
+     * @return roots as pairs [real, imag], as many as the degree, multiple roots repeated
+     */
+    static double[] findRoots(double[] coefficients) {
+        int degree = coefficients.length - 1;
+        double leading = coefficients[degree];
+        //the roots lie within the Cauchy bound
+        double bound = 0;
+        for (int k = 0; k < degree; k++) {
+            bound = Math.max(bound, Math.abs(coefficients[k] / leading));
+        }
+        bound += 1;
+        //initial approximations: on a circle, rotated so as not to be symmetric with real polynomials
+        double radius = Math.min(bound, Math.pow(Math.abs(coefficients[0] / leading), 1.0 / degree) + 1e-3);
+        double[] roots = new double[2 * degree];
+        for (int k = 0; k < degree; k++) {
+            double angle = 2 * Math.PI * k / degree + 0.4;
+            roots[2 * k] = radius * Math.cos(angle);
+            roots[2 * k + 1] = radius * Math.sin(angle);
+        }
+        double[] value = new double[4];
+        for (int iteration = 0; iteration < MAX_ABERTH_ITERATIONS; iteration++) {
+            boolean converged = true;
+            for (int k = 0; k < degree; k++) {
+                double re = roots[2 * k], im = roots[2 * k + 1];
+                evaluate(coefficients, re, im, value);
+                double fRe = value[0], fIm = value[1], dRe = value[2], dIm = value[3];
+                double fMagnitude = fRe * fRe + fIm * fIm;
+                if (fMagnitude == 0)
+                    continue; //exact root
+                //w = f / f'
+                double denominator = dRe * dRe + dIm * dIm;
+                double wRe = (fRe * dRe + fIm * dIm) / denominator;
+                double wIm = (fIm * dRe - fRe * dIm) / denominator;
+                //s = sum of 1 / (z_k - z_j)
+                double sRe = 0, sIm = 0;
+                for (int j = 0; j < degree; j++) {
+                    if (j == k) continue;
+                    double diffRe = re - roots[2 * j], diffIm = im - roots[2 * j + 1];
+                    double diffMagnitude = diffRe * diffRe + diffIm * diffIm;
+                    sRe += diffRe / diffMagnitude;
+                    sIm -= diffIm / diffMagnitude;
+                }
+                //offset = w / (1 - w * s)
+                double qRe = 1 - (wRe * sRe - wIm * sIm);
+                double qIm = -(wRe * sIm + wIm * sRe);
+                double qMagnitude = qRe * qRe + qIm * qIm;
+                double offsetRe = (wRe * qRe + wIm * qIm) / qMagnitude;
+                double offsetIm = (wIm * qRe - wRe * qIm) / qMagnitude;
+                if (!Double.isFinite(offsetRe) || !Double.isFinite(offsetIm))
+                    continue;
+                roots[2 * k] = re - offsetRe;
+                roots[2 * k + 1] = im - offsetIm;
+                if (Math.hypot(offsetRe, offsetIm) > ABERTH_TOLERANCE * Math.max(1, Math.hypot(re, im)))
+                    converged = false;
+            }
+            if (converged)
+                break;
+        }
+        return roots;
+    }
+
+    /**
+     * Evaluates the polynomial and its derivative at {@code [re, im]} by Horner's scheme.
+     *
+     * @param result out parameter: [f real, f imag, f' real, f' imag]
+     */
+    private static void evaluate(double[] coefficients, double re, double im, double[] result) {
+        int degree = coefficients.length - 1;
+        double fRe = coefficients[degree], fIm = 0;
+        double dRe = 0, dIm = 0;
+        for (int k = degree - 1; k >= 0; k--) {
+            double newDRe = dRe * re - dIm * im + fRe;
+            dIm = dRe * im + dIm * re + fIm;
+            dRe = newDRe;
+            double newFRe = fRe * re - fIm * im + coefficients[k];
+            fIm = fRe * im + fIm * re;
+            fRe = newFRe;
+        }
+        result[0] = fRe;
+        result[1] = fIm;
+        result[2] = dRe;
+        result[3] = dIm;
+    }
+
+    /**
+     * Distinct roots of a polynomial, each with the multiplicity and the spread of the approximations it has been merged from.
+     */
+    static final class DistinctRoots {
+        /**
+         * roots as pairs [real, imag]
+         */
+        final double[] roots;
+        final int[] multiplicities;
+        /**
+         * largest distance of an approximation from its root, 0 for simple roots
+         */
+        final double[] spreads;
+
+        private DistinctRoots(double[] roots, int[] multiplicities, double[] spreads) {
+            this.roots = roots;
+            this.multiplicities = multiplicities;
+            this.spreads = spreads;
+        }
+
+        int getCount() {
+            return multiplicities.length;
+        }
+    }
+
+    /**
+     * Merges the approximations of the Aberth method that belong to the same, multiple root.
+     * <br>
+     * The approximations of an m-fold root are spread around it to about {@code eps^(1/m)}, so no fixed distance tells them from close simple roots.
+     * Instead, for each approximation, its nearest neighbours are tried as an m-fold root, from the largest m down (see {@code isMultipleRoot}).
+     * Each multiple root is then polished by Newton's method applied to {@code f^(m-1)}, whose root it is simple.
+     *
+     * @param coefficients {@code coefficients[i]} belongs to {@code x^i}
+     * @param roots        approximations of the roots as pairs [real, imag], as many as the degree
+     */
+    static DistinctRoots mergeMultipleRoots(double[] coefficients, double[] roots) {
+        int count = roots.length / 2;
+        boolean[] merged = new boolean[count];
+        double[] distinct = new double[roots.length];
+        int[] multiplicities = new int[count];
+        double[] spreads = new double[count];
+        int distinctCount = 0;
+        for (int r = 0; r < count; r++) {
+            if (merged[r])
+                continue;
+            double rRe = roots[2 * r], rIm = roots[2 * r + 1];
+            //the approximations that are left, the nearest first (r itself is the very first)
+            Integer[] candidates = IntStream.range(0, count).filter(c -> !merged[c]).boxed().toArray(Integer[]::new);
+            Arrays.sort(candidates, Comparator.comparingDouble(c -> Math.hypot(roots[2 * c] - rRe, roots[2 * c + 1] - rIm)));
+            int multiplicity = 1;
+            double re = rRe, im = rIm;
+            double spread = 0;
+            for (int m = candidates.length; m >= 2; m--) {
+                double centroidRe = 0, centroidIm = 0;
+                for (int c = 0; c < m; c++) {
+                    centroidRe += roots[2 * candidates[c]];
+                    centroidIm += roots[2 * candidates[c] + 1];
+                }
+                centroidRe /= m;
+                centroidIm /= m;
+                double centroidSpread = 0;
+                for (int c = 0; c < m; c++) {
+                    centroidSpread = Math.max(centroidSpread, Math.hypot(roots[2 * candidates[c]] - centroidRe, roots[2 * candidates[c] + 1] - centroidIm));
+                }
+                if (isMultipleRoot(coefficients, centroidRe, centroidIm, m, centroidSpread)) {
+                    multiplicity = m;
+                    re = centroidRe;
+                    im = centroidIm;
+                    spread = centroidSpread;
+                    break;
+                }
+            }
+            for (int c = 0; c < multiplicity; c++) {
+                merged[candidates[c]] = true;
+            }
+            if (multiplicity > 1) {
+                double[] polished = polishMultipleRoot(coefficients, re, im, multiplicity, spread);
+                re = polished[0];
+                im = polished[1];
+            }
+            distinct[2 * distinctCount] = re;
+            distinct[2 * distinctCount + 1] = im;
+            multiplicities[distinctCount] = multiplicity;
+            spreads[distinctCount] = spread;
+            distinctCount++;
+        }
+        return new DistinctRoots(Arrays.copyOf(distinct, 2 * distinctCount), Arrays.copyOf(multiplicities, distinctCount), Arrays.copyOf(spreads, distinctCount));
+    }
+
+    /**
+     * Decides whether approximations with the given centroid and spread belong to one m-fold root of the polynomial.
+     * <br>
+     * Rounding errors of about {@code eps * N} in the values of the polynomial near z (N being the polynomial with absolute values of the coefficients at |z|)
+     * displace an m-fold root by about {@code r = (eps * N / |a[m]|)^(1/m)}, with {@code a[m] = f^(m)(z) / m!}, and the Aberth method stops within {@code ABERTH_TOLERANCE} of it.
+     * The approximations are an m-fold root if they all lie within {@code R = MULTIPLE_ROOT_TOLERANCE * r} of the centroid, and the centroid itself
+     * lies within R of an m-fold root, i.e. {@code |f(z)| <= |a[m]| R^m}. The latter rejects e.g. the roots of {@code x^30 - 1}, for which r is not small.
+     */
+    private static boolean isMultipleRoot(double[] coefficients, double re, double im, int multiplicity, double spread) {
+        double[] taylorRe = coefficients.clone();
+        double[] taylorIm = new double[coefficients.length];
+        for (int k = 0; k <= multiplicity; k++) {
+            expandTaylor(taylorRe, taylorIm, re, im, k);
+        }
+        double magnitude = Math.hypot(re, im);
+        double bound = 0;
+        for (int i = coefficients.length - 1; i >= 0; i--) {
+            bound = bound * magnitude + Math.abs(coefficients[i]);
+        }
+        double leading = Math.hypot(taylorRe[multiplicity], taylorIm[multiplicity]);
+        double noiseRadius = Math.pow(Math.ulp(1.0) * bound / leading, 1.0 / multiplicity) + ABERTH_TOLERANCE * Math.max(1, magnitude);
+        double radius = MULTIPLE_ROOT_TOLERANCE * noiseRadius;
+        return spread <= radius && Math.hypot(taylorRe[0], taylorIm[0]) <= leading * Math.pow(radius, multiplicity);
+    }
+
+    /**
+     * Refines a multiple root by a few steps of Newton's method for {@code f^(m-1)}, i.e. {@code z -= a[m-1] / (m * a[m])} with the Taylor coefficients {@code a}.
+     * A step longer than {@code spread} is not taken, the root is already known better than that.
+     *
+     * @return the refined root [real, imag]
+     */
+    private static double[] polishMultipleRoot(double[] coefficients, double re, double im, int multiplicity, double spread) {
+        for (int step = 0; step < MULTIPLE_ROOT_POLISH_STEPS; step++) {
+            double[] taylorRe = coefficients.clone();
+            double[] taylorIm = new double[coefficients.length];
+            for (int k = 0; k <= multiplicity; k++) {
+                expandTaylor(taylorRe, taylorIm, re, im, k);
+            }
+            double aRe = taylorRe[multiplicity - 1], aIm = taylorIm[multiplicity - 1];
+            double bRe = multiplicity * taylorRe[multiplicity], bIm = multiplicity * taylorIm[multiplicity];
+            double denominator = bRe * bRe + bIm * bIm;
+            double offsetRe = (aRe * bRe + aIm * bIm) / denominator;
+            double offsetIm = (aIm * bRe - aRe * bIm) / denominator;
+            if (!(Math.hypot(offsetRe, offsetIm) <= spread))
+                break;
+            re -= offsetRe;
+            im -= offsetIm;
+        }
+        return new double[]{re, im};
+    }
+
+    /**
+     * One step of the Taylor expansion by the Horner scheme: if {@code [re, im]} holds the polynomial (coefficient i belonging to {@code x^i})
+     * with the Taylor coefficients at z for indices {@code < k} already computed, computes the one with index k, {@code f^(k)(z) / k!}, in place.
+     */
+    private static void expandTaylor(double[] re, double[] im, double zRe, double zIm, int k) {
+        for (int i = re.length - 2; i >= k; i--) {
+            double nextRe = re[i + 1], nextIm = im[i + 1];
+            re[i] += zRe * nextRe - zIm * nextIm;
+            im[i] += zRe * nextIm + zIm * nextRe;
+        }
+    }
+
+    /**
+     * Spatial hash of the roots: the plane is divided to square cells of size {@code 2 * matchRadius}, and each root is stored in all the cells
+     * that its disk of {@code matchRadius} overlaps (at most 4), so that a point is matched by looking up just its own cell.
+     * The match radius is an eighth of the distance of the closest two distinct roots, so that no cell is shared by two roots.
+     * <br>
+     * The last Newton step of a point converged to a multiple root may be as long as the spread of the root's approximations,
+     * since the Newton iteration does not get any closer than the rounding noise around it.
+     */
+    private static class RootLookup {
+        private static final int EMPTY = 0;
+
+        private final double[] roots;
+        private final double[] stepToleranceSquared;
+        private final double matchRadius;
+        private final double cellSize;
+        private final long[] keys;
+        /**
+         * 1-based root indices, EMPTY for free slots
+         */
+        private final int[] values;
+        private final int mask;
+
+        /**
+         * @param stepTolerance maximal length of the last Newton step of a point converged to a simple root
+         */
+        RootLookup(DistinctRoots distinctRoots, double stepTolerance, double scale) {
+            this.roots = distinctRoots.roots;
+            int count = distinctRoots.getCount();
+            stepToleranceSquared = new double[count];
+            for (int r = 0; r < count; r++) {
+                double tolerance = Math.max(stepTolerance, distinctRoots.spreads[r]);
+                stepToleranceSquared[r] = tolerance * tolerance;
+            }
+            double minDistance = scale;
+            for (int a = 0; a < count; a++) {
+                for (int b = a + 1; b < count; b++) {
+                    minDistance = Math.min(minDistance, Math.hypot(roots[2 * a] - roots[2 * b], roots[2 * a + 1] - roots[2 * b + 1]));
+                }
+            }
+            matchRadius = minDistance / 8;
+            cellSize = 2 * matchRadius;
+            int capacity = Integer.highestOneBit(Math.max(1, 4 * count)) * 4;
+            keys = new long[capacity];
+            values = new int[capacity];
+            mask = capacity - 1;
+            for (int r = 0; r < count; r++) {
+                double re = roots[2 * r], im = roots[2 * r + 1];
+                long fromX = cell(re - matchRadius), toX = cell(re + matchRadius);
+                long fromY = cell(im - matchRadius), toY = cell(im + matchRadius);
+                for (long x = fromX; x <= toX; x++) {
+                    for (long y = fromY; y <= toY; y++) {
+                        put(key(x, y), r + 1);
+                    }
+                }
+            }
+        }
+
+        int getRootCount() {
+            return roots.length / 2;
+        }
+
+        double getMaxStepToleranceSquared() {
+            return Arrays.stream(stepToleranceSquared).max().orElse(0);
+        }
+
+        private long cell(double coordinate) {
+            return (long) Math.floor(coordinate / cellSize);
+        }
+
+        private static long key(long x, long y) {
+            return x * 0x9E3779B97F4A7C15L + y;
+        }
+
+        private int slot(long key) {
+            long hash = key * 0xC2B2AE3D27D4EB4FL;
+            return (int) (hash ^ (hash >>> 32)) & mask;
+        }
+
+        private void put(long key, int root) {
+            int slot = slot(key);
+            while (values[slot] != EMPTY && keys[slot] != key)
+                slot = (slot + 1) & mask;
+            keys[slot] = key;
+            values[slot] = root;
+        }
+
+        /**
+         * @param stepSquared squared length of the last Newton step to the point
+         * @return 1-based index of the root within matchRadius of the point, or 0 if none or the point has not converged to it yet
+         */
+        int find(double re, double im, double stepSquared) {
+            long key = key(cell(re), cell(im));
+            int slot = slot(key);
+            while (values[slot] != EMPTY) {
+                if (keys[slot] == key) {
+                    int root = values[slot];
+                    double dRe = re - roots[2 * root - 2], dIm = im - roots[2 * root - 1];
+                    return dRe * dRe + dIm * dIm < matchRadius * matchRadius && stepSquared < stepToleranceSquared[root - 1] ? root : 0;
+                }
+                slot = (slot + 1) & mask;
+            }
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,24 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+
+/**
+ * Java port of newton_wired.cu, i.e. Newton fractal of {@code x^3 - 1} with hard-wired roots.
+ */
+public class ModuleNewtonWired extends ModuleNewtonGeneric {
+
+    public ModuleNewtonWired() {
+        super("newton wired");
+    }
+
+    @Override
+    public void setFractalCustomParameters(String params) {
+
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        model.setFractalCustomParams("");
+        model.setMaxIterations(200);
+    }
+}
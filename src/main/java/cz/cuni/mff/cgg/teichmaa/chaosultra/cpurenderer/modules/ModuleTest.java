@@ -0,0 +1,40 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRenderingModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
+
+/**
+ * Java port of test.cu
+ */
+public class ModuleTest extends CpuFractalRenderingModule {
+
+    public ModuleTest() {
+        super("test");
+    }
+
+    private volatile int amplifier;
+
+    @Override
+    public float computeFractal(int maxIterations, double x, double y) {
+        return (int) ((Math.abs(x) + Math.abs(y)) * amplifier);
+    }
+
+    @Override
+    public int colorize(int[] palette, float computationResult) {
+        int paletteLength = palette.length;
+        long computationResult_i = Math.round(computationResult);
+        int paletteIdx = paletteLength - (int) Math.floorMod(computationResult_i * 128, (long) paletteLength) - 1;
+        return palette[paletteIdx];
+    }
+
+    @Override
+    public void setFractalCustomParameters(String params) {
+        amplifier = Integer.parseInt(params);
+    }
+
+    @Override
+    protected void supplyDefaultValues(DefaultFractalModel model) {
+        super.supplyDefaultValues(model);
+        model.setFractalCustomParams("" + 10);
+    }
+}
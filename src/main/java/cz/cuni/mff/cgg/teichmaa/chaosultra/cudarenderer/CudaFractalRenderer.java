@@ -3,6 +3,9 @@ package cz.cuni.mff.cgg.teichmaa.chaosultra.cudarenderer;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRenderer;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRendererException;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRendererState;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FramePhaseTimes;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FrameWork;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.RenderingPhase;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.*;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.util.FloatPrecision;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.util.JavaHelpers;
@@ -154,11 +157,18 @@ public class CudaFractalRenderer implements FractalRenderer {
     }
 
     private RenderingModel lastRendering;
+    private final FramePhaseTimes phaseTimes = new FramePhaseTimes();
+    /**
+     * The kernels do not count their samples and iterations, so the work is known only by its maxSuperSampling.
+     */
+    private final FrameWork work = new FrameWork();
 
     @Override
     public void renderFast(RenderingModel model) {
         if(state != FractalRendererState.readyToRender) throw new IllegalStateException("Renderer has to be initialized first");
 
+        phaseTimes.clear();
+        work.set(0, 0, 0, model.getMaxSuperSampling());
         setModuleConstants(model);
 
         if (model.isSampleReuseCacheDirty() || memory.isPrimary2DBufferDirty() || lastRendering == null) {
@@ -176,7 +186,7 @@ public class CudaFractalRenderer implements FractalRenderer {
         k.setOutput(memory.getSecondary2DBuffer(), memory.getSecondary2DBufferPitch());
         kernelCompose.setParamsFromModel(model);
 
-        launchRenderingKernel(false, k, model);
+        launchRenderingKernel(false, k, model, RenderingPhase.reuse);
         memory.switch2DBuffers();
         launchDrawingKernel(false, kernelCompose, model);
 
@@ -187,6 +197,8 @@ public class CudaFractalRenderer implements FractalRenderer {
     public void renderQuality(RenderingModel model) {
         if(state != FractalRendererState.readyToRender) throw new IllegalStateException("Renderer has to be initialized first");
 
+        phaseTimes.clear();
+        work.set(0, 0, 0, model.getMaxSuperSampling());
         setModuleConstants(model);
 
         updateFloatPrecision(model);
@@ -197,7 +209,7 @@ public class CudaFractalRenderer implements FractalRenderer {
         kernelMain.setOutput(memory.getPrimary2DBuffer(), memory.getPrimary2DBufferPitch());
         kernelCompose.setParamsFromModel(model);
 
-        launchRenderingKernel(false, kernelMain, model);
+        launchRenderingKernel(false, kernelMain, model, RenderingPhase.sampling);
         launchDrawingKernel(false, kernelCompose, model);
 
         lastRendering = model.copy();
@@ -205,6 +217,57 @@ public class CudaFractalRenderer implements FractalRenderer {
         model.setSampleReuseCacheDirty(false);
     }
 
+    @Override
+    public void recompose(RenderingModel model) {
+        if(state != FractalRendererState.readyToRender) throw new IllegalStateException("Renderer has to be initialized first");
+
+        if (memory.isPrimary2DBufferDirty() || lastRendering == null) {
+            renderQuality(model);
+            return;
+        }
+
+        phaseTimes.clear();
+        work.set(0, 0, 0, model.getMaxSuperSampling());
+        setModuleConstants(model);
+        kernelCompose.setParamsFromModel(model);
+        launchDrawingKernel(false, kernelCompose, model);
+
+        lastRendering.setVisualiseSampleCount(model.isVisualiseSampleCount()); //the constant has been written
+    }
+
+    /**
+     * The kernels write to the output texture mapped to CUDA, which requires the OpenGL context of the caller. Therefore, rendering is synchronous.
+     */
+    @Override
+    public boolean isAsynchronous() {
+        return false;
+    }
+
+    @Override
+    public int showFinishedFrame(RenderingModel model) {
+        return -1;
+    }
+
+    @Override
+    public boolean isRenderingInProgress() {
+        return false;
+    }
+
+    @Override
+    public void setOnFrameFinished(Runnable callback) {
+        /* nothing, the frames are finished synchronously */
+    }
+
+    @Override
+    public FramePhaseTimes getLastFramePhaseTimes() {
+        return phaseTimes;
+    }
+
+    @Override
+    public FrameWork getLastFrameWork() {
+        return work;
+    }
+
     private <T extends RenderingKernel> T getFloatOrDoubleKernel(FloatPrecision precision, T kernelFloat, T kernelDouble) {
         T k;
         switch (precision) {
@@ -214,6 +277,7 @@ public class CudaFractalRenderer implements FractalRenderer {
             case singlePrecision:
                 k = kernelFloat;
                 break;
+            case doubleDoublePrecision: //not supported by the CUDA modules
             case tooBig:
                 k = kernelDouble;
                 SimpleLogger.get().logRenderingInfo("CudaFractalRenderer: tooBig precision with render()");
@@ -232,7 +296,11 @@ public class CudaFractalRenderer implements FractalRenderer {
         }
     }
 
-    private void launchRenderingKernel(boolean async, RenderingKernel kernel, PublicErrorLogger logger) {
+    /**
+     * @param phase phase to add the duration of the kernel to (measured only if not async)
+     */
+    private void launchRenderingKernel(boolean async, RenderingKernel kernel, PublicErrorLogger logger, RenderingPhase phase) {
+        long start = System.nanoTime();
         int width = kernel.getWidth();
         int height = kernel.getHeight();
 
@@ -259,6 +327,7 @@ public class CudaFractalRenderer implements FractalRenderer {
             cuCtxSynchronize();
             if (!async)
                 cuCtxSynchronize();
+            phaseTimes.add(phase, System.nanoTime() - start);
         } catch (CudaException e) {
             logger.logError("Error just after launching a kernel:" + e.getMessage());
             if (JavaHelpers.isDebugMode()) {
@@ -273,7 +342,7 @@ public class CudaFractalRenderer implements FractalRenderer {
      * @param kernel
      */
     private void launchDrawingKernel(boolean async, KernelCompose kernel, PublicErrorLogger logger) {
-        long start = System.currentTimeMillis();
+        long start = System.nanoTime();
 
         try {
             JCuda.cudaGraphicsMapResources(1, new cudaGraphicsResource[]{outputTextureResource}, defaultStream);
@@ -359,8 +428,7 @@ public class CudaFractalRenderer implements FractalRenderer {
             }
         }
 
-        long end = System.currentTimeMillis();
-        //System.out.println("Kernel " + kernel.getMainFunctionName() + " launched and finished in " + (end - start) + "ms");
+        phaseTimes.add(RenderingPhase.compose, System.nanoTime() - start);
     }
 
     /**
@@ -7,8 +7,10 @@ import javafx.collections.FXCollections;
 import javafx.event.ActionEvent;
 import javafx.fxml.FXML;
 import javafx.fxml.Initializable;
+import javafx.scene.Node;
 import javafx.scene.control.*;
 import javafx.scene.input.MouseEvent;
+import javafx.stage.FileChooser;
 
 import javax.swing.*;
 import java.io.File;
@@ -65,6 +67,8 @@ public class PresenterFX implements Initializable, GUIPresenter {
     private CheckBox useSampleReuse;
     @FXML
     private Label precision;
+    @FXML
+    private CheckBox paletteCycling;
 
     private RenderingController renderingController;
 
@@ -101,6 +105,9 @@ public class PresenterFX implements Initializable, GUIPresenter {
         useSampleReuse.selectedProperty().addListener((__, ___, value) -> SwingUtilities.invokeLater(
                 () -> renderingController.setUseSampleReuse(value))
         );
+        paletteCycling.selectedProperty().addListener((__, ___, value) -> SwingUtilities.invokeLater(
+                () -> renderingController.setPaletteCycling(value))
+        );
 
         fractalCustomParamsOKBtn.defaultButtonProperty().bind(fractalCustomParams.focusedProperty());
 
@@ -175,6 +182,16 @@ public class PresenterFX implements Initializable, GUIPresenter {
                 "fractal_" + time + ".png", "png"));
     }
 
+    @FXML
+    private void loadPaletteClicked(ActionEvent actionEvent) {
+        FileChooser chooser = new FileChooser();
+        chooser.setTitle("Load color palette");
+        chooser.getExtensionFilters().add(new FileChooser.ExtensionFilter("Images", "*.png", "*.bmp", "*.gif", "*.jpg"));
+        File file = chooser.showOpenDialog(((Node) actionEvent.getSource()).getScene().getWindow());
+        if (file != null)
+            SwingUtilities.invokeLater(() -> renderingController.loadPaletteRequested(file.getPath()));
+    }
+
     @FXML
     private void debugButton1Clicked(ActionEvent actionEvent) {
         SwingUtilities.invokeLater(renderingController::debugFractal);
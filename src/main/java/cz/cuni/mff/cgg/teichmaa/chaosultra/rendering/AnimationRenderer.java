@@ -0,0 +1,222 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuExponentialMap;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRendererProvider;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuImageRenderer;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.WorkCounters;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.DoubleDouble;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.ImageHelpers;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.JavaHelpers;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.Y4mWriter;
+
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Command line entry point that renders a zoom animation on the CPU, through a sequence of keyframes.
+ * <br>
+ * Usage: {@code AnimationRenderer --keyframes keyframes.txt --output frames/%05d.png [--segmentFrames n] [--fps n] [--minReusedWeight w] [--reuse true|false] [--exponentialMap true|false]}
+ * and the parameters of {@link HeadlessRenderer} except {@code --output}, {@code --center}, {@code --zoom}, {@code --iterations} and {@code --stripHeight}.
+ * <br>
+ * Each line of the keyframes file is {@code centerX centerY zoom maxIterations}; empty lines and lines starting with {@code #} are skipped.
+ * There are {@code segmentFrames} frames from a keyframe to the next one. The zoom is interpolated exponentially, i.e. by a constant factor per frame,
+ * and the center so that it moves by a constant fraction of the view. The maximum number of iterations of a keyframe holds until the next keyframe.
+ * <br>
+ * Each frame is warped from the previous one by sample reuse (the same mapping as {@code renderFast} of the GUI uses),
+ * and only the pixels whose reused samples have been spread too thin by zooming in (see {@link CpuImageRenderer#setMinReusedWeight(float)}) or that are new in the view are sampled.
+ * A frame whose maximum number of iterations changes is rendered from scratch.
+ * <br>
+ * With {@code --exponentialMap true}, the frames are resampled from an exponential map (see {@link CpuExponentialMap}) instead,
+ * which samples each ring around the center only once for the whole zoom. All the keyframes must have the same center then,
+ * and the map is computed with the largest maxIterations of the keyframes.
+ * <br>
+ * If the output contains a {@code %} (e.g. {@code frames/%05d.png}), the frames are saved as images, numbered by {@link String#format}.
+ * Otherwise, they are written as a y4m video stream to the output file, or to the standard output if the output is {@code -}, e.g. to pipe them to ffmpeg.
+ */
+public class AnimationRenderer {
+
+    private static final String DEFAULT_COLOR_PALETTE_LOCATION = "palette.png";
+    private static final String COLOR_PALETTE_PATH_PROPERTY_NAME = "colorPalette";
+    private static final String STANDARD_OUTPUT = "-";
+
+    private static class Keyframe {
+        final DoubleDouble centerX;
+        final DoubleDouble centerY;
+        final double zoom;
+        final int maxIterations;
+
+        Keyframe(DoubleDouble centerX, DoubleDouble centerY, double zoom, int maxIterations) {
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.zoom = zoom;
+            this.maxIterations = maxIterations;
+        }
+    }
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        try {
+            Map<String, String> params = HeadlessRenderer.parseArgs(args);
+            if (!params.containsKey("output")) {
+                throw new IllegalArgumentException("Missing --output parameter.");
+            }
+            if (!params.containsKey("keyframes")) {
+                throw new IllegalArgumentException("Missing --keyframes parameter.");
+            }
+            render(params);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            if (JavaHelpers.isDebugMode()) {
+                e.printStackTrace();
+            }
+            System.exit(1);
+        }
+    }
+
+    private static List<Keyframe> loadKeyframes(String path) throws IOException {
+        List<Keyframe> result = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(path), StandardCharsets.UTF_8)) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#"))
+                continue;
+            String[] values = line.split("\\s+");
+            if (values.length != 4)
+                throw new IllegalArgumentException("Keyframe must be in format centerX centerY zoom maxIterations but is " + line);
+            double zoom = Double.parseDouble(values[2]);
+            int maxIterations = Integer.parseInt(values[3]);
+            if (!(zoom > 0) || maxIterations < 1)
+                throw new IllegalArgumentException("Keyframe zoom and maxIterations must be positive: " + line);
+            result.add(new Keyframe(DoubleDouble.parse(values[0]), DoubleDouble.parse(values[1]), zoom, maxIterations));
+        }
+        if (result.size() < 2)
+            throw new IllegalArgumentException("At least two keyframes are needed, but " + path + " has " + result.size() + ".");
+        return result;
+    }
+
+    private static void render(Map<String, String> params) throws IOException {
+        int width = Integer.parseInt(params.getOrDefault("width", "1920"));
+        int height = Integer.parseInt(params.getOrDefault("height", "1080"));
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Image size must be positive, but is " + width + "x" + height + ".");
+        List<Keyframe> keyframes = loadKeyframes(params.get("keyframes"));
+        int segmentFrames = Integer.parseInt(params.getOrDefault("segmentFrames", "60"));
+        if (segmentFrames < 1)
+            throw new IllegalArgumentException("Frames per segment must be positive, but is " + segmentFrames + ".");
+        boolean reuse = Boolean.parseBoolean(params.getOrDefault("reuse", "true"));
+
+        CpuImageRenderer renderer = new CpuImageRenderer(
+                new CpuFractalRendererProvider().getModule(params.getOrDefault("fractal", "mandelbrot"))
+        );
+        renderer.setMinReusedWeight(Float.parseFloat(params.getOrDefault("minReusedWeight", "1")));
+        Model model = HeadlessRenderer.createModel(renderer, width, height, params);
+        model.setUseSampleReuse(reuse);
+        model.setZooming(false);
+
+        String palettePath = params.getOrDefault("palette", System.getProperty(COLOR_PALETTE_PATH_PROPERTY_NAME, DEFAULT_COLOR_PALETTE_LOCATION));
+        int[] palette = ImageHelpers.loadColorPaletteOrDefault(palettePath);
+        renderer.setPalette(palette);
+        renderer.setSize(width, height);
+        CpuExponentialMap exponentialMap = null;
+        int[] image = null;
+        if (Boolean.parseBoolean(params.getOrDefault("exponentialMap", "false"))) {
+            exponentialMap = createExponentialMap(renderer, model, keyframes);
+            image = new int[width * height];
+        }
+
+        String output = params.get("output");
+        boolean numberedImages = output.contains("%");
+        //the progress must not get into the video stream
+        PrintStream log = output.equals(STANDARD_OUTPUT) ? System.err : System.out;
+        Y4mWriter video = null;
+        if (!numberedImages) {
+            int fps = Integer.parseInt(params.getOrDefault("fps", "30"));
+            video = new Y4mWriter(output.equals(STANDARD_OUTPUT) ? System.out : new FileOutputStream(output), width, height, fps);
+        }
+        String formatName = "png";
+        if (numberedImages && output.lastIndexOf('.') > output.lastIndexOf('%'))
+            formatName = output.substring(output.lastIndexOf('.') + 1);
+
+        int frameCount = (keyframes.size() - 1) * segmentFrames + 1;
+        long start = System.currentTimeMillis();
+        try {
+            for (int frame = 0; frame < frameCount; frame++) {
+                int k = Math.min(frame / segmentFrames, keyframes.size() - 2);
+                setFrame(model, keyframes.get(k), keyframes.get(k + 1), (frame - k * segmentFrames) / (double) segmentFrames);
+
+                long frameStart = System.currentTimeMillis();
+                if (exponentialMap != null) {
+                    exponentialMap.render(model.getPlaneSegment(), width, height, palette, image);
+                } else {
+                    if (frame == 0 || !reuse)
+                        renderer.renderQuality(model);
+                    else
+                        renderer.renderFast(model);
+                    image = renderer.getImage();
+                }
+                long frameTime = System.currentTimeMillis() - frameStart;
+
+                if (numberedImages)
+                    ImageHelpers.saveImageToFile(image, width, height, String.format(output, frame), formatName);
+                else
+                    video.writeFrame(image);
+
+                if (exponentialMap != null) {
+                    log.println("Frame " + (frame + 1) + "/" + frameCount + " rendered in " + frameTime + " ms, "
+                            + exponentialMap.getSamples() + " samples in total, " + exponentialMap.getRowCount() + " rows held");
+                } else {
+                    WorkCounters work = renderer.getWorkCounters();
+                    log.println("Frame " + (frame + 1) + "/" + frameCount + " rendered in " + frameTime + " ms, "
+                            + work.getReusedPixels() + " pixels reused, " + work.getSampledPixels() + " pixels sampled, " + work.getSamples() + " samples");
+                }
+            }
+        } finally {
+            if (video != null)
+                video.close();
+        }
+        long renderTime = System.currentTimeMillis() - start;
+        log.println("Rendered " + frameCount + " frames of " + renderer.getFractalName() + " in " + renderTime + " ms, saved to " + output);
+    }
+
+    private static CpuExponentialMap createExponentialMap(CpuImageRenderer renderer, Model model, List<Keyframe> keyframes) {
+        Keyframe first = keyframes.get(0);
+        int maxIterations = 0;
+        for (Keyframe keyframe : keyframes) {
+            if (!keyframe.centerX.equals(first.centerX) || !keyframe.centerY.equals(first.centerY))
+                throw new IllegalArgumentException("All the keyframes of an exponential map must have the same center.");
+            maxIterations = Math.max(maxIterations, keyframe.maxIterations);
+        }
+        int width = model.getCanvasWidth();
+        int height = model.getCanvasHeight();
+        double referenceRadius = first.zoom / 2 * Math.hypot(width, height) / height;
+        return new CpuExponentialMap(renderer.getModule(), first.centerX, first.centerY, maxIterations,
+                referenceRadius, CpuExponentialMap.getAnglesForFrame(width, height), model.getMaxSuperSampling());
+    }
+
+    /**
+     * Sets the model to the frame at {@code t} between two keyframes.
+     *
+     * @param t from 0 (the keyframe {@code from}) to 1 (the keyframe {@code to})
+     */
+    private static void setFrame(Model model, Keyframe from, Keyframe to, double t) {
+        double zoom = from.zoom * Math.pow(to.zoom / from.zoom, t);
+        //the center moves in proportion to the zoom, so that it moves by a constant fraction of the view per frame
+        double progress = from.zoom == to.zoom ? t : (from.zoom - zoom) / (from.zoom - to.zoom);
+        DoubleDouble centerX = from.centerX.add(to.centerX.subtract(from.centerX).multiply(progress));
+        DoubleDouble centerY = from.centerY.add(to.centerY.subtract(from.centerY).multiply(progress));
+        model.setPlaneSegmentFromCenter(centerX, centerY, zoom);
+
+        int maxIterations = t < 1 ? from.maxIterations : to.maxIterations;
+        if (maxIterations != model.getMaxIterations()) {
+            //the samples of the previous frame are not valid for the new number of iterations
+            model.setMaxIterations(maxIterations);
+            model.setSampleReuseCacheDirty(true);
+        }
+    }
+}
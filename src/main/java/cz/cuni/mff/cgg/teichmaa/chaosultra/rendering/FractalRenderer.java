@@ -54,11 +54,60 @@ public interface FractalRenderer extends Closeable {
      * Should provide high quality images with little artifacts, at the cost of taking longer time to compute.
      * <br />
      * The implementation is expected be scalable; in the sense that the higher the values of {@code maxIterations} and {@code maxSuperSampling}, the higher visual quality.
+     * <br />
+     * If the view has not changed since the last {@code renderQuality} and only {@code maxSuperSampling} has grown (progressive rendering), the implementation may add samples to the last rendering instead of sampling it from scratch.
      * @throws FractalRendererException upon rendering error
      * @param model model with data to render
      */
     void renderQuality(RenderingModel model);
 
+    /**
+     * Transforms the last sampled fractal to colors again, without sampling it, e.g. after the color palette or {@code visualiseSampleCount} has changed.
+     * <br />
+     * If there is no sampled fractal to reuse, falls back to {@code renderQuality}.
+     * @throws FractalRendererException upon rendering error
+     * @param model model with data to render
+     */
+    void recompose(RenderingModel model);
+
+    /**
+     * @return whether {@code renderFast}, {@code renderQuality} and {@code recompose} only request the frame, which is rendered later on another thread.
+     * Finished frames are then shown by {@code showFinishedFrame}.
+     */
+    boolean isAsynchronous();
+
+    /**
+     * Asynchronous renderers only: uploads the newest finished frame to the output texture and updates the model by the values determined while rendering it (the floating point precision).
+     * Frames finished before the newest one are dropped.
+     * <br />
+     * May be called only when a corresponding OpenGL context is active.
+     * @throws FractalRendererException upon error during rendering of the frame
+     * @param model model to update
+     * @return time in ms it took to render the last finished frame that sampled the fractal (i.e. not of {@code recompose}), or -1 if no such frame has been finished since the last call
+     */
+    int showFinishedFrame(RenderingModel model);
+
+    /**
+     * @return whether a requested frame has not been finished yet. Always false for synchronous renderers.
+     */
+    boolean isRenderingInProgress();
+
+    /**
+     * @param callback to be called, on an arbitrary thread, whenever an asynchronous renderer finishes a frame
+     */
+    void setOnFrameFinished(Runnable callback);
+
+    /**
+     * @return durations of the rendering phases of the last frame rendered by a synchronous renderer, resp. shown by {@code showFinishedFrame} of an asynchronous one.
+     * The object may be reused by the next frames.
+     */
+    FramePhaseTimes getLastFramePhaseTimes();
+
+    /**
+     * @return work done to render the same frame as {@code getLastFramePhaseTimes}. The object may be reused by the next frames.
+     */
+    FrameWork getLastFrameWork();
+
     /**
      * Closes the object, calling {@code freeRenderingResources} beside others.
      */
@@ -60,6 +60,46 @@ public class FractalRendererNullObjectVerbose implements FractalRenderer {
         printMethodName();
     }
 
+    @Override
+    public void recompose(RenderingModel model) {
+        printMethodName();
+    }
+
+    @Override
+    public boolean isAsynchronous() {
+        printMethodName();
+        return false;
+    }
+
+    @Override
+    public int showFinishedFrame(RenderingModel model) {
+        printMethodName();
+        return -1;
+    }
+
+    @Override
+    public boolean isRenderingInProgress() {
+        printMethodName();
+        return false;
+    }
+
+    @Override
+    public void setOnFrameFinished(Runnable callback) {
+        printMethodName();
+    }
+
+    @Override
+    public FramePhaseTimes getLastFramePhaseTimes() {
+        printMethodName();
+        return new FramePhaseTimes();
+    }
+
+    @Override
+    public FrameWork getLastFrameWork() {
+        printMethodName();
+        return new FrameWork();
+    }
+
     @Override
     public void close() {
         printMethodName();
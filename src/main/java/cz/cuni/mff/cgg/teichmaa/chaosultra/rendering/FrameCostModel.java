@@ -0,0 +1,163 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering;
+
+/**
+ * Predicts the maxSuperSampling that renders a frame in a given time, from the work and the phase times of the previous frames.
+ * <br>
+ * The frame time is modelled as {@code overhead + samples * (nanosPerSample + nanosPerIteration * iterationsPerSample)}, where
+ * {@code samples = sampledPixels + extraSamplesPerSuperSampling * max(0, maxSuperSampling - 1)}: every sampled pixel takes one sample,
+ * and the adaptive super-sampling takes only some of the other allowed ones.
+ * The iterations are those actually run, so the samples decided early by the interior checks count only the few iterations before the decision.
+ * <br>
+ * The costs of a sample and of an iteration depend on the hardware only. They are fitted together by recursive least squares
+ * that slowly forgets the older frames, because the frames differ in the ratio of iterations to samples.
+ * The other estimates (how deep the view is, how many pixels are reused, how many samples the adaptive super-sampling spares) depend on the view,
+ * so they are exponentially weighted moving averages that follow the last frames closely.
+ * That way, crossing from the cheap exterior to the expensive boundary shows up as more iterations per sample, rather than as a frame that is too slow,
+ * which the linear scaling of maxSuperSampling answered by a frame that was too fast, and so on.
+ * <br>
+ * Where the adaptive super-sampling stops early, more allowed samples cost almost nothing, but they are all taken as soon as a boundary enters the view.
+ * Therefore maxSuperSampling is limited so that taking all of them would exceed the desired time at most {@code WORST_CASE_BUDGETS} times.
+ * <br>
+ * If the renderer does not count its work (the CUDA renderer), only the time per unit of maxSuperSampling is modelled.
+ * In any case, maxSuperSampling grows by at most {@code MAX_GROWTH} times per frame, but it falls as fast as the prediction says (down to 1, resp. {@code MIN_FOVEATED_SUPER_SAMPLING}),
+ * so that a slow frame is followed by a fast one.
+ */
+class FrameCostModel {
+
+    /**
+     * weight of the newest frame in the estimates that depend on the view
+     */
+    private static final double VIEW_SMOOTHING = 0.6;
+    /**
+     * weight of the older frames in the fit of the hardware costs, per frame
+     */
+    private static final double FORGETTING = 0.97;
+    /**
+     * maxSuperSampling grows by at most this factor per frame; it may fall by any factor
+     */
+    private static final float MAX_GROWTH = 2;
+    /**
+     * lowest maxSuperSampling predicted with the foveated rendering, where only the pixels near the focus are sampled (e.g. if the budget does not even cover the overhead)
+     */
+    private static final float MIN_FOVEATED_SUPER_SAMPLING = 0.1f;
+    private static final double WORST_CASE_BUDGETS = 3;
+    /*
+     * units of the fitted costs, for the fit to be well conditioned
+     */
+    private static final double SAMPLES_UNIT = 1e3;
+    private static final double ITERATIONS_UNIT = 1e6;
+
+    private double overheadNanos = Double.NaN;
+    private double iterationsPerSample = Double.NaN;
+    private double sampledPixels = Double.NaN;
+    private double extraSamplesPerSuperSampling = Double.NaN;
+    /**
+     * nanos per SAMPLES_UNIT samples and nanos per ITERATIONS_UNIT iterations
+     */
+    private final double[] costs = new double[2];
+    /**
+     * covariance of the fit of {@code costs}, symmetric
+     */
+    private final double[][] covariance = {{1e12, 0}, {0, 1e12}};
+    private boolean costsFitted = false;
+    /**
+     * used when the work is not known
+     */
+    private double nanosPerSuperSampling = Double.NaN;
+    /**
+     * whether the last frame's work has been known
+     */
+    private boolean workKnown = false;
+
+    /**
+     * Adds a finished frame to the estimates.
+     */
+    void update(FramePhaseTimes times, FrameWork work) {
+        long frameNanos = times.getFrameNanos();
+        float superSampling = work.getMaxSuperSampling();
+        if (frameNanos <= 0 || superSampling <= 0)
+            return;
+        long samplingNanos = Math.min(frameNanos, times.get(RenderingPhase.sampling) + times.get(RenderingPhase.reuse));
+        overheadNanos = average(overheadNanos, frameNanos - samplingNanos);
+        nanosPerSuperSampling = average(nanosPerSuperSampling, samplingNanos / (double) superSampling);
+
+        workKnown = work.getSamples() > 0 && work.getSampledPixels() > 0;
+        if (workKnown) {
+            fitCosts(work.getSamples() / SAMPLES_UNIT, work.getIterations() / ITERATIONS_UNIT, samplingNanos);
+            iterationsPerSample = average(iterationsPerSample, work.getIterations() / (double) work.getSamples());
+            sampledPixels = average(sampledPixels, work.getSampledPixels());
+            if (superSampling > 1) {
+                double extraSamples = Math.max(0, work.getSamples() - work.getSampledPixels());
+                extraSamplesPerSuperSampling = average(extraSamplesPerSuperSampling, extraSamples / (superSampling - 1));
+            }
+        }
+    }
+
+    private static double average(double average, double value) {
+        if (Double.isNaN(average))
+            return value;
+        return VIEW_SMOOTHING * value + (1 - VIEW_SMOOTHING) * average;
+    }
+
+    /**
+     * One step of recursive least squares with forgetting, fitting {@code nanos = costs[0] * samples + costs[1] * iterations}.
+     */
+    private void fitCosts(double samples, double iterations, double nanos) {
+        double[] x = {samples, iterations};
+        double[] px = {
+                covariance[0][0] * x[0] + covariance[0][1] * x[1],
+                covariance[1][0] * x[0] + covariance[1][1] * x[1]
+        };
+        double denominator = FORGETTING + x[0] * px[0] + x[1] * px[1];
+        double error = nanos - (costs[0] * x[0] + costs[1] * x[1]);
+        for (int i = 0; i < 2; i++) {
+            costs[i] += px[i] / denominator * error;
+        }
+        for (int i = 0; i < 2; i++) {
+            for (int j = 0; j < 2; j++) {
+                covariance[i][j] = (covariance[i][j] - px[i] * px[j] / denominator) / FORGETTING;
+            }
+        }
+        costsFitted = true;
+    }
+
+    /**
+     * @return predicted cost of a sample of the current view, NaN if not known
+     */
+    private double getNanosPerSample() {
+        if (!costsFitted)
+            return Double.NaN;
+        //a fit disturbed by noise may give a negative cost
+        return Math.max(0, costs[0]) / SAMPLES_UNIT + Math.max(0, costs[1]) / ITERATIONS_UNIT * iterationsPerSample;
+    }
+
+    /**
+     * @param ms                   desired frame time
+     * @param lastMaxSuperSampling maxSuperSampling of the last frame
+     * @param foveated             whether the foveated rendering is on. Otherwise, maxSuperSampling lower than 1 does not spare any work, and it is not predicted.
+     * @return predicted maxSuperSampling, NaN if no frame has been added yet
+     */
+    float predictMaxSuperSampling(int ms, float lastMaxSuperSampling, boolean foveated) {
+        double budgetNanos = ms * 1_000_000.0 - overheadNanos;
+        double nanosPerSample = getNanosPerSample();
+        double superSampling;
+        if (workKnown && nanosPerSample > 0) {
+            double baseNanos = nanosPerSample * sampledPixels;
+            if (budgetNanos < baseNanos) {
+                superSampling = budgetNanos / baseNanos;
+            } else {
+                //until the first frame with maxSuperSampling above 1, expect every allowed sample to be taken
+                double extraSamples = Double.isNaN(extraSamplesPerSuperSampling) ? sampledPixels : extraSamplesPerSuperSampling;
+                superSampling = 1 + (budgetNanos - baseNanos) / (nanosPerSample * extraSamples);
+            }
+            superSampling = Math.min(superSampling, WORST_CASE_BUDGETS * budgetNanos / baseNanos);
+        } else {
+            if (!(nanosPerSuperSampling > 0))
+                return Float.NaN;
+            superSampling = budgetNanos / nanosPerSuperSampling;
+        }
+        float result = (float) Math.min(lastMaxSuperSampling * MAX_GROWTH, superSampling);
+        //a budget smaller than the overhead gives a non-positive prediction
+        return Math.max(foveated ? MIN_FOVEATED_SUPER_SAMPLING : 1, result);
+    }
+}
@@ -0,0 +1,44 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering;
+
+import java.util.Arrays;
+
+/**
+ * Durations of the rendering phases of one frame, in nanoseconds. A phase that has not been run has zero duration.
+ * <br>
+ * Not thread-safe: it is handed over together with the frame.
+ */
+public class FramePhaseTimes {
+
+    private final long[] nanos = new long[RenderingPhase.values().length];
+    private long frameNanos;
+
+    public long get(RenderingPhase phase) {
+        return nanos[phase.ordinal()];
+    }
+
+    public void add(RenderingPhase phase, long nanos) {
+        this.nanos[phase.ordinal()] += nanos;
+    }
+
+    public void addAll(FramePhaseTimes other) {
+        for (int i = 0; i < nanos.length; i++) {
+            nanos[i] += other.nanos[i];
+        }
+    }
+
+    /**
+     * @return duration of the whole frame, 0 if not known
+     */
+    public long getFrameNanos() {
+        return frameNanos;
+    }
+
+    public void setFrameNanos(long frameNanos) {
+        this.frameNanos = frameNanos;
+    }
+
+    public void clear() {
+        Arrays.fill(nanos, 0);
+        frameNanos = 0;
+    }
+}
@@ -0,0 +1,156 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.SimpleLogger;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.TimeHistogram;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Histograms of frame times and of the durations of the rendering phases, per rendering mode.
+ * <br>
+ * The statistics are exposed as an MBean named {@code OBJECT_NAME} and printed to the standard output when the program exits,
+ * unless disabled by {@code -DframeTimeStatistics=false}.
+ * <br>
+ * Recording is lock-free and may be called from any thread.
+ */
+public class FrameTimeStatistics implements FrameTimeStatisticsMBean {
+
+    public static final String OBJECT_NAME = "cz.cuni.mff.cgg.teichmaa.chaosultra:type=FrameTimeStatistics";
+    private static final String DUMP_PROPERTY_NAME = "frameTimeStatistics";
+    /**
+     * name of the pseudo-phase of whole frames
+     */
+    private static final String FRAME = "frame";
+    private static final double[] REPORTED_PERCENTILES = {50, 90, 99, 99.9};
+
+    private static final FrameTimeStatistics singleton = new FrameTimeStatistics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(singleton, new ObjectName(OBJECT_NAME));
+        } catch (JMException e) {
+            SimpleLogger.get().error("Frame time statistics could not be registered to JMX: " + e.getMessage());
+        }
+        if (!Boolean.toString(false).equals(System.getProperty(DUMP_PROPERTY_NAME))) {
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                if (singleton.hasAnyFrames())
+                    System.out.print(singleton.getReport());
+            }, "frame time statistics dump"));
+        }
+    }
+
+    public static FrameTimeStatistics get() {
+        return singleton;
+    }
+
+    /**
+     * For every mode, histograms of the phases (indexed by ordinal) followed by the histogram of whole frames. Created in advance, so the map is never modified.
+     */
+    private final Map<RenderingModeFSM.RenderingMode, TimeHistogram[]> histograms = new EnumMap<>(RenderingModeFSM.RenderingMode.class);
+
+    private FrameTimeStatistics() {
+        for (RenderingModeFSM.RenderingMode mode : RenderingModeFSM.RenderingMode.values()) {
+            TimeHistogram[] h = new TimeHistogram[RenderingPhase.values().length + 1];
+            for (int i = 0; i < h.length; i++) {
+                h[i] = new TimeHistogram();
+            }
+            histograms.put(mode, h);
+        }
+    }
+
+    private TimeHistogram getFrameHistogram(RenderingModeFSM.RenderingMode mode) {
+        return histograms.get(mode)[RenderingPhase.values().length];
+    }
+
+    /**
+     * Records a frame and those of its phases that have been run.
+     */
+    void recordFrame(RenderingModeFSM.RenderingMode mode, FramePhaseTimes times) {
+        if (times.getFrameNanos() > 0)
+            getFrameHistogram(mode).record(times.getFrameNanos());
+        for (RenderingPhase phase : RenderingPhase.values()) {
+            if (times.get(phase) > 0)
+                recordPhase(mode, phase, times.get(phase));
+        }
+    }
+
+    void recordPhase(RenderingModeFSM.RenderingMode mode, RenderingPhase phase, long nanos) {
+        histograms.get(mode)[phase.ordinal()].record(nanos);
+    }
+
+    private boolean hasAnyFrames() {
+        for (RenderingModeFSM.RenderingMode mode : RenderingModeFSM.RenderingMode.values()) {
+            for (TimeHistogram h : histograms.get(mode)) {
+                if (h.getCount() > 0)
+                    return true;
+            }
+        }
+        return false;
+    }
+
+    private TimeHistogram getHistogram(String mode, String phase) {
+        TimeHistogram[] h = histograms.get(RenderingModeFSM.RenderingMode.valueOf(mode));
+        return FRAME.equals(phase) ? h[RenderingPhase.values().length] : h[RenderingPhase.valueOf(phase).ordinal()];
+    }
+
+    @Override
+    public String getReport() {
+        StringBuilder sb = new StringBuilder();
+        sb.append(String.format("%-22s %-10s %8s %9s", "mode", "phase", "count", "mean"));
+        for (double p : REPORTED_PERCENTILES) {
+            sb.append(String.format(" %9s", "p" + (p == Math.rint(p) ? String.valueOf((int) p) : String.valueOf(p))));
+        }
+        sb.append(String.format(" %9s   (times in ms)%n", "max"));
+        for (RenderingModeFSM.RenderingMode mode : RenderingModeFSM.RenderingMode.values()) {
+            TimeHistogram[] h = histograms.get(mode);
+            appendRow(sb, mode, FRAME, h[RenderingPhase.values().length]);
+            for (RenderingPhase phase : RenderingPhase.values()) {
+                appendRow(sb, mode, phase.name(), h[phase.ordinal()]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static void appendRow(StringBuilder sb, RenderingModeFSM.RenderingMode mode, String phase, TimeHistogram h) {
+        if (h.getCount() == 0)
+            return;
+        sb.append(String.format("%-22s %-10s %8d %9.2f", mode, phase, h.getCount(), h.getMean()));
+        for (double p : REPORTED_PERCENTILES) {
+            sb.append(String.format(" %9.2f", h.getPercentile(p)));
+        }
+        sb.append(String.format(" %9.2f%n", h.getMax()));
+    }
+
+    @Override
+    public long getCount(String mode, String phase) {
+        return getHistogram(mode, phase).getCount();
+    }
+
+    @Override
+    public double getPercentile(String mode, String phase, double percentile) {
+        return getHistogram(mode, phase).getPercentile(percentile);
+    }
+
+    @Override
+    public double getMean(String mode, String phase) {
+        return getHistogram(mode, phase).getMean();
+    }
+
+    @Override
+    public double getMax(String mode, String phase) {
+        return getHistogram(mode, phase).getMax();
+    }
+
+    @Override
+    public void reset() {
+        for (TimeHistogram[] h : histograms.values()) {
+            for (TimeHistogram histogram : h) {
+                histogram.reset();
+            }
+        }
+    }
+}
@@ -0,0 +1,26 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering;
+
+/**
+ * JMX interface of FrameTimeStatistics. Modes are the names of the rendering modes (e.g. {@code Moving}),
+ * phases the names of RenderingPhase values or {@code frame} for whole frames. Times are in milliseconds.
+ */
+public interface FrameTimeStatisticsMBean {
+
+    /**
+     * @return table of frame and phase time percentiles for all the modes that have been recorded
+     */
+    String getReport();
+
+    long getCount(String mode, String phase);
+
+    /**
+     * @param percentile between 0 and 100
+     */
+    double getPercentile(String mode, String phase, double percentile);
+
+    double getMean(String mode, String phase);
+
+    double getMax(String mode, String phase);
+
+    void reset();
+}
@@ -0,0 +1,43 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering;
+
+/**
+ * Work done by a renderer to render one frame, used to predict the cost of next frames.
+ * <br>
+ * Not thread-safe: it is handed over together with the frame.
+ */
+public class FrameWork {
+
+    private long samples;
+    private long sampledPixels;
+    private long iterations;
+    private float maxSuperSampling;
+
+    /**
+     * @param samples           number of samples taken, 0 if not known (or if no sample has been taken)
+     * @param sampledPixels     number of pixels that have taken at least one sample, 0 if not known
+     * @param iterations        number of iterations run to compute the samples, 0 if not known
+     * @param maxSuperSampling  maxSuperSampling the frame has been rendered with
+     */
+    public void set(long samples, long sampledPixels, long iterations, float maxSuperSampling) {
+        this.samples = samples;
+        this.sampledPixels = sampledPixels;
+        this.iterations = iterations;
+        this.maxSuperSampling = maxSuperSampling;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getSampledPixels() {
+        return sampledPixels;
+    }
+
+    public long getIterations() {
+        return iterations;
+    }
+
+    public float getMaxSuperSampling() {
+        return maxSuperSampling;
+    }
+}
@@ -31,6 +31,20 @@ class GLHelpers {
         glContext.glBindTexture(GL_TEXTURE_2D, 0);
     }
 
+    /**
+     * Replaces the data of the texture, keeping its size. Unlike {@code specifyTextureSizeAndData}, keeps the texture valid for the resources registered with it (e.g. by CUDA).
+     *
+     * @param data at least width * height RGBA values
+     */
+    static void updateTextureData(GL2 glContext, GLTexture texture, Buffer data) {
+        glContext.glBindTexture(texture.getTarget(), texture.getHandle().getValue());
+        {
+            //documentation: https://www.khronos.org/registry/OpenGL-Refpages/gl4/html/glTexSubImage2D.xhtml
+            glContext.glTexSubImage2D(texture.getTarget(), 0, 0, 0, texture.getWidth(), texture.getHeight(), GL_RGBA, GL_UNSIGNED_BYTE, data);
+        }
+        glContext.glBindTexture(GL_TEXTURE_2D, 0);
+    }
+
     /**
      *
      * @param glContext context to draw on
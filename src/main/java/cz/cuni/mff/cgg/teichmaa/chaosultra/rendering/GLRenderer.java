@@ -3,7 +3,9 @@ package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering;
 import com.jogamp.opengl.GL2;
 import com.jogamp.opengl.GLAutoDrawable;
 import com.jogamp.opengl.awt.GLCanvas;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRendererProvider;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.cudarenderer.CudaFractalRendererProvider;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cudarenderer.CudaInitializationException;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.GLParams;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.GLTexture;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.GLTextureHandle;
@@ -26,6 +28,9 @@ class GLRenderer implements GLView {
     private static final String DEFAULT_COLOR_PALETTE_LOCATION = "palette.png";
     private static final String COLOR_PALETTE_PATH_PROPERTY_NAME = "colorPalette";
     public static final String RENDERING_LOGGING_PROPERTY_NAME = "renderingLogging";
+    private static final String RENDERER_PROPERTY_NAME = "renderer";
+    private static final String RENDERER_CUDA = "cuda";
+    private static final String RENDERER_CPU = "cpu";
 
     private GLTexture outputTexture;
     private GLTexture paletteTexture;
@@ -33,6 +38,25 @@ class GLRenderer implements GLView {
     private FractalRendererProvider fractalRendererProvider;
     private final List<Consumer<GL2>> doBeforeDisplay = new ArrayList<>();
     private boolean doNotRenderCudaRequested = false;
+    private boolean recomposeRequested = false;
+    /**
+     * Set by {@code repaint}, i.e. when the view asks for a new frame.
+     */
+    private boolean repaintRequested = false;
+    /**
+     * Set by an asynchronous renderer when it finishes a frame.
+     */
+    private volatile boolean frameFinished = false;
+    /**
+     * rendering mode of the last requested frame, which the frame times are recorded to
+     */
+    private RenderingModeFSM.RenderingMode requestedMode = RenderingModeFSM.RenderingMode.Waiting;
+    private final FrameTimeStatistics statistics = FrameTimeStatistics.get();
+    /**
+     * the palette as loaded, i.e. not shifted
+     */
+    private int[] palette;
+    private int paletteShift = 0;
     private final Model model;
     private final RenderingStateModel stateModel;
     private final RenderingController controller;
@@ -69,21 +93,21 @@ class GLRenderer implements GLView {
             );
 
             String colorPalettePath = System.getProperty(COLOR_PALETTE_PATH_PROPERTY_NAME, DEFAULT_COLOR_PALETTE_LOCATION);
-            Buffer colorPalette = IntBuffer.wrap(ImageHelpers.loadColorPaletteOrDefault(colorPalettePath));
+            palette = ImageHelpers.loadColorPaletteOrDefault(colorPalettePath);
             paletteTexture = GLTexture.of(
                     GLTextureHandle.of(GLHandles[1]),
                     GL_TEXTURE_2D,
-                    colorPalette.limit(),
+                    palette.length,
                     1
             );
-            GLHelpers.specifyTextureSizeAndData(gl, paletteTexture, colorPalette);
+            GLHelpers.specifyTextureSizeAndData(gl, paletteTexture, getShiftedPalette());
 
-            fractalRendererProvider = new CudaFractalRendererProvider();
+            fractalRendererProvider = createFractalRendererProvider();
             model.setAvailableFractals(fractalRendererProvider.getAvailableFractals());
 
             // This call can produce an exception.
             // However, fractalRenderer uses the null-object pattern, so even if not initialized properly to CudaFractalRenderer, we can still call its methods.
-            fractalRenderer = fractalRendererProvider.getDefaultRenderer();
+            setFractalRenderer(fractalRendererProvider.getDefaultRenderer());
             model.setFractalName(fractalRenderer.getFractalName());
 
             controller.showDefaultView();
@@ -96,6 +120,37 @@ class GLRenderer implements GLView {
         }
     }
 
+    private void setFractalRenderer(FractalRenderer renderer) {
+        fractalRenderer = renderer;
+        fractalRenderer.setOnFrameFinished(() -> {
+            frameFinished = true;
+            target.repaint(); //to show the frame
+        });
+    }
+
+    /**
+     * Creates the provider selected by the {@code renderer} property. Falls back to the CPU renderer if CUDA cannot be initialized.
+     */
+    private FractalRendererProvider createFractalRendererProvider() {
+        String renderer = System.getProperty(RENDERER_PROPERTY_NAME, RENDERER_CUDA);
+        if (RENDERER_CPU.equals(renderer)) {
+            return new CpuFractalRendererProvider();
+        }
+        if (!RENDERER_CUDA.equals(renderer)) {
+            throw new IllegalArgumentException("Unknown renderer: " + renderer);
+        }
+        try {
+            return new CudaFractalRendererProvider();
+        } catch (CudaInitializationException | LinkageError e) {
+            model.logError(e.getMessage());
+            model.logError("Falling back to the CPU renderer.");
+            if (JavaHelpers.isDebugMode()) {
+                SimpleLogger.get().error(e.toString());
+            }
+            return new CpuFractalRendererProvider();
+        }
+    }
+
     @Override
     public void dispose(GLAutoDrawable drawable) {
         assert SwingUtilities.isEventDispatchThread();
@@ -127,26 +182,50 @@ class GLRenderer implements GLView {
                 doBeforeDisplay.clear(); //do not repeat the functions if there has been an exception
             }
             long startTime = System.currentTimeMillis();
-
-            if (stateModel.isZooming()) {
-                controller.zoomAt(model.getLastMousePosition(), stateModel.getZoomingDirection());
+            long startNanos = System.nanoTime();
+            boolean asynchronous = fractalRenderer.isAsynchronous();
+            if (asynchronous) {
+                showFinishedFrame();
             }
+            //while moving, the segment changes only when the view asks for it, so a finished frame does not ask for another one
+            boolean onlyShowFrame = asynchronous && frameFinished && !repaintRequested && stateModel.isMoving();
+            frameFinished = false;
+            repaintRequested = false;
 
             if (doNotRenderCudaRequested) {
                 doNotRenderCudaRequested = false; //reset the request state
                 logger.debug("display() called with do not render requested");
+            } else if (onlyShowFrame) {
+                logger.debug("display() called by a finished frame while moving. Only the finished frame shown.");
+            } else if (asynchronous && fractalRenderer.isRenderingInProgress() && !stateModel.isMoving()) {
+                //the newest state of the model will be requested when the frame in progress is finished
+                //(while moving, the frame in progress is stale and the request below cancels it; zooming advances by one step per finished frame, so its frames are never stale)
+                logger.debug("display() called with rendering in progress. Only the finished frame shown.");
             } else if (stateModel.isWaiting()) {
-                /* nothing */
-                logger.debug("display() called with stateModel.isWaiting(). Nothing done.");
+                if (recomposeRequested) {
+                    recomposeRequested = false;
+                    fractalRenderer.recompose(model);
+                    logger.logRenderingInfo("\t\trecompose " + (asynchronous ? "requested" : "finished") + " in \t\t" + (System.currentTimeMillis() - startTime) + " ms");
+                } else {
+                    logger.debug("display() called with stateModel.isWaiting(). Nothing done.");
+                }
             } else {
+                if (stateModel.isZooming()) {
+                    controller.zoomAt(model.getLastMousePosition(), stateModel.getZoomingDirection());
+                }
+                requestedMode = stateModel.getCurrent();
                 boolean renderOK = cudaRender(drawable.getGL().getGL2());
-                if (renderOK) {
+                recomposeRequested = false; //any rendering uses the current colors
+                if (renderOK && !asynchronous) {
                     long endTime = System.currentTimeMillis();
                     lastFrameRenderTime = (int) (endTime - startTime);
-                    //lastFramesRenderTime.get(currentMode.getCurrent()).add((int) (endTime - startTime));
+                    FramePhaseTimes phaseTimes = fractalRenderer.getLastFramePhaseTimes();
+                    phaseTimes.setFrameNanos(System.nanoTime() - startNanos);
+                    statistics.recordFrame(requestedMode, phaseTimes);
+                    getCostModel(requestedMode).update(phaseTimes, fractalRenderer.getLastFrameWork());
                     logger.logRenderingInfo("\t\t\t\tfinished in \t\t" + lastFrameRenderTime + " ms");
                     controller.onRenderingDone();
-                } else {
+                } else if (!renderOK) {
                     logger.debug("rendering finished with not OK. (Probably end of progressive rendering)");
                 }
             }
@@ -161,6 +240,20 @@ class GLRenderer implements GLView {
         }
     }
 
+    /**
+     * Shows the newest frame finished by an asynchronous renderer. If it has sampled the fractal, the rendering is done.
+     */
+    private void showFinishedFrame() {
+        int renderTime = fractalRenderer.showFinishedFrame(model);
+        if (renderTime < 0)
+            return;
+        lastFrameRenderTime = Math.max(1, renderTime);
+        statistics.recordFrame(requestedMode, fractalRenderer.getLastFramePhaseTimes());
+        getCostModel(requestedMode).update(fractalRenderer.getLastFramePhaseTimes(), fractalRenderer.getLastFrameWork());
+        logger.logRenderingInfo("\t\t\t\tfinished in \t\t" + lastFrameRenderTime + " ms");
+        controller.onRenderingDone();
+    }
+
     /**
      * @return true if OK, false if rendering should be canceled for some reason
      */
@@ -193,6 +286,15 @@ class GLRenderer implements GLView {
      */
     private static final int maxFrameRenderTime = 1000;
     private int lastFrameRenderTime = shortestFrameRenderTime;
+    /**
+     * Frames of renderFast reuse most of the samples, unlike those of renderQuality, so their costs are predicted separately.
+     */
+    private final FrameCostModel fastCostModel = new FrameCostModel();
+    private final FrameCostModel qualityCostModel = new FrameCostModel();
+
+    private FrameCostModel getCostModel(RenderingModeFSM.RenderingMode mode) {
+        return mode == RenderingModeFSM.RenderingMode.ProgressiveRendering ? qualityCostModel : fastCostModel;
+    }
 
     /**
      * @return true if OK, false if rendering should be canceled (quality to high)
@@ -237,7 +339,9 @@ class GLRenderer implements GLView {
     }
 
     private void setParamsToBeRenderedIn(int ms) {
-        float newSS = model.getMaxSuperSampling() * ms / (float) lastFrameRenderTime;
+        float newSS = getCostModel(stateModel.getCurrent()).predictMaxSuperSampling(ms, model.getMaxSuperSampling(), model.isUseFoveatedRendering());
+        if (Float.isNaN(newSS)) //nothing to predict from yet
+            newSS = model.getMaxSuperSampling() * ms / (float) lastFrameRenderTime;
 
         newSS = Math.min(newSS, MAX_SUPER_SAMPLING);
         model.setMaxSuperSampling(newSS);
@@ -283,6 +387,7 @@ class GLRenderer implements GLView {
         doBeforeDisplay.add(gl -> {
             int width_t = model.getCanvasWidth();
             int height_t = model.getCanvasHeight();
+            long readbackStart = System.nanoTime();
             int[] data = new int[width_t * height_t];
             Buffer b = IntBuffer.wrap(data);
             gl.glBindTexture(GL_TEXTURE_2D, outputTexture.getHandle().getValue());
@@ -291,13 +396,63 @@ class GLRenderer implements GLView {
                 gl.glGetTexImage(GL_TEXTURE_2D, 0, GL_RGBA, GL_UNSIGNED_BYTE, b);
             }
             gl.glBindTexture(GL_TEXTURE_2D, 0);
+            long encodeStart = System.nanoTime();
             ImageHelpers.saveImageToFile(data, width_t, height_t, fileName, format);
+            statistics.recordPhase(stateModel.getCurrent(), RenderingPhase.readback, encodeStart - readbackStart);
+            statistics.recordPhase(stateModel.getCurrent(), RenderingPhase.encode, System.nanoTime() - encodeStart);
             logger.logRenderingInfo("Image saved to " + fileName);
             doNotRenderCudaRequested = true;
         });
         repaint();
     }
 
+    @Override
+    public void recomposeAsync() {
+        assert SwingUtilities.isEventDispatchThread();
+        recomposeRequested = true;
+        repaint();
+    }
+
+    @Override
+    public void setPaletteAsync(int[] palette) {
+        assert SwingUtilities.isEventDispatchThread();
+        doBeforeDisplay.add(gl -> {
+            boolean sizeChanged = palette.length != this.palette.length;
+            this.palette = palette;
+            if (sizeChanged) {
+                //the texture has to be reallocated, which invalidates the renderer's resources including the sampled fractal
+                if (fractalRenderer.getState() == FractalRendererState.readyToRender)
+                    fractalRenderer.freeRenderingResources();
+                paletteTexture = paletteTexture.withNewSize(palette.length, 1);
+                GLHelpers.specifyTextureSizeAndData(gl, paletteTexture, getShiftedPalette());
+                fractalRenderer.initializeRendering(GLParams.of(outputTexture, paletteTexture));
+                controller.startProgressiveRenderingAsync();
+            } else {
+                GLHelpers.updateTextureData(gl, paletteTexture, getShiftedPalette());
+            }
+        });
+        recomposeAsync();
+    }
+
+    @Override
+    public void setPaletteShiftAsync(int shift) {
+        assert SwingUtilities.isEventDispatchThread();
+        doBeforeDisplay.add(gl -> {
+            paletteShift = shift;
+            GLHelpers.updateTextureData(gl, paletteTexture, getShiftedPalette());
+        });
+        recomposeAsync();
+    }
+
+    private Buffer getShiftedPalette() {
+        int length = palette.length;
+        int[] result = new int[length];
+        int shift = Math.floorMod(paletteShift, length);
+        System.arraycopy(palette, shift, result, 0, length - shift);
+        System.arraycopy(palette, 0, result, length - shift, shift);
+        return IntBuffer.wrap(result);
+    }
+
     @Override
     public void onFractalCustomParamsUpdated() {
         try {
@@ -314,6 +469,7 @@ class GLRenderer implements GLView {
 
     @Override
     public void repaint() {
+        repaintRequested = true;
         target.repaint();
     }
 
@@ -322,7 +478,7 @@ class GLRenderer implements GLView {
         doBeforeDisplay.add(gl -> {
             if (fractalRenderer.getState() == FractalRendererState.readyToRender)
                 fractalRenderer.freeRenderingResources();
-            fractalRenderer = fractalRendererProvider.getRenderer(fractalName, forceReload);
+            setFractalRenderer(fractalRendererProvider.getRenderer(fractalName, forceReload));
             fractalRenderer.supplyDefaultValues(model);
             fractalRenderer.setFractalCustomParams(model.getFractalCustomParams());
             fractalRenderer.initializeRendering(GLParams.of(outputTexture, paletteTexture));
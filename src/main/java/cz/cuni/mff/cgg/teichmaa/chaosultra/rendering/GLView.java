@@ -14,4 +14,19 @@ public interface GLView extends GLEventListener {
     void repaint();
 
     void showDefaultView();
+
+    /**
+     * Transforms the last rendered fractal to colors again, without sampling it. Does nothing if a rendering is in progress, as it will use the current colors anyway.
+     */
+    void recomposeAsync();
+
+    /**
+     * @param palette colors in RGBA (Red is the least significant)
+     */
+    void setPaletteAsync(int[] palette);
+
+    /**
+     * Rotates the color palette, i.e. the color at index {@code i} will be the one at index {@code i + shift} (modulo palette length). Used for palette cycling.
+     */
+    void setPaletteShiftAsync(int shift);
 }
@@ -0,0 +1,177 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering;
+
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuFractalRendererProvider;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuImageRenderer;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.CpuKernel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.OrbitDensityModule;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.DoubleDouble;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.ImageHelpers;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.ImageRowWriter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.JavaHelpers;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Command line entry point that renders a single image on the CPU and writes it to a file.
+ * <br>
+ * Needs neither OpenGL, CUDA, nor a display: the image is written directly from the CPU-rendered buffer.
+ * <br>
+ * Usage: {@code HeadlessRenderer --output image.png [--fractal mandelbrot] [--params "..."] [--center x,y] [--zoom z] [--width w] [--height h] [--iterations n] [--supersampling s] [--palette palette.png] [--stripHeight rows]}
+ * <br>
+ * Parameters that are not specified are taken from the fractal's default values.
+ * <br>
+ * PNG and TIFF (BigTIFF) images are rendered in horizontal strips, each of which is written to the file as soon as it is rendered.
+ * Only one strip is held in memory, so the image size is not limited by the memory (e.g. 100k x 100k pixels). Orbit density fractals are rendered in one strip.
+ * The strip height is rounded down to a multiple of the tile size (at least one tile), and the points of every strip are computed from the top of the whole image,
+ * so that the image is the same as if rendered at once.
+ * Other formats are written by ImageIO, which needs the whole image in memory.
+ */
+public class HeadlessRenderer {
+
+    private static final String DEFAULT_COLOR_PALETTE_LOCATION = "palette.png";
+    private static final String COLOR_PALETTE_PATH_PROPERTY_NAME = "colorPalette";
+    /**
+     * default maximal number of pixels of a strip. Such a strip takes about 0.5 GB of memory.
+     */
+    private static final int STRIP_PIXELS = 1 << 24;
+
+    public static void main(String[] args) {
+        System.setProperty("java.awt.headless", "true");
+        try {
+            Map<String, String> params = parseArgs(args);
+            if (!params.containsKey("output")) {
+                throw new IllegalArgumentException("Missing --output parameter.");
+            }
+            render(params);
+        } catch (Exception e) {
+            System.err.println(e.getMessage());
+            if (JavaHelpers.isDebugMode()) {
+                e.printStackTrace();
+            }
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @param args pairs {@code --key value}
+     * @return map from keys (without the leading dashes) to values
+     */
+    static Map<String, String> parseArgs(String[] args) {
+        Map<String, String> result = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--") || i + 1 >= args.length) {
+                throw new IllegalArgumentException("Invalid argument: " + args[i] + ". Expected --key value pairs.");
+            }
+            result.put(args[i].substring(2), args[++i]);
+        }
+        return result;
+    }
+
+    private static void render(Map<String, String> params) throws IOException {
+        int width = Integer.parseInt(params.getOrDefault("width", "1920"));
+        int height = Integer.parseInt(params.getOrDefault("height", "1080"));
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Image size must be positive, but is " + width + "x" + height + ".");
+
+        CpuImageRenderer renderer = new CpuImageRenderer(
+                new CpuFractalRendererProvider().getModule(params.getOrDefault("fractal", "mandelbrot"))
+        );
+
+        Model model = createModel(renderer, width, height, params);
+
+        String palettePath = params.getOrDefault("palette", System.getProperty(COLOR_PALETTE_PATH_PROPERTY_NAME, DEFAULT_COLOR_PALETTE_LOCATION));
+        renderer.setPalette(ImageHelpers.loadColorPaletteOrDefault(palettePath));
+
+        String output = params.get("output");
+        int extensionStart = output.lastIndexOf('.');
+        String formatName = extensionStart < 0 ? "png" : output.substring(extensionStart + 1);
+
+        long start = System.currentTimeMillis();
+        try (ImageRowWriter writer = ImageHelpers.createImageRowWriter(output, formatName, width, height)) {
+            if (writer != null) {
+                int defaultStripHeight = Math.max(1, STRIP_PIXELS / width);
+                int stripHeight = Integer.parseInt(params.getOrDefault("stripHeight", Integer.toString(defaultStripHeight)));
+                if (stripHeight < 1)
+                    throw new IllegalArgumentException("Strip height must be positive, but is " + stripHeight + ".");
+                //whole tiles, so that the strips are split into the same tiles (and Mariani-Silver rectangles) as the whole image
+                if (stripHeight < height)
+                    stripHeight = Math.max(1, stripHeight / CpuKernel.TILE_SIZE) * CpuKernel.TILE_SIZE;
+                if (renderer.getModule() instanceof OrbitDensityModule)
+                    stripHeight = height; //the density is normalized to the mean density of the view, the strips would not match
+                renderInStrips(renderer, model, writer, Math.min(stripHeight, height));
+            } else {
+                if ((long) width * height > Integer.MAX_VALUE)
+                    throw new IllegalArgumentException("Image of " + width + "x" + height + " pixels can be saved only as png or tiff.");
+                renderer.setSize(width, height);
+                renderer.renderQuality(model);
+                ImageHelpers.saveImageToFile(renderer.getImage(), width, height, output, formatName);
+            }
+        }
+        long renderTime = System.currentTimeMillis() - start;
+        System.out.println("Rendered " + renderer.getFractalName() + " in " + renderTime + " ms, saved to " + output);
+    }
+
+    /**
+     * Renders the model's plane segment strip by strip, from the top, and writes each strip to the writer.
+     */
+    private static void renderInStrips(CpuImageRenderer renderer, Model model, ImageRowWriter writer, int stripHeight) throws IOException {
+        int height = model.getCanvasHeight();
+        for (int top = 0; top < height; top += stripHeight) {
+            int rows = Math.min(stripHeight, height - top);
+            if (rows != renderer.getHeight())
+                renderer.setSize(model.getCanvasWidth(), rows);
+            renderer.setStrip(top, height);
+            renderer.renderQuality(model);
+            writer.writeRows(renderer.getImage(), rows);
+            if (stripHeight < height)
+                System.out.println("Rendered rows " + top + "-" + (top + rows - 1) + " of " + height);
+        }
+    }
+
+    /**
+     * Creates a model with the default values of the fractal, overridden by the values in {@code params}.
+     */
+    static Model createModel(CpuImageRenderer renderer, int width, int height, Map<String, String> params) {
+        Model model = new Model();
+        model.setErrorLoggedCallback(() -> model.getNewlyLoggedErrors().forEach(System.err::println));
+        model.setCanvasWidth(width);
+        model.setCanvasHeight(height);
+        model.resetRenderingValuesToDefault();
+        model.setAutomaticQuality(false);
+        model.setUseFoveatedRendering(false);
+        model.setUseSampleReuse(false);
+        model.setFractalName(renderer.getFractalName());
+        renderer.supplyDefaultValues(model);
+
+        if (params.containsKey("params")) {
+            model.setFractalCustomParams(params.get("params"));
+        }
+        renderer.setFractalCustomParams(model.getFractalCustomParams());
+
+        if (params.containsKey("center") || params.containsKey("zoom")) {
+            DoubleDouble centerX = model.getPlaneSegment().getCenterXDoubleDouble();
+            DoubleDouble centerY = model.getPlaneSegment().getCenterYDoubleDouble();
+            double zoom = model.getPlaneSegment().getZoom();
+            if (params.containsKey("center")) {
+                String[] center = params.get("center").split("[,;]");
+                if (center.length != 2)
+                    throw new IllegalArgumentException("Center must be in format x,y but is " + params.get("center"));
+                centerX = DoubleDouble.parse(center[0]);
+                centerY = DoubleDouble.parse(center[1]);
+            }
+            if (params.containsKey("zoom")) {
+                zoom = Double.parseDouble(params.get("zoom"));
+            }
+            model.setPlaneSegmentFromCenter(centerX, centerY, zoom);
+        }
+        if (params.containsKey("iterations")) {
+            model.setMaxIterations(Integer.parseInt(params.get("iterations")));
+        }
+        if (params.containsKey("supersampling")) {
+            model.setMaxSuperSampling(Float.parseFloat(params.get("supersampling")));
+        }
+        return model;
+    }
+}
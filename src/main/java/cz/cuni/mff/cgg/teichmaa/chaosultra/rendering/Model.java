@@ -4,6 +4,7 @@ import cz.cuni.mff.cgg.teichmaa.chaosultra.gui.GUIModel;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.DefaultFractalModel;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.PlaneSegment;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model.RenderingModel;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.DoubleDouble;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.util.FloatPrecision;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.util.PointInt;
 
@@ -245,12 +246,19 @@ class Model implements RenderingModel, GUIModel, DefaultFractalModel {
 
     @Override
     public void setPlaneSegmentFromCenter(double centerX, double centerY, double zoom) {
+        setPlaneSegmentFromCenter(DoubleDouble.of(centerX), DoubleDouble.of(centerY), zoom);
+    }
+
+    /**
+     * Same as {@code setPlaneSegmentFromCenter(double, double, double)}, but with the center in double-double precision, allowing deeper zooms.
+     */
+    public void setPlaneSegmentFromCenter(DoubleDouble centerX, DoubleDouble centerY, double zoom) {
         double windowRelHeight = 1;
         double windowRelWidth = windowRelHeight / (double) canvasHeight * canvasWidth;
-        double segment_left_bottom_x = centerX - windowRelWidth * zoom / 2;
-        double segment_left_bottom_y = centerY - windowRelHeight * zoom / 2;
-        double segment_right_top_x = centerX + windowRelWidth * zoom / 2;
-        double segment_right_top_y = centerY + windowRelHeight * zoom / 2;
+        DoubleDouble segment_left_bottom_x = centerX.add(-windowRelWidth * zoom / 2);
+        DoubleDouble segment_left_bottom_y = centerY.add(-windowRelHeight * zoom / 2);
+        DoubleDouble segment_right_top_x = centerX.add(windowRelWidth * zoom / 2);
+        DoubleDouble segment_right_top_y = centerY.add(windowRelHeight * zoom / 2);
 
         this.planeSegment.setAll(segment_left_bottom_x, segment_left_bottom_y, segment_right_top_x, segment_right_top_y);
     }
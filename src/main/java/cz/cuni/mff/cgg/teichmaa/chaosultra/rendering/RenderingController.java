@@ -4,6 +4,8 @@ import com.jogamp.opengl.GLEventListener;
 import com.jogamp.opengl.awt.GLCanvas;
 import com.jogamp.opengl.util.Animator;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.gui.GUIPresenter;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.DoubleDouble;
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.ImageHelpers;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.util.PointInt;
 
 import javax.swing.*;
@@ -17,6 +19,10 @@ import static cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.FractalRenderer.MAX_
 public class RenderingController extends MouseAdapter {
 
     public static final double ZOOM_COEFF = 0.977f;
+    /**
+     * time in ms between two steps of palette cycling
+     */
+    private static final int PALETTE_CYCLING_PERIOD = 1000 / 60;
 
     private static RenderingController singleton = null;
 
@@ -39,10 +45,8 @@ public class RenderingController extends MouseAdapter {
         animator.setRunAsFastAsPossible(true);
         animator.stop();
         startProgressiveRenderingLater.setRepeats(false);
-
-//        for(RenderingModeFSM.RenderingMode mode : RenderingModeFSM.RenderingMode.values()){
-//            lastFramesRenderTime.put(mode, new CyclicBuffer(lastFramesRenderTimeBufferLength, shortestFrameRenderTime));
-//        }
+        paletteCycling = new Timer(PALETTE_CYCLING_PERIOD, __ -> glView.setPaletteShiftAsync(++paletteShift));
+        paletteCycling.setCoalesce(true);
 
         model.setErrorLoggedCallback(() -> guiPresenter.onModelUpdated(model.copy()));
     }
@@ -105,6 +109,9 @@ public class RenderingController extends MouseAdapter {
         repaint();
     });
 
+    private int paletteShift = 0;
+    private final Timer paletteCycling;
+
     @Override
     public void mouseReleased(MouseEvent e) {
         assert SwingUtilities.isEventDispatchThread();
@@ -136,15 +143,16 @@ public class RenderingController extends MouseAdapter {
         double relLeft = where.getX() / (double) model.getCanvasWidth();
         double relRght = 1 - relLeft;
 
-        double center_x = model.getPlaneSegment().getLeftBottom().getX() + segment_width * relLeft;
-        double center_y = model.getPlaneSegment().getLeftBottom().getY() + segment_height * relBtm;
+        //computed in double-double, so that we can zoom deeper than double precision allows
+        DoubleDouble center_x = model.getPlaneSegment().getLeftBottomX().add(segment_width * relLeft);
+        DoubleDouble center_y = model.getPlaneSegment().getLeftBottomY().add(segment_height * relBtm);
 
         double zoom_coeff = into ? RenderingController.ZOOM_COEFF : 2f - RenderingController.ZOOM_COEFF;
 
-        double l_b_new_x = center_x - segment_width * relLeft * zoom_coeff;
-        double l_b_new_y = center_y - segment_height * relBtm * zoom_coeff;
-        double r_t_new_x = center_x + segment_width * relRght * zoom_coeff;
-        double r_t_new_y = center_y + segment_height * relTop * zoom_coeff;
+        DoubleDouble l_b_new_x = center_x.add(-segment_width * relLeft * zoom_coeff);
+        DoubleDouble l_b_new_y = center_y.add(-segment_height * relBtm * zoom_coeff);
+        DoubleDouble r_t_new_x = center_x.add(segment_width * relRght * zoom_coeff);
+        DoubleDouble r_t_new_y = center_y.add(segment_height * relTop * zoom_coeff);
 
         model.getPlaneSegment().setAll(l_b_new_x, l_b_new_y, r_t_new_x, r_t_new_y);
     }
@@ -234,9 +242,33 @@ public class RenderingController extends MouseAdapter {
     }
 
     public void setVisualiseSampleCount(boolean value) {
+        assert SwingUtilities.isEventDispatchThread();
         model.setVisualiseSampleCount(value);
-        startProgressiveRenderingAsync();
-        repaint();
+        glView.recomposeAsync(); //only the colors change, the fractal does not have to be sampled again
+    }
+
+    /**
+     * Replaces the color palette by the first row of the given image. The rendered fractal is not sampled again, unless the palette length changes.
+     */
+    public void loadPaletteRequested(String filePath) {
+        assert SwingUtilities.isEventDispatchThread();
+        int[] palette = ImageHelpers.loadColorPaletteFromFile(filePath);
+        if (palette == null || palette.length == 0) {
+            model.logError("Color palette could not be loaded from " + filePath);
+            return;
+        }
+        glView.setPaletteAsync(palette);
+    }
+
+    /**
+     * Starts or stops rotating the color palette by one color at display rate, without sampling the fractal.
+     */
+    public void setPaletteCycling(boolean value) {
+        assert SwingUtilities.isEventDispatchThread();
+        if (value)
+            paletteCycling.start();
+        else
+            paletteCycling.stop();
     }
 
     public void setUseAdaptiveSuperSampling(boolean value) {
@@ -0,0 +1,27 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering;
+
+/**
+ * Phases of the rendering pipeline whose durations are measured, see FramePhaseTimes.
+ */
+public enum RenderingPhase {
+    /**
+     * sampling the fractal from scratch
+     */
+    sampling,
+    /**
+     * sampling the fractal while reusing the previous frame
+     */
+    reuse,
+    /**
+     * transforming the samples to colors
+     */
+    compose,
+    /**
+     * copying pixels between the renderer and OpenGL textures
+     */
+    readback,
+    /**
+     * encoding an image to a file
+     */
+    encode
+}
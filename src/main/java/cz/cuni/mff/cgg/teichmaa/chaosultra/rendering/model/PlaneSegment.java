@@ -1,22 +1,33 @@
 package cz.cuni.mff.cgg.teichmaa.chaosultra.rendering.model;
 
+import cz.cuni.mff.cgg.teichmaa.chaosultra.util.DoubleDouble;
 import cz.cuni.mff.cgg.teichmaa.chaosultra.util.PointDouble;
 
 /**
  * Represents a rectangular segment of the 2D real plane
+ * <br>
+ * The corners are stored in double-double precision: {@code getLeftBottom()} and {@code getRightTop()} return the nearest doubles,
+ * {@code getLeftBottomLow()} and {@code getRightTopLow()} the remainders. The remainders are zero unless the segment has been set in double-double precision.
  */
 public class PlaneSegment {
     private final PointDouble leftBottom;
     private final PointDouble rightTop;
+    private final PointDouble leftBottomLow;
+    private final PointDouble rightTopLow;
 
     public PlaneSegment(PointDouble leftBottom, PointDouble rightTop) {
+        this(leftBottom, rightTop, new PointDouble(0, 0), new PointDouble(0, 0));
+    }
+
+    private PlaneSegment(PointDouble leftBottom, PointDouble rightTop, PointDouble leftBottomLow, PointDouble rightTopLow) {
         this.leftBottom = leftBottom;
         this.rightTop = rightTop;
+        this.leftBottomLow = leftBottomLow;
+        this.rightTopLow = rightTopLow;
     }
 
     public PlaneSegment() {
-        leftBottom = new PointDouble(0,0);
-        rightTop = new PointDouble(0,0);
+        this(new PointDouble(0, 0), new PointDouble(0, 0));
     }
 
     public PointDouble getLeftBottom() {
@@ -27,16 +38,58 @@ public class PlaneSegment {
         return rightTop;
     }
 
+    /**
+     * @return low-order parts of the left bottom corner in double-double precision
+     */
+    public PointDouble getLeftBottomLow() {
+        return leftBottomLow;
+    }
+
+    /**
+     * @return low-order parts of the right top corner in double-double precision
+     */
+    public PointDouble getRightTopLow() {
+        return rightTopLow;
+    }
+
+    public DoubleDouble getLeftBottomX() {
+        return DoubleDouble.of(leftBottom.getX(), leftBottomLow.getX());
+    }
+
+    public DoubleDouble getLeftBottomY() {
+        return DoubleDouble.of(leftBottom.getY(), leftBottomLow.getY());
+    }
+
+    public DoubleDouble getRightTopX() {
+        return DoubleDouble.of(rightTop.getX(), rightTopLow.getX());
+    }
+
+    public DoubleDouble getRightTopY() {
+        return DoubleDouble.of(rightTop.getY(), rightTopLow.getY());
+    }
+
     public void setAll(double leftBottomX, double leftBottomY, double rightTopX, double rightTopY) {
         getLeftBottom().setX(leftBottomX);
         getLeftBottom().setY(leftBottomY);
         getRightTop().setX(rightTopX);
         getRightTop().setY(rightTopY);
+        leftBottomLow.setX(0);
+        leftBottomLow.setY(0);
+        rightTopLow.setX(0);
+        rightTopLow.setY(0);
+    }
+
+    public void setAll(DoubleDouble leftBottomX, DoubleDouble leftBottomY, DoubleDouble rightTopX, DoubleDouble rightTopY) {
+        setAll(leftBottomX.getHi(), leftBottomY.getHi(), rightTopX.getHi(), rightTopY.getHi());
+        leftBottomLow.setX(leftBottomX.getLo());
+        leftBottomLow.setY(leftBottomY.getLo());
+        rightTopLow.setX(rightTopX.getLo());
+        rightTopLow.setY(rightTopY.getLo());
     }
 
 
     public PlaneSegment copy() {
-        return new PlaneSegment(this.leftBottom.copy(), this.rightTop.copy());
+        return new PlaneSegment(this.leftBottom.copy(), this.rightTop.copy(), this.leftBottomLow.copy(), this.rightTopLow.copy());
     }
 
     /**
@@ -44,8 +97,7 @@ public class PlaneSegment {
      * @param dx value to add
      */
     public void increaseXsBy(double dx){
-        getLeftBottom().increaseX(dx);
-        getRightTop().increaseX(dx);
+        setAll(getLeftBottomX().add(dx), getLeftBottomY(), getRightTopX().add(dx), getRightTopY());
     }
 
     /**
@@ -53,24 +105,31 @@ public class PlaneSegment {
      * @param dy value to add
      */
     public void increaseYsBy(double dy) {
-        getLeftBottom().increaseY(dy);
-        getRightTop().increaseY(dy);
+        setAll(getLeftBottomX(), getLeftBottomY().add(dy), getRightTopX(), getRightTopY().add(dy));
     }
 
     public double getSegmentWidth() {
-        return getRightTop().getX() - getLeftBottom().getX();
+        return (getRightTop().getX() - getLeftBottom().getX()) + (getRightTopLow().getX() - getLeftBottomLow().getX());
     }
 
     public double getSegmentHeight() {
-        return getRightTop().getY() - getLeftBottom().getY();
+        return (getRightTop().getY() - getLeftBottom().getY()) + (getRightTopLow().getY() - getLeftBottomLow().getY());
     }
 
     public double getCenterX() {
-        return getLeftBottom().getX() + getSegmentWidth() / 2;
+        return getCenterXDoubleDouble().doubleValue();
     }
 
     public double getCenterY() {
-        return getLeftBottom().getY() + getSegmentHeight() / 2;
+        return getCenterYDoubleDouble().doubleValue();
+    }
+
+    public DoubleDouble getCenterXDoubleDouble() {
+        return getLeftBottomX().add(getSegmentWidth() / 2);
+    }
+
+    public DoubleDouble getCenterYDoubleDouble() {
+        return getLeftBottomY().add(getSegmentHeight() / 2);
     }
 
     public double getZoom(){
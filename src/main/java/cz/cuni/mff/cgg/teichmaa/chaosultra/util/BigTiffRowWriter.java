@@ -0,0 +1,200 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Writes an 8-bit RGB BigTIFF image row by row. Unlike TIFF, BigTIFF has 64-bit offsets, so the file may be larger than 4 GB.
+ * <br>
+ * The image is stored in strips of {@code rowsPerStrip} rows, compressed by deflate with the horizontal differencing predictor.
+ * Only the current strip is held in memory. The strips are written as they are completed, and the image file directory (IFD), which lists them, is written on close.
+ * <br>
+ * Specification: https://www.awaresystems.be/imaging/tiff/bigtiff.html
+ */
+public class BigTiffRowWriter implements ImageRowWriter {
+
+    private static final int BYTES_PER_PIXEL = 3;
+    /**
+     * approximate size of an uncompressed strip
+     */
+    private static final int STRIP_BYTES = 1 << 20;
+
+    private static final short TYPE_SHORT = 3;
+    private static final short TYPE_LONG = 4;
+    private static final short TYPE_LONG8 = 16;
+    private static final int IFD_ENTRY_BYTES = 20;
+
+    private final int width;
+    private final int height;
+    private final int rowsPerStrip;
+    private final FileChannel file;
+    private final Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION);
+    private final byte[] strip;
+    private byte[] compressed;
+    private int rowsInStrip = 0;
+    private int rowsWritten = 0;
+    private final long[] stripOffsets;
+    private final long[] stripByteCounts;
+    private int stripsWritten = 0;
+    private long position;
+
+    /**
+     * Creates the file, or replaces it, and writes the header.
+     */
+    public BigTiffRowWriter(Path path, int width, int height) throws IOException {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Image size must be positive, but is " + width + "x" + height + ".");
+        if ((long) width * BYTES_PER_PIXEL > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Image width is too large: " + width);
+        this.width = width;
+        this.height = height;
+        rowsPerStrip = Math.max(1, Math.min(height, STRIP_BYTES / (width * BYTES_PER_PIXEL)));
+        strip = new byte[rowsPerStrip * width * BYTES_PER_PIXEL];
+        compressed = new byte[strip.length / 2 + 64];
+        int stripCount = (height + rowsPerStrip - 1) / rowsPerStrip;
+        stripOffsets = new long[stripCount];
+        stripByteCounts = new long[stripCount];
+
+        file = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        ByteBuffer header = allocate(16);
+        header.put((byte) 'I').put((byte) 'I'); //little endian
+        header.putShort((short) 43); //BigTIFF
+        header.putShort((short) 8); //bytesize of offsets
+        header.putShort((short) 0);
+        header.putLong(0); //offset of the IFD, written on close
+        write(header);
+    }
+
+    private static ByteBuffer allocate(int bytes) {
+        return ByteBuffer.allocate(bytes).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            position += file.write(buffer);
+        }
+    }
+
+    @Override
+    public void writeRows(int[] rgbs, int rowCount) throws IOException {
+        if (rowsWritten + rowCount > height)
+            throw new IllegalArgumentException("Too many rows: " + (rowsWritten + rowCount) + " exceeds image height " + height);
+        for (int r = 0; r < rowCount; r++) {
+            int source = r * width;
+            int target = rowsInStrip * width * BYTES_PER_PIXEL;
+            //horizontal differencing predictor: each sample is stored as the difference to the same sample of the pixel on the left
+            int previous = 0;
+            for (int x = 0; x < width; x++) {
+                int rgba = rgbs[source + x];
+                strip[target++] = (byte) (rgba - previous);
+                strip[target++] = (byte) ((rgba >> 8) - (previous >> 8));
+                strip[target++] = (byte) ((rgba >> 16) - (previous >> 16));
+                previous = rgba;
+            }
+            rowsInStrip++;
+            rowsWritten++;
+            if (rowsInStrip == rowsPerStrip || rowsWritten == height)
+                writeStrip();
+        }
+    }
+
+    private void writeStrip() throws IOException {
+        deflater.reset();
+        deflater.setInput(strip, 0, rowsInStrip * width * BYTES_PER_PIXEL);
+        deflater.finish();
+        int length = 0;
+        while (!deflater.finished()) {
+            if (length == compressed.length)
+                compressed = Arrays.copyOf(compressed, compressed.length * 2);
+            length += deflater.deflate(compressed, length, compressed.length - length);
+        }
+        stripOffsets[stripsWritten] = position;
+        stripByteCounts[stripsWritten] = length;
+        stripsWritten++;
+        ByteBuffer buffer = ByteBuffer.wrap(compressed, 0, length);
+        while (buffer.hasRemaining()) {
+            position += file.write(buffer);
+        }
+        rowsInStrip = 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            if (rowsWritten != height)
+                throw new IOException("Only " + rowsWritten + " rows of " + height + " have been written.");
+            writeImageFileDirectory();
+        } finally {
+            deflater.end();
+            file.close();
+        }
+    }
+
+    private void writeImageFileDirectory() throws IOException {
+        //the IFD must begin on a word boundary
+        if (position % 2 != 0)
+            write(allocate(1).put((byte) 0));
+
+        final int entryCount = 11;
+        int stripCount = stripsWritten;
+        long ifdOffset = position;
+        long ifdBytes = 8 + (long) entryCount * IFD_ENTRY_BYTES + 8;
+        //arrays of more than one LONG8 do not fit into an entry, so they follow the IFD
+        long stripOffsetsOffset = ifdOffset + ifdBytes;
+        long stripByteCountsOffset = stripOffsetsOffset + 8L * stripCount;
+
+        ByteBuffer ifd = allocate((int) ifdBytes);
+        ifd.putLong(entryCount);
+        //the entries must be sorted by tag
+        putEntry(ifd, 256, TYPE_LONG, 1, width); //ImageWidth
+        putEntry(ifd, 257, TYPE_LONG, 1, height); //ImageLength
+        putEntry(ifd, 258, TYPE_SHORT, 3, 8 | 8L << 16 | 8L << 32); //BitsPerSample: 8,8,8
+        putEntry(ifd, 259, TYPE_SHORT, 1, 8); //Compression: deflate
+        putEntry(ifd, 262, TYPE_SHORT, 1, 2); //PhotometricInterpretation: RGB
+        putEntry(ifd, 273, TYPE_LONG8, stripCount, stripCount == 1 ? stripOffsets[0] : stripOffsetsOffset); //StripOffsets
+        putEntry(ifd, 277, TYPE_SHORT, 1, BYTES_PER_PIXEL); //SamplesPerPixel
+        putEntry(ifd, 278, TYPE_LONG, 1, rowsPerStrip); //RowsPerStrip
+        putEntry(ifd, 279, TYPE_LONG8, stripCount, stripCount == 1 ? stripByteCounts[0] : stripByteCountsOffset); //StripByteCounts
+        putEntry(ifd, 284, TYPE_SHORT, 1, 1); //PlanarConfiguration: chunky
+        putEntry(ifd, 317, TYPE_SHORT, 1, 2); //Predictor: horizontal differencing
+        ifd.putLong(0); //no next IFD
+        write(ifd);
+
+        if (stripCount > 1) {
+            writeLongs(stripOffsets, stripCount);
+            writeLongs(stripByteCounts, stripCount);
+        }
+
+        ByteBuffer offset = allocate(8).putLong(ifdOffset);
+        offset.flip();
+        file.write(offset, 8);
+    }
+
+    /**
+     * @param value the value itself (left-justified, if shorter than 8 bytes) or the offset of the values
+     */
+    private static void putEntry(ByteBuffer ifd, int tag, short type, long count, long value) {
+        ifd.putShort((short) tag);
+        ifd.putShort(type);
+        ifd.putLong(count);
+        ifd.putLong(value);
+    }
+
+    private void writeLongs(long[] values, int count) throws IOException {
+        final int chunk = 1 << 13;
+        for (int from = 0; from < count; from += chunk) {
+            int n = Math.min(chunk, count - from);
+            ByteBuffer buffer = allocate(8 * n);
+            buffer.asLongBuffer().put(values, from, n);
+            buffer.position(8 * n);
+            write(buffer);
+        }
+    }
+}
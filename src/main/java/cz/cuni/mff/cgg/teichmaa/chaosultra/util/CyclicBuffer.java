@@ -20,9 +20,6 @@ public class CyclicBuffer {
     }
 
     public void add(int value){
-        if(value > 2000) {
-            int a = 0;
-        }
         sum = sum - data[index] + value;
         data[index] = value;
         index = (index + 1) % capacity;
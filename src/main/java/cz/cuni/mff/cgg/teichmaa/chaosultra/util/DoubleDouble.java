@@ -0,0 +1,149 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
+
+import java.math.BigDecimal;
+import java.math.MathContext;
+
+/**
+ * Immutable double-double number, i.e. an unevaluated sum of two doubles {@code hi + lo}, where {@code |lo| <= ulp(hi) / 2}. Has about 106 bits of mantissa.
+ * <br>
+ * Uses the error-free transformations TwoSum and TwoProd (with Dekker's splitting, as Math.fma is not available in Java 8).
+ * See Hida, Li, Bailey: Library for Double-Double and Quad-Double Arithmetic.
+ */
+public final class DoubleDouble {
+
+    public static final DoubleDouble ZERO = new DoubleDouble(0, 0);
+
+    /**
+     * 2^27 + 1, used for splitting a double into two non-overlapping halves
+     */
+    private static final double SPLITTER = 134217729.0;
+
+    private final double hi;
+    private final double lo;
+
+    private DoubleDouble(double hi, double lo) {
+        this.hi = hi;
+        this.lo = lo;
+    }
+
+    public static DoubleDouble of(double value) {
+        return new DoubleDouble(value, 0);
+    }
+
+    /**
+     * @return normalized sum of hi and lo
+     */
+    public static DoubleDouble of(double hi, double lo) {
+        double s = hi + lo;
+        return new DoubleDouble(s, lo - (s - hi));
+    }
+
+    public static DoubleDouble valueOf(BigDecimal value) {
+        double hi = value.doubleValue();
+        double lo = value.subtract(new BigDecimal(hi)).doubleValue();
+        return of(hi, lo);
+    }
+
+    /**
+     * @throws NumberFormatException if value is not a valid decimal number
+     */
+    public static DoubleDouble parse(String value) {
+        return valueOf(new BigDecimal(value.trim()));
+    }
+
+    public double getHi() {
+        return hi;
+    }
+
+    public double getLo() {
+        return lo;
+    }
+
+    public double doubleValue() {
+        return hi + lo;
+    }
+
+    public BigDecimal toBigDecimal() {
+        return new BigDecimal(hi).add(new BigDecimal(lo));
+    }
+
+    public DoubleDouble add(DoubleDouble other) {
+        double s = hi + other.hi;
+        double e = twoSumError(hi, other.hi, s) + lo + other.lo;
+        return of(s, e);
+    }
+
+    public DoubleDouble add(double other) {
+        double s = hi + other;
+        double e = twoSumError(hi, other, s) + lo;
+        return of(s, e);
+    }
+
+    public DoubleDouble subtract(DoubleDouble other) {
+        return add(other.negate());
+    }
+
+    public DoubleDouble negate() {
+        return new DoubleDouble(-hi, -lo);
+    }
+
+    public DoubleDouble multiply(double other) {
+        double p = hi * other;
+        double e = twoProdError(hi, other, p) + lo * other;
+        return of(p, e);
+    }
+
+    public DoubleDouble multiply(DoubleDouble other) {
+        double p = hi * other.hi;
+        double e = twoProdError(hi, other.hi, p) + (hi * other.lo + lo * other.hi);
+        return of(p, e);
+    }
+
+    /**
+     * TwoSum: the rounding error of {@code a + b}.
+     *
+     * @param s rounded sum {@code a + b}
+     * @return {@code e} such that {@code a + b = s + e} exactly
+     */
+    public static double twoSumError(double a, double b, double s) {
+        double bb = s - a;
+        return (a - (s - bb)) + (b - bb);
+    }
+
+    /**
+     * TwoProd: the rounding error of {@code a * b}.
+     *
+     * @param p rounded product {@code a * b}
+     * @return {@code e} such that {@code a * b = p + e} exactly
+     */
+    public static double twoProdError(double a, double b, double p) {
+        double t = SPLITTER * a;
+        double aHi = t - (t - a);
+        double aLo = a - aHi;
+        t = SPLITTER * b;
+        double bHi = t - (t - b);
+        double bLo = b - bHi;
+        return ((aHi * bHi - p) + aHi * bLo + aLo * bHi) + aLo * bLo;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (!(o instanceof DoubleDouble)) return false;
+        DoubleDouble that = (DoubleDouble) o;
+        return Double.compare(that.hi, hi) == 0 && Double.compare(that.lo, lo) == 0;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Double.hashCode(hi) + Double.hashCode(lo);
+    }
+
+    /**
+     * @return decimal representation with 32 significant digits
+     */
+    @Override
+    public String toString() {
+        return toBigDecimal().round(new MathContext(32)).toString();
+    }
+}
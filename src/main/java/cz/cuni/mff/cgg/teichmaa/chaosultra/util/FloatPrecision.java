@@ -3,6 +3,10 @@ package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
 public enum FloatPrecision {
     singlePrecision,
     doublePrecision,
+    /**
+     * Beyond double precision, about 106 bits of mantissa. See DoubleDouble.
+     */
+    doubleDoublePrecision,
     tooBig;
 
     public static FloatPrecision defaultValue = singlePrecision;
@@ -0,0 +1,38 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Source of generation tokens: every new piece of work (e.g. a frame) gets a token, which becomes superseded as soon as a token for newer work is issued.
+ * Workers check their token and abandon work that has been superseded.
+ * <br>
+ * Thread-safe.
+ */
+public class GenerationCounter {
+
+    private final AtomicLong current = new AtomicLong();
+
+    /**
+     * Supersedes all the tokens issued so far.
+     *
+     * @return token of the new generation
+     */
+    public Token advance() {
+        return new Token(current.incrementAndGet());
+    }
+
+    public final class Token {
+        private final long generation;
+
+        private Token(long generation) {
+            this.generation = generation;
+        }
+
+        /**
+         * @return whether a newer token has been issued since this one
+         */
+        public boolean isSuperseded() {
+            return current.get() != generation;
+        }
+    }
+}
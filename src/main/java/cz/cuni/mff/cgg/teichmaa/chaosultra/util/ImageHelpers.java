@@ -53,7 +53,7 @@ public class ImageHelpers {
 
     /**
      * @param filePath path of the file to load the palette from
-     * @return null (if IOError) or array of integers containing the first row of the image. In RGBA format (Red is the least significant).
+     * @return null (if IOError or the file is not an image) or array of integers containing the first row of the image. In RGBA format (Red is the least significant).
      */
     public static int[] loadColorPaletteFromFile(String filePath) {
         BufferedImage image = null;
@@ -64,6 +64,10 @@ public class ImageHelpers {
             e.printStackTrace();
             return null;
         }
+        if (image == null) {
+            System.err.println("Palette " + filePath + " is not an image in a supported format");
+            return null;
+        }
 
         int w = image.getWidth();
         int[] result = new int[image.getWidth()];
@@ -115,7 +119,7 @@ public class ImageHelpers {
      * @param input colors in BGRA (little endian), i.e. when read by human: aa rr gg bb
      * @return colors in RGBA (little endian), i.e. when read by human: aa bb gg rr
      */
-    private static int[] fromBGRAtoRGBA(int[] input) {
+    static int[] fromBGRAtoRGBA(int[] input) {
         int[] output = new int[input.length];
         for (int i = 0; i < input.length; i++) {
             int original = input[i];
@@ -135,7 +139,7 @@ public class ImageHelpers {
      * @param b blue
      * @return colors in RGBA (little endian), i.e. when read by human: aa bb gg rr
      */
-    private static int fromRGBtoRGBA(int r, int g, int b) {
+    static int fromRGBtoRGBA(int r, int g, int b) {
         int a = 255;
         //to RGBA
         int r_shift = 0;
@@ -187,11 +191,23 @@ public class ImageHelpers {
      * @param width image width
      * @param height image height
      * @param fileName file name, including extension
-     * @param formatName image format name, e.g. png or jpg
+     * @param formatName image format name, e.g. png or jpg. Png is written by PngRowWriter, which compresses in parallel; other formats by ImageIO.
      */
     public static void saveImageToFile(int[] rgbs, int width, int height, String fileName, String formatName) {
+        try {
+            File f = new File(fileName);
+            if (f.getParentFile() != null)
+                Files.createDirectories(f.getParentFile().toPath());
+            if (formatName.equalsIgnoreCase("png"))
+                PngRowWriter.write(rgbs, width, height, f.toPath());
+            else
+                saveImageUsingImageIO(rgbs, width, height, f, formatName);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
 
-
+    static void saveImageUsingImageIO(int[] rgbs, int width, int height, File file, String formatName) throws IOException {
         DataBuffer rgbData = new DataBufferInt(rgbs, rgbs.length);
 
         WritableRaster raster = Raster.createPackedRaster(rgbData, width, height, width,
@@ -202,18 +218,29 @@ public class ImageHelpers {
 
         BufferedImage img = new BufferedImage(colorModel, raster, false, null);
 
-        try {
-            File f = new File(fileName);
-            if (f.getParentFile() != null)
-                Files.createDirectories(f.getParentFile().toPath());
-            ImageIO.write(img, formatName, f);
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
-
+        ImageIO.write(img, formatName, file);
     }
 
 
+    /**
+     * Creates a writer that writes the image to a file row by row, for formats that support it (png, tif and tiff, the latter as BigTIFF).
+     * If the file (or the path to it) does not exist, it is created.
+     * @param fileName file name, including extension
+     * @param formatName image format name, e.g. png or tiff
+     * @return null if the format is not supported
+     */
+    public static ImageRowWriter createImageRowWriter(String fileName, String formatName, int width, int height) throws IOException {
+        String format = formatName.toLowerCase();
+        if (!format.equals("png") && !format.equals("tif") && !format.equals("tiff"))
+            return null;
+        File f = new File(fileName);
+        if (f.getParentFile() != null)
+            Files.createDirectories(f.getParentFile().toPath());
+        if (format.equals("png"))
+            return new PngRowWriter(f.toPath(), width, height);
+        return new BigTiffRowWriter(f.toPath(), width, height);
+    }
+
     public static void printArray(int[][] a) {
         for (int i = 0; i < a.length; i++) {
             System.out.print(" | ");
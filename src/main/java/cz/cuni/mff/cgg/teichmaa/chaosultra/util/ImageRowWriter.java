@@ -0,0 +1,27 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Writes an image to a file row by row, from the top, holding only a few rows in memory. This allows writing images that would not fit in the memory as a whole.
+ * <br>
+ * All the rows of the image must be written before closing the writer.
+ */
+public interface ImageRowWriter extends Closeable {
+
+    /**
+     * @param rgbs     data in RGBA (little endian) (i.e. Red is the least significant), stored row by row. Alpha is ignored.
+     * @param rowCount how many rows of image width to write from the beginning of rgbs
+     * @throws IllegalArgumentException if the image would get more rows than its height
+     */
+    void writeRows(int[] rgbs, int rowCount) throws IOException;
+
+    /**
+     * Finishes the file.
+     *
+     * @throws IOException also if fewer rows than the image height have been written
+     */
+    @Override
+    void close() throws IOException;
+}
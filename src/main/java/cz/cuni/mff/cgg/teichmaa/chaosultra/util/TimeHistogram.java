@@ -0,0 +1,111 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Histogram of durations with log-linear buckets: every power of two (in microseconds) is split to {@code SUB_BUCKETS} buckets of equal width,
+ * so that percentiles are reported with a relative error of at most {@code 1 / SUB_BUCKETS}, for durations from 1 us to days.
+ * <br>
+ * Recording is lock-free and allocation-free, and may be called concurrently from any number of threads.
+ * Reading while recording gives a result that is consistent up to the values being recorded at the moment.
+ */
+public class TimeHistogram {
+
+    private static final int SUB_BUCKET_BITS = 4;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int MAX_EXPONENT = 40; //2^40 us is about 12 days
+    private static final int BUCKETS = (MAX_EXPONENT - SUB_BUCKET_BITS + 2) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumMicros = new AtomicLong();
+    private final AtomicLong maxMicros = new AtomicLong();
+
+    /**
+     * @param nanos duration in nanoseconds; negative values are recorded as 0
+     */
+    public void record(long nanos) {
+        long micros = Math.max(0, nanos / 1000);
+        counts.incrementAndGet(getBucket(micros));
+        count.incrementAndGet();
+        sumMicros.addAndGet(micros);
+        long max;
+        while (micros > (max = maxMicros.get()) && !maxMicros.compareAndSet(max, micros)) {
+            /* retry */
+        }
+    }
+
+    private static int getBucket(long micros) {
+        if (micros < SUB_BUCKETS)
+            return (int) micros;
+        int exponent = Math.min(MAX_EXPONENT, 63 - Long.numberOfLeadingZeros(micros));
+        int subBucket = (int) (Math.min(micros, (1L << (MAX_EXPONENT + 1)) - 1) >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKETS - 1);
+        return (exponent - SUB_BUCKET_BITS + 1) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @return the middle of the bucket's range, in microseconds
+     */
+    private static double getBucketValue(int bucket) {
+        if (bucket < SUB_BUCKETS)
+            return bucket;
+        int exponent = bucket / SUB_BUCKETS + SUB_BUCKET_BITS - 1;
+        int subBucket = bucket % SUB_BUCKETS;
+        long width = 1L << (exponent - SUB_BUCKET_BITS);
+        return (SUB_BUCKETS + subBucket) * width + (width - 1) / 2.0;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return mean duration in milliseconds, 0 if nothing has been recorded
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0 : sumMicros.get() / (double) n / 1000;
+    }
+
+    /**
+     * @return maximal duration in milliseconds
+     */
+    public double getMax() {
+        return maxMicros.get() / 1000.0;
+    }
+
+    /**
+     * @param percentile between 0 and 100
+     * @return the duration in milliseconds that {@code percentile} percent of the recorded durations do not exceed, 0 if nothing has been recorded
+     */
+    public double getPercentile(double percentile) {
+        if (percentile < 0 || percentile > 100)
+            throw new IllegalArgumentException("percentile must be between 0 and 100: " + percentile);
+        long total = 0;
+        long[] snapshot = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            snapshot[i] = counts.get(i);
+            total += snapshot[i];
+        }
+        if (total == 0)
+            return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile / 100 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += snapshot[i];
+            if (seen >= rank)
+                return Math.min(getBucketValue(i) / 1000, getMax());
+        }
+        return getMax();
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        count.set(0);
+        sumMicros.set(0);
+        maxMicros.set(0);
+    }
+}
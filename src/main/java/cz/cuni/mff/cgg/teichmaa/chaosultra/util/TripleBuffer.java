@@ -0,0 +1,73 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Lock-free hand-off of frames from one producer thread to one consumer thread.
+ * <br>
+ * The producer writes to the back buffer and publishes it by swapping it with the middle buffer.
+ * The consumer takes the newest published frame by swapping the middle buffer with the front one, which it then may read until the next take.
+ * Neither of them ever waits for the other; frames published while the consumer did not take them are overwritten, i.e. dropped.
+ */
+public class TripleBuffer<T> {
+
+    /**
+     * Set in {@code middle} if the middle buffer contains a frame that has not been taken yet.
+     */
+    private static final int FRESH = 4;
+    private static final int INDEX_MASK = 3;
+
+    private final Object[] buffers = new Object[3];
+    /**
+     * index of the middle buffer, possibly with the FRESH flag
+     */
+    private final AtomicInteger middle = new AtomicInteger(1);
+    /**
+     * accessed by the producer only
+     */
+    private int back = 0;
+    /**
+     * accessed by the consumer only
+     */
+    private int front = 2;
+
+    /**
+     * @param factory creates the three buffers
+     */
+    public TripleBuffer(Supplier<T> factory) {
+        for (int i = 0; i < buffers.length; i++) {
+            buffers[i] = factory.get();
+        }
+    }
+
+    /**
+     * Producer only.
+     *
+     * @return buffer to write the next frame to
+     */
+    @SuppressWarnings("unchecked")
+    public T getBack() {
+        return (T) buffers[back];
+    }
+
+    /**
+     * Producer only: makes the back buffer the newest frame and replaces it by a buffer that is not used by the consumer.
+     */
+    public void publish() {
+        back = middle.getAndSet(back | FRESH) & INDEX_MASK;
+    }
+
+    /**
+     * Consumer only.
+     *
+     * @return the newest frame published since the last call, or null if there is none. The frame may be read until the next call.
+     */
+    @SuppressWarnings("unchecked")
+    public T takeNewest() {
+        if ((middle.get() & FRESH) == 0)
+            return null;
+        front = middle.getAndSet(front) & INDEX_MASK;
+        return (T) buffers[front];
+    }
+}
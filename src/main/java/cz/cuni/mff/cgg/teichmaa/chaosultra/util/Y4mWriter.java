@@ -0,0 +1,74 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.util;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Writes frames to an uncompressed YUV4MPEG2 (y4m) video stream, which is understood by e.g. ffmpeg and x264.
+ * <br>
+ * The frames are converted to 8-bit Y'CbCr by BT.601 in the limited range, without chroma subsampling (4:4:4).
+ * <br>
+ * Specification: https://wiki.multimedia.cx/index.php/YUV4MPEG2
+ */
+public class Y4mWriter implements Closeable {
+
+    private final int width;
+    private final int height;
+    private final OutputStream output;
+    private final byte[] plane;
+
+    /**
+     * Writes the stream header.
+     *
+     * @param output the stream to write to, closed on close
+     * @param fps    frame rate, in frames per second
+     */
+    public Y4mWriter(OutputStream output, int width, int height, int fps) throws IOException {
+        if (width < 1 || height < 1)
+            throw new IllegalArgumentException("Frame size must be positive, but is " + width + "x" + height + ".");
+        if (fps < 1)
+            throw new IllegalArgumentException("Frame rate must be positive, but is " + fps + ".");
+        if ((long) width * height > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Frame is too large: " + width + "x" + height);
+        this.width = width;
+        this.height = height;
+        this.output = new BufferedOutputStream(output, 1 << 16);
+        plane = new byte[width * height];
+        String header = "YUV4MPEG2 W" + width + " H" + height + " F" + fps + ":1 Ip A1:1 C444\n";
+        this.output.write(header.getBytes(StandardCharsets.US_ASCII));
+    }
+
+    /**
+     * @param rgbs data in RGBA (little endian) (i.e. Red is the least significant), stored row by row. Alpha is ignored.
+     */
+    public void writeFrame(int[] rgbs) throws IOException {
+        output.write("FRAME\n".getBytes(StandardCharsets.US_ASCII));
+        int pixels = width * height;
+        for (int i = 0; i < pixels; i++) {
+            int rgba = rgbs[i];
+            int r = rgba & 0xff, g = (rgba >> 8) & 0xff, b = (rgba >> 16) & 0xff;
+            plane[i] = (byte) (((66 * r + 129 * g + 25 * b + 128) >> 8) + 16);
+        }
+        output.write(plane);
+        for (int i = 0; i < pixels; i++) {
+            int rgba = rgbs[i];
+            int r = rgba & 0xff, g = (rgba >> 8) & 0xff, b = (rgba >> 16) & 0xff;
+            plane[i] = (byte) (((-38 * r - 74 * g + 112 * b + 128) >> 8) + 128);
+        }
+        output.write(plane);
+        for (int i = 0; i < pixels; i++) {
+            int rgba = rgbs[i];
+            int r = rgba & 0xff, g = (rgba >> 8) & 0xff, b = (rgba >> 16) & 0xff;
+            plane[i] = (byte) (((112 * r - 94 * g - 18 * b + 128) >> 8) + 128);
+        }
+        output.write(plane);
+    }
+
+    @Override
+    public void close() throws IOException {
+        output.close();
+    }
+}
@@ -0,0 +1,42 @@
+package cz.cuni.mff.cgg.teichmaa.chaosultra.cpurenderer.modules;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ModuleNewtonPolynomialTest {
+
+    private static final int GRID_SIZE = 50;
+
+    @Test
+    void quadrupleRootIsMerged() {
+        //(x-1)^4, coefficients from x^0
+        double[] coefficients = {1, -4, 6, -4, 1};
+        ModuleNewtonPolynomial.DistinctRoots roots = ModuleNewtonPolynomial.mergeMultipleRoots(coefficients, ModuleNewtonPolynomial.findRoots(coefficients));
+        assertEquals(1, roots.getCount());
+        assertEquals(4, roots.multiplicities[0]);
+        assertEquals(1, roots.roots[0], 1e-12);
+        assertEquals(0, roots.roots[1], 1e-12);
+    }
+
+    @Test
+    void simpleRootsAreNotMerged() {
+        //x^4 - 1
+        double[] coefficients = {-1, 0, 0, 0, 1};
+        ModuleNewtonPolynomial.DistinctRoots roots = ModuleNewtonPolynomial.mergeMultipleRoots(coefficients, ModuleNewtonPolynomial.findRoots(coefficients));
+        assertEquals(4, roots.getCount());
+    }
+
+    @Test
+    void quadrupleRootAttractsAllPoints() {
+        ModuleNewtonPolynomial module = new ModuleNewtonPolynomial();
+        module.setFractalCustomParameters("{ \"coefficients\" : [1, -4, 6, -4, 1] }");
+        for (int y = 0; y < GRID_SIZE; y++) {
+            for (int x = 0; x < GRID_SIZE; x++) {
+                double re = -2 + 4 * (x + 0.5) / GRID_SIZE;
+                double im = -2 + 4 * (y + 0.5) / GRID_SIZE;
+                assertEquals(1, module.computeFractal(200, re, im), "point " + re + " + " + im + "i");
+            }
+        }
+    }
+}